@@ -0,0 +1,226 @@
+package com.joshdoucet.snapandsave.activities;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.StrictMode;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.joshdoucet.snapandsave.R;
+import com.joshdoucet.snapandsave.data.ImageCodec;
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.ItemWriteQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.Espresso.openActionBarOverflowOrOptionsMenu;
+import static android.support.test.espresso.action.ViewActions.click;
+import static android.support.test.espresso.action.ViewActions.closeSoftKeyboard;
+import static android.support.test.espresso.action.ViewActions.replaceText;
+import static android.support.test.espresso.action.ViewActions.swipeDown;
+import static android.support.test.espresso.action.ViewActions.swipeUp;
+import static android.support.test.espresso.assertion.ViewAssertions.matches;
+import static android.support.test.espresso.matcher.ViewMatchers.hasSibling;
+import static android.support.test.espresso.matcher.ViewMatchers.isDisplayed;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+import static org.hamcrest.CoreMatchers.allOf;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the inventory list, the editor and the CSV export with StrictMode watching the main
+ * thread for disk reads and writes. Violations are logged, not fatal, and read back from the
+ * log afterwards. A violation fails the test if the app's own code is on its stack, reads
+ * the framework does on its own are left out. Adds one item of its own and deletes it again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StrictModeTest {
+    private static final String LOG_TAG = StrictModeTest.class.getSimpleName();
+
+    private static final String APP_PACKAGE = "com.joshdoucet.snapandsave.";
+
+    //Digits sort before letters, so the item is the first row of the list sorted by name
+    private static final String ITEM_NAME = "0 StrictMode test item";
+
+    //Logged when a test starts, violations logged before it belong to earlier runs
+    private static final String START_MARKER = "Watching main thread ";
+
+    @Rule
+    public final ActivityTestRule<InventoryActivity> mInventoryRule =
+            new ActivityTestRule<>(InventoryActivity.class, false, false);
+
+    @Rule
+    public final ActivityTestRule<EditorActivity> mEditorRule =
+            new ActivityTestRule<>(EditorActivity.class, false, false);
+
+    private Context mContext;
+    private Uri mItemUri;
+    private String mMarker;
+    private StrictMode.ThreadPolicy mAppPolicy;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_NAME, ITEM_NAME);
+        values.put(ItemEntry.COLUMN_SUPPLIER, "Test supplier");
+        values.put(ItemEntry.COLUMN_QUANTITY, 10);
+        values.put(ItemEntry.COLUMN_SALE_STATUS, ItemEntry.STATUS_FOR_SALE);
+        values.put(ItemEntry.COLUMN_PRICE_CENTS, 250);
+        values.put(ItemEntry.COLUMN_IMAGE, ImageCodec.load(mContext).encode(
+                Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888)));
+        mItemUri = mContext.getContentResolver().insert(ItemEntry.CONTENT_URI, values);
+        assertNotNull(mItemUri);
+
+        //The app's debug policy crashes on the first write, this one logs every read and write
+        mMarker = String.valueOf(System.nanoTime());
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAppPolicy = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskReads()
+                        .detectDiskWrites()
+                        .penaltyLog()
+                        .build());
+                Log.i(LOG_TAG, START_MARKER + mMarker);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StrictMode.setThreadPolicy(mAppPolicy);
+            }
+        });
+        waitForWriteQueue();
+        mContext.getContentResolver().delete(mItemUri, null, null);
+    }
+
+    @Test
+    public void listAndExportDontTouchDiskOnMainThread() throws Exception {
+        mInventoryRule.launchActivity(null);
+        onView(withId(R.id.inventory_list_view)).perform(swipeUp(), swipeDown());
+
+        //Taps of the "-1" button are coalesced and flushed when the list is left
+        onView(allOf(withId(R.id.minus_button), hasSibling(withText(ITEM_NAME))))
+                .perform(click(), click(), click());
+
+        openActionBarOverflowOrOptionsMenu(mContext);
+        onView(withText(R.string.menu_export)).perform(click());
+        //Espresso waits for the export's AsyncTask before it checks the list again
+        onView(withId(R.id.inventory_list_view)).check(matches(isDisplayed()));
+
+        mInventoryRule.getActivity().finish();
+        assertNoViolations();
+    }
+
+    @Test
+    public void editorDoesntTouchDiskOnMainThread() throws Exception {
+        mEditorRule.launchActivity(new Intent(Intent.ACTION_VIEW, mItemUri));
+
+        onView(withId(R.id.button_sale)).perform(click());
+        onView(withId(R.id.dialog_input)).perform(replaceText("1"));
+        onView(withText(R.string.update)).perform(click());
+
+        onView(withId(R.id.edit_supplier)).perform(replaceText("Changed supplier"),
+                closeSoftKeyboard());
+        onView(withId(R.id.menu_save_row)).perform(click());
+        assertNoViolations();
+    }
+
+    /**
+     * Wait for the queued writes, their callbacks and for the main thread to log its
+     * violations, then fail if any of them came from the app
+     */
+    private void assertNoViolations() throws Exception {
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        waitForWriteQueue();
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        List<String> violations = readViolations();
+        StringBuilder message = new StringBuilder();
+        for (String violation : violations) {
+            message.append('\n').append(violation);
+        }
+        assertTrue(violations.size() + " disk accesses on the main thread:" + message,
+                violations.isEmpty());
+    }
+
+    /**
+     * @return every StrictMode violation logged since the test started that has a frame of
+     * the app on its stack
+     */
+    private List<String> readViolations() throws IOException {
+        Process process = Runtime.getRuntime().exec(new String[] {
+                "logcat", "-d", "-v", "tag", "-s", "StrictMode", LOG_TAG });
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), "UTF-8"));
+        List<String> violations = new ArrayList<>();
+        try {
+            boolean started = false;
+            StringBuilder violation = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                //"D/StrictMode: <message>"
+                int tagEnd = line.indexOf(": ");
+                String logMessage = tagEnd == -1 ? line : line.substring(tagEnd + 2);
+                if (logMessage.equals(START_MARKER + mMarker)) {
+                    started = true;
+                } else if (!started) {
+                    continue;
+                } else if (logMessage.startsWith("StrictMode policy violation")) {
+                    addAppViolation(violations, violation);
+                    violation = new StringBuilder(logMessage);
+                } else if (violation != null) {
+                    violation.append('\n').append(logMessage);
+                }
+            }
+            addAppViolation(violations, violation);
+        } finally {
+            reader.close();
+            process.destroy();
+        }
+        return violations;
+    }
+
+    private static void addAppViolation(List<String> violations, StringBuilder violation) {
+        if (violation != null && violation.indexOf("at " + APP_PACKAGE) != -1) {
+            violations.add(violation.toString());
+        }
+    }
+
+    /**
+     * Wait for every write queued so far, the list's taps and the editor's saves
+     */
+    private void waitForWriteQueue() throws Exception {
+        ItemWriteQueue.getInstance(mContext).submit(new ItemWriteQueue.Write<Void>() {
+            @Override
+            public Void apply(ContentResolver resolver) {
+                return null;
+            }
+        }, null).get();
+    }
+}
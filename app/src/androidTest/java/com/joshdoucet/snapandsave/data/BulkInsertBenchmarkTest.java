@@ -0,0 +1,174 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Rows per second of the provider's bulkInsert for catalogues of 1k, 10k and 100k items,
+ * against one insert call per row for 1k items. The results are logged and sent as
+ * instrumentation status, run with "adb shell am instrument -r" to see them. The provider
+ * under test uses its own database file, the app's data is not touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkInsertBenchmarkTest {
+    private static final String LOG_TAG = BulkInsertBenchmarkTest.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "bulk_insert_test.db";
+
+    private static final int[] ROW_COUNTS = { 1000, 10000, 100000 };
+
+    //Rows inserted one call at a time, each call is its own transaction
+    private static final int SINGLE_ROWS = 1000;
+
+    private Context mContext;
+    private InventoryDBHelper mHelper;
+    private InventoryProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        closeProvider();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void bulkInsertRowsPerSecond() {
+        long singleRate = measureSingleInserts();
+        for (int rowCount : ROW_COUNTS) {
+            long bulkRate = measureBulkInsert(rowCount);
+            //One transaction for the batch instead of one sync to disk per row
+            assertTrue(rowCount + " rows: bulkInsert " + bulkRate + " rows/s, insert "
+                    + singleRate + " rows/s", bulkRate > singleRate);
+        }
+    }
+
+    /**
+     * @return rows per second of bulkInsert into a new database
+     */
+    private long measureBulkInsert(int rowCount) {
+        openProvider();
+        ContentValues[] rows = new ContentValues[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            rows[i] = createItem(i);
+        }
+
+        long start = System.nanoTime();
+        int inserted = mProvider.bulkInsert(ItemEntry.CONTENT_URI, rows);
+        long nanos = System.nanoTime() - start;
+
+        assertEquals(rowCount, inserted);
+        assertEquals(rowCount, countItems());
+        closeProvider();
+        return report("bulkInsert " + rowCount, rowCount, nanos);
+    }
+
+    /**
+     * @return rows per second of one insert call per row into a new database
+     */
+    private long measureSingleInserts() {
+        openProvider();
+        long start = System.nanoTime();
+        for (int i = 0; i < SINGLE_ROWS; i++) {
+            mProvider.insert(ItemEntry.CONTENT_URI, createItem(i));
+        }
+        long nanos = System.nanoTime() - start;
+
+        assertEquals(SINGLE_ROWS, countItems());
+        closeProvider();
+        return report("insert " + SINGLE_ROWS, SINGLE_ROWS, nanos);
+    }
+
+    private long report(String name, int rowCount, long nanos) {
+        long rowsPerSecond = rowCount * 1000000000L / Math.max(1, nanos);
+        String result = name + " rows: " + nanos / 1000000 + " ms, " + rowsPerSecond
+                + " rows/s";
+        Log.i(LOG_TAG, result);
+        Bundle status = new Bundle();
+        status.putString(name, result);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+        return rowsPerSecond;
+    }
+
+    /**
+     * Create a provider on a new database with the app's settings and no items in it
+     */
+    private void openProvider() {
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new InventoryDBHelper(mContext, DATABASE_NAME, DatabaseConfig.DEFAULT, null);
+        mProvider = new InventoryProvider();
+        mProvider.attachInfo(mContext, null);
+        mProvider.mInventoryDBHelper = mHelper;
+
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        deleteSamplePhotos(db);
+        db.delete(ItemEntry.TABLE_NAME, null, null);
+    }
+
+    private void closeProvider() {
+        if (mHelper != null) {
+            mHelper.close();
+            mHelper = null;
+            mProvider = null;
+        }
+    }
+
+    private int countItems() {
+        Cursor cursor = mHelper.getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM " + ItemEntry.TABLE_NAME, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues createItem(int i) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_NAME, "Catalogue item " + i);
+        values.put(ItemEntry.COLUMN_QUANTITY, i % 100);
+        values.put(ItemEntry.COLUMN_SUPPLIER, "Supplier " + i % 50);
+        values.put(ItemEntry.COLUMN_PRICE_CENTS, 100 + i % 5000);
+        values.put(ItemEntry.COLUMN_SALE_STATUS, ItemEntry.STATUS_FOR_SALE);
+        return values;
+    }
+
+    /**
+     * The sample items of a new database put their photos into the app's image store
+     */
+    private void deleteSamplePhotos(SQLiteDatabase db) {
+        ImageStore imageStore = new ImageStore(mContext);
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME,
+                new String[] { ItemEntry.COLUMN_IMAGE_FILE, ItemEntry.COLUMN_THUMBNAIL_FILE },
+                ItemEntry.COLUMN_IMAGE_FILE + " IS NOT NULL", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                imageStore.deleteImages(new String[] { cursor.getString(0),
+                        cursor.getString(1) });
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A reader loads pages of the inventory list while a writer inserts rows in import sized
+ * transactions, once with the app's WAL settings and once with a rollback journal. The p50
+ * and p99 page latencies are logged and sent as instrumentation status, run with
+ * "adb shell am instrument -r" to see them. Uses its own database file, the app's data is
+ * not touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseStressTest {
+    private static final String LOG_TAG = DatabaseStressTest.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "stress_test.db";
+
+    //Items in the table before the writer starts
+    private static final int ITEMS = 5000;
+
+    //Rows per write transaction, the chunk size of an import
+    private static final int WRITE_CHUNK = 200;
+
+    //How long the reader and writer run for each journal mode
+    private static final long RUN_MILLIS = 3000;
+
+    private static final int PAGE_SIZE = 50;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void walReadsDontWaitForWriter() throws Exception {
+        DatabaseConfig rollback = new DatabaseConfig(false, DatabaseConfig.SYNCHRONOUS_FULL,
+                DatabaseConfig.DEFAULT.getPageSize(), DatabaseConfig.DEFAULT.getCacheSizeKib(),
+                DatabaseConfig.DEFAULT.getMmapSize());
+        long[] wal = measure("wal", DatabaseConfig.DEFAULT);
+        long[] journal = measure("rollback", rollback);
+
+        //The p99 page of a rollback journal waits for a whole write transaction
+        assertTrue("WAL p99 " + wal[1] + " us, rollback p99 " + journal[1] + " us",
+                wal[1] < journal[1]);
+    }
+
+    /**
+     * Run the reader and writer against a new database with the given settings
+     * @return p50 and p99 page latency in microseconds
+     */
+    private long[] measure(String name, DatabaseConfig config) throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+        InventoryDBHelper helper = new InventoryDBHelper(mContext, DATABASE_NAME, config, null);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        List<Long> latencies = new ArrayList<>();
+        final AtomicInteger chunksWritten = new AtomicInteger();
+        try {
+            insertItems(db, 0, ITEMS);
+
+            final AtomicBoolean running = new AtomicBoolean(true);
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int next = ITEMS;
+                    while (running.get()) {
+                        insertItems(db, next, WRITE_CHUNK);
+                        next += WRITE_CHUNK;
+                        chunksWritten.incrementAndGet();
+                    }
+                }
+            });
+            writer.start();
+
+            long end = System.nanoTime() + RUN_MILLIS * 1000000L;
+            while (System.nanoTime() < end) {
+                long start = System.nanoTime();
+                Cursor cursor = db.query(ItemEntry.TABLE_NAME,
+                        new String[] { ItemEntry._ID, ItemEntry.COLUMN_NAME,
+                                ItemEntry.COLUMN_QUANTITY },
+                        null, null, null, null, ItemEntry.COLUMN_NAME + ", " + ItemEntry._ID,
+                        String.valueOf(PAGE_SIZE));
+                try {
+                    cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+                latencies.add((System.nanoTime() - start) / 1000);
+            }
+            running.set(false);
+            writer.join();
+        } finally {
+            deleteSamplePhotos(db);
+            helper.close();
+        }
+
+        Collections.sort(latencies);
+        long p50 = latencies.get(latencies.size() / 2);
+        long p99 = latencies.get(latencies.size() * 99 / 100);
+        String result = name + ": " + latencies.size() + " pages, p50 " + p50 + " us, p99 "
+                + p99 + " us, " + chunksWritten.get() + " write transactions";
+        Log.i(LOG_TAG, result);
+        Bundle status = new Bundle();
+        status.putString(name, result);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+
+        assertTrue(name + " reader made no progress", latencies.size() > 10);
+        assertTrue(name + " writer made no progress", chunksWritten.get() > 0);
+        return new long[] { p50, p99 };
+    }
+
+    private static void insertItems(SQLiteDatabase db, int first, int count) {
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = first; i < first + count; i++) {
+                values.put(ItemEntry.COLUMN_NAME, "Stress item " + i);
+                values.put(ItemEntry.COLUMN_QUANTITY, i % 100);
+                values.put(ItemEntry.COLUMN_SUPPLIER, "Supplier " + i % 50);
+                db.insert(ItemEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * The sample items of a new database put their photos into the app's image store
+     */
+    private void deleteSamplePhotos(SQLiteDatabase db) {
+        ImageStore imageStore = new ImageStore(mContext);
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME,
+                new String[] { ItemEntry.COLUMN_IMAGE_FILE, ItemEntry.COLUMN_THUMBNAIL_FILE },
+                ItemEntry.COLUMN_IMAGE_FILE + " IS NOT NULL", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                imageStore.deleteImages(new String[] { cursor.getString(0),
+                        cursor.getString(1) });
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
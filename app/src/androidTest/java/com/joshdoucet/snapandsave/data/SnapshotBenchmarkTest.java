@@ -0,0 +1,248 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Snapshot and restore of a 1 GB database with photos, while a writer keeps adding items
+ * during the snapshot the way the app would. Throughput and the slowest write are logged
+ * and sent as instrumentation status, run with "adb shell am instrument -r" to see them.
+ * Pass "-e snapshotMb <size>" for another database size. The database, photos and snapshots
+ * are kept next to the app's, which are not touched. Needs about three times the database
+ * size in free storage.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SnapshotBenchmarkTest {
+    private static final String LOG_TAG = SnapshotBenchmarkTest.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "snapshot_benchmark.db";
+    private static final String IMAGE_DIRECTORY = "snapshot_benchmark_images";
+    private static final String SNAPSHOT_DIRECTORY = "snapshot_benchmark";
+
+    private static final int DEFAULT_DATABASE_MB = 1024;
+
+    //Filler rows that grow the database, text like so it compresses about as well as items
+    private static final String FILLER_TABLE = "benchmark_filler";
+    private static final int FILLER_ROW_BYTES = 8 * 1024;
+    private static final int FILLER_CHUNK = 500;
+
+    //Photos are JPEGs, random bytes compress just as badly
+    private static final int PHOTOS = 100;
+    private static final int PHOTO_BYTES = 256 * 1024;
+
+    //Time between two writes of the writer
+    private static final long WRITE_INTERVAL_MS = 10;
+
+    //Slowest write the app may see while a snapshot is taken
+    private static final long MAX_WRITE_MS = 500;
+
+    private Context mContext;
+    private InventoryDBHelper mHelper;
+    private ImageStore mImageStore;
+    private File mImageDirectory;
+    private File mSnapshotDirectory;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mImageDirectory = new File(mContext.getFilesDir(), IMAGE_DIRECTORY);
+        File externalDir = mContext.getExternalFilesDir(null);
+        mSnapshotDirectory = new File(externalDir != null ? externalDir
+                : mContext.getFilesDir(), SNAPSHOT_DIRECTORY);
+        deleteFiles();
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) {
+            mHelper.close();
+        }
+        deleteFiles();
+    }
+
+    @Test
+    public void snapshotAndRestore() throws Exception {
+        long databaseMb = Long.parseLong(InstrumentationRegistry.getArguments()
+                .getString("snapshotMb", String.valueOf(DEFAULT_DATABASE_MB)));
+        mHelper = new InventoryDBHelper(mContext, DATABASE_NAME, DatabaseConfig.DEFAULT, null);
+        mImageStore = new ImageStore(mContext, mImageDirectory);
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+        deleteSamplePhotos(db);
+        fillDatabase(db, databaseMb * 1024 * 1024);
+        long databaseBytes = mHelper.getDatabaseFile().length();
+        int itemCount = countItems(db);
+
+        SnapshotManager snapshotManager = new SnapshotManager(mContext, mHelper, mImageStore,
+                mSnapshotDirectory);
+        final AtomicLong lastProgress = new AtomicLong();
+        final AtomicLong progressTotal = new AtomicLong();
+        SnapshotManager.ProgressListener listener = new SnapshotManager.ProgressListener() {
+            @Override
+            public void onProgress(long bytesDone, long bytesTotal) {
+                assertTrue(bytesDone >= lastProgress.get() && bytesDone <= bytesTotal);
+                lastProgress.set(bytesDone);
+                progressTotal.set(bytesTotal);
+            }
+        };
+
+        //The app keeps writing while the snapshot is taken
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicLong slowestWriteNanos = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                while (writing.get()) {
+                    values.put(ItemEntry.COLUMN_NAME, "Sold during snapshot " + writes.get());
+                    long start = System.nanoTime();
+                    db.insert(ItemEntry.TABLE_NAME, null, values);
+                    long nanos = System.nanoTime() - start;
+                    if (nanos > slowestWriteNanos.get()) {
+                        slowestWriteNanos.set(nanos);
+                    }
+                    writes.incrementAndGet();
+                    try {
+                        Thread.sleep(WRITE_INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+
+        writer.start();
+        long start = System.nanoTime();
+        File snapshot;
+        try {
+            snapshot = snapshotManager.createSnapshot(listener);
+        } finally {
+            writing.set(false);
+            writer.join();
+        }
+        long snapshotNanos = System.nanoTime() - start;
+        //The checkpoint at the start of the snapshot can only grow the database file
+        long totalBytes = progressTotal.get();
+        assertTrue(totalBytes >= databaseBytes + PHOTOS * (long) PHOTO_BYTES);
+        report("snapshot", totalBytes, snapshotNanos, "snapshot " + snapshot.length() / 1024
+                / 1024 + " MB, " + writes.get() + " writes during it, slowest "
+                + slowestWriteNanos.get() / 1000000 + " ms");
+
+        lastProgress.set(0);
+        progressTotal.set(0);
+        start = System.nanoTime();
+        snapshotManager.restoreSnapshot(snapshot, listener);
+        long restoreNanos = System.nanoTime() - start;
+        assertTrue(progressTotal.get() >= totalBytes);
+        report("restore", totalBytes, restoreNanos, "");
+
+        //Only items written before the database was copied are in the snapshot
+        int restoredCount = countItems(mHelper.getReadableDatabase());
+        assertTrue(restoredCount >= itemCount && restoredCount <= itemCount + writes.get());
+        assertEquals(PHOTOS, mImageStore.listImages().length);
+        assertTrue("slowest write during the snapshot took "
+                + slowestWriteNanos.get() / 1000000 + " ms",
+                slowestWriteNanos.get() < MAX_WRITE_MS * 1000000);
+    }
+
+    private void report(String name, long bytes, long nanos, String details) {
+        long mbPerSecond = bytes * 1000000000L / Math.max(1, nanos) / 1024 / 1024;
+        String result = name + " of " + bytes / 1024 / 1024 + " MB: " + nanos / 1000000
+                + " ms, " + mbPerSecond + " MB/s" + (details.isEmpty() ? "" : ", " + details);
+        Log.i(LOG_TAG, result);
+        Bundle status = new Bundle();
+        status.putString(name, result);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+
+    /**
+     * Grow the database to about the given size and store the photos
+     */
+    private void fillDatabase(SQLiteDatabase db, long bytes) throws Exception {
+        Random random = new Random(15);
+        db.execSQL("CREATE TABLE " + FILLER_TABLE + " (data TEXT NOT NULL)");
+        char[] text = new char[FILLER_ROW_BYTES];
+        ContentValues values = new ContentValues();
+        long rows = bytes / FILLER_ROW_BYTES;
+        for (long row = 0; row < rows; row += FILLER_CHUNK) {
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < FILLER_CHUNK; i++) {
+                    for (int c = 0; c < text.length; c++) {
+                        text[c] = (char) ('a' + random.nextInt(26));
+                    }
+                    values.put("data", new String(text));
+                    db.insert(FILLER_TABLE, null, values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        byte[] photo = new byte[PHOTO_BYTES];
+        for (int i = 0; i < PHOTOS; i++) {
+            random.nextBytes(photo);
+            values.clear();
+            values.put(ItemEntry.COLUMN_NAME, "Photographed item " + i);
+            values.put(ItemEntry.COLUMN_IMAGE_FILE, mImageStore.saveImage(photo));
+            db.insert(ItemEntry.TABLE_NAME, null, values);
+        }
+    }
+
+    private static int countItems(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + ItemEntry.TABLE_NAME, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The sample items of a new database put their photos into the app's image store
+     */
+    private void deleteSamplePhotos(SQLiteDatabase db) {
+        ImageStore imageStore = new ImageStore(mContext);
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME,
+                new String[] { ItemEntry.COLUMN_IMAGE_FILE, ItemEntry.COLUMN_THUMBNAIL_FILE },
+                ItemEntry.COLUMN_IMAGE_FILE + " IS NOT NULL", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                imageStore.deleteImages(new String[] { cursor.getString(0),
+                        cursor.getString(1) });
+            }
+        } finally {
+            cursor.close();
+        }
+        db.delete(ItemEntry.TABLE_NAME, null, null);
+    }
+
+    private void deleteFiles() {
+        mContext.deleteDatabase(DATABASE_NAME);
+        ImageStore.deleteDirectory(mImageDirectory);
+        ImageStore.deleteDirectory(mSnapshotDirectory);
+    }
+}
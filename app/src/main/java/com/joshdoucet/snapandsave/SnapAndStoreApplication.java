@@ -0,0 +1,69 @@
+package com.joshdoucet.snapandsave;
+
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.Build;
+import android.os.StrictMode;
+
+import com.joshdoucet.snapandsave.data.BitmapPool;
+import com.joshdoucet.snapandsave.data.DatabaseConfig;
+import com.joshdoucet.snapandsave.data.InventoryDBHelper;
+
+/**
+ *  - Sets up the app process. Debug builds run under StrictMode: all writes to the inventory
+ *      go through the ItemWriteQueue, so a disk write on the main thread is a bug and crashes
+ *      the app the first time the code path runs, with the offending stack in the log.
+ *      Memory the system asks back is freed from the BitmapPool. The database connection
+ *      settings are chosen here, before any component opens the database.
+ */
+
+public class SnapAndStoreApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        InventoryDBHelper.setConfig(isLowRamDevice()
+                ? DatabaseConfig.LOW_MEMORY : DatabaseConfig.DEFAULT);
+
+        if(BuildConfig.DEBUG){
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .penaltyDeath()
+                    .build());
+            //Cursors and streams that are never closed hold on to database connections and files
+            StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                    .detectLeakedSqlLiteObjects()
+                    .detectLeakedClosableObjects()
+                    .penaltyLog()
+                    .build());
+        }
+    }
+
+    /**
+     * @return true if the system reports the device as low on memory, never below API 19
+     */
+    private boolean isLowRamDevice(){
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT){
+            return false;
+        }
+        ActivityManager activityManager =
+                (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager != null && activityManager.isLowRamDevice();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        BitmapPool.getInstance(this).trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        BitmapPool.getInstance(this).trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+}
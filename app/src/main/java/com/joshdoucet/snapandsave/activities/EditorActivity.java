@@ -2,6 +2,7 @@ package com.joshdoucet.snapandsave.activities;
 
 import android.Manifest;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
@@ -10,15 +11,19 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.StrictMode;
 import android.provider.MediaStore;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.NavUtils;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.content.FileProvider;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.view.LayoutInflater;
@@ -26,19 +31,32 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageView;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.joshdoucet.snapandsave.BuildConfig;
 import com.joshdoucet.snapandsave.R;
+import com.joshdoucet.snapandsave.data.BitmapPool;
+import com.joshdoucet.snapandsave.data.ImageCodec;
+import com.joshdoucet.snapandsave.data.ImageStore;
 import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.MovementEntry;
+import com.joshdoucet.snapandsave.data.ItemValidator;
+import com.joshdoucet.snapandsave.data.ItemWriteQueue;
+import com.joshdoucet.snapandsave.data.PhotoDecoder;
+import com.joshdoucet.snapandsave.data.Prices;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.lang.ref.WeakReference;
+import java.util.List;
 
 import static android.view.View.GONE;
-import static java.lang.Double.parseDouble;
 
 /**
  *  - The EditorActivity has 2 mode. One is for "Adding a NEW item" to the database of inventory
@@ -54,6 +72,13 @@ import static java.lang.Double.parseDouble;
  *              The user also has all the same functionality that are available in "Add an Item";
  *              however, when the data is saved the ContentResolver calls the update
  *              method instead of insert
+ *          Every write is handed to the ItemWriteQueue, the editor never waits for the database.
+ *          Results are reported with toasts once the write has run.
+ *          The camera saves full resolution photos to a FileProvider file in the cache. Photos
+ *          are decoded on a background thread, sampled down to the size they are shown and
+ *          stored at, so a camera photo is never decoded whole. The photo shown goes back to
+ *          the BitmapPool when it is replaced or the editor closes, so opening item after item
+ *          decodes into the same few bitmaps.
  */
 
 public class EditorActivity extends AppCompatActivity
@@ -68,6 +93,17 @@ public class EditorActivity extends AppCompatActivity
     //Code for requesting CAMERA permission
     static final int PERMISSIONS_CODE_REQUEST_CAMERA = 3;
 
+    //Authority of the FileProvider the camera app writes photos through
+    private static final String FILE_PROVIDER_AUTHORITY = BuildConfig.APPLICATION_ID
+            + ".fileprovider";
+
+    //Where the camera app saves a photo, in a cache directory shared by res/xml/file_paths.xml
+    private static final String CAPTURE_DIRECTORY = "camera";
+    private static final String CAPTURE_FILE = "capture.jpg";
+
+    //Saved state key, set while the capture file holds a photo that isn't saved yet
+    private static final String STATE_PHOTO_TAKEN = "photo_taken";
+
     //if device has camera
     private boolean mHasCamera;
 
@@ -92,10 +128,19 @@ public class EditorActivity extends AppCompatActivity
     private TextView mItemQuantityTextView;
     private EditText mItemSupplierEditText;
     private ImageView mItemImageView;
+    //Position of the selected choice is the item's ItemEntry.STATUS_ value
+    private Spinner mSaleStatusSpinner;
+
+    //Photo taken with the camera that replaces the item's photo on save, null if there is none
+    private Bitmap mPhoto;
+    private boolean mPhotoTaken;
 
-    //Variables need to make proper adjustments to the inventory total value
-    private double priceBeforeChange;
-    private int quantityBeforeChange;
+    //Image file of the item as loaded, so its photo is only decoded again when it changes
+    private String mStoredPhotoName;
+
+    //Photo in mItemImageView that goes back to the pool once it isn't shown, null if none
+    private Bitmap mShownPhoto;
+    private BitmapPool mBitmapPool;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -107,6 +152,7 @@ public class EditorActivity extends AppCompatActivity
         mReceivedItemUri = receivedIntent.getData();
 
         mHasCamera = hasCameraPermissions(this);
+        mBitmapPool = BitmapPool.getInstance(this);
 
         //Find all views that need to be toggled between activity modes
         // ("add item" or "edit item"). The visibility of these views will be toggled
@@ -120,12 +166,26 @@ public class EditorActivity extends AppCompatActivity
         mItemQuantityEditText = (EditText) findViewById(R.id.edit_quantity);
         mItemQuantityTextView = (TextView) findViewById(R.id.quantity_value);
         mItemImageView = (ImageView) findViewById(R.id.image_view);
+        mSaleStatusSpinner = (Spinner) findViewById(R.id.spinner_sale_status);
 
         //Set touch listeners for the above editable views
         mItemTitleEditText.setOnTouchListener(mTouchListener);
         mItemPriceEditText.setOnTouchListener(mTouchListener);
         mItemQuantityEditText.setOnTouchListener(mTouchListener);
         mItemSupplierEditText.setOnTouchListener(mTouchListener);
+        mSaleStatusSpinner.setOnTouchListener(mTouchListener);
+
+        //Only items that are for sale have a price
+        mSaleStatusSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                mItemPriceEditText.setEnabled(position == ItemEntry.STATUS_FOR_SALE);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
 
         //Find all buttons
         Button mButtonSale = (Button) findViewById(R.id.button_sale);
@@ -161,6 +221,27 @@ public class EditorActivity extends AppCompatActivity
             //initialize loader that will be used to populate edit fields
             getLoaderManager().initLoader(ITEM_INFO_LOADER_ID, null, this);
         }
+
+        //A photo taken before the activity was recreated is still in the capture file
+        if(savedInstanceState != null && savedInstanceState.getBoolean(STATE_PHOTO_TAKEN)){
+            mPhotoTaken = true;
+            new PhotoDecodeTask(this, getCaptureFile()).execute();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_PHOTO_TAKEN, mPhotoTaken);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        //Nothing draws the photo anymore, the next editor can decode into it
+        mItemImageView.setImageDrawable(null);
+        mBitmapPool.put(mShownPhoto);
+        mShownPhoto = null;
     }
 
     /**
@@ -221,7 +302,6 @@ public class EditorActivity extends AppCompatActivity
                     @Override
                     public void onClick(DialogInterface dialogInterface, int i) {
                         // User clicked "Discard" button, close the current activity.
-                        //InventoryActivity.totalInventoryValue = 0;
                         finish();
                     }
                 };
@@ -307,39 +387,41 @@ public class EditorActivity extends AppCompatActivity
      * Used for quick debugging purposes
      */
     public void insertSampleData(){
-        int quantity = 2;
-        double price = 17.99;
-
-        Bitmap boots = BitmapFactory.decodeResource(getResources(), R.drawable.cast);
-        byte[] blob = bitToByteArray(boots);
-
-        ContentValues sampleVals = new ContentValues();
-        sampleVals.put(ItemEntry.COLUMN_NAME, "Chromecast - Red");
-        sampleVals.put(ItemEntry.COLUMN_SUPPLIER, "Google");
-        sampleVals.put(ItemEntry.COLUMN_QUANTITY, quantity);
-        sampleVals.put(ItemEntry.COLUMN_PRICE, price);
-        sampleVals.put(ItemEntry.COLUMN_IMAGE, blob);
-
-        Uri newUri = getContentResolver().insert(ItemEntry.CONTENT_URI, sampleVals);
-
-        // Show a toast message depending on whether or not the insertion was successful
-        if (newUri == null) {
-            // If the row ID is -1, then there was an error with insertion.
-            Toast.makeText(this, getString(R.string.item_error), Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, the insertion was successful and we can display a toast with the row ID.
-            Toast.makeText(this, getString(R.string.item_saves),
-                    Toast.LENGTH_SHORT).show();
-
-            if(price != ItemEntry.NOT_FOR_SALE && price != ItemEntry.FREE) {
-                InventoryActivity.totalInventoryValue += (price * quantity);
+        final int quantity = 2;
+        final long priceCents = 1799;
+        final Context appContext = getApplicationContext();
+
+        //Decoding and encoding the sample photo is as slow as the insert, queue all of it
+        ItemWriteQueue.getInstance(this).submit(new ItemWriteQueue.Write<Uri>() {
+            @Override
+            public Uri apply(ContentResolver resolver) {
+                Bitmap boots = BitmapFactory.decodeResource(appContext.getResources(),
+                        R.drawable.cast);
+                byte[] blob = ImageCodec.load(appContext).encode(boots);
+
+                ContentValues sampleVals = new ContentValues();
+                sampleVals.put(ItemEntry.COLUMN_NAME, "Chromecast - Red");
+                sampleVals.put(ItemEntry.COLUMN_SUPPLIER, "Google");
+                sampleVals.put(ItemEntry.COLUMN_QUANTITY, quantity);
+                sampleVals.put(ItemEntry.COLUMN_SALE_STATUS, ItemEntry.STATUS_FOR_SALE);
+                sampleVals.put(ItemEntry.COLUMN_PRICE_CENTS, priceCents);
+                sampleVals.put(ItemEntry.COLUMN_IMAGE, blob);
+
+                return resolver.insert(ItemEntry.CONTENT_URI, sampleVals);
             }
-        }
+        }, new ItemWriteQueue.Callback<Uri>() {
+            @Override
+            public void onWriteFinished(Uri newUri) {
+                // Show a toast message depending on whether or not the insertion was successful
+                Toast.makeText(appContext, newUri == null ? R.string.item_error
+                        : R.string.item_saves, Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
-     * Get user input from editor and save new item into database.
-     * return true if item successfully entered
+     * Get user input from editor and queue the new or changed item to be saved.
+     * return true if the input was valid and the save was queued
      */
     public boolean saveItem(){
         //Collect user input from editable views
@@ -348,102 +430,152 @@ public class EditorActivity extends AppCompatActivity
         String itemQuantity = mItemQuantityEditText.getText().toString();
         String itemPrice = mItemPriceEditText.getText().toString();
 
-        double price;
-        int quantity;
-        try {
-            price = Double.parseDouble(itemPrice);
-            quantity = Integer.parseInt(itemQuantity);
-        }catch(NumberFormatException e){
-            price = 0;
-            quantity = 0;
-        }
-
         //Values pairs that will be put into the database
-        ContentValues itemVals = new ContentValues();
+        final ContentValues itemVals = new ContentValues();
         itemVals.put(ItemEntry.COLUMN_NAME, itemTitle);
         itemVals.put(ItemEntry.COLUMN_SUPPLIER, itemSupplier);
         itemVals.put(ItemEntry.COLUMN_QUANTITY, itemQuantity);
-        itemVals.put(ItemEntry.COLUMN_PRICE, itemPrice);
-
-        //Convert image to type compatible with database
-        mItemImageView.buildDrawingCache();
-        Bitmap itemImage = mItemImageView.getDrawingCache();
-        byte[] imageByte;
 
-        //if image is not null add to ContentVals
-        if(itemImage != null) {
-            imageByte = bitToByteArray(itemImage);
+        //Prices are stored in whole cents, free and not for sale items have no price
+        int saleStatus = mSaleStatusSpinner.getSelectedItemPosition();
+        itemVals.put(ItemEntry.COLUMN_SALE_STATUS, saleStatus);
+        if(saleStatus != ItemEntry.STATUS_FOR_SALE){
+            itemVals.put(ItemEntry.COLUMN_PRICE_CENTS, 0);
         }else{
-            imageByte = null;
+            try {
+                itemVals.put(ItemEntry.COLUMN_PRICE_CENTS, Prices.parseCents(itemPrice));
+            } catch (NumberFormatException e) {
+                //Keep the typed text, the validator reports it as an empty or invalid price
+                itemVals.put(ItemEntry.COLUMN_PRICE_CENTS, itemPrice);
+            }
+        }
+
+        //Check the values before writing, the provider only rejects bad data silently.
+        //An item keeps its stored photo unless a new one was taken
+        int errors = ItemValidator.validate(itemVals.valueSet())
+                | ItemValidator.validate(ItemEntry.COLUMN_IMAGE,
+                        mPhoto != null ? mPhoto : mStoredPhotoName);
+        if(errors != ItemValidator.VALID){
+            showValidationErrors(errors);
+            return false;
         }
 
-        itemVals.put(ItemEntry.COLUMN_IMAGE, imageByte);
+        //The photo is decoded at its stored size already, it is encoded on the write queue.
+        //The queue owns it from here, so it never goes back to the pool while encoded
+        final Bitmap photo = mPhoto;
+        if(photo != null && photo == mShownPhoto){
+            mShownPhoto = null;
+        }
+        final Uri itemUri = mReceivedItemUri;
+        final Context appContext = getApplicationContext();
+
+        ItemWriteQueue.getInstance(this).submit(new ItemWriteQueue.Write<Boolean>() {
+            @Override
+            public Boolean apply(ContentResolver resolver) {
+                //Encoding the photo is the slowest part of a save
+                if(photo != null){
+                    itemVals.put(ItemEntry.COLUMN_IMAGE,
+                            ImageCodec.load(appContext).encode(photo));
+                }
 
-        //If a new row is being added to the database table...
-        if(mReceivedItemUri == null){
-            Uri newUri = getContentResolver().insert(ItemEntry.CONTENT_URI, itemVals);
-
-            // Show a toast message depending on whether or not the insertion was successful
-            if (newUri == null) {
-                // If the row ID is -1, then there was an error with insertion.
-                return false;
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast with the row ID.
-                Toast.makeText(this, getString(R.string.item_saves) + ContentUris.parseId(newUri),
-                        Toast.LENGTH_SHORT).show();
-                //Update inventory total
-                if(price != ItemEntry.NOT_FOR_SALE && price != ItemEntry.FREE) {
-                    InventoryActivity.totalInventoryValue += (price * quantity);
+                //If a new row is being added to the database table...
+                if(itemUri == null){
+                    return resolver.insert(ItemEntry.CONTENT_URI, itemVals) != null;
                 }
-                return true;
+                //Otherwise an existing item entry is being updated
+                return resolver.update(itemUri, itemVals, null, null) > 0;
             }
-        }else{
-            //Otherwise an existing item entry is being updated
-            //Calls ContentResolver to grab InentoryProvider which will update an existing
-            //row in the inventory database
-            int rowsUpdated = getContentResolver().update(mReceivedItemUri, itemVals, null, null);
-
-            // Show a toast message depending on whether or not the update was successful
-            if(rowsUpdated < 1){
-                //No rows were updated, error updated item
-                return false;
-            }else{
-                Toast.makeText(this, getString(R.string.item_saves), Toast.LENGTH_SHORT).show();
+        }, new ItemWriteQueue.Callback<Boolean>() {
+            @Override
+            public void onWriteFinished(Boolean saved) {
+                // Show a toast message depending on whether or not the save was successful
+                Toast.makeText(appContext, saved ? R.string.item_saves : R.string.item_error,
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
+        return true;
+    }
 
-                //update inventory totals, subtract initial value and then add new item value total
-                if(price != ItemEntry.NOT_FOR_SALE && price != ItemEntry.FREE) {
-                    InventoryActivity.totalInventoryValue -= (priceBeforeChange * quantityBeforeChange);
-                    InventoryActivity.totalInventoryValue += (price * quantity);
-                }
-                return true;
+    /**
+     * Mark every field that failed validation and show a toast for the first error
+     * @param errors ItemValidator.ERROR_ bits
+     */
+    private void showValidationErrors(int errors){
+        int firstMessage = 0;
+        for(int remaining = errors; remaining != 0; remaining &= remaining - 1){
+            int error = Integer.lowestOneBit(remaining);
+            int message = getValidationMessage(error);
+            if(firstMessage == 0){
+                firstMessage = message;
+            }
+
+            //Point at the field that has to be fixed
+            EditText field = null;
+            switch(error){
+                case ItemValidator.ERROR_NAME_EMPTY:
+                case ItemValidator.ERROR_NAME_TOO_LONG:
+                    field = mItemTitleEditText;
+                    break;
+                case ItemValidator.ERROR_QUANTITY_EMPTY:
+                case ItemValidator.ERROR_QUANTITY_INVALID:
+                    field = mItemQuantityEditText;
+                    break;
+                case ItemValidator.ERROR_SUPPLIER_TOO_LONG:
+                    field = mItemSupplierEditText;
+                    break;
+                case ItemValidator.ERROR_PRICE_EMPTY:
+                case ItemValidator.ERROR_PRICE_INVALID:
+                    field = mItemPriceEditText;
+                    break;
+            }
+            if(field != null){
+                field.setError(getString(message));
             }
         }
+        Toast.makeText(this, getString(firstMessage), Toast.LENGTH_SHORT).show();
     }
 
     /**
-     * Delete an item from the Items Inventory table
+     * @param error a single ItemValidator.ERROR_ bit
+     * @return string resource explaining the error to the user
+     */
+    private static int getValidationMessage(int error){
+        switch(error){
+            case ItemValidator.ERROR_NAME_EMPTY:
+            case ItemValidator.ERROR_NAME_TOO_LONG:
+                return R.string.invalid_name_toast;
+            case ItemValidator.ERROR_QUANTITY_EMPTY:
+                return R.string.quantity_empty;
+            case ItemValidator.ERROR_QUANTITY_INVALID:
+                return R.string.invalid_quantity_toast;
+            case ItemValidator.ERROR_SUPPLIER_TOO_LONG:
+                return R.string.invalid_supplier_toast;
+            case ItemValidator.ERROR_PRICE_EMPTY:
+                return R.string.price_empty;
+            case ItemValidator.ERROR_IMAGE_EMPTY:
+                return R.string.no_image;
+            default:
+                return R.string.invalid_price_toast;
+        }
+    }
+
+    /**
+     * Queue the item being edited to be deleted from the Items Inventory table
      */
     public void deleteItem(){
         if(mReceivedItemUri != null) {
+            final Context appContext = getApplicationContext();
             //Delete selected row in the Items table
-            int rowsDeleted = getContentResolver().delete(mReceivedItemUri,
-                    null, null);
-
-            if (rowsDeleted > 0) {
-                //Prompt User of Successful Deletion
-                Toast.makeText(this, getString(R.string.editor_delete_item_successful),
-                        Toast.LENGTH_SHORT).show();
-                int quantity = Integer.parseInt(mItemQuantityEditText.getText().toString());
-                double price = Double.parseDouble(mItemPriceEditText.getText().toString());
-                //update total inventory value
-                if(price != ItemEntry.NOT_FOR_SALE && price != ItemEntry.FREE) {
-                    InventoryActivity.totalInventoryValue -= (price * quantity);
+            ItemWriteQueue.getInstance(this).delete(mReceivedItemUri,
+                    new ItemWriteQueue.Callback<Integer>() {
+                @Override
+                public void onWriteFinished(Integer rowsDeleted) {
+                    //Prompt User of successful or failed deletion
+                    Toast.makeText(appContext, rowsDeleted > 0
+                            ? R.string.editor_delete_item_successful
+                            : R.string.editor_delete_item_failed, Toast.LENGTH_SHORT).show();
                 }
-            } else {
-                //Prompt User of failed deletion
-                Toast.makeText(this, getString(R.string.editor_delete_item_failed),
-                        Toast.LENGTH_SHORT).show();
-            }
+            });
         }
     }
 
@@ -465,41 +597,22 @@ public class EditorActivity extends AppCompatActivity
 
         alertBuild.setPositiveButton(R.string.update, new DialogInterface.OnClickListener() {
             public void onClick(DialogInterface dialog, int id){
-                //Price info used to update inventory totals
-                String priceText = mItemPriceEditText.getText().toString();
-                double price = parseDouble(priceText);
-                //Collect current quantity and user input quantity
-                String quantityText = mItemQuantityTextView.getText().toString();
+                //Collect user input quantity
                 String userUpdateInput = dialogInput.getText().toString();
-                int currentQuantity = Integer.parseInt(quantityText);
                 int quantityInput;
                 try {
                     quantityInput = Integer.parseInt(userUpdateInput);
                 }catch(NumberFormatException e){
                     quantityInput = 0;
                 }
-                //Since we cant have less than 0 of an item...
-                if(currentQuantity - quantityInput < 0){
-                    dialog.dismiss();
-                    Toast.makeText(EditorActivity.this, getString(R.string.quantity_less_0),
-                            Toast.LENGTH_LONG).show();
-                }else if(quantityInput >= ItemEntry.MAX_QUANTITY) {
+                if(quantityInput >= ItemEntry.MAX_QUANTITY) {
                     dialog.dismiss();
                     Toast.makeText(EditorActivity.this, getString(R.string.invalid_quantity),
                             Toast.LENGTH_LONG).show();
-                }else {
-                    //Update quantity in database to reflect sale
-                    currentQuantity = currentQuantity - quantityInput;
-                    ContentValues val = new ContentValues();
-                    val.put(ItemEntry.COLUMN_QUANTITY, currentQuantity);
-                    int rowsRpdated = getContentResolver().update(mReceivedItemUri, val,
-                            null, null);
-                    if(rowsRpdated > 0){
-                        //Update inventory total values
-                        if(price != ItemEntry.NOT_FOR_SALE && price != ItemEntry.FREE) {
-                            InventoryActivity.totalInventoryValue -= (price * quantityInput);
-                        }
-                    }
+                }else{
+                    //Since we cant have less than 0 of an item...
+                    adjustQuantity(-quantityInput, MovementEntry.REASON_SALE,
+                            R.string.quantity_less_0);
                 }
             }
         });
@@ -532,14 +645,8 @@ public class EditorActivity extends AppCompatActivity
 
         alertBuild.setPositiveButton(R.string.update, new DialogInterface.OnClickListener() {
             public void onClick(DialogInterface dialog, int id){
-                //Collect price for calculating total inventory value
-                String itemPrice = mItemPriceEditText.getText().toString();
-                double price = parseDouble(itemPrice);
-
-                //Collect current quantity and user input quantity
-                String quantityText = mItemQuantityTextView.getText().toString();
+                //Collect user input quantity
                 String userUpdateInput = dialogInput.getText().toString();
-                int currentQuantity = Integer.parseInt(quantityText);
                 int quantityInput;
                 try {
                     quantityInput = Integer.parseInt(userUpdateInput);
@@ -547,25 +654,15 @@ public class EditorActivity extends AppCompatActivity
                     quantityInput = 0;
                 }
 
-                if(currentQuantity + quantityInput >= ItemEntry.MAX_QUANTITY ||
-                        quantityInput >= ItemEntry.MAX_QUANTITY){
+                //Update quantity in database to reflect received product, the provider
+                //refuses a total of MAX_QUANTITY or more
+                if(quantityInput >= ItemEntry.MAX_QUANTITY){
                     dialog.dismiss();
                     Toast.makeText(EditorActivity.this, getString(R.string.invalid_quantity),
                             Toast.LENGTH_LONG).show();
-                }
-
-
-                //Update quantity in database to reflect received product
-                currentQuantity = currentQuantity + quantityInput;
-                ContentValues val = new ContentValues();
-                val.put(ItemEntry.COLUMN_QUANTITY, currentQuantity);
-                int rowsUpdated = getContentResolver().update(mReceivedItemUri, val,
-                        null, null);
-                if(rowsUpdated > 0){
-                    //update inventory total vallues
-                    if(price != ItemEntry.NOT_FOR_SALE && price != ItemEntry.FREE) {
-                        InventoryActivity.totalInventoryValue += (price * quantityInput);
-                    }
+                }else{
+                    adjustQuantity(quantityInput, MovementEntry.REASON_RECEIVED,
+                            R.string.invalid_quantity);
                 }
             }
         });
@@ -580,6 +677,26 @@ public class EditorActivity extends AppCompatActivity
         updateAlert.show();
     }
 
+    /**
+     * Queue a delta to the quantity of the item being edited. The provider applies it to the
+     * stored quantity, so sales recorded elsewhere since the item was loaded are kept.
+     * @param delta signed number of units to add
+     * @param reason one of the MovementEntry.REASON_ values, recorded in the item's ledger
+     * @param failedMessage toast shown if the quantity would go out of bounds
+     */
+    private void adjustQuantity(int delta, int reason, final int failedMessage){
+        final Context appContext = getApplicationContext();
+        ItemWriteQueue.getInstance(this).adjustQuantity(ContentUris.parseId(mReceivedItemUri),
+                delta, reason, new ItemWriteQueue.Callback<Integer>() {
+            @Override
+            public void onWriteFinished(Integer newQuantity) {
+                if(newQuantity == ItemEntry.ADJUST_FAILED){
+                    Toast.makeText(appContext, failedMessage, Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+    }
+
     /**
      * Used to generate a pre populated email intent to order more product from the supplier
      * @param view, clicked view. Method called via onClick XML attribute
@@ -620,7 +737,8 @@ public class EditorActivity extends AppCompatActivity
     }
 
     /**
-     * Used to take a picture through a camera application and return for results
+     * Used to take a picture through a camera application and return for results.
+     * The camera app writes the full resolution photo to the capture file.
      * @param view button clicked on to execute function
      */
     public void captureImage(View view){
@@ -629,6 +747,29 @@ public class EditorActivity extends AppCompatActivity
         if(mHasCamera) {
             Intent takePictureIntent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
             if (takePictureIntent.resolveActivity(getPackageManager()) != null) {
+                //Creating the directory is a single small write, allowed on the main thread
+                File captureFile = getCaptureFile();
+                StrictMode.ThreadPolicy threadPolicy = StrictMode.allowThreadDiskWrites();
+                try {
+                    captureFile.getParentFile().mkdirs();
+                } finally {
+                    StrictMode.setThreadPolicy(threadPolicy);
+                }
+
+                Uri captureUri = FileProvider.getUriForFile(this, FILE_PROVIDER_AUTHORITY,
+                        captureFile);
+                takePictureIntent.putExtra(MediaStore.EXTRA_OUTPUT, captureUri);
+                takePictureIntent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION
+                        | Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
+                //Before Lollipop the flags don't reach the uri in EXTRA_OUTPUT
+                List<ResolveInfo> cameraApps = getPackageManager().queryIntentActivities(
+                        takePictureIntent, PackageManager.MATCH_DEFAULT_ONLY);
+                for(ResolveInfo cameraApp : cameraApps){
+                    grantUriPermission(cameraApp.activityInfo.packageName, captureUri,
+                            Intent.FLAG_GRANT_WRITE_URI_PERMISSION
+                                    | Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                }
                 startActivityForResult(takePictureIntent, REQUEST_IMAGE_CAPTURE);
             }
         }else{
@@ -638,29 +779,117 @@ public class EditorActivity extends AppCompatActivity
     }
 
     /**
-     *On camera intent result, save the bitmap image in an ImageView
+     *On camera intent result, decode the photo the camera saved and show it in the ImageView
      */
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == REQUEST_IMAGE_CAPTURE && resultCode == RESULT_OK) {
-            Bundle extras = data.getExtras();
-            Bitmap mTempBitmap = (Bitmap) extras.get("data");
-            mItemImageView.setImageBitmap(mTempBitmap);
-            mItemImageView.setVisibility(View.VISIBLE);
+            mPhotoTaken = true;
+            mItemHasChanged = true;
+            new PhotoDecodeTask(this, getCaptureFile()).execute();
         }
     }
 
     /**
-     *Use the 2 functions bellow to convert between Bitmap and Byte[] image types
+     * @return the file the camera app saves photos to
      */
-    public static byte[] bitToByteArray(Bitmap bmp){
-        ByteArrayOutputStream blob = new ByteArrayOutputStream();
-        bmp.compress(Bitmap.CompressFormat.PNG, 0 /* Ignored for PNGs */, blob);
-        return blob.toByteArray();
+    private File getCaptureFile(){
+        return new File(new File(getCacheDir(), CAPTURE_DIRECTORY), CAPTURE_FILE);
     }
 
-    public static Bitmap byteArrayToBitmap(byte[] image){
-        return BitmapFactory.decodeByteArray(image, 0, image.length);
+    /**
+     * Show a photo decoded by a PhotoDecodeTask
+     * @param photo the photo, null if it could not be decoded
+     * @param captured true for a photo from the camera, false for the item's stored photo
+     */
+    private void onPhotoDecoded(Bitmap photo, boolean captured){
+        if(captured){
+            if(photo == null){
+                mPhotoTaken = false;
+                Toast.makeText(this, R.string.photo_unreadable, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            mPhoto = photo;
+        }else if(mPhoto != null){
+            //A photo taken since then replaces the stored one
+            mBitmapPool.put(photo);
+            return;
+        }
+
+        Bitmap previous = mShownPhoto;
+        mShownPhoto = photo;
+        if(photo != null){
+            mItemImageView.setImageBitmap(photo);
+            mItemImageView.setVisibility(View.VISIBLE);
+        }else{
+            mItemImageView.setImageDrawable(null);
+            mItemImageView.setVisibility(GONE);
+        }
+        //The photo shown before isn't drawn anymore
+        if(previous != photo){
+            mBitmapPool.put(previous);
+        }
+    }
+
+    /**
+     * Decodes a camera capture or the stored photo of an item on a background thread
+     */
+    private static class PhotoDecodeTask extends AsyncTask<Void, Void, Bitmap> {
+        private final WeakReference<EditorActivity> mActivity;
+        private final ContentResolver mResolver;
+        private final BitmapPool mBitmapPool;
+        //Camera capture to decode, null to decode mImageUri
+        private final File mCaptureFile;
+        private final Uri mImageUri;
+        private final int mMaxEdge;
+
+        /**
+         * Decode a camera capture at the size it is stored
+         */
+        PhotoDecodeTask(EditorActivity activity, File captureFile){
+            mActivity = new WeakReference<>(activity);
+            mResolver = activity.getContentResolver();
+            mBitmapPool = activity.mBitmapPool;
+            mCaptureFile = captureFile;
+            mImageUri = null;
+            mMaxEdge = ImageStore.MAX_PHOTO_SIZE;
+        }
+
+        /**
+         * Decode a stored photo at the size it is shown, no wider than the screen
+         * @param imageUri uri built with ItemEntry.buildImageUri
+         */
+        PhotoDecodeTask(EditorActivity activity, Uri imageUri){
+            mActivity = new WeakReference<>(activity);
+            mResolver = activity.getContentResolver();
+            mBitmapPool = activity.mBitmapPool;
+            mCaptureFile = null;
+            mImageUri = imageUri;
+            mMaxEdge = Math.min(ImageStore.MAX_PHOTO_SIZE,
+                    activity.getResources().getDisplayMetrics().widthPixels);
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            if(mCaptureFile != null){
+                return PhotoDecoder.decodeFile(mCaptureFile, mMaxEdge, mBitmapPool);
+            }
+            try {
+                return PhotoDecoder.decodeUri(mResolver, mImageUri, mMaxEdge, mBitmapPool);
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap photo) {
+            EditorActivity activity = mActivity.get();
+            if(activity != null && !activity.isFinishing()){
+                activity.onPhotoDecoded(photo, mCaptureFile != null);
+            }else{
+                mBitmapPool.put(photo);
+            }
+        }
     }
 
     /**
@@ -703,10 +932,11 @@ public class EditorActivity extends AppCompatActivity
         String[] projection = {
                 ItemEntry._ID,
                 ItemEntry.COLUMN_QUANTITY,
-                ItemEntry.COLUMN_PRICE,
+                ItemEntry.COLUMN_PRICE_CENTS,
+                ItemEntry.COLUMN_SALE_STATUS,
                 ItemEntry.COLUMN_SUPPLIER,
                 ItemEntry.COLUMN_NAME,
-                ItemEntry.COLUMN_IMAGE};
+                ItemEntry.COLUMN_IMAGE_FILE};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -729,34 +959,41 @@ public class EditorActivity extends AppCompatActivity
             // Find the columns of item attributes that we're interested in
             int idColumnIndex = cursor.getColumnIndex(ItemEntry._ID);
             int nameColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_NAME);
-            int priceColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_PRICE);
+            int priceColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_PRICE_CENTS);
+            int saleStatusColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_SALE_STATUS);
             int quantityColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_QUANTITY);
             int supplierColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_SUPPLIER);
-            int imageColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_IMAGE);
+            int imageColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_IMAGE_FILE);
 
             // Extract out the value from the Cursor for the given column index
             int id = cursor.getInt(idColumnIndex);
             String name = cursor.getString(nameColumnIndex);
-            priceBeforeChange = cursor.getDouble(priceColumnIndex);
-            quantityBeforeChange = cursor.getInt(quantityColumnIndex);
+            long priceCents = cursor.getLong(priceColumnIndex);
+            int saleStatus = cursor.getInt(saleStatusColumnIndex);
+            int quantity = cursor.getInt(quantityColumnIndex);
             String supplier= cursor.getString(supplierColumnIndex);
 
             // Update the views on the screen with the values from the database
             mItemTitleEditText.setText(name);
             mItemSupplierEditText.setText(supplier);
-            mItemQuantityTextView.setText(Integer.toString(quantityBeforeChange));
-            mItemQuantityEditText.setText(Integer.toString(quantityBeforeChange));
-            mItemPriceEditText.setText(Double.toString(priceBeforeChange));
+            mItemQuantityTextView.setText(Integer.toString(quantity));
+            mItemQuantityEditText.setText(Integer.toString(quantity));
+            mSaleStatusSpinner.setSelection(saleStatus);
+            mItemPriceEditText.setText(saleStatus == ItemEntry.STATUS_FOR_SALE
+                    ? Prices.formatCents(priceCents) : "");
             mIdValueText.setText(Integer.toString(id));
 
-            //if an image exists in this row entry
-            if(cursor.getBlob(imageColumnIndex) != null){
-                byte[] image = cursor.getBlob(imageColumnIndex);
-                Bitmap imageBit = byteArrayToBitmap(image);
-                mItemImageView.setImageBitmap(imageBit);
-            }else{
-                mItemImageView.setVisibility(GONE);
+            //The loader reloads on every change to the item, the photo is only decoded
+            //again when the provider stored a new one
+            String imageName = cursor.getString(imageColumnIndex);
+            if(imageName == null){
+                if(mPhoto == null){
+                    mItemImageView.setVisibility(GONE);
+                }
+            }else if(!imageName.equals(mStoredPhotoName)){
+                new PhotoDecodeTask(this, ItemEntry.buildImageUri(id)).execute();
             }
+            mStoredPhotoName = imageName;
         }
     }
 
@@ -7,7 +7,6 @@ TODO - Change " Track a Sale" ti "Remove Inventory"
 TODO - Change "Recieve Shipment" to "Add Inventory"
 TODO - Alter sample item. i.e. Take unique photos, No trademarks
 TODO - add ability to select photo from device
-TODO - Export/Import database??
 TODO - Shared preferences?
         TODO - Prefered curency + curency conversion
         TODO - add option to alter email message
@@ -20,38 +19,72 @@ TODO - Alter home screen message when database is empty
 package com.joshdoucet.snapandsave.activities;
 
 import android.app.LoaderManager;
+import android.app.ProgressDialog;
 import android.content.ContentUris;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.StrictMode;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.support.v7.widget.SimpleItemAnimator;
+import android.text.TextUtils;
+import android.text.format.Formatter;
+import android.util.Log;
+import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.joshdoucet.snapandsave.BuildConfig;
 import com.joshdoucet.snapandsave.R;
+import com.joshdoucet.snapandsave.data.BitmapPool;
+import com.joshdoucet.snapandsave.data.ImageCodec;
+import com.joshdoucet.snapandsave.data.InventoryContract;
 import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
-import com.joshdoucet.snapandsave.data.InventoryCursorAdapter;
+import com.joshdoucet.snapandsave.data.InventoryContract.SummaryEntry;
+import com.joshdoucet.snapandsave.data.InventoryCsv;
+import com.joshdoucet.snapandsave.data.InventoryExporter;
+import com.joshdoucet.snapandsave.data.InventoryImporter;
+import com.joshdoucet.snapandsave.data.InventoryListAdapter;
+import com.joshdoucet.snapandsave.data.ItemWriteQueue;
+import com.joshdoucet.snapandsave.data.PhotoReencoder;
+import com.joshdoucet.snapandsave.data.Prices;
+import com.joshdoucet.snapandsave.data.QuantityCoalescer;
+import com.joshdoucet.snapandsave.data.SnapshotManager;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 
 /**
  *  OVERVIEW InventoryActivity
  *
- * - This activity will display a list of a stores inventory data enclosed in a ListView
+ * - This activity will display a list of a stores inventory data enclosed in a RecyclerView
  *
- * - The ListView will be populated via the InventoryCursorAdapter.
- *      and the CursorAdapter will gather all necessary info about the inventory
+ * - The RecyclerView will be populated via the InventoryListAdapter.
+ *      and the adapter will gather all necessary info about the inventory
  *      from a cursor prov* - The InventoryContract provides constants related to the inventory database
  *      such as table names, column names, content uri etc.
  *      This class helps to reduce errors when performing operations on the DB.ided be the inventory database helper classes
@@ -68,23 +101,80 @@ import java.text.DecimalFormat;
 
 public class InventoryActivity extends AppCompatActivity
                         implements LoaderManager.LoaderCallbacks<Cursor>{
+    public static final String LOG_TAG = InventoryActivity.class.getSimpleName();
 
-    //Adapter used to populate the ListView in the activity
-    InventoryCursorAdapter mInventoryCursorAdapter;
+    //Adapter used to populate the RecyclerView in the activity
+    InventoryListAdapter mInventoryAdapter;
 
-    //Unique ID for the Loader that fetches data from the snapandsave.db
-    private static final int ITEM_LOADER_ID = 4;
+    //Unique ID for the Loader that fetches the inventory totals
+    private static final int SUMMARY_LOADER_ID = 6;
+
+    //The list is read one page at a time, page N is fetched by the loader with this ID + N
+    private static final int FIRST_PAGE_LOADER_ID = 100;
+
+    //Rows per page, and how close to the end of the list the next page is requested
+    private static final int PAGE_SIZE = 200;
+    private static final int PAGE_PREFETCH_DISTANCE = 50;
+
+    //Unique ID for the Loader that fetches search results
+    private static final int SEARCH_LOADER_ID = 7;
+
+    //Max number of search results shown
+    private static final int SEARCH_LIMIT = 200;
+
+    //Loader args that hold the search query
+    private static final String ARG_QUERY = "query";
+
+    //Loader args that hold the sort mode of a page and the sort key of the row it starts after
+    private static final String ARG_SORT = "sort";
+    private static final String ARG_AFTER_KEY = "after_key";
+    private static final String ARG_AFTER_ID = "after_id";
+
+    //Saved instance state key of the sort mode
+    private static final String STATE_SORT = "sort";
+
+    // Define a projection that specifies which columns from the database
+    // the list will actually use
+    private static final String[] LIST_PROJECTION = {
+            ItemEntry._ID,
+            ItemEntry.COLUMN_NAME,
+            ItemEntry.COLUMN_PRICE_CENTS,
+            ItemEntry.COLUMN_SALE_STATUS,
+            ItemEntry.COLUMN_QUANTITY,
+            ItemEntry.COLUMN_SUPPLIER,
+            ItemEntry.COLUMN_THUMBNAIL_FILE};
 
     public TextView mTotalValueView;
+    private View mEmptyView;
+
+    //Cursor of every requested page in list order, null while a page is loading
+    private final ArrayList<Cursor> mPages = new ArrayList<>();
+    //Rows the adapter read from each page cursor, null while the page is loading
+    private final ArrayList<List<InventoryListAdapter.Row>> mPageRows = new ArrayList<>();
+    //Loader args each requested page was started with
+    private final ArrayList<Bundle> mPageArgs = new ArrayList<>();
 
-    public static double totalInventoryValue;
+    //Text in the search box, null while the full list is shown
+    private String mSearchQuery;
 
-    //if loader has started once
-    boolean hasStartedOnce = false;
+    //Sort mode of the list, one of the ItemEntry.SORT_ values
+    private String mSortOrder = ItemEntry.SORT_NAME;
+
+    //_ID of every row on a loaded page, mapped to the index of its page
+    private final HashMap<Long, Integer> mRowPages = new HashMap<>();
+    //_IDs of updated rows on each page that is being reloaded. A row missing from its page
+    //after the reload had its sort key changed and moved to another page
+    private final SparseArray<HashSet<Long>> mUpdatedRows = new SparseArray<>();
+
+    //Reloads only the page of an item that was inserted, updated or deleted
+    private final ContentObserver mItemObserver = new ItemChangeObserver();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        if(savedInstanceState != null){
+            mSortOrder = savedInstanceState.getString(STATE_SORT, ItemEntry.SORT_NAME);
+        }
         setContentView(R.layout.activity_inventory);
 
         //FAB that will open the Inventory "EditorActivity"
@@ -102,20 +192,11 @@ public class InventoryActivity extends AppCompatActivity
 
         mTotalValueView = (TextView) findViewById(R.id.value_total);
 
-        //Initialize CursorAdapter that will be populated with data
-        mInventoryCursorAdapter = new InventoryCursorAdapter(this, null);
-
-        //Initialize list view that will be populated with items in the store inventory
-        ListView inventoryListView = (ListView) findViewById(R.id.inventory_list_view);
-        //Set empty view for when the list view is empty
-        inventoryListView.setEmptyView(findViewById(R.id.empty_view));
-        //Set adapter for the list view
-        inventoryListView.setAdapter(mInventoryCursorAdapter);
-
-        //On item click...
-        inventoryListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        //Initialize the adapter, on item click...
+        mInventoryAdapter = new InventoryListAdapter(this,
+                new InventoryListAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onItemClick(long id) {
                 //Create intent that will open the Editor Activity
                 Intent openEditorIntent = new Intent(InventoryActivity.this, EditorActivity.class);
                 //Append the clicked ID to the CONTENT_URI for the items table
@@ -126,42 +207,88 @@ public class InventoryActivity extends AppCompatActivity
             }
         });
 
+        //Initialize list view that will be populated with items in the store inventory
+        RecyclerView inventoryListView = (RecyclerView) findViewById(R.id.inventory_list_view);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        inventoryListView.setLayoutManager(layoutManager);
+        inventoryListView.setAdapter(mInventoryAdapter);
+        //Rows fade in and out as items are added or removed, changed rows are just rebound
+        ((SimpleItemAnimator) inventoryListView.getItemAnimator())
+                .setSupportsChangeAnimations(false);
+        //Shown while the list is empty
+        mEmptyView = findViewById(R.id.empty_view);
+
+        //Fetch the next page when the user scrolls close to the end of the loaded rows.
+        //Also called after a layout, so a short first page is followed by the next one
+        inventoryListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if(layoutManager.findLastVisibleItemPosition() + PAGE_PREFETCH_DISTANCE
+                        >= mInventoryAdapter.getItemCount()){
+                    loadNextPage();
+                }
+            }
+        });
+
         //initialize LoaderCallBacks for a CursorLoader that will read info about items
         //from the Store Inventory database via the Inventory Content Provider
-        getLoaderManager().initLoader(ITEM_LOADER_ID, null, this);
+        //Only the first page is read up front, the rest follow as the list scrolls
+        startPage(0, firstPageArgs(), false);
+        //The inventory value is read from the provider's summary row
+        getLoaderManager().initLoader(SUMMARY_LOADER_ID, null, this);
+        //Page cursors don't watch single items, changes to them are handled here
+        getContentResolver().registerContentObserver(ItemEntry.CONTENT_URI, true,
+                mItemObserver);
 
     }
 
     /**
-     * Create a CursorLoader that will query item name price and quantity
+     * Create a CursorLoader that will query item name price and quantity for one page,
+     * or the inventory totals
      * @param id of the Inventory Loader constant
-     * @param args null
+     * @param args sort mode of a page and the sort key of the row it starts after
      * @return CursorLoader
      */
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection = {
-                ItemEntry._ID,
-                ItemEntry.COLUMN_NAME,
-                ItemEntry.COLUMN_PRICE,
-                ItemEntry.COLUMN_QUANTITY};
+        if(id == SEARCH_LOADER_ID){
+            //Ranked prefix search over names and suppliers
+            Uri searchUri = ItemEntry.buildSearchUri(args.getString(ARG_QUERY)).buildUpon()
+                    .appendQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT,
+                            String.valueOf(SEARCH_LIMIT))
+                    .build();
+            return new CursorLoader(this, searchUri, LIST_PROJECTION, null, null, null);
+        }
+        if(id == SUMMARY_LOADER_ID){
+            //Single row with totals, the provider keeps it up to date on every write
+            String[] summaryProjection = { SummaryEntry.COLUMN_TOTAL_VALUE_CENTS };
+            return new CursorLoader(this, SummaryEntry.CONTENT_URI, summaryProjection,
+                    null, null, null);
+        }
 
         //Prevents SQL injection
         String selection = null;
         String[] selectionArgs = null;
 
+        //URI for a single page, starting after the row in args
+        String sort = args.getString(ARG_SORT);
+        Uri pageUri;
+        if(args.containsKey(ARG_AFTER_ID)){
+            pageUri = ItemEntry.buildPageUri(sort, args.getString(ARG_AFTER_KEY),
+                    args.getLong(ARG_AFTER_ID), PAGE_SIZE);
+        }else{
+            pageUri = ItemEntry.buildPageUri(sort, PAGE_SIZE);
+        }
+
         // Perform a query on the item table via the ContentResolver
         // and the InventoryProvider using a background CursorLoader
         return new CursorLoader(
                 this,                   //Current Activity
-                ItemEntry.CONTENT_URI,   //Content URI for items table
-                projection,             //Columns to select
+                pageUri,                //Content URI for one page of the items table
+                LIST_PROJECTION,        //Columns to select
                 selection,              //Selection, the WHERE SQL
                 selectionArgs,           //SelectionArgs WHERE values
-                null);                  //Sort Order
+                null);                  //Sort Order, set by the sort mode in the page URI
     }
 
 
@@ -169,28 +296,62 @@ public class InventoryActivity extends AppCompatActivity
 
     /**
      * Swap in new / altered cursor info to the cursor adapter
-     * Calculate new total value of the store inventory
+     * or display the new total value of the store inventory
      */
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if(loader.getId() == SUMMARY_LOADER_ID){
+            //Display formatted total inventory value
+            long totalValueCents = data.moveToFirst() ? data.getLong(0) : 0;
+            formatTotal(totalValueCents);
+            return;
+        }
+        if(loader.getId() == SEARCH_LOADER_ID){
+            //Search results replace the list until the search is cleared
+            if(mSearchQuery != null){
+                showRows(mInventoryAdapter.readRows(data));
+            }
+            return;
+        }
+
+        int page = loader.getId() - FIRST_PAGE_LOADER_ID;
+        if(page >= mPages.size()){
+            //Page was dropped while it was loading
+            return;
+        }
+        mPages.set(page, data);
+        mPageRows.set(page, mInventoryAdapter.readRows(data));
+        HashSet<Long> pageRows = mapPageRows(page, data);
+
+        if(data.getCount() < PAGE_SIZE){
+            //This is the last page now, drop any pages that used to follow it
+            dropPagesAfter(page);
+        }else if(page + 1 < mPages.size()){
+            //If the last row of this page moved, the next page has to start after the new one
+            Bundle nextArgs = argsAfterLastRow(data);
+            Bundle oldArgs = mPageArgs.get(page + 1);
+            if(!TextUtils.equals(nextArgs.getString(ARG_AFTER_KEY),
+                    oldArgs.getString(ARG_AFTER_KEY))
+                    || nextArgs.getLong(ARG_AFTER_ID) != oldArgs.getLong(ARG_AFTER_ID)){
+                startPage(page + 1, nextArgs, true);
+            }
+        }
+
         //Update the cursor with new updated data
-        mInventoryCursorAdapter.swapCursor(data);
-
-        //If this is the first time the loader is running
-        if(!hasStartedOnce) {
-            hasStartedOnce = true;
-            totalInventoryValue = 0;
-            while (data.moveToNext()) {
-                int quantity = data.getInt(data.getColumnIndex(ItemEntry.COLUMN_QUANTITY));
-                double price = data.getDouble(data.getColumnIndex(ItemEntry.COLUMN_PRICE));
-                if(price != ItemEntry.FREE && price != ItemEntry.NOT_FOR_SALE) {
-                    InventoryActivity.totalInventoryValue += (quantity * price);
+        showLoadedPages();
+
+        //An updated row that left this page moved somewhere else in the list
+        HashSet<Long> updatedRows = mUpdatedRows.get(page);
+        if(updatedRows != null){
+            mUpdatedRows.remove(page);
+            for(Long id : updatedRows){
+                if(!pageRows.contains(id)){
+                    mRowPages.remove(id);
+                    reloadLoadedPages();
+                    break;
                 }
             }
         }
-
-        //Display formatted total inventory value
-        formatTotal();
     }
 
     /**
@@ -199,10 +360,264 @@ public class InventoryActivity extends AppCompatActivity
      */
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        if(loader.getId() == SUMMARY_LOADER_ID){
+            formatTotal(0);
+            return;
+        }
+        if(loader.getId() == SEARCH_LOADER_ID){
+            if(mSearchQuery != null){
+                showRows(Collections.<InventoryListAdapter.Row>emptyList());
+            }
+            return;
+        }
         //Called when data in the adapter needs to be deleted
-        mInventoryCursorAdapter.swapCursor(null);
-        //Display formatted total inventory value
-        formatTotal();
+        int page = loader.getId() - FIRST_PAGE_LOADER_ID;
+        if(page < mPages.size()){
+            mPages.set(page, null);
+            mPageRows.set(page, null);
+        }
+        showLoadedPages();
+    }
+
+    /**
+     * Start or restart the loader of one page
+     * @param page index of the page, 0 is the first
+     * @param args sort mode of the page and the sort key of the row it starts after
+     * @param restart true to replace a loader that may already exist for the page
+     */
+    private void startPage(int page, Bundle args, boolean restart){
+        if(page == mPages.size()){
+            mPages.add(null);
+            mPageRows.add(null);
+            mPageArgs.add(args);
+        }else{
+            mPages.set(page, null);
+            mPageRows.set(page, null);
+            mPageArgs.set(page, args);
+        }
+        if(restart){
+            getLoaderManager().restartLoader(FIRST_PAGE_LOADER_ID + page, args, this);
+        }else{
+            getLoaderManager().initLoader(FIRST_PAGE_LOADER_ID + page, args, this);
+        }
+    }
+
+    /**
+     * Request the page after the last loaded one. Nothing happens while a page is still
+     * loading or when the last page was not full, meaning the end of the table was reached.
+     */
+    private void loadNextPage(){
+        if(mSearchQuery != null){
+            //Search results are not paged
+            return;
+        }
+        int lastPage = mPages.size() - 1;
+        Cursor lastCursor = mPages.get(lastPage);
+        if(lastCursor == null || lastCursor.getCount() < PAGE_SIZE){
+            return;
+        }
+        startPage(lastPage + 1, argsAfterLastRow(lastCursor), false);
+    }
+
+    /**
+     * Destroy the loaders of every page after the given one
+     */
+    private void dropPagesAfter(int page){
+        for(int i = mPages.size() - 1; i > page; i--){
+            mPages.remove(i);
+            mPageRows.remove(i);
+            mPageArgs.remove(i);
+            getLoaderManager().destroyLoader(FIRST_PAGE_LOADER_ID + i);
+        }
+    }
+
+    /**
+     * @return loader args for the first page in the current sort mode
+     */
+    private Bundle firstPageArgs(){
+        Bundle args = new Bundle();
+        args.putString(ARG_SORT, mSortOrder);
+        return args;
+    }
+
+    /**
+     * @return loader args for a page that starts after the last row of the given page
+     */
+    private Bundle argsAfterLastRow(Cursor page){
+        page.moveToLast();
+        Bundle args = firstPageArgs();
+        //A NULL key (no supplier) is left out, the provider sorts NULLs first
+        int keyColumn = page.getColumnIndex(ItemEntry.getSortColumn(mSortOrder));
+        if(!page.isNull(keyColumn)){
+            args.putString(ARG_AFTER_KEY, page.getString(keyColumn));
+        }
+        args.putLong(ARG_AFTER_ID, page.getLong(page.getColumnIndex(ItemEntry._ID)));
+        return args;
+    }
+
+    /**
+     * Reload the list from the first page in a new sort mode
+     * @param sort one of the ItemEntry.SORT_ values
+     */
+    private void setSortOrder(String sort){
+        if(sort.equals(mSortOrder)){
+            return;
+        }
+        mSortOrder = sort;
+        mRowPages.clear();
+        mUpdatedRows.clear();
+        dropPagesAfter(0);
+        startPage(0, firstPageArgs(), true);
+        showLoadedPages();
+    }
+
+    /**
+     * Remember the page of every row in a page that just loaded
+     * @return _ID of every row in the page
+     */
+    private HashSet<Long> mapPageRows(int page, Cursor data){
+        HashSet<Long> pageRows = new HashSet<>();
+        int idColumn = data.getColumnIndex(ItemEntry._ID);
+        data.moveToPosition(-1);
+        while(data.moveToNext()){
+            long id = data.getLong(idColumn);
+            mRowPages.put(id, page);
+            pageRows.add(id);
+        }
+        return pageRows;
+    }
+
+    /**
+     * Reload the page of a single item that was inserted, updated or deleted.
+     * The other pages and their cursors are left alone.
+     * @param uri change notification uri, see ItemEntry.buildChangeUri
+     */
+    private void onItemChanged(Uri uri){
+        String operation = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_OPERATION);
+        if(operation == null){
+            //Changes to many rows reach the page cursors directly
+            return;
+        }
+        if(InventoryContract.OPERATION_INSERT.equals(operation)){
+            //Where a new row lands depends on its sort key, check every loaded page
+            reloadLoadedPages();
+            return;
+        }
+
+        long id = ContentUris.parseId(uri);
+        Integer page = mRowPages.get(id);
+        if(page == null || page >= mPages.size()){
+            if(InventoryContract.OPERATION_UPDATE.equals(operation)){
+                //A row that isn't loaded may have been moved onto a loaded page
+                reloadLoadedPages();
+            }
+            return;
+        }
+
+        if(InventoryContract.OPERATION_DELETE.equals(operation)){
+            mRowPages.remove(id);
+        }else{
+            HashSet<Long> updatedRows = mUpdatedRows.get(page);
+            if(updatedRows == null){
+                updatedRows = new HashSet<>();
+                mUpdatedRows.put(page, updatedRows);
+            }
+            updatedRows.add(id);
+        }
+        reloadPage(page);
+    }
+
+    /**
+     * Query a page again with the same arguments. The old cursor stays on screen until
+     * the new one is delivered to onLoadFinished.
+     */
+    private void reloadPage(int page){
+        Loader<Cursor> loader = getLoaderManager().getLoader(FIRST_PAGE_LOADER_ID + page);
+        if(loader != null){
+            loader.onContentChanged();
+        }
+    }
+
+    /**
+     * Query every requested page again
+     */
+    private void reloadLoadedPages(){
+        for(int page = 0; page < mPages.size(); page++){
+            reloadPage(page);
+        }
+    }
+
+    /**
+     * Hands item change notifications to onItemChanged on the main thread
+     */
+    private class ItemChangeObserver extends ContentObserver {
+        ItemChangeObserver(){
+            super(new Handler(Looper.getMainLooper()));
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            //Before API 16 the changed uri isn't passed on, so every page has to be checked
+            reloadLoadedPages();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if(uri == null){
+                onChange(selfChange);
+                return;
+            }
+            onItemChanged(uri);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        //Taps on "-1" are committed before another screen or app can read the quantities
+        QuantityCoalescer.getInstance(this).flush();
+        //Queued after the flush, so its sales are in the snapshots too
+        ItemWriteQueue.getInstance(this).compactMovements(null);
+    }
+
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(mItemObserver);
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT, mSortOrder);
+    }
+
+    /**
+     * Show every loaded page, in order, up to the first page that is still loading
+     */
+    private void showLoadedPages(){
+        if(mSearchQuery != null){
+            //Pages keep loading in the background but search results stay on screen
+            return;
+        }
+        //Pages were read into rows when they loaded, no cursor is read again here
+        ArrayList<InventoryListAdapter.Row> rows = new ArrayList<>();
+        for(List<InventoryListAdapter.Row> pageRows : mPageRows){
+            if(pageRows == null){
+                break;
+            }
+            rows.addAll(pageRows);
+        }
+        showRows(rows);
+    }
+
+    /**
+     * Hand a new list to the adapter. It is compared with the shown list in the background,
+     * only rows that changed are rebound.
+     */
+    private void showRows(List<InventoryListAdapter.Row> rows){
+        mInventoryAdapter.submitList(rows);
+        mEmptyView.setVisibility(rows.isEmpty() ? View.VISIBLE : View.GONE);
     }
 
     /**
@@ -213,15 +628,109 @@ public class InventoryActivity extends AppCompatActivity
     @Override
     public boolean onCreateOptionsMenu(Menu menu){
         getMenuInflater().inflate(R.menu.menu_inventory, menu);
+
+        //Check the sort mode the list is shown in
+        int sortItemId = R.id.menu_sort_name;
+        if(ItemEntry.SORT_PRICE.equals(mSortOrder)){
+            sortItemId = R.id.menu_sort_price;
+        }else if(ItemEntry.SORT_QUANTITY.equals(mSortOrder)){
+            sortItemId = R.id.menu_sort_quantity;
+        }else if(ItemEntry.SORT_SUPPLIER.equals(mSortOrder)){
+            sortItemId = R.id.menu_sort_supplier;
+        }
+        menu.findItem(sortItemId).setChecked(true);
+
+        //Provider metrics are a debugging aid, release builds still record them
+        menu.findItem(R.id.menu_metrics).setVisible(BuildConfig.DEBUG);
+
+        //Search box in the app bar, results update as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.menu_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Show the items matching a search query, or the full list again for an empty query
+     */
+    private void search(String query){
+        query = query.trim();
+        if(query.isEmpty()){
+            if(mSearchQuery != null){
+                mSearchQuery = null;
+                getLoaderManager().destroyLoader(SEARCH_LOADER_ID);
+                showLoadedPages();
+            }
+            return;
+        }
+        if(query.equals(mSearchQuery)){
+            return;
+        }
+
+        mSearchQuery = query;
+        Bundle args = new Bundle();
+        args.putString(ARG_QUERY, query);
+        getLoaderManager().restartLoader(SEARCH_LOADER_ID, args, this);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item){
         switch(item.getItemId()){
             case R.id.menu_delete_database:
                 showDeleteConfirmationDialog();
                 break;
+            case R.id.menu_export:
+                new ExportTask(getApplicationContext(), false).execute();
+                break;
+            case R.id.menu_export_photos:
+                new ExportTask(getApplicationContext(), true).execute();
+                break;
+            case R.id.menu_import:
+                new ImportTask(getApplicationContext()).execute();
+                break;
+            case R.id.menu_backup:
+                new SnapshotTask(this, null).execute();
+                break;
+            case R.id.menu_restore:
+                showRestoreConfirmationDialog();
+                break;
+            case R.id.menu_photo_format:
+                showPhotoFormatDialog();
+                break;
+            case R.id.menu_reencode_photos:
+                showReencodeConfirmationDialog();
+                break;
+            case R.id.menu_metrics:
+                startActivity(new Intent(InventoryActivity.this, MetricsActivity.class));
+                break;
+            case R.id.menu_sort_name:
+                item.setChecked(true);
+                setSortOrder(ItemEntry.SORT_NAME);
+                break;
+            case R.id.menu_sort_price:
+                item.setChecked(true);
+                setSortOrder(ItemEntry.SORT_PRICE);
+                break;
+            case R.id.menu_sort_quantity:
+                item.setChecked(true);
+                setSortOrder(ItemEntry.SORT_QUANTITY);
+                break;
+            case R.id.menu_sort_supplier:
+                item.setChecked(true);
+                setSortOrder(ItemEntry.SORT_SUPPLIER);
+                break;
             default:
                 return false;
         }
@@ -258,37 +767,305 @@ public class InventoryActivity extends AppCompatActivity
     }
 
     /**
-     * Delete all items from the Items Inventory table
+     * Dialog to be shown before the inventory is replaced by the newest backup
+     */
+    private void showRestoreConfirmationDialog() {
+        final File snapshot;
+        //getExternalFilesDir creates the app's external directory the first time it is called,
+        //a one time mkdir that is allowed on the main thread
+        StrictMode.ThreadPolicy threadPolicy = StrictMode.allowThreadDiskWrites();
+        try {
+            SnapshotManager snapshotManager = new SnapshotManager(this);
+            File[] snapshots = snapshotManager.listSnapshots();
+            if(snapshots.length == 0){
+                Toast.makeText(this, getString(R.string.restore_none,
+                        snapshotManager.getSnapshotDirectory().getPath()),
+                        Toast.LENGTH_LONG).show();
+                return;
+            }
+            snapshot = snapshots[0];
+        } catch (IOException e) {
+            Toast.makeText(this, R.string.restore_failed, Toast.LENGTH_SHORT).show();
+            return;
+        } finally {
+            StrictMode.setThreadPolicy(threadPolicy);
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(getString(R.string.restore_dialog_msg, snapshot.getName()));
+        builder.setPositiveButton(R.string.restore, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                new SnapshotTask(InventoryActivity.this, snapshot).execute();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Dialog to pick the codec new photos are saved with
+     */
+    private void showPhotoFormatDialog() {
+        final String[] formatNames = getResources().getStringArray(R.array.photo_formats);
+        int checked = ImageCodec.load(this).getPresetIndex();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.menu_photo_format);
+        builder.setSingleChoiceItems(formatNames, checked, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                ImageCodec.PRESETS[which].save(InventoryActivity.this);
+                Toast.makeText(InventoryActivity.this,
+                        getString(R.string.photo_format_saved, formatNames[which]),
+                        Toast.LENGTH_SHORT).show();
+                dialog.dismiss();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Dialog to be shown before every stored photo is encoded again with the picked codec
+     */
+    private void showReencodeConfirmationDialog() {
+        ImageCodec codec = ImageCodec.load(this);
+        int preset = codec.getPresetIndex();
+        String formatName = preset == -1 ? codec.getFormat()
+                : getResources().getStringArray(R.array.photo_formats)[preset];
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(getString(R.string.reencode_dialog_msg, formatName));
+        builder.setPositiveButton(R.string.reencode, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                new ReencodeTask(getApplicationContext()).execute();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Queue all items to be deleted from the Items Inventory table
      */
     public void deleteAllItems(){
-        //Delete all rows in the Items table
-        int rowsDeleted = getContentResolver().delete(ItemEntry.CONTENT_URI,
-                null, null);
-
-        if(rowsDeleted > 0){
-            //Prompt User of Successful Deletion
-            Toast.makeText(this, getString(R.string.editor_delete_item_successful),
-                    Toast.LENGTH_SHORT).show();
-            totalInventoryValue = 0;
-            formatTotal();
-        }else{
-            //Prompt User of failed deletion
-            Toast.makeText(this, getString(R.string.editor_delete_item_failed),
-                    Toast.LENGTH_SHORT).show();
+        final Context appContext = getApplicationContext();
+        //Delete all rows in the Items table, the list empties itself once they are gone
+        ItemWriteQueue.getInstance(this).delete(ItemEntry.CONTENT_URI,
+                new ItemWriteQueue.Callback<Integer>() {
+            @Override
+            public void onWriteFinished(Integer rowsDeleted) {
+                //Prompt User of successful or failed deletion
+                Toast.makeText(appContext, rowsDeleted > 0
+                        ? R.string.editor_delete_item_successful
+                        : R.string.editor_delete_item_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Exports the inventory to InventoryCsv.getExportDirectory off the main thread.
+     * Holds the application context only, so a finished export never leaks the activity.
+     */
+    private static class ExportTask extends AsyncTask<Void, Void, String> {
+        private final Context mContext;
+        private final boolean mIncludePhotos;
+
+        ExportTask(Context context, boolean includePhotos){
+            mContext = context;
+            mIncludePhotos = includePhotos;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            Toast.makeText(mContext, R.string.export_started, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            try {
+                File directory = InventoryCsv.getExportDirectory(mContext);
+                InventoryExporter exporter = new InventoryExporter(mContext.getContentResolver());
+                exporter.exportTo(directory, mIncludePhotos);
+                return mContext.getString(R.string.export_done, exporter.getPhotos(),
+                        directory.getPath());
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Export failed", e);
+                return mContext.getString(R.string.export_failed);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String message) {
+            Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
         }
     }
 
-    @Override
-    protected void onResume() {
-        super.onResume();
-        formatTotal();
+    /**
+     * Adds the items of the CSV file in InventoryCsv.getExportDirectory off the main thread.
+     * The list reloads by itself as each chunk is inserted.
+     */
+    private static class ImportTask extends AsyncTask<Void, Void, String> {
+        private final Context mContext;
+
+        ImportTask(Context context){
+            mContext = context;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            Toast.makeText(mContext, R.string.import_started, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            String directoryPath = "";
+            try {
+                File directory = InventoryCsv.getExportDirectory(mContext);
+                directoryPath = directory.getPath();
+                InventoryImporter importer = new InventoryImporter(mContext.getContentResolver());
+                importer.importFrom(directory);
+                return mContext.getString(R.string.import_done, importer.getImported(),
+                        importer.getRejected());
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Import failed", e);
+                return mContext.getString(R.string.import_failed, directoryPath);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String message) {
+            Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Stores every photo again with the picked ImageCodec off the main thread. Each photo is
+     * its own write, the list keeps working and reloads the rows as they change.
+     */
+    private static class ReencodeTask extends AsyncTask<Void, Void, String> {
+        private final Context mContext;
+
+        ReencodeTask(Context context){
+            mContext = context;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            Toast.makeText(mContext, R.string.reencode_started, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            PhotoReencoder reencoder = new PhotoReencoder(mContext.getContentResolver(),
+                    ItemWriteQueue.getInstance(mContext), ImageCodec.load(mContext),
+                    BitmapPool.getInstance(mContext));
+            try {
+                reencoder.reencodeAll();
+            } catch (InterruptedException e) {
+                Log.e(LOG_TAG, "Re-encoding photos was interrupted", e);
+                return mContext.getString(R.string.reencode_failed);
+            }
+            return mContext.getString(R.string.reencode_done, reencoder.getReencoded(),
+                    Formatter.formatShortFileSize(mContext, reencoder.getBytesSaved()));
+        }
+
+        @Override
+        protected void onPostExecute(String message) {
+            Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Takes a snapshot, or restores one, off the main thread and shows its progress in a
+     * dialog. The activity is only weakly held so a long backup never leaks it.
+     */
+    private static class SnapshotTask extends AsyncTask<Void, Integer, String>
+            implements SnapshotManager.ProgressListener {
+        private final Context mContext;
+        private final WeakReference<InventoryActivity> mActivity;
+        //Snapshot to restore, null to take a new one
+        private final File mRestoreFrom;
+        private ProgressDialog mDialog;
+
+        SnapshotTask(InventoryActivity activity, File restoreFrom){
+            mContext = activity.getApplicationContext();
+            mActivity = new WeakReference<>(activity);
+            mRestoreFrom = restoreFrom;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            InventoryActivity activity = mActivity.get();
+            if(activity == null){
+                return;
+            }
+            mDialog = new ProgressDialog(activity);
+            mDialog.setMessage(activity.getString(mRestoreFrom == null
+                    ? R.string.backup_progress : R.string.restore_progress));
+            mDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mDialog.setMax(100);
+            mDialog.setCancelable(false);
+            mDialog.show();
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            SnapshotManager snapshotManager = new SnapshotManager(mContext);
+            if(mRestoreFrom == null){
+                try {
+                    File snapshot = snapshotManager.createSnapshot(this);
+                    return mContext.getString(R.string.backup_done, snapshot.getPath());
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Backup failed", e);
+                    return mContext.getString(R.string.backup_failed);
+                }
+            }
+            try {
+                snapshotManager.restoreSnapshot(mRestoreFrom, this);
+                return mContext.getString(R.string.restore_done);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Restore of " + mRestoreFrom + " failed", e);
+                return mContext.getString(R.string.restore_failed);
+            }
+        }
+
+        @Override
+        public void onProgress(long bytesDone, long bytesTotal) {
+            publishProgress((int) (bytesDone * 100 / Math.max(1, bytesTotal)));
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... percent) {
+            if(mDialog != null && mActivity.get() != null){
+                mDialog.setProgress(percent[0]);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String message) {
+            if(mDialog != null && mActivity.get() != null && !mActivity.get().isFinishing()){
+                mDialog.dismiss();
+            }
+            Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+        }
     }
 
-    private void formatTotal(){
-        //Display formatted total inventory value
-        DecimalFormat formatter = new DecimalFormat("#,###.00");
+    private void formatTotal(long totalValueCents){
+        //Display formatted total inventory value, exact to the cent
+        DecimalFormat formatter = new DecimalFormat("#,##0.00");
         String totalValue = getString(R.string.currency_symbol) +
-                formatter.format(totalInventoryValue);
+                formatter.format(Prices.toDollars(totalValueCents));
         mTotalValueView.setText(totalValue);
     }
 }
@@ -0,0 +1,178 @@
+package com.joshdoucet.snapandsave.activities;
+
+import android.app.LoaderManager;
+import android.content.Context;
+import android.content.CursorLoader;
+import android.content.Intent;
+import android.content.Loader;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.text.format.Formatter;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CursorAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.joshdoucet.snapandsave.R;
+import com.joshdoucet.snapandsave.data.InventoryContract.MetricsEntry;
+
+import java.util.Locale;
+
+/**
+ *  OVERVIEW MetricsActivity
+ *
+ * - Debug screen that lists the InventoryProvider's call metrics, the operations and URIs
+ *      the provider spent the most time on first. Each row shows the number of calls, the rows
+ *      and photo bytes they moved and their latency percentiles.
+ *
+ * - The metrics are only read when the screen opens or is refreshed. They can be reset to
+ *      measure a single task, or shared as text so a device in the field can report its hot
+ *      paths without a profiler attached.
+ */
+
+public class MetricsActivity extends AppCompatActivity
+                        implements LoaderManager.LoaderCallbacks<Cursor>{
+
+    //Unique ID for the metrics loader
+    private static final int METRICS_LOADER_ID = 0;
+
+    private MetricsAdapter mAdapter;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        ListView metricsListView = (ListView) findViewById(R.id.metrics_list_view);
+        metricsListView.setEmptyView(findViewById(R.id.metrics_empty_view));
+        mAdapter = new MetricsAdapter(this);
+        metricsListView.setAdapter(mAdapter);
+
+        getLoaderManager().initLoader(METRICS_LOADER_ID, null, this);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu){
+        getMenuInflater().inflate(R.menu.menu_metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item){
+        switch(item.getItemId()){
+            case R.id.menu_refresh_metrics:
+                getLoaderManager().restartLoader(METRICS_LOADER_ID, null, this);
+                return true;
+            case R.id.menu_reset_metrics:
+                //Metrics are kept in memory, deleting them is cheap enough for the main thread
+                getContentResolver().delete(MetricsEntry.CONTENT_URI, null, null);
+                getLoaderManager().restartLoader(METRICS_LOADER_ID, null, this);
+                return true;
+            case R.id.menu_share_metrics:
+                shareMetrics();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Send the metrics on screen as plain text, one operation per line
+     */
+    private void shareMetrics(){
+        Cursor cursor = mAdapter.getCursor();
+        if(cursor == null || cursor.getCount() == 0){
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        for(cursor.moveToPosition(-1); cursor.moveToNext(); ){
+            text.append(getTitle(cursor)).append(": ")
+                    .append(getDetail(this, cursor).replace('\n', ' ')).append('\n');
+        }
+
+        Intent shareIntent = new Intent(Intent.ACTION_SEND);
+        shareIntent.setType("text/plain");
+        shareIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.metrics_title));
+        shareIntent.putExtra(Intent.EXTRA_TEXT, text.toString());
+        startActivity(Intent.createChooser(shareIntent, getString(R.string.menu_share_metrics)));
+    }
+
+    /**
+     * Operation and URI pattern of the current row, like "query items/#"
+     */
+    private static String getTitle(Cursor cursor){
+        return cursor.getString(cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_OPERATION))
+                + " " + cursor.getString(cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_URI));
+    }
+
+    /**
+     * Counts and latencies of the current row
+     */
+    private static String getDetail(Context context, Cursor cursor){
+        return context.getString(R.string.metrics_detail,
+                getLong(cursor, MetricsEntry.COLUMN_CALLS),
+                getLong(cursor, MetricsEntry.COLUMN_ROWS),
+                Formatter.formatShortFileSize(context,
+                        getLong(cursor, MetricsEntry.COLUMN_BLOB_BYTES)),
+                formatMillis(getLong(cursor, MetricsEntry.COLUMN_P50_MICROS)),
+                formatMillis(getLong(cursor, MetricsEntry.COLUMN_P90_MICROS)),
+                formatMillis(getLong(cursor, MetricsEntry.COLUMN_P99_MICROS)),
+                formatMillis(getLong(cursor, MetricsEntry.COLUMN_MAX_MICROS)),
+                formatMillis(getLong(cursor, MetricsEntry.COLUMN_TOTAL_MICROS)));
+    }
+
+    private static long getLong(Cursor cursor, String column){
+        return cursor.getLong(cursor.getColumnIndexOrThrow(column));
+    }
+
+    //Microseconds as milliseconds with two decimals
+    private static String formatMillis(long micros){
+        return String.format(Locale.ROOT, "%.2f", micros / 1000.0);
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        // The provider copies the metrics on a background thread, they never notify changes
+        return new CursorLoader(this, MetricsEntry.CONTENT_URI, MetricsEntry.COLUMNS,
+                null, null, null);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        mAdapter.swapCursor(cursor);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        mAdapter.swapCursor(null);
+    }
+
+    /**
+     * Binds one metrics row to a two line list item
+     */
+    private static class MetricsAdapter extends CursorAdapter {
+
+        MetricsAdapter(Context context){
+            super(context, null, 0);
+        }
+
+        @Override
+        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+            return LayoutInflater.from(context)
+                    .inflate(R.layout.metrics_list_item, parent, false);
+        }
+
+        @Override
+        public void bindView(View view, Context context, Cursor cursor) {
+            TextView titleTextView = (TextView) view.findViewById(R.id.metrics_title_text_view);
+            TextView detailTextView = (TextView) view.findViewById(R.id.metrics_detail_text_view);
+            titleTextView.setText(getTitle(cursor));
+            detailTextView.setText(getDetail(context, cursor));
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *  - The BitmapPool keeps bitmaps that are no longer shown so the next decode can write into
+ *      them through BitmapFactory.Options.inBitmap instead of allocating a new one. Opening
+ *      item after item in the editor decodes photos of the same few sizes, so after the first
+ *      few the decoder reuses memory that already exists and the GC has little to collect.
+ *
+ *  - Bitmaps are kept by their size in bytes, up to a share of the app's memory class, and
+ *      the ones added first are evicted first. Before KitKat a decode can only reuse a bitmap
+ *      of exactly its size, later any large enough bitmap will do. The pool shrinks or empties
+ *      when the system asks the app to trim its memory.
+ *      A bitmap handed to put must not be shown or used anymore. Thread safe.
+ */
+
+public class BitmapPool {
+
+    //Part of the app's memory class the pool may hold, a few editor photos on most devices
+    private static final int POOL_MEMORY_DIVISOR = 16;
+
+    //A decode only takes a pooled bitmap up to this many times larger than it needs, so a
+    //small photo doesn't keep a large bitmap from the next decode that needs it
+    private static final int MAX_OVERSIZE = 4;
+
+    private static BitmapPool sInstance;
+
+    private final int mMaxBytes;
+    private int mBytes;
+
+    //Pooled bitmaps by their allocation size in bytes
+    private final TreeMap<Integer, ArrayList<Bitmap>> mBitmapsBySize = new TreeMap<>();
+    //Pooled bitmaps, the first one added first, it is evicted first
+    private final LinkedList<Bitmap> mBitmapsByAge = new LinkedList<>();
+
+    /**
+     * One pool is shared by the whole app, bitmaps freed by one screen are reused by the next
+     */
+    public static synchronized BitmapPool getInstance(Context context){
+        if(sInstance == null){
+            ActivityManager activityManager = (ActivityManager) context.getApplicationContext()
+                    .getSystemService(Context.ACTIVITY_SERVICE);
+            sInstance = new BitmapPool(
+                    activityManager.getMemoryClass() * 1024 * 1024 / POOL_MEMORY_DIVISOR);
+        }
+        return sInstance;
+    }
+
+    private BitmapPool(int maxBytes){
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Give a bitmap to the pool. Bitmaps that can't be reused are recycled instead.
+     * @param bitmap a bitmap nothing shows or uses anymore, may be null
+     */
+    public synchronized void put(Bitmap bitmap){
+        if(bitmap == null || bitmap.isRecycled()){
+            return;
+        }
+        int size = getAllocationSize(bitmap);
+        if(isPooled(bitmap, size)){
+            return;
+        }
+        if(!bitmap.isMutable() || size > mMaxBytes){
+            bitmap.recycle();
+            return;
+        }
+
+        ArrayList<Bitmap> sameSize = mBitmapsBySize.get(size);
+        if(sameSize == null){
+            sameSize = new ArrayList<>();
+            mBitmapsBySize.put(size, sameSize);
+        }
+        sameSize.add(bitmap);
+        mBitmapsByAge.addLast(bitmap);
+        mBytes += size;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Take a cleared bitmap from the pool to draw into
+     * @return a bitmap of exactly the asked size and config, or null if the pool has none
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config){
+        Bitmap bitmap;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT){
+            bitmap = takeLargeEnough(width * height * getBytesPerPixel(config));
+            if(bitmap != null){
+                reconfigure(bitmap, width, height, config);
+            }
+        }else{
+            bitmap = takeExactly(width, height, config);
+        }
+        if(bitmap != null){
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Set up the options of a sampled decode so it writes into a pooled bitmap if one fits.
+     * The decoded bitmap is made mutable, so it can be put back into the pool afterwards.
+     * @param options filled by a bounds decode, with inSampleSize set
+     */
+    public synchronized void prepareDecode(BitmapFactory.Options options){
+        options.inMutable = true;
+        options.inBitmap = null;
+        Bitmap.Config config = options.inPreferredConfig == null
+                ? Bitmap.Config.ARGB_8888 : options.inPreferredConfig;
+        int sampleSize = Math.max(1, options.inSampleSize);
+
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT){
+            //Decoders round the sampled size up, ask for a bitmap that covers that
+            int width = (options.outWidth + sampleSize - 1) / sampleSize;
+            int height = (options.outHeight + sampleSize - 1) / sampleSize;
+            options.inBitmap = takeLargeEnough(width * height * getBytesPerPixel(config));
+        }else if(sampleSize == 1){
+            //Older decoders only reuse a bitmap of exactly the image's size
+            options.inBitmap = takeExactly(options.outWidth, options.outHeight, config);
+        }
+    }
+
+    /**
+     * Free pooled bitmaps when the system runs low on memory,
+     * called from Application.onTrimMemory
+     * @param level one of the ComponentCallbacks2.TRIM_MEMORY_ levels
+     */
+    public synchronized void trimMemory(int level){
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL){
+            //The process may be killed next, give everything back
+            trimToSize(0);
+        }else if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW){
+            trimToSize(mMaxBytes / 2);
+        }
+    }
+
+    /**
+     * Remove the smallest pooled bitmap of at least the given size
+     */
+    private Bitmap takeLargeEnough(int bytes){
+        Map.Entry<Integer, ArrayList<Bitmap>> entry = mBitmapsBySize.ceilingEntry(bytes);
+        if(entry == null || entry.getKey() / MAX_OVERSIZE > bytes){
+            return null;
+        }
+        ArrayList<Bitmap> sameSize = entry.getValue();
+        return remove(sameSize.get(sameSize.size() - 1), entry.getKey());
+    }
+
+    /**
+     * Remove a pooled bitmap of exactly the given dimensions and config
+     */
+    private Bitmap takeExactly(int width, int height, Bitmap.Config config){
+        int size = width * height * getBytesPerPixel(config);
+        ArrayList<Bitmap> sameSize = mBitmapsBySize.get(size);
+        if(sameSize == null){
+            return null;
+        }
+        for(int i = sameSize.size() - 1; i >= 0; i--){
+            Bitmap bitmap = sameSize.get(i);
+            if(bitmap.getWidth() == width && bitmap.getHeight() == height
+                    && bitmap.getConfig() == config){
+                return remove(bitmap, size);
+            }
+        }
+        return null;
+    }
+
+    private Bitmap remove(Bitmap bitmap, int size){
+        ArrayList<Bitmap> sameSize = mBitmapsBySize.get(size);
+        sameSize.remove(bitmap);
+        if(sameSize.isEmpty()){
+            mBitmapsBySize.remove(size);
+        }
+        mBitmapsByAge.remove(bitmap);
+        mBytes -= size;
+        return bitmap;
+    }
+
+    /**
+     * Evict the bitmaps added first until the pool holds at most maxBytes
+     */
+    private void trimToSize(int maxBytes){
+        while(mBytes > maxBytes){
+            Bitmap oldest = mBitmapsByAge.getFirst();
+            remove(oldest, getAllocationSize(oldest));
+            oldest.recycle();
+        }
+    }
+
+    private boolean isPooled(Bitmap bitmap, int size){
+        ArrayList<Bitmap> sameSize = mBitmapsBySize.get(size);
+        return sameSize != null && sameSize.contains(bitmap);
+    }
+
+    /**
+     * @return bytes of memory a bitmap holds, which can be more than its pixels need
+     */
+    private static int getAllocationSize(Bitmap bitmap){
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT){
+            return getAllocationByteCount(bitmap);
+        }
+        return bitmap.getByteCount();
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int getAllocationByteCount(Bitmap bitmap){
+        return bitmap.getAllocationByteCount();
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void reconfigure(Bitmap bitmap, int width, int height, Bitmap.Config config){
+        bitmap.reconfigure(width, height, config);
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config){
+        if(config == Bitmap.Config.ALPHA_8){
+            return 1;
+        }
+        if(config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444){
+            return 2;
+        }
+        return 4;
+    }
+}
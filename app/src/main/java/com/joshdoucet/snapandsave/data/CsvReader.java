@@ -0,0 +1,142 @@
+package com.joshdoucet.snapandsave.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ *  - The CsvReader reads a CSV file one record at a time, so a file of any size can be
+ *      imported without loading it into memory. Fields may be quoted with " to hold commas,
+ *      line breaks and "" for a quote. Lines may end with \n or \r\n.
+ */
+
+public class CsvReader implements Closeable {
+
+    //Returned by read at the end of the input
+    private static final int END = -1;
+    //Value of mPushedBack when no char was pushed back
+    private static final int NONE = -2;
+
+    //Byte order mark some spreadsheet programs write at the start of a UTF-8 file
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    //Should be buffered, chars are read one at a time
+    private final Reader mReader;
+
+    //Reused for the text of every field
+    private final StringBuilder mField = new StringBuilder();
+
+    //Char read ahead after a \r, or NONE
+    private int mPushedBack = NONE;
+
+    //Line the reader is on, and the line the last record started on
+    private int mLine = 1;
+    private int mRecordLine;
+
+    private boolean mStarted;
+
+    public CsvReader(Reader reader){
+        mReader = reader;
+    }
+
+    /**
+     * Read the next record
+     * @param fields cleared, then filled with the fields of the record
+     * @return false at the end of the input
+     * @throws IOException if the input could not be read or ends inside a quoted field
+     */
+    public boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+        int c = read();
+        if(c == END){
+            return false;
+        }
+
+        mRecordLine = mLine;
+        mField.setLength(0);
+        boolean quoted = false;
+        while(true){
+            if(quoted){
+                if(c == END){
+                    throw new IOException("Unterminated quote in record on line " + mRecordLine);
+                }
+                if(c == '"'){
+                    c = read();
+                    if(c == '"'){
+                        //An escaped quote inside a quoted field
+                        mField.append('"');
+                        c = read();
+                    }else{
+                        //End of the quoted part, c is handled like any unquoted char
+                        quoted = false;
+                    }
+                    continue;
+                }
+                if(c == '\n'){
+                    mLine++;
+                }
+                mField.append((char) c);
+                c = read();
+                continue;
+            }
+
+            switch(c){
+                case '"':
+                    quoted = true;
+                    break;
+                case ',':
+                    fields.add(mField.toString());
+                    mField.setLength(0);
+                    break;
+                case '\r':
+                    //Only ends the record when it is followed by \n or nothing
+                    int next = read();
+                    if(next != '\n' && next != END){
+                        mField.append('\r');
+                        mPushedBack = next;
+                        break;
+                    }
+                    //fall through
+                case '\n':
+                    mLine++;
+                    //fall through
+                case END:
+                    fields.add(mField.toString());
+                    return true;
+                default:
+                    mField.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * @return line the last record read started on, for reporting bad rows
+     */
+    public int getRecordLine(){
+        return mRecordLine;
+    }
+
+    //Read one char, skipping a byte order mark at the very start
+    private int read() throws IOException {
+        if(mPushedBack != NONE){
+            int c = mPushedBack;
+            mPushedBack = NONE;
+            return c;
+        }
+        int c = mReader.read();
+        if(!mStarted){
+            mStarted = true;
+            if(c == BYTE_ORDER_MARK){
+                c = mReader.read();
+            }
+        }
+        return c;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
@@ -0,0 +1,79 @@
+package com.joshdoucet.snapandsave.data;
+
+/**
+ *  - DatabaseConfig holds the connection settings InventoryDBHelper applies every time the
+ *      database is opened. Write-ahead logging lets the CursorLoaders keep reading while a
+ *      long write, such as a bulk import, is still running.
+ */
+
+public final class DatabaseConfig {
+
+    //Values of PRAGMA synchronous. NORMAL is safe in WAL mode, a crash can only lose the
+    //last commits, never corrupt the database
+    public static final String SYNCHRONOUS_OFF = "OFF";
+    public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+    public static final String SYNCHRONOUS_FULL = "FULL";
+
+    //Settings used by the app. 4 KiB pages match the flash page size of most devices,
+    //a 2 MiB page cache per connection and up to 32 MiB of the file memory mapped
+    public static final DatabaseConfig DEFAULT = new DatabaseConfig(true, SYNCHRONOUS_NORMAL,
+            4096, 2048, 32 * 1024 * 1024);
+
+    //Settings for devices the system reports as low on memory. Same safety, but a 512 KiB
+    //page cache and no memory mapping, so the database doesn't crowd out the rest of the app
+    public static final DatabaseConfig LOW_MEMORY = new DatabaseConfig(true, SYNCHRONOUS_NORMAL,
+            4096, 512, 0);
+
+    private final boolean mWriteAheadLogging;
+    private final String mSynchronous;
+    private final int mPageSize;
+    private final int mCacheSizeKib;
+    private final long mMmapSize;
+
+    /**
+     * @param writeAheadLogging true to use WAL, false for the default rollback journal
+     * @param synchronous one of the SYNCHRONOUS_ values
+     * @param pageSize page size in bytes, a power of two from 512 to 65536. Only used when
+     *                 the database file is created
+     * @param cacheSizeKib size of the page cache of the writer connection in KiB
+     * @param mmapSize max bytes of the database file to memory map, 0 turns it off
+     */
+    public DatabaseConfig(boolean writeAheadLogging, String synchronous, int pageSize,
+                          int cacheSizeKib, long mmapSize){
+        if(!SYNCHRONOUS_OFF.equals(synchronous) && !SYNCHRONOUS_NORMAL.equals(synchronous)
+                && !SYNCHRONOUS_FULL.equals(synchronous)){
+            throw new IllegalArgumentException("Unknown synchronous level " + synchronous);
+        }
+        if(pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1){
+            throw new IllegalArgumentException("Invalid page size " + pageSize);
+        }
+        if(cacheSizeKib <= 0 || mmapSize < 0){
+            throw new IllegalArgumentException("Invalid cache or mmap size");
+        }
+        mWriteAheadLogging = writeAheadLogging;
+        mSynchronous = synchronous;
+        mPageSize = pageSize;
+        mCacheSizeKib = cacheSizeKib;
+        mMmapSize = mmapSize;
+    }
+
+    public boolean isWriteAheadLogging(){
+        return mWriteAheadLogging;
+    }
+
+    public String getSynchronous(){
+        return mSynchronous;
+    }
+
+    public int getPageSize(){
+        return mPageSize;
+    }
+
+    public int getCacheSizeKib(){
+        return mCacheSizeKib;
+    }
+
+    public long getMmapSize(){
+        return mMmapSize;
+    }
+}
@@ -0,0 +1,152 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ *  - ImageCodec is the format and quality item photos are encoded with before they are
+ *      stored. Lossy JPEG or WebP keep camera photos a fraction of the size of the lossless
+ *      PNG every photo used to be saved as. Photos are decoded by BitmapFactory, which reads
+ *      any of the formats, so PNG photos of older rows keep working as they are.
+ *
+ *  - The codec the user picked is kept in SharedPreferences. Reading it touches the disk
+ *      the first time, so load and encode belong on a background thread like the
+ *      ItemWriteQueue.
+ */
+
+public final class ImageCodec {
+
+    //Formats photos can be stored in
+    public static final String FORMAT_PNG = "png";
+    public static final String FORMAT_JPEG = "jpeg";
+    public static final String FORMAT_WEBP = "webp";
+
+    //Codecs the user can pick from, in the order of R.array.photo_formats
+    public static final ImageCodec[] PRESETS = {
+            new ImageCodec(FORMAT_JPEG, 90),
+            new ImageCodec(FORMAT_JPEG, 75),
+            new ImageCodec(FORMAT_WEBP, 80),
+            new ImageCodec(FORMAT_PNG, 100)};
+
+    //Used until the user picks a codec, close to the camera's own JPEG quality
+    public static final ImageCodec DEFAULT = PRESETS[0];
+
+    //Where the picked codec is kept
+    private static final String PREFERENCES_NAME = "image_codec";
+    private static final String KEY_FORMAT = "format";
+    private static final String KEY_QUALITY = "quality";
+
+    private final String mFormat;
+    private final int mQuality;
+
+    /**
+     * @param format one of the FORMAT_ values
+     * @param quality 0 to 100, ignored by PNG
+     */
+    public ImageCodec(String format, int quality){
+        if(!FORMAT_PNG.equals(format) && !FORMAT_JPEG.equals(format)
+                && !FORMAT_WEBP.equals(format)){
+            throw new IllegalArgumentException("Unknown image format " + format);
+        }
+        if(quality < 0 || quality > 100){
+            throw new IllegalArgumentException("Invalid image quality " + quality);
+        }
+        mFormat = format;
+        mQuality = quality;
+    }
+
+    /**
+     * Read the codec the user picked, DEFAULT if there is none or it is no longer valid
+     */
+    public static ImageCodec load(Context context){
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME,
+                Context.MODE_PRIVATE);
+        String format = preferences.getString(KEY_FORMAT, null);
+        if(format == null){
+            return DEFAULT;
+        }
+        try {
+            return new ImageCodec(format, preferences.getInt(KEY_QUALITY, DEFAULT.mQuality));
+        } catch (IllegalArgumentException e) {
+            return DEFAULT;
+        }
+    }
+
+    /**
+     * Make this the codec new photos are stored with. The preferences are written in the
+     * background, so this is safe on the main thread.
+     */
+    public void save(Context context){
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit()
+                .putString(KEY_FORMAT, mFormat)
+                .putInt(KEY_QUALITY, mQuality)
+                .apply();
+    }
+
+    public String getFormat(){
+        return mFormat;
+    }
+
+    public int getQuality(){
+        return mQuality;
+    }
+
+    /**
+     * @return the index of this codec in PRESETS, or -1 if it isn't one of them
+     */
+    public int getPresetIndex(){
+        for(int i = 0; i < PRESETS.length; i++){
+            if(PRESETS[i].mFormat.equals(mFormat) && PRESETS[i].mQuality == mQuality){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Encode a photo for the image store. Slow for a large photo, never call it on the
+     * main thread.
+     * @return the encoded bytes
+     */
+    public byte[] encode(Bitmap bitmap){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(getCompressFormat(), mQuality, out);
+        return out.toByteArray();
+    }
+
+    private Bitmap.CompressFormat getCompressFormat(){
+        switch(mFormat){
+            case FORMAT_JPEG:
+                return Bitmap.CompressFormat.JPEG;
+            case FORMAT_WEBP:
+                return Bitmap.CompressFormat.WEBP;
+            default:
+                return Bitmap.CompressFormat.PNG;
+        }
+    }
+
+    /**
+     * Find the format of encoded image bytes from their signature
+     * @param image the whole image, or at least its first 12 bytes
+     * @return one of the FORMAT_ values, or null if the format isn't one of them
+     */
+    public static String detectFormat(byte[] image){
+        if(image.length >= 8 && (image[0] & 0xff) == 0x89 && image[1] == 'P'
+                && image[2] == 'N' && image[3] == 'G'){
+            return FORMAT_PNG;
+        }
+        if(image.length >= 3 && (image[0] & 0xff) == 0xff && (image[1] & 0xff) == 0xd8
+                && (image[2] & 0xff) == 0xff){
+            return FORMAT_JPEG;
+        }
+        if(image.length >= 12 && image[0] == 'R' && image[1] == 'I' && image[2] == 'F'
+                && image[3] == 'F' && image[8] == 'W' && image[9] == 'E' && image[10] == 'B'
+                && image[11] == 'P'){
+            return FORMAT_WEBP;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,251 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ *  - The ImageStore keeps item photos as files in the app's private storage.
+ *      The items table only stores the name of an item's image file. Photos are kept out
+ *      of the database so table scans, VACUUM and cursor windows don't grow with photo size.
+ *      Only the InventoryProvider and InventoryDBHelper should write to the store, the UI
+ *      reads photos through the provider's openFile.
+ */
+
+public class ImageStore {
+
+    //Directory inside the app files dir that holds all item images
+    private static final String IMAGE_DIRECTORY = "images";
+
+    //Prefix and suffix of every image file name
+    private static final String IMAGE_PREFIX = "item_";
+    private static final String IMAGE_SUFFIX = ".img";
+
+    //Suffixes of the directories a restore fills and moves the old images to
+    private static final String RESTORE_SUFFIX = ".restore";
+    private static final String PREVIOUS_SUFFIX = ".old";
+
+    //Longest edge of a stored photo in pixels. Larger camera photos are scaled down to it
+    public static final int MAX_PHOTO_SIZE = 1280;
+
+    //Longest edge of a thumbnail in pixels, and the JPEG quality they are saved with
+    private static final int THUMBNAIL_SIZE = 128;
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    private final File mDirectory;
+    private final BitmapPool mBitmapPool;
+
+    public ImageStore(Context context){
+        this(context, new File(context.getFilesDir(), IMAGE_DIRECTORY));
+    }
+
+    /**
+     * @param directory holds the images, tests keep their own next to the app's
+     */
+    ImageStore(Context context, File directory){
+        mDirectory = directory;
+        mBitmapPool = BitmapPool.getInstance(context);
+    }
+
+    /**
+     * Create a new, unique image file name. Nothing is written to disk.
+     */
+    public String newImageName(){
+        return IMAGE_PREFIX + UUID.randomUUID().toString() + IMAGE_SUFFIX;
+    }
+
+    /**
+     * @param name of an image file in the store
+     * @return the file on disk, it may not exist
+     */
+    public File getImageFile(String name){
+        return new File(mDirectory, name);
+    }
+
+    /**
+     * Write image bytes to a new file in the store.
+     * The bytes are written to a temp file first and renamed when complete, so a crash
+     * never leaves a half written image behind.
+     * @param image encoded image bytes
+     * @return name of the new image file
+     * @throws IOException if the file could not be written
+     */
+    public String saveImage(byte[] image) throws IOException {
+        ensureDirectory();
+        String name = newImageName();
+        File tempFile = new File(mDirectory, name + ".tmp");
+
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(image);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if(!tempFile.renameTo(getImageFile(name))){
+            tempFile.delete();
+            throw new IOException("Could not save image " + name);
+        }
+        return name;
+    }
+
+    /**
+     * Create a thumbnail of an encoded image and write it to a new file in the store
+     * @param image encoded image bytes
+     * @return name of the new thumbnail file, or null if the image could not be decoded
+     * @throws IOException if the file could not be written
+     */
+    public String saveThumbnail(byte[] image) throws IOException {
+        //Only a downsampled copy of the photo is ever decoded
+        Bitmap thumbnail = PhotoDecoder.decodeByteArray(image, THUMBNAIL_SIZE, mBitmapPool);
+        if(thumbnail == null){
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+        mBitmapPool.put(thumbnail);
+
+        return saveImage(out.toByteArray());
+    }
+
+    /**
+     * Make sure the image directory exists before files are written into it
+     * @throws IOException if the directory could not be created
+     */
+    public void ensureDirectory() throws IOException {
+        if(!mDirectory.isDirectory() && !mDirectory.mkdirs()){
+            throw new IOException("Could not create " + mDirectory);
+        }
+    }
+
+    /**
+     * Delete a single image file. Null names are ignored.
+     * @return true if a file was deleted
+     */
+    public boolean deleteImage(String name){
+        return name != null && getImageFile(name).delete();
+    }
+
+    /**
+     * Delete several image files. Null arrays and names are ignored.
+     */
+    public void deleteImages(String[] names){
+        if(names == null){
+            return;
+        }
+        for(String name : names){
+            deleteImage(name);
+        }
+    }
+
+    /**
+     * Read a whole image file from the store into memory
+     * @throws IOException if the file could not be read
+     */
+    public byte[] readImage(String name) throws IOException {
+        File file = getImageFile(name);
+        byte[] image = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while(offset < image.length){
+                int read = in.read(image, offset, image.length - offset);
+                if(read == -1){
+                    throw new IOException("Unexpected end of " + name);
+                }
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        return image;
+    }
+
+    /**
+     * @return every complete image file in the store, without files still being written
+     */
+    public File[] listImages(){
+        File[] files = mDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && !file.getName().endsWith(".tmp");
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * @return an empty directory next to the store that a restore can fill with images
+     * @throws IOException if the directory could not be created
+     */
+    public File newRestoreDirectory() throws IOException {
+        File directory = new File(mDirectory.getPath() + RESTORE_SUFFIX);
+        deleteDirectory(directory);
+        if(!directory.mkdirs()){
+            throw new IOException("Could not create " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Put a directory filled by a restore in place of the store's directory
+     * @return the previous directory under a new name. Delete it with deleteDirectory once
+     *          the restore is complete, or hand it to undoReplaceDirectory
+     * @throws IOException if the directories could not be renamed, the store is unchanged
+     */
+    public File replaceDirectory(File restoredDirectory) throws IOException {
+        File previous = new File(mDirectory.getPath() + PREVIOUS_SUFFIX);
+        deleteDirectory(previous);
+        if(mDirectory.exists() && !mDirectory.renameTo(previous)){
+            throw new IOException("Could not move " + mDirectory);
+        }
+        if(!restoredDirectory.renameTo(mDirectory)){
+            previous.renameTo(mDirectory);
+            throw new IOException("Could not move " + restoredDirectory);
+        }
+        return previous;
+    }
+
+    /**
+     * Put back the directory replaceDirectory moved aside
+     */
+    public void undoReplaceDirectory(File previous){
+        deleteDirectory(mDirectory);
+        previous.renameTo(mDirectory);
+    }
+
+    /**
+     * Delete a directory of images and every file in it
+     */
+    public static void deleteDirectory(File directory){
+        File[] files = directory.listFiles();
+        if(files != null){
+            for(File file : files){
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Delete every image file in the store
+     */
+    public void deleteAllImages(){
+        File[] files = mDirectory.listFiles();
+        if(files == null){
+            return;
+        }
+        for(File file : files){
+            file.delete();
+        }
+    }
+}
@@ -25,6 +25,86 @@ public final class InventoryContract {
     //Path name for the items table
     public static final String PATH_ITEMS = "items";
 
+    //Path name for the photo of a single item, appended to a single item URI
+    public static final String PATH_IMAGE = "image";
+
+    //Path name for the thumbnail of a single item, appended to a single item URI
+    public static final String PATH_THUMBNAIL = "thumbnail";
+
+    //Path name for changing the quantity of a single item by a delta, appended to a
+    //single item URI
+    public static final String PATH_ADJUST = "adjust";
+
+    //Path name for the inventory summary, appended to the items URI
+    public static final String PATH_SUMMARY = "summary";
+
+    //Path name for full text search of the items table, items/search/<query>
+    public static final String PATH_SEARCH = "search";
+
+    //Path name that page cursors watch for changes, appended to the items URI
+    public static final String PATH_PAGES = "pages";
+
+    //Path name for the CSV export of the items table, appended to the items URI
+    public static final String PATH_EXPORT = "export";
+
+    //Path name for the provider's call metrics, appended to the base URI
+    public static final String PATH_METRICS = "metrics";
+
+    //Path name for the journal of quantity changes not yet applied, appended to the items URI
+    public static final String PATH_ADJUSTMENTS = "adjustments";
+
+    //Path name that applies the journal to the items table, appended to the adjustments URI
+    public static final String PATH_FLUSH = "flush";
+
+    //Path name for the locations table
+    public static final String PATH_LOCATIONS = "locations";
+
+    //Path name for the stock of a single item at every location, appended to a single item URI
+    public static final String PATH_STOCK = "stock";
+
+    //Path name for the totals of every location, appended to the locations URI
+    public static final String PATH_TOTALS = "totals";
+
+    //Path name for the ledger of quantity changes, appended to the base URI or a single item URI
+    public static final String PATH_MOVEMENTS = "movements";
+
+    //Path name that compacts the ledger into snapshots, appended to the movements URI
+    public static final String PATH_COMPACT = "compact";
+
+    //Path name for quantities at a point in time, appended to the items URI or a single item URI
+    public static final String PATH_AS_OF = "as_of";
+
+    /**
+     * Query parameters for reading the items table one page at a time.
+     * Pages are sorted by one of the SORT_ modes then _ID. The next page starts after the sort
+     * key and _ID of the last row of the previous page, so every page costs the same no matter
+     * how deep it is.
+     */
+
+    //Max number of rows in a page. Paging is only used when this parameter is present
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+    //Sort mode of the pages, one of the ItemEntry.SORT_ values. Defaults to SORT_NAME
+    public static final String QUERY_PARAMETER_SORT = "sort";
+    //Sort key of the last row of the previous page. Left out for the first page and when the
+    //last row had no value for the sort column (a NULL supplier)
+    public static final String QUERY_PARAMETER_AFTER = "after";
+    //_ID of the last row of the previous page, left out for the first page
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+    /**
+     * Change notifications for a single item are sent on items/<_ID>?op=<operation>, so
+     * observers can tell which row changed and how. Changes to many rows at once are sent on
+     * the items URI without an _ID. Cursors for pages of the items table only watch
+     * ItemEntry.PAGES_NOTIFICATION_URI, which gets the many row changes but not the single
+     * row ones, so one changed item doesn't reload every page.
+     */
+
+    //Operation that changed the item, one of the OPERATION_ values
+    public static final String QUERY_PARAMETER_OPERATION = "op";
+    public static final String OPERATION_INSERT = "insert";
+    public static final String OPERATION_UPDATE = "update";
+    public static final String OPERATION_DELETE = "delete";
+
     /**
      * ITEMS TABLE
      * Inner class that defines constant values for the items database table.
@@ -37,6 +117,18 @@ public final class InventoryContract {
         //Content URI for the items table
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ITEMS);
 
+        //URI page cursors are notified on, items/pages. It is never queried
+        public static final Uri PAGES_NOTIFICATION_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_PAGES);
+
+        //URI of the whole items table as CSV, items/export. Open it with
+        //ContentResolver.openInputStream, the rows are streamed in InventoryCsv format
+        public static final Uri EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        //Name of the full text search table that indexes item names and suppliers.
+        //Each row's docid is the _ID of the item it indexes
+        public static final String FTS_TABLE_NAME = "items_fts";
+
         //The MIME type of the CONTENT_URI for a list of items.
         public static final String CONTENT_LIST_TYPE =
                 ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ITEMS;
@@ -45,6 +137,12 @@ public final class InventoryContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ITEMS;
 
+        //The MIME type of an item photo served by the provider's openFile
+        public static final String CONTENT_IMAGE_TYPE = "image/*";
+
+        //The MIME type of the EXPORT_URI
+        public static final String CONTENT_CSV_TYPE = "text/csv";
+
         /**
          * Column names for the Items table
          * SQL types are commented above each variable
@@ -66,24 +164,565 @@ public final class InventoryContract {
         //COLUMN Type - TEXT
         public final static String COLUMN_SUPPLIER = "supplier";
 
-        //Price of the item - all pricing MUST be stored in United States Dollars for data integrity
-        //COLUMN Type - REAL NOT NULL DEFAULT
-        public final static String COLUMN_PRICE = "price_US_$";
+        //Price of the item in United States cents, so sums and totals are exact.
+        //0 unless COLUMN_SALE_STATUS is STATUS_FOR_SALE. See Prices to parse and format it
+        //COLUMN Type - INTEGER NOT NULL DEFAULT 0
+        public final static String COLUMN_PRICE_CENTS = "price_cents";
+
+        //Whether the item is for sale, free or not for sale, one of the STATUS_ values
+        //COLUMN Type - INTEGER NOT NULL DEFAULT STATUS_NOT_FOR_SALE
+        public final static String COLUMN_SALE_STATUS = "sale_status";
 
-        //Picture for an item
-        //COLUMN Type - BLOB
+        //Picture for an item. This key is only used in ContentValues passed to insert or update.
+        //The provider moves the encoded bytes into the ImageStore and saves the file name in
+        //COLUMN_IMAGE_FILE. Read photos back through buildImageUri(id)
         public final static String COLUMN_IMAGE = "image";
 
+        //Name of the file in the ImageStore that holds the picture for an item
+        //COLUMN Type - TEXT
+        public final static String COLUMN_IMAGE_FILE = "image_file";
+
+        //Name of the file in the ImageStore that holds a small thumbnail of the picture.
+        //It is generated by the provider whenever a picture is saved.
+        //Read thumbnails back through buildThumbnailUri(id)
+        //COLUMN Type - TEXT
+        public final static String COLUMN_THUMBNAIL_FILE = "thumbnail_file";
+
+        //Signed change to the quantity of an item. This key is only used in ContentValues
+        //passed to update on buildAdjustUri(id). The provider adds it to the stored quantity
+        //in a single SQL statement so concurrent changes are never lost
+        public final static String COLUMN_QUANTITY_DELTA = "quantity_delta";
+
+        //Why the last quantity change was made, one of the MovementEntry.REASON_ values. It is
+        //copied into the MovementEntry row of each change. Pass it next to COLUMN_QUANTITY or
+        //COLUMN_QUANTITY_DELTA, the provider uses REASON_CORRECTION when it is left out
+        //COLUMN Type - INTEGER NOT NULL DEFAULT REASON_CORRECTION
+        public final static String COLUMN_MOVEMENT_REASON = "movement_reason";
+
         /**
          * Other constant values
          */
 
-        //Price that represents an item is not for sale
-        public final static double NOT_FOR_SALE = .14619;
-        public final static double FREE = 0.00;
+        //Sort modes for pages of the items table, each one is backed by an index
+        public final static String SORT_NAME = "name";
+        public final static String SORT_PRICE = "price";
+        //Lowest stock first
+        public final static String SORT_QUANTITY = "quantity";
+        public final static String SORT_SUPPLIER = "supplier";
+
+        //Values of COLUMN_SALE_STATUS. Only items for sale count towards the inventory value
+        public final static int STATUS_FOR_SALE = 0;
+        public final static int STATUS_FREE = 1;
+        public final static int STATUS_NOT_FOR_SALE = 2;
         //max values
         public final static int MAX_QUANTITY = 9999999;
-        public final static double MAX_PRICE = 9999999.99;
+        public final static long MAX_PRICE_CENTS = 999999999;
+
+        //Returned by update on an adjust URI when the item doesn't exist or the delta would
+        //take its quantity below 0 or up to MAX_QUANTITY
+        public final static int ADJUST_FAILED = -1;
+
+        /**
+         * Find the column a sort mode orders pages by
+         * @param sort one of the SORT_ values, null for the default SORT_NAME
+         * @return column name, or null for an unknown sort mode
+         */
+        public static String getSortColumn(String sort){
+            if(sort == null || SORT_NAME.equals(sort)){
+                return COLUMN_NAME;
+            }else if(SORT_PRICE.equals(sort)){
+                return COLUMN_PRICE_CENTS;
+            }else if(SORT_QUANTITY.equals(sort)){
+                return COLUMN_QUANTITY;
+            }else if(SORT_SUPPLIER.equals(sort)){
+                return COLUMN_SUPPLIER;
+            }
+            return null;
+        }
+
+        /**
+         * Build the URI for the first page of the items table
+         * @param sort one of the SORT_ values
+         * @param limit max number of rows in the page
+         */
+        public static Uri buildPageUri(String sort, int limit){
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sort)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Build the URI for a page of the items table that follows another page
+         * @param sort one of the SORT_ values
+         * @param afterKey sort key of the last row of the previous page, may be null
+         * @param afterId _ID of the last row of the previous page
+         * @param limit max number of rows in the page
+         */
+        public static Uri buildPageUri(String sort, String afterKey, long afterId, int limit){
+            Uri.Builder builder = buildPageUri(sort, limit).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            if(afterKey != null){
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER, afterKey);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Build the URI that searches item names and suppliers. Every word of the query
+         * is matched as a prefix. Items whose name matches come before items where
+         * only the supplier matches.
+         * @param query text typed by the user
+         */
+        public static Uri buildSearchUri(String query){
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(query)
+                    .build();
+        }
+
+        /**
+         * Build the URI that change notifications for a single item are sent on
+         * @param id _ID of the item
+         * @param operation one of the OPERATION_ values
+         */
+        public static Uri buildChangeUri(long id, String operation){
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendQueryParameter(QUERY_PARAMETER_OPERATION, operation)
+                    .build();
+        }
+
+        /**
+         * Build the URI that changes the quantity of a single item by a delta. Call
+         * ContentResolver.update with COLUMN_QUANTITY_DELTA, it returns the new quantity
+         * or ADJUST_FAILED. The delta is booked on the default location, it fails when that
+         * would take the item's stock there below 0.
+         * @param id _ID of the item
+         */
+        public static Uri buildAdjustUri(long id){
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_ADJUST)
+                    .build();
+        }
+
+        /**
+         * Build the URI of the stock a single item has at each location. Rows have the
+         * StockEntry columns and the name of the location, sorted by location name
+         * @param id _ID of the item
+         */
+        public static Uri buildStockUri(long id){
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_STOCK)
+                    .build();
+        }
+
+        /**
+         * Build the URI of the ledger of a single item, its MovementEntry rows oldest first
+         * @param id _ID of the item
+         */
+        public static Uri buildMovementsUri(long id){
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_MOVEMENTS)
+                    .build();
+        }
+
+        /**
+         * Build the URI of every item's quantity at a point in time. Rows have _ID,
+         * COLUMN_NAME and COLUMN_QUANTITY, sorted by name. Only items that still exist are
+         * listed.
+         * @param timeMillis the point in time, in milliseconds since the epoch
+         */
+        public static Uri buildAsOfUri(long timeMillis){
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_AS_OF)
+                    .appendPath(String.valueOf(timeMillis))
+                    .build();
+        }
+
+        /**
+         * Build the URI of a single item's quantity at a point in time. The one row has _ID,
+         * COLUMN_NAME and COLUMN_QUANTITY, the name is null if the item was deleted since.
+         * @param id _ID of the item
+         * @param timeMillis the point in time, in milliseconds since the epoch
+         */
+        public static Uri buildAsOfUri(long id, long timeMillis){
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_AS_OF)
+                    .appendPath(String.valueOf(timeMillis))
+                    .build();
+        }
+
+        /**
+         * Build the URI of the photo for a single item. Open it with
+         * ContentResolver.openInputStream
+         * @param id _ID of the item
+         */
+        public static Uri buildImageUri(long id){
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_IMAGE)
+                    .build();
+        }
+
+        /**
+         * Build the URI of the thumbnail for a single item. Open it with
+         * ContentResolver.openInputStream
+         * @param id _ID of the item
+         */
+        public static Uri buildThumbnailUri(long id){
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_THUMBNAIL)
+                    .build();
+        }
+    }
+
+    /**
+     * INVENTORY SUMMARY TABLE
+     * Inner class that defines constant values for the inventory summary table.
+     * The table holds exactly one row with totals over the whole items table. Triggers keep it
+     * up to date on every insert, update and delete so reading the totals never scans items.
+     */
+    public static final class SummaryEntry implements BaseColumns{
+        //TABLE NAME
+        public static final String TABLE_NAME = "inventory_summary";
+
+        //Content URI for the inventory summary, items/summary
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(ItemEntry.CONTENT_URI, PATH_SUMMARY);
+
+        //The MIME type of the CONTENT_URI for the single summary row
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_ITEMS + "/" + PATH_SUMMARY;
+
+        //_ID of the only row in the table
+        public final static long SUMMARY_ROW_ID = 1;
+
+        //Sum of price * quantity in cents over every item with STATUS_FOR_SALE
+        //COLUMN Type - INTEGER NOT NULL DEFAULT 0
+        public final static String COLUMN_TOTAL_VALUE_CENTS = "total_value_cents";
+
+        //Sum of the quantity of every item
+        //COLUMN Type - INTEGER NOT NULL DEFAULT 0
+        public final static String COLUMN_UNIT_COUNT = "unit_count";
+
+        //Number of rows in the items table
+        //COLUMN Type - INTEGER NOT NULL DEFAULT 0
+        public final static String COLUMN_SKU_COUNT = "sku_count";
+    }
+
+    /**
+     * PENDING ADJUSTMENTS TABLE
+     * Inner class that defines constant values for the journal of quantity changes.
+     * Quick taps on an item's "-1" button are written here as one cheap row each, without
+     * touching the items table or notifying the inventory list. Updating the FLUSH_URI adds
+     * the journal up per item and applies it to the items table in one transaction.
+     * Rows left by a process that died before a flush are applied by the next one.
+     */
+    public static final class AdjustmentEntry implements BaseColumns{
+        //TABLE NAME
+        public static final String TABLE_NAME = "pending_adjustments";
+
+        //Content URI for the journal, items/adjustments. Only used by insert and bulkInsert
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(ItemEntry.CONTENT_URI, PATH_ADJUSTMENTS);
+
+        //Content URI that applies the journal, items/adjustments/flush. Call
+        //ContentResolver.update with empty ContentValues, it returns the number of items changed
+        public static final Uri FLUSH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_FLUSH);
+
+        //The MIME type of the CONTENT_URI for the list of journal rows
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_ITEMS + "/" + PATH_ADJUSTMENTS;
+
+        //_ID of a journal row can be given by the caller. A change whose _ID is in the journal
+        //already is ignored, so a caller can write the same changes again after a crash
+
+        //_ID of the item the change is for. No foreign key, changes to an item that was
+        //deleted in the meantime are dropped by the flush
+        //COLUMN Type - INTEGER NOT NULL
+        public final static String COLUMN_ITEM_ID = "item_id";
+
+        //Signed change to the quantity of the item
+        //COLUMN Type - INTEGER NOT NULL
+        public final static String COLUMN_DELTA = "delta";
+    }
+
+    /**
+     * LOCATIONS TABLE
+     * Inner class that defines constant values for the locations database table.
+     * Each entry is a stockroom the inventory is kept in. The stock of an item is split over
+     * the locations in the StockEntry table, the item's COLUMN_QUANTITY is always the sum of
+     * its stock at every location.
+     */
+    public static final class LocationEntry implements BaseColumns{
+        //TABLE NAME
+        public static final String TABLE_NAME = "locations";
+
+        //Content URI for the locations table
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LOCATIONS);
+
+        //Content URI for the totals of every location, locations/totals. Computed by one
+        //GROUP BY over the stock table, rows have _ID, COLUMN_NAME and the totals columns
+        public static final Uri TOTALS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_TOTALS);
+
+        //The MIME type of the CONTENT_URI for a list of locations
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        //The MIME type of the CONTENT_URI for a single location
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        //Unique ID for the location
+        //COLUMN Type - INTEGER PRIMARY KEY AUTOINCREMENT
+        public final static String _ID = BaseColumns._ID;
+
+        //Name of the location, no two locations have the same name
+        //COLUMN Type - TEXT NOT NULL UNIQUE
+        public final static String COLUMN_NAME = "name";
+
+        //Totals of one location, only in rows of the TOTALS_URI. Value only counts items
+        //with STATUS_FOR_SALE, like SummaryEntry.COLUMN_TOTAL_VALUE_CENTS
+        public final static String COLUMN_SKU_COUNT = "sku_count";
+        public final static String COLUMN_UNIT_COUNT = "unit_count";
+        public final static String COLUMN_TOTAL_VALUE_CENTS = "total_value_cents";
+
+        //_ID of the location created with the table. It can't be deleted. New items, and
+        //quantity changes made on the items table instead of a location, are booked on it,
+        //so its stock of an item can go below 0 while other locations hold the rest
+        public final static long DEFAULT_LOCATION_ID = 1;
+
+        /**
+         * Build the URI of the items stocked at a location. Rows have the ItemEntry columns,
+         * with COLUMN_QUANTITY the quantity at the location. A selection must name its
+         * columns with their table, like items.name. Add QUERY_PARAMETER_LIMIT and the other
+         * page parameters, or use buildItemsPageUri, to read one page at a time.
+         * @param locationId _ID of the location
+         */
+        public static Uri buildItemsUri(long locationId){
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(locationId))
+                    .appendPath(PATH_ITEMS)
+                    .build();
+        }
+
+        /**
+         * Build the URI for the first page of the items stocked at a location
+         * @param locationId _ID of the location
+         * @param sort one of the ItemEntry.SORT_ values, SORT_QUANTITY sorts by the quantity
+         *             at the location
+         * @param limit max number of rows in the page
+         */
+        public static Uri buildItemsPageUri(long locationId, String sort, int limit){
+            return buildItemsUri(locationId).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sort)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Build the URI for a page of the items stocked at a location that follows another
+         * page
+         * @param locationId _ID of the location
+         * @param sort one of the ItemEntry.SORT_ values
+         * @param afterKey sort key of the last row of the previous page, may be null
+         * @param afterId _ID of the last row of the previous page
+         * @param limit max number of rows in the page
+         */
+        public static Uri buildItemsPageUri(long locationId, String sort, String afterKey,
+                                            long afterId, int limit){
+            Uri.Builder builder = buildItemsPageUri(locationId, sort, limit).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            if(afterKey != null){
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER, afterKey);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Build the URI that changes the stock of an item at a location by a delta. Call
+         * ContentResolver.update with ItemEntry.COLUMN_QUANTITY_DELTA, it returns the new
+         * quantity at the location or ItemEntry.ADJUST_FAILED. The item's total changes by
+         * the same delta.
+         * @param locationId _ID of the location
+         * @param itemId _ID of the item
+         */
+        public static Uri buildAdjustUri(long locationId, long itemId){
+            return buildItemsUri(locationId).buildUpon()
+                    .appendPath(String.valueOf(itemId))
+                    .appendPath(PATH_ADJUST)
+                    .build();
+        }
+    }
+
+    /**
+     * STOCK TABLE
+     * Inner class that defines constant values for the stock database table.
+     * Each entry is the quantity of one item at one location. Rows are unique and indexed by
+     * (location, item), so everything stocked at one location is read from one range of the
+     * index. It is only written through the items table's triggers and the adjust URIs of
+     * LocationEntry.
+     */
+    public static final class StockEntry implements BaseColumns{
+        //TABLE NAME
+        public static final String TABLE_NAME = "stock";
+
+        //The MIME type of ItemEntry.buildStockUri for the stock of one item
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_ITEMS + "/" + PATH_STOCK;
+
+        //_ID of the location
+        //COLUMN Type - INTEGER NOT NULL
+        public final static String COLUMN_LOCATION_ID = "location_id";
+
+        //_ID of the item
+        //COLUMN Type - INTEGER NOT NULL
+        public final static String COLUMN_ITEM_ID = "item_id";
+
+        //Quantity of the item at the location
+        //COLUMN Type - INTEGER NOT NULL DEFAULT 0
+        public final static String COLUMN_QUANTITY = "quantity";
+    }
+
+    /**
+     * STOCK MOVEMENTS TABLE
+     * Inner class that defines constant values for the ledger of quantity changes.
+     * Every change to an item's COLUMN_QUANTITY, including its creation and deletion, adds
+     * one row, written by triggers on the items table in the same transaction as the change.
+     * Rows are never updated or deleted, so the sum of an item's deltas is its quantity.
+     * Read the ledger of one item through ItemEntry.buildMovementsUri.
+     */
+    public static final class MovementEntry implements BaseColumns{
+        //TABLE NAME
+        public static final String TABLE_NAME = "stock_movements";
+
+        //Content URI for the ledger of every item, oldest first
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, PATH_MOVEMENTS);
+
+        //Content URI that compacts the ledger, movements/compact. Call ContentResolver.update
+        //with empty ContentValues, it returns the number of StockSnapshotEntry rows written.
+        //Nothing is written until a few hundred movements were added since the last time
+        public static final Uri COMPACT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_COMPACT);
+
+        //The MIME type of the CONTENT_URI for a list of movements
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_MOVEMENTS;
+
+        //The MIME type of the as of URIs, ItemEntry.buildAsOfUri
+        public static final String AS_OF_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_ITEMS + "/" + PATH_AS_OF;
+
+        //Unique ID for the movement, later movements have larger ones
+        //COLUMN Type - INTEGER PRIMARY KEY
+        public final static String _ID = BaseColumns._ID;
+
+        //_ID of the item. No foreign key, the movements of deleted items are kept
+        //COLUMN Type - INTEGER NOT NULL
+        public final static String COLUMN_ITEM_ID = "item_id";
+
+        //Signed change to the quantity of the item
+        //COLUMN Type - INTEGER NOT NULL
+        public final static String COLUMN_DELTA = "delta";
+
+        //Why the quantity changed, one of the REASON_ values
+        //COLUMN Type - INTEGER NOT NULL
+        public final static String COLUMN_REASON = "reason";
+
+        //When the quantity changed, in milliseconds since the epoch. Never smaller than the
+        //timestamp of an earlier movement, even if the clock is set back
+        //COLUMN Type - INTEGER NOT NULL
+        public final static String COLUMN_TIMESTAMP = "timestamp";
+
+        //Values of COLUMN_REASON. Edits in the editor, and changes that didn't give a reason,
+        //are corrections
+        public final static int REASON_CORRECTION = 0;
+        public final static int REASON_SALE = 1;
+        public final static int REASON_RECEIVED = 2;
+        //The item was added, or it existed before the ledger did
+        public final static int REASON_NEW_ITEM = 3;
+        public final static int REASON_DELETED = 4;
+    }
+
+    /**
+     * STOCK SNAPSHOTS TABLE
+     * Inner class that defines constant values for the compacted ledger. Updating
+     * MovementEntry.COMPACT_URI adds one row for every item that moved since the last
+     * compaction, holding its quantity after its last movement so far. The quantity at a
+     * point in time is then the last snapshot before it plus the few movements since.
+     * Not to be confused with the database backups of the SnapshotManager.
+     */
+    public static final class StockSnapshotEntry implements BaseColumns{
+        //TABLE NAME
+        public static final String TABLE_NAME = "stock_snapshots";
+
+        //_ID of the item
+        //COLUMN Type - INTEGER NOT NULL
+        public final static String COLUMN_ITEM_ID = "item_id";
+
+        //_ID of the item's last MovementEntry the snapshot includes
+        //COLUMN Type - INTEGER NOT NULL
+        public final static String COLUMN_MOVEMENT_ID = "movement_id";
+
+        //COLUMN_TIMESTAMP of that movement
+        //COLUMN Type - INTEGER NOT NULL
+        public final static String COLUMN_TIMESTAMP = "timestamp";
+
+        //Quantity of the item after that movement
+        //COLUMN Type - INTEGER NOT NULL
+        public final static String COLUMN_QUANTITY = "quantity";
+    }
+
+    /**
+     * PROVIDER METRICS
+     * Inner class that defines the columns of the provider's call metrics. They are not stored
+     * in the database, ProviderMetrics keeps them in memory from the time the app starts.
+     * Each row covers one operation on one URI pattern. Deleting the CONTENT_URI resets them.
+     */
+    public static final class MetricsEntry implements BaseColumns{
+        //Content URI for the metrics, /metrics
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_METRICS);
+
+        //The MIME type of the CONTENT_URI for the list of metrics rows
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        //Provider operation, query, insert, bulk_insert, update, delete or open_file
+        public final static String COLUMN_OPERATION = "operation";
+
+        //Pattern of the URIs the row covers, like items/#
+        public final static String COLUMN_URI = "uri";
+
+        //Number of calls
+        public final static String COLUMN_CALLS = "calls";
+
+        //Rows returned by queries, or rows changed by writes, over all calls
+        public final static String COLUMN_ROWS = "rows";
+
+        //Photo bytes read by open_file or written by inserts and updates, over all calls
+        public final static String COLUMN_BLOB_BYTES = "blob_bytes";
+
+        //Time spent in all calls together, in microseconds
+        public final static String COLUMN_TOTAL_MICROS = "total_micros";
+
+        //Latency percentiles and the slowest call, in microseconds. Percentiles are rounded
+        //up to the top of their histogram bucket, at most 12.5% above the real value
+        public final static String COLUMN_P50_MICROS = "p50_micros";
+        public final static String COLUMN_P90_MICROS = "p90_micros";
+        public final static String COLUMN_P99_MICROS = "p99_micros";
+        public final static String COLUMN_MAX_MICROS = "max_micros";
+
+        //Every column, the default projection
+        public final static String[] COLUMNS = { _ID, COLUMN_OPERATION, COLUMN_URI, COLUMN_CALLS,
+                COLUMN_ROWS, COLUMN_BLOB_BYTES, COLUMN_TOTAL_MICROS, COLUMN_P50_MICROS,
+                COLUMN_P90_MICROS, COLUMN_P99_MICROS, COLUMN_MAX_MICROS };
     }
 
 }
@@ -0,0 +1,158 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ *  - InventoryCsv defines the CSV format items are exported to and imported from.
+ *      The first record is a header that names the columns, the importer finds columns by
+ *      name so a file edited in a spreadsheet may reorder or leave out any column but name.
+ *      Prices are dollars like "12.50", statuses are the STATUS_NAMES words.
+ *      Photos are kept out of the CSV. The photo column holds the name of a file in the
+ *      PHOTO_DIRECTORY next to the CSV file, which only exists if photos were exported too.
+ */
+
+public final class InventoryCsv {
+
+    //Name of the CSV file inside an export directory
+    public static final String FILE_NAME = "inventory.csv";
+
+    //Directory next to the CSV file that holds the exported photos
+    public static final String PHOTO_DIRECTORY = "photos";
+
+    //Directory in the app's external files dir that exports are written to
+    private static final String EXPORT_DIRECTORY = "export";
+
+    //Header names of the columns, in the order they are exported
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_QUANTITY = "quantity";
+    public static final String COLUMN_SUPPLIER = "supplier";
+    public static final String COLUMN_PRICE = "price";
+    public static final String COLUMN_STATUS = "status";
+    public static final String COLUMN_PHOTO = "photo";
+
+    static final String[] HEADER = { COLUMN_NAME, COLUMN_QUANTITY, COLUMN_SUPPLIER,
+            COLUMN_PRICE, COLUMN_STATUS, COLUMN_PHOTO };
+
+    //Values of the status column, the index of each word is its ItemEntry.STATUS_ value
+    private static final String[] STATUS_NAMES = { "for_sale", "free", "not_for_sale" };
+
+    //Returned by parseStatus for unknown words
+    public static final int UNKNOWN_STATUS = -1;
+
+    private InventoryCsv() {}
+
+    /**
+     * @return the directory exports are written to and imported from. Other devices and
+     * the back office can reach it over USB
+     * @throws IOException if external storage isn't available
+     */
+    public static File getExportDirectory(Context context) throws IOException {
+        File filesDir = context.getExternalFilesDir(null);
+        if(filesDir == null){
+            throw new IOException("External storage is not available");
+        }
+        return new File(filesDir, EXPORT_DIRECTORY);
+    }
+
+    /**
+     * Write the header record
+     */
+    static void writeHeader(Writer out) throws IOException {
+        for(int i = 0; i < HEADER.length; i++){
+            if(i > 0){
+                out.write(',');
+            }
+            out.write(HEADER[i]);
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Write the record of a single item, with the columns in HEADER order
+     * @param photo name of the item's photo file, may be null
+     */
+    static void writeItem(Writer out, String name, long quantity, String supplier,
+                          long priceCents, int saleStatus, String photo) throws IOException {
+        writeField(out, name);
+        out.write(',');
+        out.write(Long.toString(quantity));
+        out.write(',');
+        writeField(out, supplier);
+        out.write(',');
+        out.write(Prices.formatCents(priceCents));
+        out.write(',');
+        writeField(out, getStatusName(saleStatus));
+        out.write(',');
+        writeField(out, photo);
+        out.write('\n');
+    }
+
+    /**
+     * Write a text field, quoted only if it holds a comma, quote or line break.
+     * Null is written as an empty field.
+     */
+    private static void writeField(Writer out, String value) throws IOException {
+        if(value == null){
+            return;
+        }
+        boolean needsQuotes = false;
+        for(int i = 0; i < value.length() && !needsQuotes; i++){
+            char c = value.charAt(i);
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if(!needsQuotes){
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if(c == '"'){
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    /**
+     * @param saleStatus one of the ItemEntry.STATUS_ values
+     * @return the word written to the status column, or null for an unknown status
+     */
+    public static String getStatusName(int saleStatus){
+        return saleStatus >= 0 && saleStatus < STATUS_NAMES.length
+                ? STATUS_NAMES[saleStatus] : null;
+    }
+
+    /**
+     * @param text a STATUS_NAMES word, any case, or the number of an ItemEntry.STATUS_ value
+     * @return the ItemEntry.STATUS_ value, or UNKNOWN_STATUS
+     */
+    public static int parseStatus(String text){
+        text = text.trim();
+        for(int status = 0; status < STATUS_NAMES.length; status++){
+            if(STATUS_NAMES[status].equalsIgnoreCase(text)
+                    || String.valueOf(status).equals(text)){
+                return status;
+            }
+        }
+        return UNKNOWN_STATUS;
+    }
+
+    /**
+     * @return index of a column in the header record, or -1 if the file doesn't have it
+     */
+    static int indexOf(List<String> header, String column){
+        for(int i = 0; i < header.size(); i++){
+            if(column.equalsIgnoreCase(header.get(i).trim())){
+                return i;
+            }
+        }
+        return -1;
+    }
+}
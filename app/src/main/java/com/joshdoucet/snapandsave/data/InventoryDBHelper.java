@@ -2,14 +2,27 @@ package com.joshdoucet.snapandsave.data;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.joshdoucet.snapandsave.R;
-import com.joshdoucet.snapandsave.activities.EditorActivity;
+import com.joshdoucet.snapandsave.data.InventoryContract.AdjustmentEntry;
 import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.LocationEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.MovementEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.StockEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.StockSnapshotEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.SummaryEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  *  - The InventoryDBHelper class will create and access a SQLite database and provide
@@ -18,18 +31,234 @@ import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
  */
 
 public class InventoryDBHelper extends SQLiteOpenHelper{
+    public static final String LOG_TAG = InventoryDBHelper.class.getSimpleName();
 
     //file name that the database will be stored in
     public static final String DATABASE_NAME = "snapandsave.db";
 
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 12;
+
+    //Index that keeps items sorted by name, the rowid (_ID) is implicitly the last key
+    private static final String SQL_CREATE_NAME_INDEX = "CREATE INDEX items_name_index ON "
+            + ItemEntry.TABLE_NAME + " (" + ItemEntry.COLUMN_NAME + ");";
+
+    //Indexes for the other sort modes of the inventory list
+    private static final String SQL_CREATE_PRICE_INDEX = "CREATE INDEX items_price_cents_index ON "
+            + ItemEntry.TABLE_NAME + " (" + ItemEntry.COLUMN_PRICE_CENTS + ");";
+    private static final String SQL_CREATE_QUANTITY_INDEX = "CREATE INDEX items_quantity_index ON "
+            + ItemEntry.TABLE_NAME + " (" + ItemEntry.COLUMN_QUANTITY + ");";
+    private static final String SQL_CREATE_SUPPLIER_INDEX = "CREATE INDEX items_supplier_index ON "
+            + ItemEntry.TABLE_NAME + " (" + ItemEntry.COLUMN_SUPPLIER + ");";
+
+    //Journal of quantity taps that have not been applied to the items table yet
+    private static final String SQL_CREATE_ADJUSTMENTS_TABLE = "CREATE TABLE "
+            + AdjustmentEntry.TABLE_NAME + " ("
+            + AdjustmentEntry._ID + " INTEGER PRIMARY KEY, "
+            + AdjustmentEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+            + AdjustmentEntry.COLUMN_DELTA + " INTEGER NOT NULL );";
+
+    //Value in cents an items row adds to the inventory total. Only items for sale add to it.
+    //Written with a %s placeholder for the row alias, NEW or OLD inside a trigger
+    private static final String SQL_ROW_VALUE = "(CASE WHEN %1$s." + ItemEntry.COLUMN_SALE_STATUS
+            + " = " + ItemEntry.STATUS_FOR_SALE + " THEN %1$s." + ItemEntry.COLUMN_PRICE_CENTS
+            + " * %1$s." + ItemEntry.COLUMN_QUANTITY + " ELSE 0 END)";
+
+    //Statement that updates the single summary row, filled in by each trigger
+    private static final String SQL_UPDATE_SUMMARY = "UPDATE " + SummaryEntry.TABLE_NAME
+            + " SET " + SummaryEntry.COLUMN_TOTAL_VALUE_CENTS + " = "
+            + SummaryEntry.COLUMN_TOTAL_VALUE_CENTS + " %1$s, "
+            + SummaryEntry.COLUMN_UNIT_COUNT + " = " + SummaryEntry.COLUMN_UNIT_COUNT + " %2$s, "
+            + SummaryEntry.COLUMN_SKU_COUNT + " = " + SummaryEntry.COLUMN_SKU_COUNT + " %3$s"
+            + " WHERE " + SummaryEntry._ID + " = " + SummaryEntry.SUMMARY_ROW_ID + ";";
+
+    //Time of a new movement in milliseconds since the epoch. Never before the last movement,
+    //so the ledger stays in time order when the clock is set back
+    private static final String SQL_MOVEMENT_TIMESTAMP = "MAX(CAST((julianday('now') - 2440587.5)"
+            + " * 86400000 AS INTEGER), IFNULL((SELECT " + MovementEntry.COLUMN_TIMESTAMP
+            + " FROM " + MovementEntry.TABLE_NAME + " ORDER BY " + MovementEntry._ID
+            + " DESC LIMIT 1), 0))";
+
+    //Statement that adds one movement to the ledger, filled in by each trigger
+    private static final String SQL_INSERT_MOVEMENT = "INSERT INTO " + MovementEntry.TABLE_NAME
+            + " (" + MovementEntry.COLUMN_ITEM_ID + ", " + MovementEntry.COLUMN_DELTA + ", "
+            + MovementEntry.COLUMN_REASON + ", " + MovementEntry.COLUMN_TIMESTAMP + ")"
+            + " VALUES (%1$s, %2$s, %3$s, " + SQL_MOVEMENT_TIMESTAMP + ");";
+
+    //Stock of the NEW row's item at every location except the default one, the least its
+    //quantity can be set to from the items table
+    private static final String SQL_OTHER_STOCK = "(SELECT IFNULL(SUM("
+            + StockEntry.COLUMN_QUANTITY + "), 0) FROM " + StockEntry.TABLE_NAME
+            + " WHERE " + StockEntry.COLUMN_ITEM_ID + " = NEW." + ItemEntry._ID
+            + " AND " + StockEntry.COLUMN_LOCATION_ID + " <> "
+            + LocationEntry.DEFAULT_LOCATION_ID + ")";
+
+    //Pages of a database file that holds nothing but Android's metadata table
+    private static final long NEW_FILE_PAGES = 2;
+
+    //Suffixes of the files SQLite keeps next to the database file
+    private static final String[] DATABASE_FILE_SUFFIXES = { "-wal", "-shm", "-journal" };
+
+    private static InventoryDBHelper sInstance;
+
+    //Connection settings of the shared helper, the app may pick others before it is created
+    private static DatabaseConfig sConfig = DatabaseConfig.DEFAULT;
 
     public Context mContext;
 
+    //Connection settings applied every time the database is opened
+    private final DatabaseConfig mConfig;
+
+    /**
+     * One helper is shared by the whole app, so every part of it goes through the same
+     * connection pool and the database file can be swapped out safely by a restore
+     */
+    public static synchronized InventoryDBHelper getInstance(Context context){
+        if(sInstance == null){
+            sInstance = new InventoryDBHelper(context.getApplicationContext(), sConfig);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Choose the connection settings of the shared helper, DatabaseConfig.DEFAULT unless
+     * this is called. Call it from Application.onCreate, before anything opens the database.
+     * @throws IllegalStateException if the shared helper was already created
+     */
+    public static synchronized void setConfig(DatabaseConfig config){
+        if(sInstance != null){
+            throw new IllegalStateException("The database was already opened");
+        }
+        sConfig = config;
+    }
+
+    /**
+     * Close the shared helper and forget it, the next getInstance opens the database again.
+     * Unit tests get a new app data directory for every test and start with this.
+     */
+    static synchronized void resetInstance(){
+        if(sInstance != null){
+            sInstance.close();
+            sInstance = null;
+        }
+    }
+
     public InventoryDBHelper(Context context){
-        //null is passed instead of a CursorFactory
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DatabaseConfig.DEFAULT);
+    }
+
+    public InventoryDBHelper(Context context, DatabaseConfig config){
+        //null is passed instead of a CursorFactory, queries return the default cursors
+        this(context, DATABASE_NAME, config, null);
+    }
+
+    /**
+     * @param name file name of the database, tests use their own next to the app's
+     * @param factory creates the cursor of every query, null for the default cursors. Unit
+     *                tests use it to see the SQL of the provider's queries
+     */
+    InventoryDBHelper(Context context, String name, DatabaseConfig config,
+                      SQLiteDatabase.CursorFactory factory){
+        super(context, name, factory, DATABASE_VERSION);
         mContext = context;
+        mConfig = config;
+    }
+
+    /**
+     * Apply the connection settings before the database is created or upgraded
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        configure(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        //onConfigure is only called from API 16, older devices are configured once open
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN){
+            configure(db);
+        }
+        if(!db.isReadOnly()){
+            //Finish the row by row part of any upgrade in the background
+            MigrationRunner.createPendingTable(db);
+            MigrationRunner.startIfPending(this, db);
+        }
+    }
+
+    /**
+     * Apply mConfig to a database connection.
+     * In WAL mode the helper's database keeps one connection for writes and a pool of
+     * connections that read at the same time, so loaders are never blocked by a writer.
+     * The synchronous level and cache size are set on the writer connection.
+     */
+    private void configure(SQLiteDatabase db){
+        if(db.isReadOnly()){
+            return;
+        }
+        //The page size only takes effect while the file is still empty and not yet in WAL mode.
+        //Android writes its metadata table into a new file as soon as it is opened, so the
+        //file is rebuilt with the new page size while it holds nothing else
+        if(DatabaseUtils.longForQuery(db, "PRAGMA page_size", null) != mConfig.getPageSize()
+                && DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                <= NEW_FILE_PAGES){
+            db.execSQL("PRAGMA page_size = " + mConfig.getPageSize());
+            db.execSQL("VACUUM");
+        }
+
+        if(mConfig.isWriteAheadLogging()){
+            db.enableWriteAheadLogging();
+        }else if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN){
+            //Rollback journal, a no-op unless WAL was turned on before
+            db.disableWriteAheadLogging();
+        }
+
+        //Switching the journal mode resets the synchronous level, so it is set afterwards
+        db.execSQL("PRAGMA synchronous = " + mConfig.getSynchronous());
+        //A negative cache size is in KiB instead of pages
+        db.execSQL("PRAGMA cache_size = -" + mConfig.getCacheSizeKib());
+        //mmap_size returns the new size as a row, execSQL refuses statements that return rows
+        Cursor mmapCursor = db.rawQuery("PRAGMA mmap_size = " + mConfig.getMmapSize(), null);
+        try {
+            mmapCursor.moveToFirst();
+        } finally {
+            mmapCursor.close();
+        }
+    }
+
+    /**
+     * @return the database file, it may not exist yet
+     */
+    public File getDatabaseFile(){
+        return mContext.getDatabasePath(getDatabaseName());
+    }
+
+    /**
+     * Replace the database file with a restored copy. getReadableDatabase and
+     * getWritableDatabase take the same lock, so the database can't be reopened halfway
+     * through. The next call to either of them opens, and if needed upgrades, the new file.
+     * @param restoredFile checked copy of the database in the same directory
+     * @throws IOException if the file could not be moved into place
+     */
+    synchronized void replaceDatabase(File restoredFile) throws IOException {
+        close();
+        File databaseFile = getDatabaseFile();
+        //The old file's WAL must never be applied to the restored one
+        for(String suffix : DATABASE_FILE_SUFFIXES){
+            new File(databaseFile.getPath() + suffix).delete();
+        }
+        if(!restoredFile.renameTo(databaseFile)){
+            throw new IOException("Could not replace " + databaseFile);
+        }
+    }
+
+    /**
+     * Delete a database file together with its WAL, shared memory and journal files
+     */
+    static void deleteDatabaseFiles(File databaseFile){
+        databaseFile.delete();
+        for(String suffix : DATABASE_FILE_SUFFIXES){
+            new File(databaseFile.getPath() + suffix).delete();
+        }
     }
 
     /**
@@ -38,66 +267,350 @@ public class InventoryDBHelper extends SQLiteOpenHelper{
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        // Create a String that contains the SQL statement to create the items tableledkeyoboard
-
-
+        // Create a String that contains the SQL statement to create the items table
         final String SQL_CREATE_ITEMS_TABLE = "CREATE TABLE " + ItemEntry.TABLE_NAME + " ("
                 + ItemEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + ItemEntry.COLUMN_NAME + " TEXT NOT NULL, "
                 + ItemEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
-                + ItemEntry.COLUMN_PRICE + " REAL NOT NULL DEFAULT " + ItemEntry.NOT_FOR_SALE + ", "
+                + ItemEntry.COLUMN_PRICE_CENTS + " INTEGER NOT NULL DEFAULT 0, "
+                + ItemEntry.COLUMN_SALE_STATUS + " INTEGER NOT NULL DEFAULT "
+                + ItemEntry.STATUS_NOT_FOR_SALE + ", "
                 + ItemEntry.COLUMN_SUPPLIER + " TEXT, "
-                + ItemEntry.COLUMN_IMAGE + " BLOB );";
+                + ItemEntry.COLUMN_IMAGE_FILE + " TEXT, "
+                + ItemEntry.COLUMN_THUMBNAIL_FILE + " TEXT, "
+                + ItemEntry.COLUMN_MOVEMENT_REASON + " INTEGER NOT NULL DEFAULT "
+                + MovementEntry.REASON_CORRECTION + " );";
 
         //Execute the above string in the database to create the items table
         sqLiteDatabase.execSQL(SQL_CREATE_ITEMS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_NAME_INDEX);
+        createSortIndexes(sqLiteDatabase);
 
-        //Insert 3 sample rows into the database
-        ContentValues sampleVals = new ContentValues();
+        //Search table is created before any item so the triggers index every row
+        createSearchTable(sqLiteDatabase);
 
-        Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.moon_boots);
-        byte[] blob = EditorActivity.bitToByteArray(bitmap);
+        //Summary row is created before any item so the triggers count every row
+        createSummaryTable(sqLiteDatabase);
+        sqLiteDatabase.execSQL(SQL_CREATE_ADJUSTMENTS_TABLE);
 
-        sampleVals.put(ItemEntry.COLUMN_NAME, "Bouncy Moon Boots");
-        sampleVals.put(ItemEntry.COLUMN_SUPPLIER, "N.A.S.A.");
-        sampleVals.put(ItemEntry.COLUMN_QUANTITY, 3);
-        sampleVals.put(ItemEntry.COLUMN_PRICE, ItemEntry.NOT_FOR_SALE);
-        sampleVals.put(ItemEntry.COLUMN_IMAGE, blob);
+        //Locations are created before any item so every item gets a stock row
+        createLocationTables(sqLiteDatabase);
 
-        sqLiteDatabase.insert(ItemEntry.TABLE_NAME, null, sampleVals);
-        sampleVals.clear();
+        //The ledger is created before any item so it holds every quantity from the start
+        createMovementTables(sqLiteDatabase);
 
-        bitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.keyboard);
-        blob = EditorActivity.bitToByteArray(bitmap);
+        //Insert 3 sample rows into the database
+        ImageStore imageStore = new ImageStore(mContext);
+        insertSampleItem(sqLiteDatabase, imageStore, "Bouncy Moon Boots", "N.A.S.A.",
+                3, ItemEntry.STATUS_NOT_FOR_SALE, 0, R.drawable.moon_boots);
+        insertSampleItem(sqLiteDatabase, imageStore, "LED Keyboard USB 3.0", "AULA",
+                12, ItemEntry.STATUS_FOR_SALE, 2499, R.drawable.keyboard);
+        insertSampleItem(sqLiteDatabase, imageStore, "Dirty Towel", "El Gato Largo Inc",
+                1, ItemEntry.STATUS_FREE, 0, R.drawable.towel);
+    }
 
-        sampleVals.put(ItemEntry.COLUMN_NAME, "LED Keyboard USB 3.0");
-        sampleVals.put(ItemEntry.COLUMN_SUPPLIER, "AULA");
-        sampleVals.put(ItemEntry.COLUMN_QUANTITY, 12);
-        sampleVals.put(ItemEntry.COLUMN_PRICE, 24.99);
-        sampleVals.put(ItemEntry.COLUMN_IMAGE, blob);
+    /**
+     * Insert one sample row, its photo is saved into the image store
+     * @param saleStatus one of the ItemEntry.STATUS_ values
+     * @param priceCents price in cents, 0 unless the item is for sale
+     * @param imageRes drawable resource used as the item photo
+     */
+    private void insertSampleItem(SQLiteDatabase db, ImageStore imageStore, String name,
+                                  String supplier, int quantity, int saleStatus,
+                                  long priceCents, int imageRes){
+        ContentValues sampleVals = new ContentValues();
+        sampleVals.put(ItemEntry.COLUMN_NAME, name);
+        sampleVals.put(ItemEntry.COLUMN_SUPPLIER, supplier);
+        sampleVals.put(ItemEntry.COLUMN_QUANTITY, quantity);
+        sampleVals.put(ItemEntry.COLUMN_SALE_STATUS, saleStatus);
+        sampleVals.put(ItemEntry.COLUMN_PRICE_CENTS, priceCents);
 
-        sqLiteDatabase.insert(ItemEntry.TABLE_NAME, null, sampleVals);
-        sampleVals.clear();
+        try {
+            //The sample photos are already JPEG files, they are stored without re-encoding
+            byte[] image = readResource(imageRes);
+            sampleVals.put(ItemEntry.COLUMN_IMAGE_FILE, imageStore.saveImage(image));
+            sampleVals.put(ItemEntry.COLUMN_THUMBNAIL_FILE, imageStore.saveThumbnail(image));
+        } catch (IOException e) {
+            //The sample item is still useful without a photo
+            Log.e(LOG_TAG, "Could not save sample image for " + name, e);
+        }
 
-        bitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.towel);
-        blob = EditorActivity.bitToByteArray(bitmap);
-        sampleVals.put(ItemEntry.COLUMN_NAME, "Dirty Towel");
-        sampleVals.put(ItemEntry.COLUMN_SUPPLIER, "El Gato Largo Inc");
-        sampleVals.put(ItemEntry.COLUMN_QUANTITY, 1);
-        sampleVals.put(ItemEntry.COLUMN_PRICE, ItemEntry.FREE);
-        sampleVals.put(ItemEntry.COLUMN_IMAGE, blob);
+        db.insert(ItemEntry.TABLE_NAME, null, sampleVals);
+    }
 
-        sqLiteDatabase.insert(ItemEntry.TABLE_NAME, null, sampleVals);
+    /**
+     * Read the bytes of a raw or drawable resource file as they are packaged
+     */
+    private byte[] readResource(int resId) throws IOException {
+        InputStream in = mContext.getResources().openRawResource(resId);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = in.read(buffer)) != -1){
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
     }
 
     /**
-     * Used to upgrade database to new version
+     * Used to upgrade database to new version. Runs the schema change of every migration
+     * between the two versions, in order, and schedules their backfills for the
+     * MigrationRunner. See Migrations for the steps.
      * @param sqLiteDatabase db to update
      * @param oldVersion old version num
      * @param newVersion new version num
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        //Do nothing for now. Database is still in version 1
+        MigrationRunner.createPendingTable(sqLiteDatabase);
+
+        int version = oldVersion;
+        for(Migration migration : Migrations.getMigrations(mContext)){
+            if(migration.getVersion() <= oldVersion || migration.getVersion() > newVersion){
+                continue;
+            }
+            long start = SystemClock.elapsedRealtime();
+            migration.migrateSchema(sqLiteDatabase);
+            if(migration.hasBackfill()){
+                MigrationRunner.schedule(sqLiteDatabase, migration);
+            }
+            Log.i(LOG_TAG, migration + " schema change took "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            version = migration.getVersion();
+        }
+
+        if(version != newVersion){
+            throw new IllegalStateException("No migration to version " + newVersion);
+        }
+    }
+
+    /**
+     * Create the indexes behind the price, quantity and supplier sort modes.
+     * Like the name index, each one ends with the rowid so pages sorted by (column, _ID)
+     * are read in index order without a temporary sort.
+     */
+    private void createSortIndexes(SQLiteDatabase db){
+        db.execSQL(SQL_CREATE_PRICE_INDEX);
+        db.execSQL(SQL_CREATE_QUANTITY_INDEX);
+        db.execSQL(SQL_CREATE_SUPPLIER_INDEX);
+    }
+
+    /**
+     * Create the full text search table over item names and suppliers and add the triggers
+     * that keep it in sync with the items table.
+     * FTS3 is used because FTS4 external content tables need a newer SQLite than minSdk has.
+     */
+    private void createSearchTable(SQLiteDatabase db){
+        db.execSQL("CREATE VIRTUAL TABLE " + ItemEntry.FTS_TABLE_NAME + " USING fts3("
+                + ItemEntry.COLUMN_NAME + ", " + ItemEntry.COLUMN_SUPPLIER + ");");
+
+        db.execSQL("CREATE TRIGGER items_fts_insert AFTER INSERT ON "
+                + ItemEntry.TABLE_NAME + " BEGIN"
+                + " INSERT INTO " + ItemEntry.FTS_TABLE_NAME + " (docid, "
+                + ItemEntry.COLUMN_NAME + ", " + ItemEntry.COLUMN_SUPPLIER + ")"
+                + " VALUES (NEW." + ItemEntry._ID + ", NEW." + ItemEntry.COLUMN_NAME
+                + ", NEW." + ItemEntry.COLUMN_SUPPLIER + ");"
+                + " END;");
+
+        db.execSQL("CREATE TRIGGER items_fts_update AFTER UPDATE OF "
+                + ItemEntry.COLUMN_NAME + ", " + ItemEntry.COLUMN_SUPPLIER
+                + " ON " + ItemEntry.TABLE_NAME + " BEGIN"
+                + " UPDATE " + ItemEntry.FTS_TABLE_NAME
+                + " SET " + ItemEntry.COLUMN_NAME + " = NEW." + ItemEntry.COLUMN_NAME
+                + ", " + ItemEntry.COLUMN_SUPPLIER + " = NEW." + ItemEntry.COLUMN_SUPPLIER
+                + " WHERE docid = NEW." + ItemEntry._ID + ";"
+                + " END;");
+
+        db.execSQL("CREATE TRIGGER items_fts_delete AFTER DELETE ON "
+                + ItemEntry.TABLE_NAME + " BEGIN"
+                + " DELETE FROM " + ItemEntry.FTS_TABLE_NAME
+                + " WHERE docid = OLD." + ItemEntry._ID + ";"
+                + " END;");
+    }
+
+    /**
+     * Create the locations and stock tables with the default location, and the triggers on
+     * the items table that keep every item's quantity equal to the sum of its stock.
+     * New items are stocked at the default location. A quantity change made on the items
+     * table books the difference to its stock on the default location, changes made through
+     * a location update the stock row first so the trigger finds nothing to book. A change
+     * that would take the default location below 0 is skipped, the UPDATE reports no row.
+     */
+    private void createLocationTables(SQLiteDatabase db){
+        db.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " ("
+                + LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + LocationEntry.COLUMN_NAME + " TEXT NOT NULL UNIQUE );");
+        ContentValues defaultLocation = new ContentValues();
+        defaultLocation.put(LocationEntry._ID, LocationEntry.DEFAULT_LOCATION_ID);
+        defaultLocation.put(LocationEntry.COLUMN_NAME,
+                mContext.getString(R.string.default_location_name));
+        db.insert(LocationEntry.TABLE_NAME, null, defaultLocation);
+
+        //The unique (location, item) index is the partition every location query reads
+        db.execSQL("CREATE TABLE " + StockEntry.TABLE_NAME + " ("
+                + StockEntry._ID + " INTEGER PRIMARY KEY, "
+                + StockEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "
+                + StockEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                + StockEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                + "UNIQUE (" + StockEntry.COLUMN_LOCATION_ID + ", "
+                + StockEntry.COLUMN_ITEM_ID + ") );");
+        //Stock of one item across locations, for the triggers and the roll-ups
+        db.execSQL("CREATE INDEX stock_item_index ON " + StockEntry.TABLE_NAME
+                + " (" + StockEntry.COLUMN_ITEM_ID + ");");
+        //Items of one location by quantity, ends with the item so pages sorted by
+        //(quantity, _ID) are read in index order
+        db.execSQL("CREATE INDEX stock_location_quantity_index ON " + StockEntry.TABLE_NAME
+                + " (" + StockEntry.COLUMN_LOCATION_ID + ", " + StockEntry.COLUMN_QUANTITY
+                + ", " + StockEntry.COLUMN_ITEM_ID + ");");
+
+        db.execSQL("CREATE TRIGGER items_stock_insert AFTER INSERT ON "
+                + ItemEntry.TABLE_NAME + " BEGIN"
+                + " INSERT INTO " + StockEntry.TABLE_NAME + " ("
+                + StockEntry.COLUMN_LOCATION_ID + ", " + StockEntry.COLUMN_ITEM_ID + ", "
+                + StockEntry.COLUMN_QUANTITY + ")"
+                + " VALUES (" + LocationEntry.DEFAULT_LOCATION_ID + ", NEW." + ItemEntry._ID
+                + ", NEW." + ItemEntry.COLUMN_QUANTITY + ");"
+                + " END;");
+
+        String stockSum = "(SELECT IFNULL(SUM(" + StockEntry.COLUMN_QUANTITY + "), 0) FROM "
+                + StockEntry.TABLE_NAME + " WHERE " + StockEntry.COLUMN_ITEM_ID
+                + " = NEW." + ItemEntry._ID + ")";
+        db.execSQL("CREATE TRIGGER items_stock_update AFTER UPDATE OF "
+                + ItemEntry.COLUMN_QUANTITY + " ON " + ItemEntry.TABLE_NAME
+                + " WHEN NEW." + ItemEntry.COLUMN_QUANTITY + " <> " + stockSum + " BEGIN"
+                + " INSERT OR IGNORE INTO " + StockEntry.TABLE_NAME + " ("
+                + StockEntry.COLUMN_LOCATION_ID + ", " + StockEntry.COLUMN_ITEM_ID + ")"
+                + " VALUES (" + LocationEntry.DEFAULT_LOCATION_ID + ", NEW." + ItemEntry._ID
+                + ");"
+                + " UPDATE " + StockEntry.TABLE_NAME + " SET " + StockEntry.COLUMN_QUANTITY
+                + " = " + StockEntry.COLUMN_QUANTITY + " + NEW." + ItemEntry.COLUMN_QUANTITY
+                + " - " + stockSum
+                + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = "
+                + LocationEntry.DEFAULT_LOCATION_ID
+                + " AND " + StockEntry.COLUMN_ITEM_ID + " = NEW." + ItemEntry._ID + ";"
+                + " END;");
+
+        //Stock at every other location is a lower bound for the quantity.
+        //RAISE(IGNORE) skips the row without an error, like a WHERE clause that doesn't match
+        db.execSQL("CREATE TRIGGER items_stock_check BEFORE UPDATE OF "
+                + ItemEntry.COLUMN_QUANTITY + " ON " + ItemEntry.TABLE_NAME
+                + " WHEN NEW." + ItemEntry.COLUMN_QUANTITY + " < " + SQL_OTHER_STOCK + " BEGIN"
+                + " SELECT RAISE(IGNORE);"
+                + " END;");
+
+        db.execSQL("CREATE TRIGGER items_stock_delete AFTER DELETE ON "
+                + ItemEntry.TABLE_NAME + " BEGIN"
+                + " DELETE FROM " + StockEntry.TABLE_NAME
+                + " WHERE " + StockEntry.COLUMN_ITEM_ID + " = OLD." + ItemEntry._ID + ";"
+                + " END;");
+    }
+
+    /**
+     * Create the ledger of quantity changes, the table its compacted snapshots go into, and
+     * the triggers on the items table that add a movement for every quantity change in the
+     * same statement as the change. The reason of an update is taken from the item's
+     * COLUMN_MOVEMENT_REASON, which the provider sets next to every new quantity.
+     */
+    private void createMovementTables(SQLiteDatabase db){
+        db.execSQL("CREATE TABLE " + MovementEntry.TABLE_NAME + " ("
+                + MovementEntry._ID + " INTEGER PRIMARY KEY, "
+                + MovementEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                + MovementEntry.COLUMN_DELTA + " INTEGER NOT NULL, "
+                + MovementEntry.COLUMN_REASON + " INTEGER NOT NULL, "
+                + MovementEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL );");
+        //Ledger of one item in time order, the tail of an as of query
+        db.execSQL("CREATE INDEX stock_movements_item_index ON " + MovementEntry.TABLE_NAME
+                + " (" + MovementEntry.COLUMN_ITEM_ID + ", " + MovementEntry.COLUMN_TIMESTAMP
+                + ");");
+
+        db.execSQL("CREATE TABLE " + StockSnapshotEntry.TABLE_NAME + " ("
+                + StockSnapshotEntry._ID + " INTEGER PRIMARY KEY, "
+                + StockSnapshotEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, "
+                + StockSnapshotEntry.COLUMN_MOVEMENT_ID + " INTEGER NOT NULL, "
+                + StockSnapshotEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                + StockSnapshotEntry.COLUMN_QUANTITY + " INTEGER NOT NULL );");
+        //Last snapshot of an item before a point in time is one seek
+        db.execSQL("CREATE INDEX stock_snapshots_item_index ON " + StockSnapshotEntry.TABLE_NAME
+                + " (" + StockSnapshotEntry.COLUMN_ITEM_ID + ", "
+                + StockSnapshotEntry.COLUMN_TIMESTAMP + ", "
+                + StockSnapshotEntry.COLUMN_MOVEMENT_ID + ");");
+        //Where the last compaction stopped
+        db.execSQL("CREATE INDEX stock_snapshots_movement_index ON "
+                + StockSnapshotEntry.TABLE_NAME + " (" + StockSnapshotEntry.COLUMN_MOVEMENT_ID
+                + ");");
+
+        db.execSQL("CREATE TRIGGER items_movement_insert AFTER INSERT ON "
+                + ItemEntry.TABLE_NAME + " WHEN NEW." + ItemEntry.COLUMN_QUANTITY + " <> 0 BEGIN "
+                + String.format(SQL_INSERT_MOVEMENT, "NEW." + ItemEntry._ID,
+                        "NEW." + ItemEntry.COLUMN_QUANTITY, MovementEntry.REASON_NEW_ITEM)
+                + " END;");
+
+        db.execSQL("CREATE TRIGGER items_movement_update AFTER UPDATE OF "
+                + ItemEntry.COLUMN_QUANTITY + " ON " + ItemEntry.TABLE_NAME
+                + " WHEN NEW." + ItemEntry.COLUMN_QUANTITY + " <> OLD." + ItemEntry.COLUMN_QUANTITY
+                + " BEGIN "
+                + String.format(SQL_INSERT_MOVEMENT, "NEW." + ItemEntry._ID,
+                        "NEW." + ItemEntry.COLUMN_QUANTITY + " - OLD." + ItemEntry.COLUMN_QUANTITY,
+                        "NEW." + ItemEntry.COLUMN_MOVEMENT_REASON)
+                + " END;");
+
+        db.execSQL("CREATE TRIGGER items_movement_delete AFTER DELETE ON "
+                + ItemEntry.TABLE_NAME + " WHEN OLD." + ItemEntry.COLUMN_QUANTITY + " <> 0 BEGIN "
+                + String.format(SQL_INSERT_MOVEMENT, "OLD." + ItemEntry._ID,
+                        "-OLD." + ItemEntry.COLUMN_QUANTITY, MovementEntry.REASON_DELETED)
+                + " END;");
+    }
+
+    /**
+     * Create the inventory summary table, its single row and the triggers on the items table
+     * that keep the row up to date. The row starts out with the totals of the current items.
+     */
+    private void createSummaryTable(SQLiteDatabase db){
+        db.execSQL("CREATE TABLE " + SummaryEntry.TABLE_NAME + " ("
+                + SummaryEntry._ID + " INTEGER PRIMARY KEY CHECK ("
+                + SummaryEntry._ID + " = " + SummaryEntry.SUMMARY_ROW_ID + "), "
+                + SummaryEntry.COLUMN_TOTAL_VALUE_CENTS + " INTEGER NOT NULL DEFAULT 0, "
+                + SummaryEntry.COLUMN_UNIT_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + SummaryEntry.COLUMN_SKU_COUNT + " INTEGER NOT NULL DEFAULT 0 );");
+
+        //Seed the row with a single scan, from here on the triggers only apply deltas
+        db.execSQL("INSERT INTO " + SummaryEntry.TABLE_NAME + " ("
+                + SummaryEntry._ID + ", " + SummaryEntry.COLUMN_TOTAL_VALUE_CENTS + ", "
+                + SummaryEntry.COLUMN_UNIT_COUNT + ", " + SummaryEntry.COLUMN_SKU_COUNT + ")"
+                + " SELECT " + SummaryEntry.SUMMARY_ROW_ID + ", "
+                + "IFNULL(SUM(" + String.format(SQL_ROW_VALUE, ItemEntry.TABLE_NAME) + "), 0), "
+                + "IFNULL(SUM(" + ItemEntry.COLUMN_QUANTITY + "), 0), COUNT(*)"
+                + " FROM " + ItemEntry.TABLE_NAME + ";");
+
+        db.execSQL("CREATE TRIGGER items_summary_insert AFTER INSERT ON "
+                + ItemEntry.TABLE_NAME + " BEGIN "
+                + String.format(SQL_UPDATE_SUMMARY,
+                        "+ " + String.format(SQL_ROW_VALUE, "NEW"),
+                        "+ NEW." + ItemEntry.COLUMN_QUANTITY,
+                        "+ 1")
+                + " END;");
+
+        db.execSQL("CREATE TRIGGER items_summary_update AFTER UPDATE OF "
+                + ItemEntry.COLUMN_QUANTITY + ", " + ItemEntry.COLUMN_PRICE_CENTS + ", "
+                + ItemEntry.COLUMN_SALE_STATUS + " ON " + ItemEntry.TABLE_NAME + " BEGIN "
+                + String.format(SQL_UPDATE_SUMMARY,
+                        "+ " + String.format(SQL_ROW_VALUE, "NEW")
+                                + " - " + String.format(SQL_ROW_VALUE, "OLD"),
+                        "+ NEW." + ItemEntry.COLUMN_QUANTITY
+                                + " - OLD." + ItemEntry.COLUMN_QUANTITY,
+                        "+ 0")
+                + " END;");
+
+        db.execSQL("CREATE TRIGGER items_summary_delete AFTER DELETE ON "
+                + ItemEntry.TABLE_NAME + " BEGIN "
+                + String.format(SQL_UPDATE_SUMMARY,
+                        "- " + String.format(SQL_ROW_VALUE, "OLD"),
+                        "- OLD." + ItemEntry.COLUMN_QUANTITY,
+                        "- 1")
+                + " END;");
     }
 }
@@ -0,0 +1,148 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ *  - The InventoryExporter writes the items table to an InventoryCsv file. The CSV is
+ *      streamed from the provider's export URI straight into the file, so neither the table
+ *      nor the file is ever held in memory. Photos can be copied next to it as sidecar files.
+ *      Must not run on the main thread.
+ */
+
+public class InventoryExporter {
+    public static final String LOG_TAG = InventoryExporter.class.getSimpleName();
+
+    //Size of the buffer bytes are copied through
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ContentResolver mResolver;
+
+    //Bytes of CSV and number of photos written by the last export
+    private long mCsvBytes;
+    private int mPhotos;
+
+    public InventoryExporter(ContentResolver resolver){
+        mResolver = resolver;
+    }
+
+    /**
+     * Export every item to InventoryCsv.FILE_NAME in a directory. A previous export in the
+     * directory is only replaced once the new file is complete.
+     * @param includePhotos true to copy the photos into InventoryCsv.PHOTO_DIRECTORY
+     * @throws IOException if the files could not be written
+     */
+    public void exportTo(File directory, boolean includePhotos) throws IOException {
+        mCsvBytes = 0;
+        mPhotos = 0;
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Could not create " + directory);
+        }
+
+        File csvFile = new File(directory, InventoryCsv.FILE_NAME);
+        File tempFile = new File(directory, InventoryCsv.FILE_NAME + ".tmp");
+        mCsvBytes = copy(mResolver.openInputStream(ItemEntry.EXPORT_URI), tempFile);
+        if(!tempFile.renameTo(csvFile)){
+            tempFile.delete();
+            throw new IOException("Could not write " + csvFile);
+        }
+
+        if(includePhotos){
+            exportPhotos(new File(directory, InventoryCsv.PHOTO_DIRECTORY));
+        }
+    }
+
+    /**
+     * @return size of the CSV file written by the last export
+     */
+    public long getCsvBytes(){
+        return mCsvBytes;
+    }
+
+    /**
+     * @return number of photos copied by the last export
+     */
+    public int getPhotos(){
+        return mPhotos;
+    }
+
+    /**
+     * Copy the photo of every item into a directory, named the way the photo column of the
+     * CSV refers to it. Photos that are already there are not copied again.
+     */
+    private void exportPhotos(File photoDirectory) throws IOException {
+        if(!photoDirectory.isDirectory() && !photoDirectory.mkdirs()){
+            throw new IOException("Could not create " + photoDirectory);
+        }
+
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI,
+                new String[] { ItemEntry._ID, ItemEntry.COLUMN_IMAGE_FILE },
+                ItemEntry.COLUMN_IMAGE_FILE + " IS NOT NULL", null, ItemEntry._ID);
+        if(cursor == null){
+            return;
+        }
+        try {
+            while(cursor.moveToNext()){
+                File photoFile = new File(photoDirectory, cursor.getString(1));
+                //Image store names are unique, an existing file already has this photo
+                if(photoFile.exists()){
+                    mPhotos++;
+                    continue;
+                }
+                //Copied under a temp name, so an existing file is always a complete photo
+                File tempFile = new File(photoDirectory, photoFile.getName() + ".tmp");
+                try {
+                    copy(mResolver.openInputStream(ItemEntry.buildImageUri(cursor.getLong(0))),
+                            tempFile);
+                    if(!tempFile.renameTo(photoFile)){
+                        tempFile.delete();
+                        throw new IOException("Could not write " + photoFile);
+                    }
+                    mPhotos++;
+                } catch (FileNotFoundException e) {
+                    //The item was deleted or lost its photo while exporting
+                    Log.w(LOG_TAG, "No photo for item " + cursor.getLong(0), e);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Copy a stream into a file and close the stream
+     * @return number of bytes copied
+     */
+    private static long copy(InputStream in, File file) throws IOException {
+        if(in == null){
+            throw new FileNotFoundException("Nothing to copy into " + file);
+        }
+        long copied = 0;
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while((read = in.read(buffer)) != -1){
+                    out.write(buffer, 0, read);
+                    copied += read;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return copied;
+    }
+}
@@ -0,0 +1,248 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.util.Log;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ *  - The InventoryImporter adds the items of an InventoryCsv file to the items table.
+ *      The file is parsed one record at a time and inserted in chunks, each chunk is one
+ *      bulkInsert and so one transaction. Rows that fail the ItemValidator are skipped and
+ *      counted, the rest of the file is still imported. Must not run on the main thread.
+ */
+
+public class InventoryImporter {
+    public static final String LOG_TAG = InventoryImporter.class.getSimpleName();
+
+    //Rows inserted per transaction
+    private static final int CHUNK_ROWS = 500;
+
+    //A chunk is inserted early once its photos take this many bytes
+    private static final long CHUNK_PHOTO_BYTES = 8 * 1024 * 1024;
+
+    //Larger photo files are not imported
+    private static final long MAX_PHOTO_BYTES = 16 * 1024 * 1024;
+
+    private final ContentResolver mResolver;
+
+    //Rows added, and rows skipped because they were invalid
+    private int mImported;
+    private int mRejected;
+
+    //Column indexes of the file being imported, -1 if the file doesn't have the column
+    private int mNameIndex;
+    private int mQuantityIndex;
+    private int mSupplierIndex;
+    private int mPriceIndex;
+    private int mStatusIndex;
+    private int mPhotoIndex;
+
+    public InventoryImporter(ContentResolver resolver){
+        mResolver = resolver;
+    }
+
+    /**
+     * Import InventoryCsv.FILE_NAME from a directory. Photos are read from its
+     * InventoryCsv.PHOTO_DIRECTORY when they are there.
+     * @throws IOException if the file could not be read or has no name column. Chunks
+     *          inserted before the error stay in the table
+     */
+    public void importFrom(File directory) throws IOException {
+        mImported = 0;
+        mRejected = 0;
+        File photoDirectory = new File(directory, InventoryCsv.PHOTO_DIRECTORY);
+        CsvReader reader = new CsvReader(new BufferedReader(new InputStreamReader(
+                new FileInputStream(new File(directory, InventoryCsv.FILE_NAME)), "UTF-8"),
+                64 * 1024));
+        try {
+            ArrayList<String> fields = new ArrayList<>();
+            if(!reader.readRecord(fields)){
+                return;
+            }
+            readHeader(fields);
+
+            ContentValues[] chunk = new ContentValues[CHUNK_ROWS];
+            int chunkSize = 0;
+            long chunkPhotoBytes = 0;
+            while(reader.readRecord(fields)){
+                //Skip blank lines
+                if(fields.size() == 1 && fields.get(0).trim().isEmpty()){
+                    continue;
+                }
+
+                ContentValues values = toValues(fields);
+                int errors = ItemValidator.validate(values.valueSet());
+                if(errors != ItemValidator.VALID){
+                    Log.w(LOG_TAG, "Skipped line " + reader.getRecordLine() + ", invalid "
+                            + ItemValidator.describe(errors));
+                    mRejected++;
+                    continue;
+                }
+
+                //Photos are only read for valid rows
+                String photoName = getField(fields, mPhotoIndex);
+                if(photoName != null && !photoName.trim().isEmpty()){
+                    //Only the file name is used, photos outside the directory can't be read
+                    byte[] photo = readPhoto(new File(photoDirectory,
+                            new File(photoName.trim()).getName()));
+                    if(photo != null){
+                        values.put(ItemEntry.COLUMN_IMAGE, photo);
+                        chunkPhotoBytes += photo.length;
+                    }
+                }
+
+                chunk[chunkSize++] = values;
+                if(chunkSize == CHUNK_ROWS || chunkPhotoBytes >= CHUNK_PHOTO_BYTES){
+                    insertChunk(chunk, chunkSize);
+                    chunkSize = 0;
+                    chunkPhotoBytes = 0;
+                }
+            }
+            insertChunk(chunk, chunkSize);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return number of rows added by the last import
+     */
+    public int getImported(){
+        return mImported;
+    }
+
+    /**
+     * @return number of rows the last import skipped because they were invalid
+     */
+    public int getRejected(){
+        return mRejected;
+    }
+
+    /**
+     * Find the columns of the file by their header names
+     * @throws IOException if the file has no name column
+     */
+    private void readHeader(ArrayList<String> header) throws IOException {
+        mNameIndex = InventoryCsv.indexOf(header, InventoryCsv.COLUMN_NAME);
+        mQuantityIndex = InventoryCsv.indexOf(header, InventoryCsv.COLUMN_QUANTITY);
+        mSupplierIndex = InventoryCsv.indexOf(header, InventoryCsv.COLUMN_SUPPLIER);
+        mPriceIndex = InventoryCsv.indexOf(header, InventoryCsv.COLUMN_PRICE);
+        mStatusIndex = InventoryCsv.indexOf(header, InventoryCsv.COLUMN_STATUS);
+        mPhotoIndex = InventoryCsv.indexOf(header, InventoryCsv.COLUMN_PHOTO);
+        if(mNameIndex == -1){
+            throw new IOException("No " + InventoryCsv.COLUMN_NAME + " column in header");
+        }
+    }
+
+    /**
+     * Turn the fields of a record into item values. Values that can't be converted are kept
+     * as text so the ItemValidator rejects the row.
+     */
+    private ContentValues toValues(ArrayList<String> fields){
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_NAME, getField(fields, mNameIndex));
+
+        String quantity = getField(fields, mQuantityIndex);
+        if(quantity != null){
+            values.put(ItemEntry.COLUMN_QUANTITY, quantity.trim());
+        }
+
+        String supplier = getField(fields, mSupplierIndex);
+        if(supplier != null){
+            values.put(ItemEntry.COLUMN_SUPPLIER, supplier);
+        }
+
+        //Rows without a status are for sale when they have a price
+        String status = getField(fields, mStatusIndex);
+        String price = getField(fields, mPriceIndex);
+        int saleStatus;
+        if(status != null && !status.trim().isEmpty()){
+            saleStatus = InventoryCsv.parseStatus(status);
+        }else{
+            saleStatus = price != null && !price.trim().isEmpty()
+                    ? ItemEntry.STATUS_FOR_SALE : ItemEntry.STATUS_NOT_FOR_SALE;
+        }
+        if(saleStatus == InventoryCsv.UNKNOWN_STATUS){
+            values.put(ItemEntry.COLUMN_SALE_STATUS, status);
+        }else{
+            values.put(ItemEntry.COLUMN_SALE_STATUS, saleStatus);
+        }
+
+        //Free and not for sale items have no price, the same as in the editor
+        if(saleStatus != ItemEntry.STATUS_FOR_SALE){
+            values.put(ItemEntry.COLUMN_PRICE_CENTS, 0);
+        }else if(price == null){
+            values.putNull(ItemEntry.COLUMN_PRICE_CENTS);
+        }else{
+            try {
+                values.put(ItemEntry.COLUMN_PRICE_CENTS, Prices.parseCents(price));
+            } catch (NumberFormatException e) {
+                values.put(ItemEntry.COLUMN_PRICE_CENTS, price.trim());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the field at index, or null if the column is missing from the file or the row
+     */
+    private static String getField(ArrayList<String> fields, int index){
+        return index >= 0 && index < fields.size() ? fields.get(index) : null;
+    }
+
+    /**
+     * Read a photo sidecar file. Photos are optional, a missing or unreadable file only
+     * leaves the item without a photo.
+     * @return the photo bytes, or null
+     */
+    private static byte[] readPhoto(File file){
+        long length = file.length();
+        if(length <= 0 || length > MAX_PHOTO_BYTES){
+            return null;
+        }
+        byte[] photo = new byte[(int) length];
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                int offset = 0;
+                while(offset < photo.length){
+                    int read = in.read(photo, offset, photo.length - offset);
+                    if(read == -1){
+                        return null;
+                    }
+                    offset += read;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not read photo " + file, e);
+            return null;
+        }
+        return photo;
+    }
+
+    /**
+     * Insert the first size rows of a chunk in one transaction, then clear the chunk
+     */
+    private void insertChunk(ContentValues[] chunk, int size){
+        if(size == 0){
+            return;
+        }
+        ContentValues[] rows = size == chunk.length ? chunk : Arrays.copyOf(chunk, size);
+        int inserted = mResolver.bulkInsert(ItemEntry.CONTENT_URI, rows);
+        mImported += inserted;
+        mRejected += size - inserted;
+        Arrays.fill(chunk, null);
+    }
+}
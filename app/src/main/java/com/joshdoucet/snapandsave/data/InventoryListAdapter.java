@@ -0,0 +1,259 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.joshdoucet.snapandsave.R;
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** - InventoryListAdapter
+ *      Populates the inventory RecyclerView with rows read from item cursors. A cursor is read
+ *      into immutable Rows once, when it loads, so binding a row never touches a cursor and
+ *      the list never holds on to one. Price text is built once per price and cached.
+ *
+ *  - New lists are compared with the shown one by DiffUtil on a background thread, so a
+ *      change to one item only rebinds and animates that item's row. ViewHolders find their
+ *      views and set their listeners once, binding only sets text and the thumbnail.
+ */
+
+public class InventoryListAdapter
+        extends ListAdapter<InventoryListAdapter.Row, InventoryListAdapter.ItemViewHolder> {
+
+    /**
+     * Called when the user clicks a row
+     */
+    public interface OnItemClickListener {
+        void onItemClick(long itemId);
+    }
+
+    //Rows are the same item if they have the same _ID, their contents are compared field by field
+    private static final DiffUtil.ItemCallback<Row> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<Row>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Row oldRow, @NonNull Row newRow) {
+            return oldRow.mId == newRow.mId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Row oldRow, @NonNull Row newRow) {
+            return oldRow.equals(newRow);
+        }
+    };
+
+    private final Context mContext;
+    private final LayoutInflater mInflater;
+    private final OnItemClickListener mClickListener;
+
+    //Decodes and caches the thumbnails shown next to each item
+    private final ThumbnailLoader mThumbnailLoader;
+
+    //Batches the "-1" taps, the list shows their quantity before they reach the database
+    private final QuantityCoalescer mQuantityCoalescer;
+
+    //Price text of items that aren't for sale, and of every price read so far by cents
+    private final String mNotForSaleText;
+    private final String mFreeText;
+    private final String mCurrencySymbol;
+    private final HashMap<Long, String> mPriceTexts = new HashMap<>();
+
+    /**
+     * Constructs a new InventoryListAdapter
+     *
+     * @param context The context
+     * @param clickListener told about clicks on a row
+     */
+    public InventoryListAdapter(Context context, OnItemClickListener clickListener){
+        super(DIFF_CALLBACK);
+        mContext = context;
+        mInflater = LayoutInflater.from(context);
+        mClickListener = clickListener;
+        mThumbnailLoader = ThumbnailLoader.getInstance(context);
+        mQuantityCoalescer = QuantityCoalescer.getInstance(context);
+        mNotForSaleText = context.getString(R.string.mot_for_sale);
+        mFreeText = context.getString(R.string.free);
+        mCurrencySymbol = context.getString(R.string.currency_symbol);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Read every row of an item cursor. Column indices are looked up once per cursor.
+     * Must be called on the main thread, the price cache isn't shared with other threads.
+     * @param c cursor with the _ID, name, quantity, price, sale status and thumbnail columns
+     * @return the rows in cursor order
+     */
+    public List<Row> readRows(Cursor c){
+        int idColumn = c.getColumnIndex(ItemEntry._ID);
+        int nameColumn = c.getColumnIndex(ItemEntry.COLUMN_NAME);
+        int quantityColumn = c.getColumnIndex(ItemEntry.COLUMN_QUANTITY);
+        int priceColumn = c.getColumnIndex(ItemEntry.COLUMN_PRICE_CENTS);
+        int saleStatusColumn = c.getColumnIndex(ItemEntry.COLUMN_SALE_STATUS);
+        int thumbnailColumn = c.getColumnIndex(ItemEntry.COLUMN_THUMBNAIL_FILE);
+
+        ArrayList<Row> rows = new ArrayList<>(c.getCount());
+        c.moveToPosition(-1);
+        while(c.moveToNext()){
+            rows.add(new Row(c.getLong(idColumn),
+                    c.getString(nameColumn),
+                    c.getInt(quantityColumn),
+                    getPriceText(c.getInt(saleStatusColumn), c.getLong(priceColumn)),
+                    c.getString(thumbnailColumn)));
+        }
+        return rows;
+    }
+
+    /**
+     * @return price shown for an item, with a currency symbol if it is for sale
+     */
+    private String getPriceText(int saleStatus, long priceCents){
+        if(saleStatus == ItemEntry.STATUS_NOT_FOR_SALE){
+            return mNotForSaleText;
+        }
+        if(saleStatus == ItemEntry.STATUS_FREE){
+            return mFreeText;
+        }
+        String text = mPriceTexts.get(priceCents);
+        if(text == null){
+            text = mCurrencySymbol + Prices.formatCents(priceCents);
+            mPriceTexts.put(priceCents, text);
+        }
+        return text;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).mId;
+    }
+
+    //Inflate a new inventory_list_item, RecyclerView reuses them while scrolling
+    @Override
+    public ItemViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ItemViewHolder(mInflater.inflate(R.layout.inventory_list_item, parent, false));
+    }
+
+    /**
+     * Fill a row with the item at a position
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ItemViewHolder holder, int position) {
+        Row row = getItem(position);
+
+        //Show the item thumbnail, decoded in the background when it isn't cached yet
+        mThumbnailLoader.loadThumbnail(holder.mThumbnailView, row.mId, row.mThumbnailName);
+        holder.mNameView.setText(row.mName);
+        holder.mPriceView.setText(row.mPriceText);
+
+        //Taps that haven't been flushed yet are added to the stored quantity
+        holder.setShownQuantity(row.mQuantity + mQuantityCoalescer.getPendingDelta(row.mId));
+    }
+
+    /**
+     * Views of one row, found once when the row is inflated
+     */
+    class ItemViewHolder extends RecyclerView.ViewHolder
+            implements View.OnClickListener {
+        final TextView mNameView;
+        final TextView mQuantityView;
+        final TextView mPriceView;
+        final ImageView mThumbnailView;
+
+        //Quantity shown, taps on "-1" count down from it
+        private int mShownQuantity;
+
+        ItemViewHolder(View itemView){
+            super(itemView);
+            mNameView = (TextView) itemView.findViewById(R.id.name_text_view);
+            mQuantityView = (TextView) itemView.findViewById(R.id.quantity_text_view);
+            mPriceView = (TextView) itemView.findViewById(R.id.price_text_view);
+            mThumbnailView = (ImageView) itemView.findViewById(R.id.thumbnail_image_view);
+            itemView.setOnClickListener(this);
+            itemView.findViewById(R.id.minus_button).setOnClickListener(this);
+        }
+
+        void setShownQuantity(int quantity){
+            mShownQuantity = quantity;
+            mQuantityView.setText(String.valueOf(quantity));
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if(position == RecyclerView.NO_POSITION){
+                //The row is being removed
+                return;
+            }
+            long itemId = getItem(position).mId;
+            if(view != itemView){
+                sellOne(itemId);
+            }else{
+                mClickListener.onItemClick(itemId);
+            }
+        }
+
+        /**
+         * Each click on the "-1" button sells one unit straight away. Quick taps are shown
+         * immediately and written to the database in batches by the QuantityCoalescer
+         */
+        private void sellOne(long itemId){
+            if(mShownQuantity < 1){
+                Toast.makeText(mContext, R.string.quantity_less_0, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            mQuantityCoalescer.adjust(itemId, -1);
+            setShownQuantity(mShownQuantity - 1);
+        }
+    }
+
+    /**
+     * One item as the list shows it, read from a cursor row
+     */
+    public static final class Row {
+        final long mId;
+        final String mName;
+        final int mQuantity;
+        final String mPriceText;
+        final String mThumbnailName;
+
+        Row(long id, String name, int quantity, String priceText, String thumbnailName){
+            mId = id;
+            mName = name;
+            mQuantity = quantity;
+            mPriceText = priceText;
+            mThumbnailName = thumbnailName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o){
+                return true;
+            }
+            if(!(o instanceof Row)){
+                return false;
+            }
+            Row other = (Row) o;
+            return mId == other.mId && mQuantity == other.mQuantity
+                    && TextUtils.equals(mName, other.mName)
+                    && TextUtils.equals(mPriceText, other.mPriceText)
+                    && TextUtils.equals(mThumbnailName, other.mThumbnailName);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (mId ^ (mId >>> 32));
+        }
+    }
+}
@@ -1,27 +1,52 @@
 package com.joshdoucet.snapandsave.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.text.TextUtils;
 import android.util.Log;
-import android.widget.Toast;
 
 import com.joshdoucet.snapandsave.R;
+import com.joshdoucet.snapandsave.data.InventoryContract.AdjustmentEntry;
 import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.LocationEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.MetricsEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.MovementEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.StockEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.StockSnapshotEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.SummaryEntry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 
 /**
  *   - The InventoryProvider class works as a ContentProvider that directly performs operations
  *      on the database. This is the only place the DB should be directly interacted with.
  *      The provider acts as an abstraction layer between the UI and the data. The UI code should
  *      interact with the ContentResolver which will then work with the InventoryProvider.
- *      All data integrity checks are done within this class to ensure bad data is not entered
- *      into the database
+ *      Every write is checked by the ItemValidator within this class to ensure bad data is not
+ *      entered into the database
+ *      Every call is timed and counted by ProviderMetrics, read them back from the metrics URI
  */
 
 public class InventoryProvider extends ContentProvider{
@@ -39,25 +64,379 @@ public class InventoryProvider extends ContentProvider{
     private static final int ITEMS_TABLE_CODE = 100;
     //Code for URIs that identify a specific item by _ID
     private static final int SINGLE_ITEM_CODE = 101;
+    //Code for URIs that identify the photo of a specific item by _ID
+    private static final int ITEM_IMAGE_CODE = 102;
+    //Code for URIs that identify the thumbnail of a specific item by _ID
+    private static final int ITEM_THUMBNAIL_CODE = 103;
+    //Code for the URI of the inventory summary row
+    private static final int SUMMARY_CODE = 104;
+    //Code for URIs that search item names and suppliers, items/search/<query>
+    private static final int SEARCH_CODE = 105;
+    //Code for URIs that change the quantity of a specific item by a delta
+    private static final int ITEM_ADJUST_CODE = 106;
+    //Code for the URI of the CSV export of the items table
+    private static final int EXPORT_CODE = 107;
+    //Code for the URI of the provider's call metrics
+    private static final int METRICS_CODE = 108;
+    //Code for the URI of the journal of quantity changes
+    private static final int ADJUSTMENTS_CODE = 109;
+    //Code for the URI that applies the journal of quantity changes
+    private static final int ADJUSTMENTS_FLUSH_CODE = 110;
+    //Code for URIs that identify the entire locations table
+    private static final int LOCATIONS_CODE = 111;
+    //Code for URIs that identify a specific location by _ID
+    private static final int SINGLE_LOCATION_CODE = 112;
+    //Code for URIs that identify the items stocked at a specific location
+    private static final int LOCATION_ITEMS_CODE = 113;
+    //Code for URIs that change the stock of an item at a specific location by a delta
+    private static final int LOCATION_ITEM_ADJUST_CODE = 114;
+    //Code for the URI of the totals of every location
+    private static final int LOCATION_TOTALS_CODE = 115;
+    //Code for URIs that identify the stock of a specific item at every location
+    private static final int ITEM_STOCK_CODE = 116;
+    //Code for the URI of the ledger of quantity changes
+    private static final int MOVEMENTS_CODE = 117;
+    //Code for the URI that compacts the ledger into snapshots
+    private static final int MOVEMENTS_COMPACT_CODE = 118;
+    //Code for URIs that identify the ledger of a specific item
+    private static final int ITEM_MOVEMENTS_CODE = 119;
+    //Code for URIs of every item's quantity at a point in time
+    private static final int STOCK_AS_OF_CODE = 120;
+    //Code for URIs of a specific item's quantity at a point in time
+    private static final int ITEM_STOCK_AS_OF_CODE = 121;
+
+    //Path pattern of each code above, from ITEMS_TABLE_CODE on, names the metrics rows
+    private static final String[] sUriPatterns =
+            new String[ITEM_STOCK_AS_OF_CODE - ITEMS_TABLE_CODE + 1];
+
+    //Rows read per query while exporting, the export only ever holds one chunk in memory
+    private static final int EXPORT_CHUNK_ROWS = 1000;
+
+    //Columns read for every exported row, in the order InventoryCsv.writeItem takes them
+    private static final String[] EXPORT_PROJECTION = {
+            ItemEntry._ID,
+            ItemEntry.COLUMN_NAME,
+            ItemEntry.COLUMN_QUANTITY,
+            ItemEntry.COLUMN_SUPPLIER,
+            ItemEntry.COLUMN_PRICE_CENTS,
+            ItemEntry.COLUMN_SALE_STATUS,
+            ItemEntry.COLUMN_IMAGE_FILE};
+
+    //Adds a delta to the quantity of one item, booked in the ledger with the reason ?3.
+    //The WHERE clause keeps the result within 0..MAX_QUANTITY - 1, so no row is changed
+    //when the delta would go out of bounds. The items_stock_check trigger skips the row too
+    //when the delta would take the default location's stock below 0
+    private static final String SQL_ADJUST_QUANTITY = "UPDATE " + ItemEntry.TABLE_NAME
+            + " SET " + ItemEntry.COLUMN_QUANTITY + " = " + ItemEntry.COLUMN_QUANTITY + " + ?1, "
+            + ItemEntry.COLUMN_MOVEMENT_REASON + " = ?3"
+            + " WHERE " + ItemEntry._ID + " = ?2"
+            + " AND " + ItemEntry.COLUMN_QUANTITY + " + ?1 BETWEEN 0 AND "
+            + (ItemEntry.MAX_QUANTITY - 1);
+
+    //Reads the quantity of one item back after it was adjusted
+    private static final String SQL_SELECT_QUANTITY = "SELECT " + ItemEntry.COLUMN_QUANTITY
+            + " FROM " + ItemEntry.TABLE_NAME + " WHERE " + ItemEntry._ID + " = ?";
+
+    //Adds up the journal per item, the only read a flush makes
+    private static final String SQL_SUM_ADJUSTMENTS = "SELECT " + AdjustmentEntry.COLUMN_ITEM_ID
+            + ", SUM(" + AdjustmentEntry.COLUMN_DELTA + ") FROM " + AdjustmentEntry.TABLE_NAME
+            + " GROUP BY " + AdjustmentEntry.COLUMN_ITEM_ID;
+
+    //Adds the journal total of one item to its quantity. Unlike SQL_ADJUST_QUANTITY the result
+    //is clamped, the taps were already shown and can't be refused. The lower bound is the
+    //stock at the other locations, the items_stock_check trigger skips anything below it,
+    //or the current quantity if that is lower already.
+    //The journal only holds taps on "-1", they are booked in the ledger as sales
+    private static final String SQL_APPLY_ADJUSTMENT = "UPDATE " + ItemEntry.TABLE_NAME
+            + " SET " + ItemEntry.COLUMN_QUANTITY + " = MAX(MIN(" + ItemEntry.COLUMN_QUANTITY
+            + ", (SELECT IFNULL(SUM(" + StockEntry.COLUMN_QUANTITY + "), 0) FROM "
+            + StockEntry.TABLE_NAME + " WHERE " + StockEntry.COLUMN_ITEM_ID + " = ?2"
+            + " AND " + StockEntry.COLUMN_LOCATION_ID + " <> "
+            + LocationEntry.DEFAULT_LOCATION_ID + ")), MIN("
+            + (ItemEntry.MAX_QUANTITY - 1) + ", " + ItemEntry.COLUMN_QUANTITY + " + ?1)), "
+            + ItemEntry.COLUMN_MOVEMENT_REASON + " = " + MovementEntry.REASON_SALE
+            + " WHERE " + ItemEntry._ID + " = ?2";
+
+    //The items table while the version 8 backfill converts prices, rows it hasn't reached
+    //yet are read with the price and sale status of their old price column
+    private static final String SQL_ITEMS_CONVERTING_PRICES = "(SELECT "
+            + ItemEntry._ID + ", " + ItemEntry.COLUMN_NAME + ", " + ItemEntry.COLUMN_QUANTITY
+            + ", " + Migrations.PriceCentsMigration.SQL_PRICE_CENTS + " AS "
+            + ItemEntry.COLUMN_PRICE_CENTS + ", " + Migrations.PriceCentsMigration.SQL_SALE_STATUS
+            + " AS " + ItemEntry.COLUMN_SALE_STATUS + ", " + ItemEntry.COLUMN_SUPPLIER + ", "
+            + ItemEntry.COLUMN_IMAGE_FILE + ", " + ItemEntry.COLUMN_THUMBNAIL_FILE + ", "
+            + ItemEntry.COLUMN_MOVEMENT_REASON + " FROM " + ItemEntry.TABLE_NAME + ") AS "
+            + ItemEntry.TABLE_NAME;
+
+    //The summary row added up from the items table, while the version 8 backfill hasn't
+    //seeded the summary table yet. Written with a %s placeholder for the items table
+    private static final String SQL_SUMMARY_OF_ITEMS = "SELECT "
+            + SummaryEntry.SUMMARY_ROW_ID + " AS " + SummaryEntry._ID
+            + ", IFNULL(SUM(CASE WHEN " + ItemEntry.COLUMN_SALE_STATUS + " = "
+            + ItemEntry.STATUS_FOR_SALE + " THEN " + ItemEntry.COLUMN_PRICE_CENTS + " * "
+            + ItemEntry.COLUMN_QUANTITY + " ELSE 0 END), 0) AS "
+            + SummaryEntry.COLUMN_TOTAL_VALUE_CENTS
+            + ", IFNULL(SUM(" + ItemEntry.COLUMN_QUANTITY + "), 0) AS "
+            + SummaryEntry.COLUMN_UNIT_COUNT
+            + ", COUNT(*) AS " + SummaryEntry.COLUMN_SKU_COUNT + " FROM %s";
+
+    //Columns of the rows of a location items URI when no projection is given
+    private static final String[] LOCATION_ITEMS_PROJECTION = {
+            ItemEntry._ID,
+            ItemEntry.COLUMN_NAME,
+            ItemEntry.COLUMN_QUANTITY,
+            ItemEntry.COLUMN_SUPPLIER,
+            ItemEntry.COLUMN_PRICE_CENTS,
+            ItemEntry.COLUMN_SALE_STATUS,
+            ItemEntry.COLUMN_IMAGE_FILE,
+            ItemEntry.COLUMN_THUMBNAIL_FILE};
+
+    //Totals of every location in one GROUP BY over the stock table, the items table is only
+    //read for prices. Locations without stock have a row of zeros. Written with a %s
+    //placeholder for the items table, see getItemsSource
+    private static final String SQL_LOCATION_TOTALS = "SELECT "
+            + LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " AS " + LocationEntry._ID
+            + ", " + LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_NAME
+            + " AS " + LocationEntry.COLUMN_NAME
+            + ", COUNT(" + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID + ") AS "
+            + LocationEntry.COLUMN_SKU_COUNT
+            + ", IFNULL(SUM(" + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_QUANTITY
+            + "), 0) AS " + LocationEntry.COLUMN_UNIT_COUNT
+            + ", IFNULL(SUM(CASE WHEN " + ItemEntry.TABLE_NAME + "." + ItemEntry.COLUMN_SALE_STATUS
+            + " = " + ItemEntry.STATUS_FOR_SALE + " THEN " + ItemEntry.TABLE_NAME + "."
+            + ItemEntry.COLUMN_PRICE_CENTS + " * " + StockEntry.TABLE_NAME + "."
+            + StockEntry.COLUMN_QUANTITY + " ELSE 0 END), 0) AS "
+            + LocationEntry.COLUMN_TOTAL_VALUE_CENTS
+            + " FROM " + LocationEntry.TABLE_NAME
+            + " LEFT JOIN " + StockEntry.TABLE_NAME + " ON " + StockEntry.TABLE_NAME + "."
+            + StockEntry.COLUMN_LOCATION_ID + " = " + LocationEntry.TABLE_NAME + "."
+            + LocationEntry._ID
+            + " LEFT JOIN %s ON " + ItemEntry.TABLE_NAME + "."
+            + ItemEntry._ID + " = " + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID
+            + " GROUP BY " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID
+            + " ORDER BY " + LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_NAME;
+
+    //Stock of one item at every location it has a row at, read through the item's index
+    private static final String SQL_ITEM_STOCK = "SELECT "
+            + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_LOCATION_ID + " AS "
+            + StockEntry.COLUMN_LOCATION_ID
+            + ", " + LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_NAME + " AS "
+            + LocationEntry.COLUMN_NAME
+            + ", " + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_QUANTITY + " AS "
+            + StockEntry.COLUMN_QUANTITY
+            + " FROM " + StockEntry.TABLE_NAME + " JOIN " + LocationEntry.TABLE_NAME
+            + " ON " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " = "
+            + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_LOCATION_ID
+            + " WHERE " + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID + " = ?"
+            + " ORDER BY " + LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_NAME;
+
+    //Gives an item a stock row at a location, if both exist and it has none yet
+    private static final String SQL_INSERT_STOCK = "INSERT OR IGNORE INTO "
+            + StockEntry.TABLE_NAME + " (" + StockEntry.COLUMN_LOCATION_ID + ", "
+            + StockEntry.COLUMN_ITEM_ID + ") SELECT " + LocationEntry.TABLE_NAME + "."
+            + LocationEntry._ID + ", " + ItemEntry.TABLE_NAME + "." + ItemEntry._ID
+            + " FROM " + LocationEntry.TABLE_NAME + ", " + ItemEntry.TABLE_NAME
+            + " WHERE " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " = ?1"
+            + " AND " + ItemEntry.TABLE_NAME + "." + ItemEntry._ID + " = ?2";
+
+    //Adds a delta to the stock of an item at a location, no row is changed when the stock
+    //would go below 0
+    private static final String SQL_ADJUST_STOCK = "UPDATE " + StockEntry.TABLE_NAME
+            + " SET " + StockEntry.COLUMN_QUANTITY + " = " + StockEntry.COLUMN_QUANTITY + " + ?1"
+            + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = ?2"
+            + " AND " + StockEntry.COLUMN_ITEM_ID + " = ?3"
+            + " AND " + StockEntry.COLUMN_QUANTITY + " + ?1 >= 0";
+
+    //Reads the stock of an item at a location back after it was adjusted
+    private static final String SQL_SELECT_STOCK = "SELECT " + StockEntry.COLUMN_QUANTITY
+            + " FROM " + StockEntry.TABLE_NAME + " WHERE " + StockEntry.COLUMN_LOCATION_ID
+            + " = ? AND " + StockEntry.COLUMN_ITEM_ID + " = ?";
+
+    //Moves the stock of a location that is deleted to the default location, in two steps.
+    //Items that have no row at the default location get one, then every row is added in
+    private static final String SQL_MERGE_STOCK_ROWS = "INSERT OR IGNORE INTO "
+            + StockEntry.TABLE_NAME + " (" + StockEntry.COLUMN_LOCATION_ID + ", "
+            + StockEntry.COLUMN_ITEM_ID + ") SELECT " + LocationEntry.DEFAULT_LOCATION_ID + ", "
+            + StockEntry.COLUMN_ITEM_ID + " FROM " + StockEntry.TABLE_NAME
+            + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = ?";
+    private static final String SQL_MERGE_STOCK = "UPDATE " + StockEntry.TABLE_NAME
+            + " SET " + StockEntry.COLUMN_QUANTITY + " = " + StockEntry.COLUMN_QUANTITY
+            + " + (SELECT moved." + StockEntry.COLUMN_QUANTITY + " FROM " + StockEntry.TABLE_NAME
+            + " AS moved WHERE moved." + StockEntry.COLUMN_LOCATION_ID + " = ?1"
+            + " AND moved." + StockEntry.COLUMN_ITEM_ID + " = " + StockEntry.TABLE_NAME + "."
+            + StockEntry.COLUMN_ITEM_ID + ")"
+            + " WHERE " + StockEntry.COLUMN_LOCATION_ID + " = "
+            + LocationEntry.DEFAULT_LOCATION_ID
+            + " AND " + StockEntry.COLUMN_ITEM_ID + " IN (SELECT " + StockEntry.COLUMN_ITEM_ID
+            + " FROM " + StockEntry.TABLE_NAME + " WHERE " + StockEntry.COLUMN_LOCATION_ID
+            + " = ?1)";
+
+    //Quantity of items at a point in time, ?1. Each item starts from its last snapshot at or
+    //before the time, one seek of the snapshots index, and adds up only the movements after
+    //that snapshot, read from the item's range of the ledger index. Items without a snapshot
+    //add up their whole ledger. Written with a %s placeholder for the items, a table or
+    //subquery with _ID and name columns
+    private static final String SQL_STOCK_AS_OF = "SELECT asof." + ItemEntry._ID + " AS "
+            + ItemEntry._ID + ", asof." + ItemEntry.COLUMN_NAME + " AS " + ItemEntry.COLUMN_NAME
+            + ", IFNULL(snap." + StockSnapshotEntry.COLUMN_QUANTITY + ", 0) + IFNULL((SELECT SUM(m."
+            + MovementEntry.COLUMN_DELTA + ") FROM " + MovementEntry.TABLE_NAME + " AS m"
+            + " WHERE m." + MovementEntry.COLUMN_ITEM_ID + " = asof." + ItemEntry._ID
+            + " AND m." + MovementEntry.COLUMN_TIMESTAMP + " BETWEEN IFNULL(snap."
+            + StockSnapshotEntry.COLUMN_TIMESTAMP + ", 0) AND ?1"
+            + " AND m." + MovementEntry._ID + " > IFNULL(snap."
+            + StockSnapshotEntry.COLUMN_MOVEMENT_ID + ", 0)), 0) AS " + ItemEntry.COLUMN_QUANTITY
+            + " FROM (SELECT src." + ItemEntry._ID + " AS " + ItemEntry._ID + ", src."
+            + ItemEntry.COLUMN_NAME + " AS " + ItemEntry.COLUMN_NAME
+            + ", (SELECT s." + StockSnapshotEntry._ID + " FROM " + StockSnapshotEntry.TABLE_NAME
+            + " AS s WHERE s." + StockSnapshotEntry.COLUMN_ITEM_ID + " = src." + ItemEntry._ID
+            + " AND s." + StockSnapshotEntry.COLUMN_TIMESTAMP + " <= ?1"
+            + " ORDER BY s." + StockSnapshotEntry.COLUMN_TIMESTAMP + " DESC, s."
+            + StockSnapshotEntry.COLUMN_MOVEMENT_ID + " DESC LIMIT 1) AS snapshot_id"
+            + " FROM %s AS src) AS asof"
+            + " LEFT JOIN " + StockSnapshotEntry.TABLE_NAME + " AS snap ON snap."
+            + StockSnapshotEntry._ID + " = asof.snapshot_id"
+            + " ORDER BY asof." + ItemEntry.COLUMN_NAME;
+
+    //The single item ?2 for SQL_STOCK_AS_OF, its name is null once it was deleted
+    private static final String SQL_AS_OF_ITEM = "(SELECT CAST(?2 AS INTEGER) AS "
+            + ItemEntry._ID + ", (SELECT " + ItemEntry.COLUMN_NAME + " FROM "
+            + ItemEntry.TABLE_NAME + " WHERE " + ItemEntry._ID + " = ?2) AS "
+            + ItemEntry.COLUMN_NAME + ")";
+
+    //Movements that have to pile up after the last snapshot before a compaction writes new
+    //ones, so the ledger is compacted in a few large steps instead of after every change
+    private static final int COMPACT_MIN_MOVEMENTS = 500;
+
+    //Last movement the snapshots include, read from the movement index
+    private static final String SQL_LAST_COMPACTED_MOVEMENT = "SELECT IFNULL(MAX("
+            + StockSnapshotEntry.COLUMN_MOVEMENT_ID + "), 0) FROM "
+            + StockSnapshotEntry.TABLE_NAME;
+
+    //Last movement in the ledger
+    private static final String SQL_LAST_MOVEMENT = "SELECT IFNULL(MAX(" + MovementEntry._ID
+            + "), 0) FROM " + MovementEntry.TABLE_NAME;
+
+    //One snapshot for every item that moved after movement ?1, its previous snapshot plus
+    //its movements since. Only the ledger after ?1 is read, however long it is overall. The
+    //unary + keeps SQLite from grouping along the item index, which would scan all of it
+    private static final String SQL_COMPACT_MOVEMENTS = "INSERT INTO "
+            + StockSnapshotEntry.TABLE_NAME + " (" + StockSnapshotEntry.COLUMN_ITEM_ID + ", "
+            + StockSnapshotEntry.COLUMN_MOVEMENT_ID + ", " + StockSnapshotEntry.COLUMN_TIMESTAMP
+            + ", " + StockSnapshotEntry.COLUMN_QUANTITY + ")"
+            + " SELECT m." + MovementEntry.COLUMN_ITEM_ID + ", MAX(m." + MovementEntry._ID
+            + "), MAX(m." + MovementEntry.COLUMN_TIMESTAMP + "), SUM(m."
+            + MovementEntry.COLUMN_DELTA + ") + IFNULL((SELECT s."
+            + StockSnapshotEntry.COLUMN_QUANTITY + " FROM " + StockSnapshotEntry.TABLE_NAME
+            + " AS s WHERE s." + StockSnapshotEntry.COLUMN_ITEM_ID + " = m."
+            + MovementEntry.COLUMN_ITEM_ID + " ORDER BY s." + StockSnapshotEntry.COLUMN_TIMESTAMP
+            + " DESC, s." + StockSnapshotEntry.COLUMN_MOVEMENT_ID + " DESC LIMIT 1), 0)"
+            + " FROM " + MovementEntry.TABLE_NAME + " AS m WHERE m." + MovementEntry._ID
+            + " > ?1 GROUP BY +m." + MovementEntry.COLUMN_ITEM_ID;
 
     // Static initializer. This is run the first time anything is called from this class.
     static{
-        //Add URI definitions (CONTENT_AUTHORITY, PAT_NAME, MATCHER_CODE)
+        //Add URI definitions (PATH_NAME, MATCHER_CODE)
         //definition for referencing the whole items table URI
-        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
-                InventoryContract.PATH_ITEMS, ITEMS_TABLE_CODE);
+        addUri(InventoryContract.PATH_ITEMS, ITEMS_TABLE_CODE);
         //definition for referencing a single item in the items table by _ID
-        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
-                InventoryContract.PATH_ITEMS + "/#", SINGLE_ITEM_CODE);
+        addUri(InventoryContract.PATH_ITEMS + "/#", SINGLE_ITEM_CODE);
+        //definition for referencing the photo of a single item, only used by openFile
+        addUri(InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_IMAGE,
+                ITEM_IMAGE_CODE);
+        //definition for referencing the thumbnail of a single item, only used by openFile
+        addUri(InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_THUMBNAIL,
+                ITEM_THUMBNAIL_CODE);
+        //definition for referencing the inventory summary, items/summary
+        addUri(InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_SUMMARY,
+                SUMMARY_CODE);
+        //definition for full text search of the items table
+        addUri(InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_SEARCH + "/*",
+                SEARCH_CODE);
+        //definition for changing the quantity of a single item, only used by update
+        addUri(InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_ADJUST,
+                ITEM_ADJUST_CODE);
+        //definition for the CSV export of the items table, only used by openFile
+        addUri(InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_EXPORT,
+                EXPORT_CODE);
+        //definition for the call metrics, only used by query and delete
+        addUri(InventoryContract.PATH_METRICS, METRICS_CODE);
+        //definition for the journal of quantity changes, only used by insert and bulkInsert
+        addUri(InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_ADJUSTMENTS,
+                ADJUSTMENTS_CODE);
+        //definition for applying the journal, only used by update
+        addUri(InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_ADJUSTMENTS + "/"
+                + InventoryContract.PATH_FLUSH, ADJUSTMENTS_FLUSH_CODE);
+        //definition for referencing the whole locations table
+        addUri(InventoryContract.PATH_LOCATIONS, LOCATIONS_CODE);
+        //definition for referencing a single location by _ID
+        addUri(InventoryContract.PATH_LOCATIONS + "/#", SINGLE_LOCATION_CODE);
+        //definition for the items stocked at a single location, only used by query
+        addUri(InventoryContract.PATH_LOCATIONS + "/#/" + InventoryContract.PATH_ITEMS,
+                LOCATION_ITEMS_CODE);
+        //definition for changing the stock of an item at a location, only used by update
+        addUri(InventoryContract.PATH_LOCATIONS + "/#/" + InventoryContract.PATH_ITEMS + "/#/"
+                + InventoryContract.PATH_ADJUST, LOCATION_ITEM_ADJUST_CODE);
+        //definition for the totals of every location, only used by query
+        addUri(InventoryContract.PATH_LOCATIONS + "/" + InventoryContract.PATH_TOTALS,
+                LOCATION_TOTALS_CODE);
+        //definition for the stock of a single item at every location, only used by query
+        addUri(InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_STOCK,
+                ITEM_STOCK_CODE);
+        //definition for the ledger of quantity changes, only used by query
+        addUri(InventoryContract.PATH_MOVEMENTS, MOVEMENTS_CODE);
+        //definition for compacting the ledger, only used by update
+        addUri(InventoryContract.PATH_MOVEMENTS + "/" + InventoryContract.PATH_COMPACT,
+                MOVEMENTS_COMPACT_CODE);
+        //definition for the ledger of a single item, only used by query
+        addUri(InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_MOVEMENTS,
+                ITEM_MOVEMENTS_CODE);
+        //definition for every item's quantity at a time, items/as_of/<millis>
+        addUri(InventoryContract.PATH_ITEMS + "/" + InventoryContract.PATH_AS_OF + "/#",
+                STOCK_AS_OF_CODE);
+        //definition for a single item's quantity at a time, items/<_ID>/as_of/<millis>
+        addUri(InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_AS_OF + "/#",
+                ITEM_STOCK_AS_OF_CODE);
+    }
+
+    /**
+     * Add a path under the content authority to sUriMatcher and remember its pattern
+     */
+    private static void addUri(String path, int code){
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, path, code);
+        sUriPatterns[code - ITEMS_TABLE_CODE] = path;
     }
 
     //Helper object that can interact with the snapandsave.db
     public InventoryDBHelper mInventoryDBHelper;
 
+    //Files that hold the item photos, the items table only stores their names
+    private ImageStore mImageStore;
+
+    //Latency and size of every call, by operation and URI match code
+    private final ProviderMetrics mMetrics = new ProviderMetrics(ITEMS_TABLE_CODE, sUriPatterns);
+
+    //Set while applyBatch runs on the current thread. Single row operations inside the batch
+    //hold back their change notifications so listeners are only notified once on commit
+    private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<>();
+
+    //Photo files of the transaction applyBatch or bulkInsert runs on the current thread.
+    //The files follow the rows: photos rows stopped using are only deleted once it commits,
+    //photos stored for its rows are deleted if it rolls back
+    private final ThreadLocal<ImageChanges> mImageChanges = new ThreadLocal<>();
+
+    //Compiled once and reused for every quantity adjustment, guarded by mAdjustLock. The lock
+    //is only taken inside a write transaction. Recompiled if the helper hands out a new
+    //database object
+    private final Object mAdjustLock = new Object();
+    private SQLiteDatabase mAdjustDB;
+    private SQLiteStatement mAdjustStatement;
+    private SQLiteStatement mSelectQuantityStatement;
+
     @Override
     public boolean onCreate() {
         //Initialize DB helper
-        mInventoryDBHelper = new InventoryDBHelper(getContext());
+        mInventoryDBHelper = InventoryDBHelper.getInstance(getContext());
+        mImageStore = new ImageStore(getContext());
         return true;
     }
 
@@ -67,18 +446,41 @@ public class InventoryProvider extends ContentProvider{
     @Override
     public Cursor query( Uri uri, String[] projection, String selection,
                          String[] selectionArgs,  String sortOrder) {
+        long start = ProviderMetrics.start();
+        //Matched code returned from the URI parameter
+        int matchCode = sUriMatcher.match(uri);
+        Cursor cursor = query(matchCode, uri, projection, selection, selectionArgs, sortOrder);
+        //Counting the rows runs the query, which the caller's first getCount would do anyway
+        mMetrics.record(ProviderMetrics.OP_QUERY, matchCode, start, cursor.getCount(), 0);
+        return cursor;
+    }
+
+    /**
+     * Perform the query for a URI that matched the given code
+     */
+    private Cursor query(int matchCode, Uri uri, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder){
         //Get a readable version of our inventory database
         SQLiteDatabase readDB = mInventoryDBHelper.getReadableDatabase();
         //Data that will be returned
         Cursor cursor;
 
-        //Matched code returned from the URI parameter
-        int matchCode = sUriMatcher.match(uri);
         switch (matchCode){
             case ITEMS_TABLE_CODE:
+                //A limit parameter asks for a single page of the table
+                String limit = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT);
+                if(limit != null){
+                    cursor = queryItemsPage(readDB, uri, projection, selection, selectionArgs,
+                            limit);
+                    //Pages are only reloaded for changes to many rows. Observers of the
+                    //items URI see single row changes and reload just the affected page
+                    cursor.setNotificationUri(getContext().getContentResolver(),
+                            ItemEntry.PAGES_NOTIFICATION_URI);
+                    return cursor;
+                }
                 //Query the database using provided parameters. The cursor may
                 //contain multiple rows
-                cursor = readDB.query(ItemEntry.TABLE_NAME,
+                cursor = readDB.query(getItemsSource(readDB),
                         projection, selection, selectionArgs,
                         null, null, sortOrder);
                 //groupBy and having parameters not needed, null inserted
@@ -92,10 +494,94 @@ public class InventoryProvider extends ContentProvider{
 
                 //Query the database for a single row based on the uri _ID
                 //Only one row will be returned in the cursor
-                cursor = readDB.query(ItemEntry.TABLE_NAME,
+                cursor = readDB.query(getItemsSource(readDB),
                         projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case SUMMARY_CODE:
+                String itemsSource = getItemsSource(readDB);
+                if(itemsSource.equals(ItemEntry.TABLE_NAME)){
+                    //The summary is a single row kept up to date by triggers, no scan needed
+                    cursor = readDB.query(SummaryEntry.TABLE_NAME, projection, null, null,
+                            null, null, null);
+                }else{
+                    cursor = readDB.rawQuery(selectColumns(projection,
+                            String.format(SQL_SUMMARY_OF_ITEMS, itemsSource)), null);
+                }
+                //Totals change with every write to the items table, watch all item URIs
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        ItemEntry.CONTENT_URI);
+                return cursor;
+            case SEARCH_CODE:
+                cursor = searchItems(readDB, uri, projection, selection, selectionArgs);
+                //Any change to any item can change the search results
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        ItemEntry.CONTENT_URI);
+                return cursor;
+            case METRICS_CODE:
+                //A copy of the metrics as they are now, it is never notified of changes
+                return mMetrics.query(projection);
+            case LOCATIONS_CODE:
+                cursor = readDB.query(LocationEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null,
+                        sortOrder == null ? LocationEntry.COLUMN_NAME : sortOrder);
+                break;
+            case SINGLE_LOCATION_CODE:
+                cursor = readDB.query(LocationEntry.TABLE_NAME, projection,
+                        LocationEntry._ID + "=?",
+                        new String[] { String.valueOf(ContentUris.parseId(uri)) },
+                        null, null, null);
+                break;
+            case LOCATION_ITEMS_CODE:
+                cursor = queryLocationItems(readDB, uri, projection, selection, selectionArgs);
+                //Item changes and stock changes at any location are sent on item URIs
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        ItemEntry.CONTENT_URI);
+                return cursor;
+            case LOCATION_TOTALS_CODE:
+                cursor = readDB.rawQuery(selectColumns(projection,
+                        String.format(SQL_LOCATION_TOTALS, getItemsSource(readDB))), null);
+                //Totals change with every item and every location
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        InventoryContract.BASE_CONTENT_URI);
+                return cursor;
+            case ITEM_STOCK_CODE:
+                //The item _ID is the segment before PATH_STOCK
+                cursor = readDB.rawQuery(selectColumns(projection, SQL_ITEM_STOCK),
+                        new String[] { uri.getPathSegments().get(1) });
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        ItemEntry.CONTENT_URI);
+                return cursor;
+            case MOVEMENTS_CODE:
+                cursor = readDB.query(MovementEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null,
+                        sortOrder == null ? MovementEntry._ID : sortOrder);
+                //Every quantity change is sent on an item URI
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        ItemEntry.CONTENT_URI);
+                return cursor;
+            case ITEM_MOVEMENTS_CODE:
+                cursor = queryItemMovements(readDB, uri, projection, selection, selectionArgs,
+                        sortOrder);
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        ItemEntry.CONTENT_URI);
+                return cursor;
+            case STOCK_AS_OF_CODE:
+                //The time is the last segment
+                cursor = readDB.rawQuery(selectColumns(projection,
+                        String.format(SQL_STOCK_AS_OF, ItemEntry.TABLE_NAME)),
+                        new String[] { uri.getLastPathSegment() });
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        ItemEntry.CONTENT_URI);
+                return cursor;
+            case ITEM_STOCK_AS_OF_CODE:
+                //items/<item _ID>/as_of/<time>
+                cursor = readDB.rawQuery(selectColumns(projection,
+                        String.format(SQL_STOCK_AS_OF, SQL_AS_OF_ITEM)),
+                        new String[] { uri.getLastPathSegment(), uri.getPathSegments().get(1) });
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        ItemEntry.CONTENT_URI);
+                return cursor;
             default:
                 throw new IllegalArgumentException(getContext().
                         getString(R.string.unknown_uri_query));
@@ -109,6 +595,296 @@ public class InventoryProvider extends ContentProvider{
         return cursor;
     }
 
+    /**
+     * Query one page of the items table sorted by the uri's sort mode then _ID.
+     * The page starts after the sort key and _ID given in the uri's query parameters, so SQLite
+     * can seek straight to it with the sort column's index instead of skipping the rows before
+     * it. The caller's sort order is ignored, pages only make sense in the keyset order.
+     * @param limit max number of rows in the page
+     */
+    private Cursor queryItemsPage(SQLiteDatabase readDB, Uri uri, String[] projection,
+                                  String selection, String[] selectionArgs, String limit){
+        int pageSize = parsePageSize(uri, limit);
+
+        String sortColumn = getSortColumn(uri);
+        String afterKey = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_AFTER);
+        String afterId = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_AFTER_ID);
+        if(afterId != null){
+            String keyset = buildKeyset(sortColumn, ItemEntry._ID, afterKey);
+            String[] keysetArgs = buildKeysetArgs(afterKey, afterId);
+
+            if(TextUtils.isEmpty(selection)){
+                selection = keyset;
+                selectionArgs = keysetArgs;
+            }else{
+                selection = "(" + selection + ") AND (" + keyset + ")";
+                selectionArgs = appendArgs(selectionArgs, keysetArgs);
+            }
+        }
+
+        return readDB.query(getItemsSource(readDB), projection, selection, selectionArgs,
+                null, null, sortColumn + ", " + ItemEntry._ID,
+                String.valueOf(pageSize));
+    }
+
+    /**
+     * Query the ledger of the item in the uri, oldest first unless a sort order is given.
+     * Read from the item's range of the (item, timestamp) index, which is already in order.
+     * @param selection ANDed to the item's movements
+     */
+    private Cursor queryItemMovements(SQLiteDatabase readDB, Uri uri, String[] projection,
+                                      String selection, String[] selectionArgs,
+                                      String sortOrder){
+        //The item _ID is the segment before PATH_MOVEMENTS
+        String itemSelection = MovementEntry.COLUMN_ITEM_ID + "=?";
+        String[] itemArgs = { uri.getPathSegments().get(1) };
+        if(TextUtils.isEmpty(selection)){
+            selection = itemSelection;
+            selectionArgs = itemArgs;
+        }else{
+            selection = itemSelection + " AND (" + selection + ")";
+            selectionArgs = appendArgs(itemArgs, selectionArgs);
+        }
+        return readDB.query(MovementEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder == null
+                        ? MovementEntry.COLUMN_TIMESTAMP + ", " + MovementEntry._ID : sortOrder);
+    }
+
+    /**
+     * Query the items stocked at the location in the uri, with the quantity at the location.
+     * With a limit parameter one page is read, like queryItemsPage. The query walks an index
+     * in page order and stops after the page, so switching locations costs one page of index
+     * lookups however many items and locations there are. Sorted by quantity it walks the
+     * location's range of the (location, quantity, item) index and looks up each item by
+     * _ID. In the other sort modes it walks the items table's sort index and looks up each
+     * item in the (location, item) index, skipping items the location doesn't stock.
+     * CROSS JOIN keeps SQLite from picking the other order, which would sort every item of
+     * the location for each page.
+     * @param selection ANDed to the query, columns must be named with their table
+     */
+    private Cursor queryLocationItems(SQLiteDatabase readDB, Uri uri, String[] projection,
+                                      String selection, String[] selectionArgs){
+        //The location _ID is the segment before PATH_ITEMS
+        String locationId = uri.getPathSegments().get(1);
+        String itemSortColumn = getSortColumn(uri);
+        boolean byStock = ItemEntry.COLUMN_QUANTITY.equals(itemSortColumn);
+        String sortColumn = byStock
+                ? StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_QUANTITY
+                : ItemEntry.TABLE_NAME + "." + itemSortColumn;
+        String idColumn = byStock
+                ? StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID
+                : ItemEntry.TABLE_NAME + "." + ItemEntry._ID;
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        String[] columns = projection == null ? LOCATION_ITEMS_PROJECTION : projection;
+        for(int i = 0; i < columns.length; i++){
+            if(i > 0){
+                sql.append(", ");
+            }
+            //The quantity is the one at the location, every other column is the item's
+            if(ItemEntry.COLUMN_QUANTITY.equals(columns[i])){
+                sql.append(StockEntry.TABLE_NAME).append('.').append(StockEntry.COLUMN_QUANTITY);
+            }else{
+                sql.append(ItemEntry.TABLE_NAME).append('.').append(columns[i]);
+            }
+            sql.append(" AS ").append(columns[i]);
+        }
+        String itemsSource = getItemsSource(readDB);
+        if(byStock){
+            sql.append(" FROM ").append(StockEntry.TABLE_NAME)
+                    .append(" CROSS JOIN ").append(itemsSource);
+        }else{
+            sql.append(" FROM ").append(itemsSource)
+                    .append(" CROSS JOIN ").append(StockEntry.TABLE_NAME);
+        }
+        sql.append(" ON ").append(StockEntry.TABLE_NAME).append('.')
+                .append(StockEntry.COLUMN_ITEM_ID).append(" = ").append(ItemEntry.TABLE_NAME)
+                .append('.').append(ItemEntry._ID)
+                .append(" WHERE ").append(StockEntry.TABLE_NAME).append('.')
+                .append(StockEntry.COLUMN_LOCATION_ID).append(" = ?");
+        String[] args = { locationId };
+
+        String limit = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT);
+        String afterKey = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_AFTER);
+        String afterId = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_AFTER_ID);
+        if(limit != null && afterId != null){
+            sql.append(" AND (").append(buildKeyset(sortColumn, idColumn, afterKey)).append(')');
+            args = appendArgs(args, buildKeysetArgs(afterKey, afterId));
+        }
+        if(!TextUtils.isEmpty(selection)){
+            sql.append(" AND (").append(selection).append(')');
+            args = appendArgs(args, selectionArgs == null ? new String[0] : selectionArgs);
+        }
+        sql.append(" ORDER BY ").append(sortColumn).append(", ").append(idColumn);
+        if(limit != null){
+            sql.append(" LIMIT ").append(parsePageSize(uri, limit));
+        }
+
+        return readDB.rawQuery(sql.toString(), args);
+    }
+
+    /**
+     * Check the limit parameter of a page uri. It is passed to SQLite as text, make sure it
+     * is a plain positive number
+     * @return max number of rows in the page
+     */
+    private int parsePageSize(Uri uri, String limit){
+        int pageSize;
+        try {
+            pageSize = Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            pageSize = 0;
+        }
+        if(pageSize <= 0){
+            throw new IllegalArgumentException(getContext()
+                    .getString(R.string.unknown_uri_query) + uri);
+        }
+        return pageSize;
+    }
+
+    /**
+     * Build the selection for the rows of a page, the rows after (afterKey, afterId) in
+     * (sort column, _ID) order. Its arguments come from buildKeysetArgs.
+     * @param afterKey sort key of the last row of the previous page, null if it had none
+     */
+    private static String buildKeyset(String sortColumn, String idColumn, String afterKey){
+        if(afterKey != null){
+            //The >= term gives SQLite a starting point in the index, the rest is a filter
+            //on the first few rows. NULL keys sort first so they are already behind us.
+            return sortColumn + " >= ? AND (" + sortColumn + " > ? OR " + idColumn + " > ?)";
+        }
+        //The last row had a NULL key, continue with the remaining NULLs then the rest
+        return "(" + sortColumn + " IS NULL AND " + idColumn + " > ?) OR "
+                + sortColumn + " IS NOT NULL";
+    }
+
+    /**
+     * @return the arguments of the selection built by buildKeyset
+     */
+    private static String[] buildKeysetArgs(String afterKey, String afterId){
+        return afterKey != null
+                ? new String[] { afterKey, afterKey, afterId } : new String[] { afterId };
+    }
+
+    /**
+     * @return the items table to read prices from, ItemEntry.TABLE_NAME unless the version 8
+     * backfill still converts them
+     */
+    private static String getItemsSource(SQLiteDatabase readDB){
+        return MigrationRunner.isPending(readDB, Migrations.PriceCentsMigration.VERSION)
+                ? SQL_ITEMS_CONVERTING_PRICES : ItemEntry.TABLE_NAME;
+    }
+
+    /**
+     * Select only the projection's columns from the rows of a query, all of them if the
+     * projection is null
+     */
+    private static String selectColumns(String[] projection, String sql){
+        if(projection == null){
+            return sql;
+        }
+        return "SELECT " + TextUtils.join(", ", projection) + " FROM (" + sql + ")";
+    }
+
+    /**
+     * Find the column behind the sort mode in a page uri
+     * @return column name, the name column if the uri has no sort mode
+     */
+    private String getSortColumn(Uri uri){
+        String sortColumn = ItemEntry.getSortColumn(
+                uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_SORT));
+        if(sortColumn != null){
+            return sortColumn;
+        }
+        throw new IllegalArgumentException(getContext()
+                .getString(R.string.unknown_uri_query) + uri);
+    }
+
+    /**
+     * Search item names and suppliers through the full text search table.
+     * Every word of the query is matched as a prefix and all words must match.
+     * Items whose name matches are ranked first, then items where only the supplier matches,
+     * each group sorted by name. The FTS index is used for the lookup so no LIKE scan of the
+     * items table is needed.
+     */
+    private Cursor searchItems(SQLiteDatabase readDB, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs){
+        //Split the query into words, FTS syntax characters are dropped
+        String[] words = uri.getLastPathSegment().toLowerCase(Locale.ROOT)
+                .split("[^\\p{L}\\p{N}]+");
+        StringBuilder nameMatch = new StringBuilder();
+        StringBuilder anyMatch = new StringBuilder();
+        for(String word : words){
+            if(word.isEmpty()){
+                continue;
+            }
+            nameMatch.append(ItemEntry.COLUMN_NAME).append(':').append(word).append("* ");
+            anyMatch.append(word).append("* ");
+        }
+        if(anyMatch.length() == 0){
+            //Nothing searchable was typed, return no rows instead of sending FTS an empty query
+            return readDB.query(getItemsSource(readDB), projection, "0", null,
+                    null, null, null);
+        }
+
+        //Columns must name the items table, the FTS table has columns with the same names
+        StringBuilder columns = new StringBuilder();
+        if(projection == null){
+            columns.append(ItemEntry.TABLE_NAME).append(".*");
+        }else{
+            for(String column : projection){
+                if(columns.length() > 0){
+                    columns.append(", ");
+                }
+                columns.append(ItemEntry.TABLE_NAME).append('.').append(column)
+                        .append(" AS ").append(column);
+            }
+        }
+
+        //A name match is also a match on any column, so the hits are the matches on any
+        //column, ranked by whether they are among the name matches. SQLite reads the name
+        //matches once into a temporary index instead of grouping both sets of hits by docid
+        StringBuilder sql = new StringBuilder("SELECT ").append(columns)
+                .append(" FROM ").append(getItemsSource(readDB))
+                .append(" JOIN (SELECT docid, docid NOT IN (")
+                .append("SELECT docid FROM ").append(ItemEntry.FTS_TABLE_NAME)
+                .append(" WHERE ").append(ItemEntry.FTS_TABLE_NAME).append(" MATCH ?")
+                .append(") AS rank FROM ").append(ItemEntry.FTS_TABLE_NAME)
+                .append(" WHERE ").append(ItemEntry.FTS_TABLE_NAME).append(" MATCH ?")
+                .append(") AS hits ON ")
+                .append(ItemEntry.TABLE_NAME).append('.').append(ItemEntry._ID)
+                .append(" = hits.docid");
+        String[] args = { nameMatch.toString().trim(), anyMatch.toString().trim() };
+
+        if(!TextUtils.isEmpty(selection)){
+            sql.append(" WHERE ").append(selection);
+            args = appendArgs(args, selectionArgs == null ? new String[0] : selectionArgs);
+        }
+        sql.append(" ORDER BY hits.rank, ").append(ItemEntry.TABLE_NAME).append('.')
+                .append(ItemEntry.COLUMN_NAME);
+
+        String limit = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT);
+        if(limit != null){
+            sql.append(" LIMIT ?");
+            args = appendArgs(args, new String[] { limit });
+        }
+
+        return readDB.rawQuery(sql.toString(), args);
+    }
+
+    /**
+     * Join two arrays of selection arguments, the first may be null
+     */
+    private static String[] appendArgs(String[] args, String[] moreArgs){
+        if(args == null){
+            return moreArgs;
+        }
+        String[] joined = new String[args.length + moreArgs.length];
+        System.arraycopy(args, 0, joined, 0, args.length);
+        System.arraycopy(moreArgs, 0, joined, args.length, moreArgs.length);
+        return joined;
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -119,7 +895,40 @@ public class InventoryProvider extends ContentProvider{
             case ITEMS_TABLE_CODE:
                 return ItemEntry.CONTENT_LIST_TYPE;
             case SINGLE_ITEM_CODE:
+            case ITEM_ADJUST_CODE:
+                return ItemEntry.CONTENT_ITEM_TYPE;
+            case ITEM_IMAGE_CODE:
+            case ITEM_THUMBNAIL_CODE:
+                return ItemEntry.CONTENT_IMAGE_TYPE;
+            case SUMMARY_CODE:
+                return SummaryEntry.CONTENT_ITEM_TYPE;
+            case SEARCH_CODE:
+                return ItemEntry.CONTENT_LIST_TYPE;
+            case EXPORT_CODE:
+                return ItemEntry.CONTENT_CSV_TYPE;
+            case METRICS_CODE:
+                return MetricsEntry.CONTENT_LIST_TYPE;
+            case ADJUSTMENTS_CODE:
+            case ADJUSTMENTS_FLUSH_CODE:
+                return AdjustmentEntry.CONTENT_LIST_TYPE;
+            case LOCATIONS_CODE:
+            case LOCATION_TOTALS_CODE:
+                return LocationEntry.CONTENT_LIST_TYPE;
+            case SINGLE_LOCATION_CODE:
+                return LocationEntry.CONTENT_ITEM_TYPE;
+            case LOCATION_ITEMS_CODE:
+                return ItemEntry.CONTENT_LIST_TYPE;
+            case LOCATION_ITEM_ADJUST_CODE:
                 return ItemEntry.CONTENT_ITEM_TYPE;
+            case ITEM_STOCK_CODE:
+                return StockEntry.CONTENT_LIST_TYPE;
+            case MOVEMENTS_CODE:
+            case MOVEMENTS_COMPACT_CODE:
+            case ITEM_MOVEMENTS_CODE:
+                return MovementEntry.CONTENT_LIST_TYPE;
+            case STOCK_AS_OF_CODE:
+            case ITEM_STOCK_AS_OF_CODE:
+                return MovementEntry.AS_OF_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -130,27 +939,100 @@ public class InventoryProvider extends ContentProvider{
      */
     @Override
     public Uri insert( Uri uri,  ContentValues contentValues) {
+        long start = ProviderMetrics.start();
         int matchCode = sUriMatcher.match(uri);
         switch (matchCode){
             //only URIs for an entire items table are supported for insertion
             case ITEMS_TABLE_CODE:
                 //Insert item into SQLite database and return the URI for the new row
-                return insertItem(uri, contentValues);
+                long imageBytes = getImageBytes(contentValues);
+                Uri newUri = insertItem(uri, contentValues);
+                mMetrics.record(ProviderMetrics.OP_INSERT, matchCode, start,
+                        newUri == null ? 0 : 1, newUri == null ? 0 : imageBytes);
+                return newUri;
+            case ADJUSTMENTS_CODE:
+                Uri adjustmentUri = insertAdjustment(uri, contentValues);
+                mMetrics.record(ProviderMetrics.OP_INSERT, matchCode, start,
+                        adjustmentUri == null ? 0 : 1, 0);
+                return adjustmentUri;
+            case LOCATIONS_CODE:
+                Uri locationUri = insertLocation(uri, contentValues);
+                mMetrics.record(ProviderMetrics.OP_INSERT, matchCode, start,
+                        locationUri == null ? 0 : 1, 0);
+                return locationUri;
             default:
                 throw new IllegalArgumentException(getContext()
                         .getString(R.string.cannot_insert_uri) + uri);
         }
     }
 
+    /**
+     * Add a location. It starts out without stock.
+     * @return the URI of the new location, or null if the name is empty or already taken
+     */
+    private Uri insertLocation(Uri uri, ContentValues values){
+        if(!isLocationName(values)){
+            Log.e(LOG_TAG, getContext().getString(R.string.cannot_insert_uri) + uri);
+            return null;
+        }
+        long rowId = mInventoryDBHelper.getWritableDatabase()
+                .insert(LocationEntry.TABLE_NAME, null, values);
+        if(rowId == -1){
+            return null;
+        }
+        notifyChange(LocationEntry.CONTENT_URI);
+        return ContentUris.withAppendedId(uri, rowId);
+    }
+
+    /**
+     * @return true if values hold exactly a location name that isn't blank
+     */
+    private static boolean isLocationName(ContentValues values){
+        String name = values.getAsString(LocationEntry.COLUMN_NAME);
+        return values.size() == 1 && name != null && name.trim().length() > 0;
+    }
+
+    /**
+     * Append one quantity change to the journal. Nothing is notified, the items table is only
+     * changed once the journal is flushed.
+     * @return the URI of the journal row, or null if the values aren't a single change or
+     * its journal _ID is taken already
+     */
+    private Uri insertAdjustment(Uri uri, ContentValues values){
+        if(!isAdjustment(values)){
+            Log.e(LOG_TAG, getContext().getString(R.string.cannot_insert_uri) + uri);
+            return null;
+        }
+        long rowId = mInventoryDBHelper.getWritableDatabase().insertWithOnConflict(
+                AdjustmentEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        return rowId == -1 ? null : ContentUris.withAppendedId(uri, rowId);
+    }
+
+    /**
+     * @return true if values hold exactly an item _ID and a non zero delta, and optionally
+     * the journal _ID of the change
+     */
+    private static boolean isAdjustment(ContentValues values){
+        Long itemId = values.getAsLong(AdjustmentEntry.COLUMN_ITEM_ID);
+        Integer delta = values.getAsInteger(AdjustmentEntry.COLUMN_DELTA);
+        boolean hasId = values.containsKey(AdjustmentEntry._ID);
+        return values.size() == (hasId ? 3 : 2) && itemId != null && delta != null && delta != 0
+                && (!hasId || values.getAsLong(AdjustmentEntry._ID) != null);
+    }
+
     public Uri insertItem(Uri uri, ContentValues values){
         //Check if values has valid data that can be inserted into the database
-        boolean hasDataIntegrity = hasDataIntegrity(values);
+        if(!hasDataIntegrity(values)){
+            //Bad data is never written, return null early
+            return null;
+        }
 
-        if(!hasDataIntegrity){
-            //Show toast message about bad data, return null early
-            Context c = getContext();
-            Toast.makeText(c, c.getString(R.string.invalid_data),
-                    Toast.LENGTH_SHORT).show();
+        //Move the photo into the image store, the row only keeps the file names
+        String[] imageNames;
+        try {
+            imageNames = storeImage(values);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, getContext().getString(R.string.cannot_insert_uri) + uri, e);
             return null;
         }
 
@@ -163,42 +1045,272 @@ public class InventoryProvider extends ContentProvider{
         if(newRowId == -1){
             //Log event and return null early
             Log.e(LOG_TAG, getContext().getString(R.string.cannot_insert_uri) + uri);
+            mImageStore.deleteImages(imageNames);
             return null;
         }
+        imagesStored(imageNames);
 
-        //Notify listeners that data has changed for the current URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        //Notify listeners which row was added
+        notifyChange(ItemEntry.buildChangeUri(newRowId, InventoryContract.OPERATION_INSERT));
 
         // Once we know the ID of the new row in the table,
         // return the URI with the new ID appended to the end of it
         return ContentUris.withAppendedId(uri, newRowId);
     }
 
+    /**
+     * Insert many rows into the items table inside a single transaction.
+     * Rows that fail the data integrity check are skipped. Listeners are notified once,
+     * after the transaction has been committed. If it rolls back the photos stored for the
+     * rows are deleted again.
+     * @return number of rows inserted
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] valuesArray) {
+        long start = ProviderMetrics.start();
+        int matchCode = sUriMatcher.match(uri);
+        if(matchCode == ADJUSTMENTS_CODE){
+            int rowsJournaled = bulkInsertAdjustments(valuesArray);
+            mMetrics.record(ProviderMetrics.OP_BULK_INSERT, matchCode, start, rowsJournaled, 0);
+            return rowsJournaled;
+        }
+        if(matchCode != ITEMS_TABLE_CODE){
+            //only URIs for an entire items table are supported for insertion
+            throw new IllegalArgumentException(getContext()
+                    .getString(R.string.cannot_insert_uri) + uri);
+        }
+
+        SQLiteDatabase writeDB = mInventoryDBHelper.getWritableDatabase();
+        int rowsInserted = 0;
+        long imageBytesInserted = 0;
+        ImageChanges imageChanges = new ImageChanges();
+        boolean committed = false;
+
+        //One transaction for the whole batch, SQLite only has to sync to disk once
+        mImageChanges.set(imageChanges);
+        try {
+            writeDB.beginTransaction();
+            try {
+                for (ContentValues values : valuesArray) {
+                    //Bad rows are left out, the rest of the batch is still inserted
+                    if (!hasDataIntegrity(values)) {
+                        continue;
+                    }
+                    long imageBytes = getImageBytes(values);
+                    String[] imageNames;
+                    try {
+                        imageNames = storeImage(values);
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, getContext().getString(R.string.cannot_insert_uri)
+                                + uri, e);
+                        continue;
+                    }
+                    if (writeDB.insert(ItemEntry.TABLE_NAME, null, values) != -1) {
+                        rowsInserted++;
+                        imageBytesInserted += imageBytes;
+                        imagesStored(imageNames);
+                    } else {
+                        mImageStore.deleteImages(imageNames);
+                    }
+                }
+                writeDB.setTransactionSuccessful();
+            } finally {
+                writeDB.endTransaction();
+            }
+            committed = true;
+        } finally {
+            mImageChanges.remove();
+            //If the transaction rolled back none of the rows exist, neither may their photos
+            imageChanges.end(mImageStore, committed);
+        }
+
+        if(rowsInserted > 0){
+            //Notify content listeners once for the whole batch
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+
+        mMetrics.record(ProviderMetrics.OP_BULK_INSERT, matchCode, start, rowsInserted,
+                imageBytesInserted);
+        return rowsInserted;
+    }
+
+    /**
+     * Append many quantity changes to the journal in one transaction. Changes that aren't
+     * valid are skipped, and so are changes whose journal _ID is taken already. Nothing is
+     * notified.
+     * @return number of changes journaled
+     */
+    private int bulkInsertAdjustments(ContentValues[] valuesArray){
+        SQLiteDatabase writeDB = mInventoryDBHelper.getWritableDatabase();
+        int rowsInserted = 0;
+        writeDB.beginTransaction();
+        try {
+            for (ContentValues values : valuesArray) {
+                if (isAdjustment(values)
+                        && writeDB.insertWithOnConflict(AdjustmentEntry.TABLE_NAME, null, values,
+                                SQLiteDatabase.CONFLICT_IGNORE) != -1) {
+                    rowsInserted++;
+                }
+            }
+            writeDB.setTransactionSuccessful();
+        } finally {
+            writeDB.endTransaction();
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Apply a batch of insert, update and delete operations inside a single transaction.
+     * If any operation is rejected (for example a row without data integrity or a quantity
+     * adjustment out of bounds) the whole batch is rolled back and
+     * OperationApplicationException is thrown. Listeners are notified once, after the
+     * transaction has been committed.
+     * Photo files are changed along with the rows: photos the batch replaced or deleted are
+     * only removed on commit, photos it stored are removed on roll back.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase writeDB = mInventoryDBHelper.getWritableDatabase();
+        ImageChanges imageChanges = new ImageChanges();
+        ContentProviderResult[] results;
+        boolean committed = false;
+
+        mApplyingBatch.set(true);
+        mImageChanges.set(imageChanges);
+        try {
+            writeDB.beginTransaction();
+            try {
+                //Each operation calls back into insert, update or delete on this thread
+                results = super.applyBatch(operations);
+                writeDB.setTransactionSuccessful();
+            } catch (BatchRejectedException e) {
+                throw new OperationApplicationException(e.getMessage());
+            } finally {
+                writeDB.endTransaction();
+            }
+            committed = true;
+        } finally {
+            mApplyingBatch.set(false);
+            mImageChanges.remove();
+            imageChanges.end(mImageStore, committed);
+        }
+
+        if(!operations.isEmpty()){
+            //Notify content listeners once for the whole batch
+            getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        }
+        return results;
+    }
+
+    /**
+     * Inside applyBatch, fail the whole batch because the current operation was rejected and
+     * wrote nothing. Outside a batch the caller returns its failure value as before.
+     * @throws BatchRejectedException if a batch is being applied on this thread
+     */
+    private void rejectInBatch(Uri uri){
+        if(Boolean.TRUE.equals(mApplyingBatch.get())){
+            throw new BatchRejectedException(getContext()
+                    .getString(R.string.invalid_update_uri) + uri);
+        }
+    }
+
+    /**
+     * Photos were stored for rows written by the current operation. Inside a transaction of
+     * applyBatch or bulkInsert they are deleted again if it rolls back.
+     */
+    private void imagesStored(String[] imageNames){
+        ImageChanges imageChanges = mImageChanges.get();
+        if(imageChanges != null){
+            imageChanges.stored(imageNames);
+        }
+    }
+
+    /**
+     * Rows no longer use these photos. They are deleted right away, or inside a transaction
+     * of applyBatch or bulkInsert once it commits.
+     */
+    private void imagesUnused(String[] imageNames){
+        ImageChanges imageChanges = mImageChanges.get();
+        if(imageChanges != null){
+            imageChanges.unused(imageNames);
+        }else{
+            mImageStore.deleteImages(imageNames);
+        }
+    }
+
+    /**
+     * Notify listeners that data at the given uri has changed, unless a batch is being
+     * applied on this thread. In that case applyBatch sends one notification on commit.
+     */
+    private void notifyChange(Uri uri){
+        if(Boolean.TRUE.equals(mApplyingBatch.get())){
+            return;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
     /**
      * Delete the data at the given selection and selection arguments.
      */
     @Override
     public int delete( Uri uri,  String selection,
                        String[] selectionArgs) {
+        long start = ProviderMetrics.start();
+        //Get a matcher code for the parameter uri
+        final int matchCode = sUriMatcher.match(uri);
+        int rowsDeleted = delete(matchCode, uri);
+        mMetrics.record(ProviderMetrics.OP_DELETE, matchCode, start, rowsDeleted, 0);
+        return rowsDeleted;
+    }
+
+    /**
+     * Delete the data at a URI that matched the given code. Callers can't narrow down which
+     * rows are deleted, the URI alone decides.
+     */
+    private int delete(int matchCode, Uri uri){
+        //Metrics live in memory, deleting them starts a fresh recording
+        if(matchCode == METRICS_CODE){
+            mMetrics.reset();
+            return 0;
+        }
+        if(matchCode == SINGLE_LOCATION_CODE){
+            return deleteLocation(ContentUris.parseId(uri));
+        }
+
         SQLiteDatabase writeDB = mInventoryDBHelper.getWritableDatabase();
 
         //return value, num of rows deleted from database
         int rowsDeleted;
-
-        //Get a matcher code for the parameter uri
-        final int matchCode = sUriMatcher.match(uri);
+        //URI listeners are notified on when rows were deleted
+        Uri changeUri;
 
         switch(matchCode){
             case ITEMS_TABLE_CODE:
-                //Delete ALL rows in database
-                rowsDeleted = writeDB.delete(ItemEntry.TABLE_NAME, null, null);
+                //Delete ALL rows in database, and with them all photos
+                if(mImageChanges.get() != null){
+                    //Inside a transaction only the photos of the deleted rows can go, photos
+                    //stored later in it must stay
+                    imagesUnused(getAllImageNames(writeDB));
+                    rowsDeleted = writeDB.delete(ItemEntry.TABLE_NAME, null, null);
+                }else{
+                    rowsDeleted = writeDB.delete(ItemEntry.TABLE_NAME, null, null);
+                    mImageStore.deleteAllImages();
+                }
+                changeUri = ItemEntry.CONTENT_URI;
                 break;
             case SINGLE_ITEM_CODE:
                 //Delete a SINGLE row from the database
-                selection = ItemEntry._ID + "=?";
+                long id = ContentUris.parseId(uri);
+                String[] imageNames = getImageNames(writeDB, id);
+                String selection = ItemEntry._ID + "=?";
                 //extract _ID from Uri
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                String[] selectionArgs = new String[] { String.valueOf(id) };
                 rowsDeleted = writeDB.delete(ItemEntry.TABLE_NAME, selection, selectionArgs);
+                if(rowsDeleted > 0){
+                    imagesUnused(imageNames);
+                }
+                changeUri = ItemEntry.buildChangeUri(id, InventoryContract.OPERATION_DELETE);
                 break;
             default:
                 throw new IllegalArgumentException(getContext()
@@ -207,7 +1319,7 @@ public class InventoryProvider extends ContentProvider{
 
         if(rowsDeleted != 0){
             //Notify content listeners that data has changed in the database
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changeUri);
         }
 
         return rowsDeleted;
@@ -216,41 +1328,133 @@ public class InventoryProvider extends ContentProvider{
     @Override
     public int update( Uri uri,  ContentValues contentValues,
                        String selection,  String[] selectionArgs) {
+        long start = ProviderMetrics.start();
+        //Find a uri matcher code
+        final int matchCode = sUriMatcher.match(uri);
+
+        //Flushing the journal takes no values
+        if(matchCode == ADJUSTMENTS_FLUSH_CODE){
+            int itemsChanged = flushAdjustments();
+            mMetrics.record(ProviderMetrics.OP_UPDATE, matchCode, start, itemsChanged, 0);
+            return itemsChanged;
+        }
+
+        //Compacting the ledger takes no values either
+        if(matchCode == MOVEMENTS_COMPACT_CODE){
+            int snapshotsWritten = compactMovements();
+            mMetrics.record(ProviderMetrics.OP_UPDATE, matchCode, start, snapshotsWritten, 0);
+            return snapshotsWritten;
+        }
+
         //Check if Content values is empty, if so return early nothing will be updated
         if(contentValues.size() == 0) {
             return 0;
         }
 
+        //Location writes aren't item values, they skip the ItemValidator
+        if(matchCode == LOCATION_ITEM_ADJUST_CODE){
+            int newStock = adjustLocationStock(uri, contentValues);
+            mMetrics.record(ProviderMetrics.OP_UPDATE, matchCode, start,
+                    newStock == ItemEntry.ADJUST_FAILED ? 0 : 1, 0);
+            return newStock;
+        }
+        if(matchCode == SINGLE_LOCATION_CODE){
+            int locationsRenamed = renameLocation(uri, contentValues);
+            mMetrics.record(ProviderMetrics.OP_UPDATE, matchCode, start, locationsRenamed, 0);
+            return locationsRenamed;
+        }
+
+        //Quantity deltas are bounded in SQL instead of checked up front
+        if(matchCode == ITEM_ADJUST_CODE){
+            int newQuantity = adjustQuantity(uri, contentValues);
+            mMetrics.record(ProviderMetrics.OP_UPDATE, matchCode, start,
+                    newQuantity == ItemEntry.ADJUST_FAILED ? 0 : 1, 0);
+            return newQuantity;
+        }
+
+        long imageBytes = getImageBytes(contentValues);
+        int rowsUpdated = update(matchCode, uri, contentValues, selection, selectionArgs);
+        mMetrics.record(ProviderMetrics.OP_UPDATE, matchCode, start, rowsUpdated,
+                rowsUpdated > 0 ? imageBytes : 0);
+        return rowsUpdated;
+    }
+
+    /**
+     * Update the rows at a URI that matched the given code
+     * @return number of rows updated
+     */
+    private int update(int matchCode, Uri uri, ContentValues contentValues, String selection,
+                       String[] selectionArgs){
         //Check content values for data integrity
-        boolean hasDataIntegrity = hasDataIntegrity(contentValues);
-        if(!hasDataIntegrity){
-            //Show toast message about bad data, return null early
-            Context c = getContext();
-            Toast.makeText(c, c.getString(R.string.invalid_data),
-                    Toast.LENGTH_SHORT).show();
+        if(!hasDataIntegrity(contentValues)){
+            //Bad data is never written, nothing was updated
+            rejectInBatch(uri);
             return 0;
         }
 
+        //The reason and photo file names below are added to a copy, callers may reuse their
+        //values for a retry or for the next operation of a batch
+        contentValues = new ContentValues(contentValues);
+
+        //New quantities that don't say why they changed are booked as corrections
+        if(contentValues.containsKey(ItemEntry.COLUMN_QUANTITY)
+                && !contentValues.containsKey(ItemEntry.COLUMN_MOVEMENT_REASON)){
+            contentValues.put(ItemEntry.COLUMN_MOVEMENT_REASON, MovementEntry.REASON_CORRECTION);
+        }
+
         //Writable database object
         SQLiteDatabase writeDB = mInventoryDBHelper.getWritableDatabase();
         //Return value num of rows in DB updated
         int rowsUpdated;
-        //Find a uri matcher code
-        final int matchCode = sUriMatcher.match(uri);
+        //URI listeners are notified on when rows were updated
+        Uri changeUri;
 
         switch(matchCode){
             case ITEMS_TABLE_CODE:
+                //Photos can only be changed one item at a time
+                if(contentValues.containsKey(ItemEntry.COLUMN_IMAGE)){
+                    Log.e(LOG_TAG, getContext().getString(R.string.invalid_update_uri) + uri);
+                    rejectInBatch(uri);
+                    return 0;
+                }
                 //Update ALL rows in database
                 rowsUpdated = writeDB.update(ItemEntry.TABLE_NAME, contentValues,
                         selection, selectionArgs);
+                changeUri = ItemEntry.CONTENT_URI;
                 break;
             case SINGLE_ITEM_CODE:
                 //Update a SINGLE row from the database
+                long id = ContentUris.parseId(uri);
+                String[] oldImageNames = getImageNames(writeDB, id);
+                String[] newImageNames;
+                try {
+                    newImageNames = storeImage(contentValues);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, getContext().getString(R.string.invalid_update_uri) + uri, e);
+                    rejectInBatch(uri);
+                    return 0;
+                }
                 selection = ItemEntry._ID + "=?";
                 //extract _ID from Uri
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                selectionArgs = new String[] { String.valueOf(id) };
                 rowsUpdated = writeDB.update(ItemEntry.TABLE_NAME, contentValues,
                         selection, selectionArgs);
+                //Remove whichever photo is no longer referenced by the row
+                if(rowsUpdated == 0){
+                    mImageStore.deleteImages(newImageNames);
+                    //The row exists, the stock check trigger ignored a quantity below the
+                    //stock at other locations
+                    if(DatabaseUtils.queryNumEntries(writeDB, ItemEntry.TABLE_NAME,
+                            selection, selectionArgs) > 0){
+                        rejectInBatch(uri);
+                    }
+                }else{
+                    imagesStored(newImageNames);
+                    if(contentValues.containsKey(ItemEntry.COLUMN_IMAGE_FILE)){
+                        imagesUnused(oldImageNames);
+                    }
+                }
+                changeUri = ItemEntry.buildChangeUri(id, InventoryContract.OPERATION_UPDATE);
                 break;
             default:
                 throw new IllegalArgumentException(getContext()
@@ -259,101 +1463,506 @@ public class InventoryProvider extends ContentProvider{
 
         if(rowsUpdated > 0){
             //Notify content listeners that data has changed in the database
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changeUri);
         }
 
         return rowsUpdated;
     }
 
     /**
-     * Check ContentValues for valid database entries.
-     * If invalid throw an IllegalArgumentException return BAD_DATA or false
-     * @param values ContentValue pairs to enter into the database
+     * Add COLUMN_QUANTITY_DELTA to the quantity of the item in an adjust uri.
+     * The read and write happen in one UPDATE statement, so two concurrent adjustments can
+     * never overwrite each other the way a read in Java followed by a write would.
+     * @return the new quantity, or ADJUST_FAILED if the item doesn't exist, the new
+     * quantity would be out of bounds or below the item's stock at the other locations
      */
-    public boolean hasDataIntegrity(ContentValues values){
-        //return value constants
-        final boolean GOOD_DATA = true;
-        final boolean BAD_DATA = false;
-
-        Context context = getContext();
-
-        //Throw IllegalArgumentException if "Bad Data" is found
-        try{
-            //Valid name values cannot be empty and must be shorter than 35 chars
-            if(values.containsKey(ItemEntry.COLUMN_NAME)){
-                String name = values.getAsString(ItemEntry.COLUMN_NAME);
-                if(TextUtils.isEmpty(name) || name.length() > 35){
-                    Toast.makeText(context, context.getString(R.string.invalid_name_toast),
-                            Toast.LENGTH_SHORT).show();
-                    throw new IllegalArgumentException
-                            (context.getString(R.string.invalid_name));
+    private int adjustQuantity(Uri uri, ContentValues contentValues){
+        if(!isQuantityDelta(contentValues)){
+            Log.e(LOG_TAG, getContext().getString(R.string.invalid_update_uri) + uri);
+            rejectInBatch(uri);
+            return ItemEntry.ADJUST_FAILED;
+        }
+        int delta = contentValues.getAsInteger(ItemEntry.COLUMN_QUANTITY_DELTA);
+        //The item _ID is the segment before PATH_ADJUST
+        List<String> segments = uri.getPathSegments();
+        long id = Long.parseLong(segments.get(segments.size() - 2));
+
+        SQLiteDatabase writeDB = mInventoryDBHelper.getWritableDatabase();
+        long newQuantity;
+        //The transaction keeps other writers out until the new quantity is read back. It
+        //is begun before the lock is taken, adjusts of a batch run with the batch's
+        //transaction already held and taking the lock first would deadlock against them
+        writeDB.beginTransaction();
+        try {
+            synchronized (mAdjustLock){
+                if(mAdjustDB != writeDB){
+                    mAdjustStatement = writeDB.compileStatement(SQL_ADJUST_QUANTITY);
+                    mSelectQuantityStatement = writeDB.compileStatement(SQL_SELECT_QUANTITY);
+                    mAdjustDB = writeDB;
+                }
+                mAdjustStatement.bindLong(1, delta);
+                mAdjustStatement.bindLong(2, id);
+                mAdjustStatement.bindLong(3, getMovementReason(contentValues));
+                if(mAdjustStatement.executeUpdateDelete() == 0){
+                    //Ending a nested transaction unsuccessfully rolls the batch back, it
+                    //has to fail loudly instead of being committed as if nothing happened
+                    rejectInBatch(uri);
+                    return ItemEntry.ADJUST_FAILED;
                 }
+                mSelectQuantityStatement.bindLong(1, id);
+                newQuantity = mSelectQuantityStatement.simpleQueryForLong();
+            }
+            writeDB.setTransactionSuccessful();
+        } finally {
+            writeDB.endTransaction();
+        }
+
+        //Notify content listeners that the item has changed
+        notifyChange(ItemEntry.buildChangeUri(id, InventoryContract.OPERATION_UPDATE));
+        return (int) newQuantity;
+    }
+
+    /**
+     * Add COLUMN_QUANTITY_DELTA to the stock of the item at the location in a location adjust
+     * uri, and to the item's quantity, in one transaction. The stock row is changed first, so
+     * the items table's trigger finds the stock already adds up and books nothing on the
+     * default location. The first delta for an item at a location creates its stock row.
+     * @return the new stock at the location, or ADJUST_FAILED if the location or item
+     * doesn't exist, the stock would go below 0 or the item's quantity out of bounds
+     */
+    private int adjustLocationStock(Uri uri, ContentValues contentValues){
+        if(!isQuantityDelta(contentValues)){
+            Log.e(LOG_TAG, getContext().getString(R.string.invalid_update_uri) + uri);
+            rejectInBatch(uri);
+            return ItemEntry.ADJUST_FAILED;
+        }
+        int delta = contentValues.getAsInteger(ItemEntry.COLUMN_QUANTITY_DELTA);
+        //locations/<location _ID>/items/<item _ID>/adjust
+        List<String> segments = uri.getPathSegments();
+        long locationId = Long.parseLong(segments.get(1));
+        long itemId = Long.parseLong(segments.get(3));
+
+        SQLiteDatabase writeDB = mInventoryDBHelper.getWritableDatabase();
+        long newStock;
+        writeDB.beginTransaction();
+        try {
+            executeUpdateDelete(writeDB, SQL_INSERT_STOCK, locationId, itemId);
+            if(executeUpdateDelete(writeDB, SQL_ADJUST_STOCK, delta, locationId, itemId) == 0
+                    || executeUpdateDelete(writeDB, SQL_ADJUST_QUANTITY, delta, itemId,
+                            getMovementReason(contentValues)) == 0){
+                //Rolled back, a stock row created above is removed again. Inside a batch
+                //the rollback takes the whole batch with it
+                rejectInBatch(uri);
+                return ItemEntry.ADJUST_FAILED;
+            }
+            newStock = DatabaseUtils.longForQuery(writeDB, SQL_SELECT_STOCK,
+                    new String[] { String.valueOf(locationId), String.valueOf(itemId) });
+            writeDB.setTransactionSuccessful();
+        } finally {
+            writeDB.endTransaction();
+        }
+
+        //The item's quantity changed too, location cursors watch the item URIs
+        notifyChange(ItemEntry.buildChangeUri(itemId, InventoryContract.OPERATION_UPDATE));
+        return (int) newStock;
+    }
+
+    /**
+     * Check the values of an adjust uri, COLUMN_QUANTITY_DELTA and optionally the
+     * COLUMN_MOVEMENT_REASON the change is booked with
+     */
+    private static boolean isQuantityDelta(ContentValues values){
+        boolean hasReason = values.containsKey(ItemEntry.COLUMN_MOVEMENT_REASON);
+        return values.getAsInteger(ItemEntry.COLUMN_QUANTITY_DELTA) != null
+                && values.size() == (hasReason ? 2 : 1)
+                && (!hasReason || ItemValidator.validate(ItemEntry.COLUMN_MOVEMENT_REASON,
+                        values.get(ItemEntry.COLUMN_MOVEMENT_REASON)) == ItemValidator.VALID);
+    }
+
+    /**
+     * @return the movement reason of values checked by isQuantityDelta, REASON_CORRECTION
+     * if they have none
+     */
+    private static int getMovementReason(ContentValues values){
+        Integer reason = values.getAsInteger(ItemEntry.COLUMN_MOVEMENT_REASON);
+        return reason == null ? MovementEntry.REASON_CORRECTION : reason;
+    }
+
+    /**
+     * Run an UPDATE, DELETE or INSERT statement with numeric arguments
+     * @return number of rows changed
+     */
+    private static int executeUpdateDelete(SQLiteDatabase db, String sql, long... args){
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            for(int i = 0; i < args.length; i++){
+                statement.bindLong(i + 1, args[i]);
             }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
 
-            //Valid quantity values cannot be less than zero
-            if(values.containsKey(ItemEntry.COLUMN_QUANTITY)){
-                //Quantity cannot be null. This field is required
-                if(values.getAsInteger(ItemEntry.COLUMN_QUANTITY) == null){
-                    Toast.makeText(context, context.getString(R.string.quantity_empty),
-                            Toast.LENGTH_SHORT).show();
-                    throw new NullPointerException(LOG_TAG);
+    /**
+     * Change the name of the location in the uri
+     * @return 1 if it was renamed, 0 if the name is empty or another location has it
+     */
+    private int renameLocation(Uri uri, ContentValues contentValues){
+        if(!isLocationName(contentValues)){
+            Log.e(LOG_TAG, getContext().getString(R.string.invalid_update_uri) + uri);
+            rejectInBatch(uri);
+            return 0;
+        }
+        int rowsUpdated = mInventoryDBHelper.getWritableDatabase().updateWithOnConflict(
+                LocationEntry.TABLE_NAME, contentValues, LocationEntry._ID + "=?",
+                new String[] { String.valueOf(ContentUris.parseId(uri)) },
+                SQLiteDatabase.CONFLICT_IGNORE);
+        if(rowsUpdated > 0){
+            notifyChange(LocationEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete a location. Its stock isn't lost, it is moved to the default location in the
+     * same transaction, so no item's quantity changes. The default location can't be deleted.
+     * @return 1 if the location was deleted, 0 otherwise
+     */
+    private int deleteLocation(long locationId){
+        if(locationId == LocationEntry.DEFAULT_LOCATION_ID){
+            Log.e(LOG_TAG, getContext().getString(R.string.invalid_delete_uri));
+            return 0;
+        }
+        SQLiteDatabase writeDB = mInventoryDBHelper.getWritableDatabase();
+        int rowsDeleted;
+        int stockMoved;
+        writeDB.beginTransaction();
+        try {
+            executeUpdateDelete(writeDB, SQL_MERGE_STOCK_ROWS, locationId);
+            executeUpdateDelete(writeDB, SQL_MERGE_STOCK, locationId);
+            String[] selectionArgs = { String.valueOf(locationId) };
+            stockMoved = writeDB.delete(StockEntry.TABLE_NAME,
+                    StockEntry.COLUMN_LOCATION_ID + "=?", selectionArgs);
+            rowsDeleted = writeDB.delete(LocationEntry.TABLE_NAME, LocationEntry._ID + "=?",
+                    selectionArgs);
+            writeDB.setTransactionSuccessful();
+        } finally {
+            writeDB.endTransaction();
+        }
+
+        if(rowsDeleted > 0){
+            notifyChange(LocationEntry.CONTENT_URI);
+        }
+        if(stockMoved > 0){
+            //The default location's items changed
+            notifyChange(ItemEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Apply the journal of quantity changes to the items table. Every change to an item is
+     * added up first, so a burst of taps costs one UPDATE per item, and the whole journal is
+     * applied and cleared in a single transaction. Listeners are notified once per item after
+     * the commit.
+     * @return number of items whose quantity was changed
+     */
+    private int flushAdjustments(){
+        SQLiteDatabase writeDB = mInventoryDBHelper.getWritableDatabase();
+        List<Long> changedIds = new ArrayList<>();
+
+        writeDB.beginTransaction();
+        try {
+            Cursor totals = writeDB.rawQuery(SQL_SUM_ADJUSTMENTS, null);
+            try {
+                if(totals.getCount() == 0){
+                    return 0;
                 }
-                int quantity = values.getAsInteger(ItemEntry.COLUMN_QUANTITY);
-                if(quantity < 0 || quantity >= ItemEntry.MAX_QUANTITY){
-                    Toast.makeText(context, context.getString(R.string.invalid_quantity_toast),
-                            Toast.LENGTH_SHORT).show();
-                    throw new IllegalArgumentException
-                            (context.getString(R.string.invalid_quantity));
+                SQLiteStatement applyStatement = writeDB.compileStatement(SQL_APPLY_ADJUSTMENT);
+                try {
+                    while(totals.moveToNext()){
+                        long id = totals.getLong(0);
+                        long delta = totals.getLong(1);
+                        if(delta == 0){
+                            continue;
+                        }
+                        applyStatement.bindLong(1, delta);
+                        applyStatement.bindLong(2, id);
+                        //Changes to an item deleted since the tap leave no row to update
+                        if(applyStatement.executeUpdateDelete() > 0){
+                            changedIds.add(id);
+                        }
+                    }
+                } finally {
+                    applyStatement.close();
                 }
+            } finally {
+                totals.close();
             }
+            writeDB.delete(AdjustmentEntry.TABLE_NAME, null, null);
+            writeDB.setTransactionSuccessful();
+        } finally {
+            writeDB.endTransaction();
+        }
 
-            //Valid supplier values CAN be null, must not exceed 25 chars
-            if(values.containsKey(ItemEntry.COLUMN_SUPPLIER)){
-                String supplier = values.getAsString(ItemEntry.COLUMN_SUPPLIER);
-                if(supplier.length() > 25){
-                    Toast.makeText(context, context.getString(R.string.invalid_supplier_toast),
-                            Toast.LENGTH_SHORT).show();
-                    throw new IllegalArgumentException
-                            (context.getString(R.string.invalid_supplier));
-                }
+        for(long id : changedIds){
+            notifyChange(ItemEntry.buildChangeUri(id, InventoryContract.OPERATION_UPDATE));
+        }
+        return changedIds.size();
+    }
+
+    /**
+     * Compact the ledger into snapshots once COMPACT_MIN_MOVEMENTS movements were added
+     * since the last compaction. Every item that moved since gets a snapshot of its quantity
+     * after its last movement, built from its previous snapshot and the new movements only.
+     * The ledger itself is never changed, and no listener is notified as no quantity changes.
+     * @return number of snapshots written
+     */
+    private int compactMovements(){
+        SQLiteDatabase writeDB = mInventoryDBHelper.getWritableDatabase();
+        int snapshotsWritten;
+        writeDB.beginTransaction();
+        try {
+            long lastCompacted = DatabaseUtils.longForQuery(writeDB,
+                    SQL_LAST_COMPACTED_MOVEMENT, null);
+            //Movement _IDs are never reused, the difference is the number of new movements
+            if(DatabaseUtils.longForQuery(writeDB, SQL_LAST_MOVEMENT, null) - lastCompacted
+                    < COMPACT_MIN_MOVEMENTS){
+                return 0;
             }
+            snapshotsWritten = executeUpdateDelete(writeDB, SQL_COMPACT_MOVEMENTS, lastCompacted);
+            writeDB.setTransactionSuccessful();
+        } finally {
+            writeDB.endTransaction();
+        }
+        return snapshotsWritten;
+    }
 
-            //Valid price values must be greater than 0 or equal to
-            // -0.001 (number that represents not for sale)
-            if(values.containsKey(ItemEntry.COLUMN_PRICE)){
-                //Price cannot be null. This field is required
-                if(values.getAsDouble(ItemEntry.COLUMN_PRICE) == null){
-                    Toast.makeText(context, context.getString(R.string.price_empty),
-                            Toast.LENGTH_SHORT).show();
-                    throw new NullPointerException(LOG_TAG);
-                }
-                double price = values.getAsDouble(ItemEntry.COLUMN_PRICE);
-                if(price < 0 && price != ItemEntry.NOT_FOR_SALE ||
-                        price >= ItemEntry.MAX_PRICE){
-                    Toast.makeText(context, context.getString(R.string.invalid_price_toast),
-                            Toast.LENGTH_SHORT).show();
-                    throw new IllegalArgumentException
-                            (context.getString(R.string.invalid_price));
+    /**
+     * Open the photo or thumbnail of a single item for reading. The file is streamed straight
+     * from the image store so callers never have to pull the photo through a cursor.
+     * The export URI opens a pipe the whole items table is written into as CSV.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        long start = ProviderMetrics.start();
+        int matchCode = sUriMatcher.match(uri);
+        if("r".equals(mode) && matchCode == EXPORT_CODE){
+            //Only opening the pipe is timed, the rows are written after this returns
+            ParcelFileDescriptor pipe = openPipeHelper(uri, ItemEntry.CONTENT_CSV_TYPE, null,
+                    mInventoryDBHelper.getReadableDatabase(), new CsvExportWriter());
+            mMetrics.record(ProviderMetrics.OP_OPEN_FILE, matchCode, start, 0, 0);
+            return pipe;
+        }
+        if(!"r".equals(mode)
+                || (matchCode != ITEM_IMAGE_CODE && matchCode != ITEM_THUMBNAIL_CODE)){
+            throw new FileNotFoundException(uri.toString());
+        }
+
+        //The item id is the second to last path segment, items/#/image
+        long id = Long.parseLong(uri.getPathSegments().get(1));
+        String[] imageNames = getImageNames(mInventoryDBHelper.getReadableDatabase(), id);
+        String imageName = imageNames == null ? null
+                : imageNames[matchCode == ITEM_IMAGE_CODE ? 0 : 1];
+        if(imageName == null){
+            throw new FileNotFoundException(uri.toString());
+        }
+
+        File imageFile = mImageStore.getImageFile(imageName);
+        ParcelFileDescriptor file =
+                ParcelFileDescriptor.open(imageFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        //The caller reads the whole photo, count it as read now
+        mMetrics.record(ProviderMetrics.OP_OPEN_FILE, matchCode, start, 1, imageFile.length());
+        return file;
+    }
+
+    /**
+     * Writes the items table into the export pipe on a background thread. Rows are read in
+     * _ID order one chunk at a time, each chunk starts after the last _ID of the one before,
+     * so memory use stays the same no matter how many items there are.
+     */
+    private static class CsvExportWriter implements PipeDataWriter<SQLiteDatabase> {
+        @Override
+        public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                    Bundle opts, SQLiteDatabase db) {
+            Writer out = null;
+            try {
+                out = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(output.getFileDescriptor()), "UTF-8"), 64 * 1024);
+                InventoryCsv.writeHeader(out);
+
+                String itemsSource = getItemsSource(db);
+                long lastId = -1;
+                String[] selectionArgs = new String[1];
+                int rows;
+                do {
+                    selectionArgs[0] = String.valueOf(lastId);
+                    Cursor cursor = db.query(itemsSource, EXPORT_PROJECTION,
+                            ItemEntry._ID + " > ?", selectionArgs, null, null,
+                            ItemEntry._ID, String.valueOf(EXPORT_CHUNK_ROWS));
+                    try {
+                        rows = cursor.getCount();
+                        while(cursor.moveToNext()){
+                            lastId = cursor.getLong(0);
+                            InventoryCsv.writeItem(out, cursor.getString(1), cursor.getLong(2),
+                                    cursor.getString(3), cursor.getLong(4), cursor.getInt(5),
+                                    cursor.getString(6));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                } while(rows == EXPORT_CHUNK_ROWS);
+                out.flush();
+            } catch (IOException e) {
+                //The reader closed its end of the pipe early
+                Log.w(LOG_TAG, "Export of " + uri + " stopped", e);
+            } finally {
+                if(out != null){
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Could not close export of " + uri, e);
+                    }
                 }
             }
+        }
+    }
+
+    /**
+     * Size of the raw photo in values, for the metrics
+     * @return number of photo bytes, 0 if values hold no photo
+     */
+    private static long getImageBytes(ContentValues values){
+        byte[] image = values.getAsByteArray(ItemEntry.COLUMN_IMAGE);
+        return image == null ? 0 : image.length;
+    }
+
+    /**
+     * Replace the raw photo bytes in values with the names of new files in the image store.
+     * A thumbnail of the photo is generated at the same time.
+     * @return names of the new photo and thumbnail files, or null if values held no photo
+     * @throws IOException if the photo could not be written
+     */
+    private String[] storeImage(ContentValues values) throws IOException {
+        if(!values.containsKey(ItemEntry.COLUMN_IMAGE)){
+            return null;
+        }
+        byte[] image = values.getAsByteArray(ItemEntry.COLUMN_IMAGE);
+        values.remove(ItemEntry.COLUMN_IMAGE);
+        if(image == null){
+            values.putNull(ItemEntry.COLUMN_IMAGE_FILE);
+            values.putNull(ItemEntry.COLUMN_THUMBNAIL_FILE);
+            return null;
+        }
+
+        String imageName = mImageStore.saveImage(image);
+        String thumbnailName;
+        try {
+            thumbnailName = mImageStore.saveThumbnail(image);
+        } catch (IOException e) {
+            mImageStore.deleteImage(imageName);
+            throw e;
+        }
+        values.put(ItemEntry.COLUMN_IMAGE_FILE, imageName);
+        values.put(ItemEntry.COLUMN_THUMBNAIL_FILE, thumbnailName);
+        return new String[] { imageName, thumbnailName };
+    }
+
+    /**
+     * Look up the names of the photo and thumbnail files for a single item
+     * @return {photo, thumbnail} file names, either may be null, or null if the item
+     *          doesn't exist
+     */
+    private String[] getImageNames(SQLiteDatabase db, long id){
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME,
+                new String[] { ItemEntry.COLUMN_IMAGE_FILE, ItemEntry.COLUMN_THUMBNAIL_FILE },
+                ItemEntry._ID + "=?", new String[] { String.valueOf(id) },
+                null, null, null);
+        try {
+            return cursor.moveToFirst()
+                    ? new String[] { cursor.getString(0), cursor.getString(1) } : null;
+        } finally {
+            cursor.close();
+        }
+    }
 
-            if(values.containsKey(ItemEntry.COLUMN_IMAGE)) {
-                if (values.getAsByteArray(ItemEntry.COLUMN_IMAGE) == null) {
-                    Toast.makeText(context, context.getString(R.string.no_image),
-                            Toast.LENGTH_SHORT).show();
-                    throw new NullPointerException(LOG_TAG);
+    /**
+     * Look up the names of the photo and thumbnail files of every item
+     * @return file names, without nulls
+     */
+    private String[] getAllImageNames(SQLiteDatabase db){
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME,
+                new String[] { ItemEntry.COLUMN_IMAGE_FILE, ItemEntry.COLUMN_THUMBNAIL_FILE },
+                null, null, null, null, null);
+        try {
+            List<String> names = new ArrayList<>();
+            while(cursor.moveToNext()){
+                for(int i = 0; i < 2; i++){
+                    if(!cursor.isNull(i)){
+                        names.add(cursor.getString(i));
+                    }
                 }
             }
+            return names.toArray(new String[names.size()]);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Photo files one transaction stored and stopped using. Which of them are deleted depends
+     * on whether the transaction committed, so they are only collected until it ended.
+     */
+    private static class ImageChanges {
+        private final List<String> mStored = new ArrayList<>();
+        private final List<String> mUnused = new ArrayList<>();
+
+        void stored(String[] imageNames){
+            if(imageNames != null){
+                Collections.addAll(mStored, imageNames);
+            }
+        }
+
+        void unused(String[] imageNames){
+            if(imageNames != null){
+                Collections.addAll(mUnused, imageNames);
+            }
+        }
+
+        /**
+         * Delete the photos the rows of the ended transaction don't use. Those are the ones it
+         * stopped using if it committed, the ones it stored if it rolled back.
+         */
+        void end(ImageStore imageStore, boolean committed){
+            List<String> names = committed ? mUnused : mStored;
+            imageStore.deleteImages(names.toArray(new String[names.size()]));
+        }
+    }
 
-            //All data quality checks passed without throwing an exception
-            return GOOD_DATA;
+    /**
+     * Check ContentValues for valid database entries. The provider has no UI, rejected values
+     * are only logged. Callers that show errors run the ItemValidator themselves first.
+     * @param values ContentValue pairs to enter into the database
+     * @return true if every present value passes the ItemValidator rules
+     */
+    private boolean hasDataIntegrity(ContentValues values){
+        int errors = ItemValidator.validate(values.valueSet());
+        if(errors != ItemValidator.VALID){
+            Log.w(LOG_TAG, "Rejected invalid " + ItemValidator.describe(errors));
+            return false;
+        }
+        return true;
+    }
 
-        }catch(IllegalArgumentException e){
-            //if an I.A.E is thrown then the ContentValue pairs contain
-            //data not suitable for the snapandsave.db
-            return BAD_DATA;
-        }catch(NullPointerException f){
-            return BAD_DATA;
+    /**
+     * Thrown out of an operation that was rejected inside applyBatch. ContentProvider's
+     * insert, update and delete can't throw OperationApplicationException, applyBatch turns
+     * this into one after the transaction was rolled back.
+     */
+    private static class BatchRejectedException extends RuntimeException {
+        BatchRejectedException(String message){
+            super(message);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,226 @@
+package com.joshdoucet.snapandsave.data;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.MovementEntry;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *  - The ItemValidator checks item values before they are written to the items table.
+ *      Every rule that fails sets one ERROR_ bit in the returned int, VALID means all rules
+ *      passed. Nothing is thrown and no strings or boxed numbers are made for values that
+ *      pass, so the same checks can run on every row of a large import. The validator doesn't
+ *      know about the UI, callers decide how each error is shown to the user.
+ *      Only the keys that are present are checked, like an update that changes one column.
+ */
+
+public final class ItemValidator {
+
+    //No rule failed
+    public static final int VALID = 0;
+
+    //Name is null or empty
+    public static final int ERROR_NAME_EMPTY = 1;
+    //Name is longer than MAX_NAME_LENGTH
+    public static final int ERROR_NAME_TOO_LONG = 1 << 1;
+    //Quantity is null or empty
+    public static final int ERROR_QUANTITY_EMPTY = 1 << 2;
+    //Quantity isn't a whole number from 0 to MAX_QUANTITY - 1
+    public static final int ERROR_QUANTITY_INVALID = 1 << 3;
+    //Supplier is longer than MAX_SUPPLIER_LENGTH
+    public static final int ERROR_SUPPLIER_TOO_LONG = 1 << 4;
+    //Price is null or empty
+    public static final int ERROR_PRICE_EMPTY = 1 << 5;
+    //Price isn't a whole number of cents from 0 to MAX_PRICE_CENTS
+    public static final int ERROR_PRICE_INVALID = 1 << 6;
+    //Sale status isn't one of the ItemEntry.STATUS_ values
+    public static final int ERROR_SALE_STATUS_INVALID = 1 << 7;
+    //Image bytes are null
+    public static final int ERROR_IMAGE_EMPTY = 1 << 8;
+    //Movement reason isn't one callers may give, a correction, sale or received order
+    public static final int ERROR_MOVEMENT_REASON_INVALID = 1 << 9;
+
+    //Longest valid name and supplier, in chars
+    public static final int MAX_NAME_LENGTH = 35;
+    public static final int MAX_SUPPLIER_LENGTH = 25;
+
+    //Returned by toLong for values that aren't whole numbers
+    private static final long NOT_A_NUMBER = Long.MIN_VALUE;
+
+    private ItemValidator() {}
+
+    /**
+     * Check item values, ContentValues.valueSet() can be passed in directly
+     * @param values column names mapped to the values that will be written
+     * @return VALID, or the ERROR_ bits of every rule that failed
+     */
+    public static int validate(Set<Map.Entry<String, Object>> values){
+        int errors = VALID;
+        for(Map.Entry<String, Object> entry : values){
+            errors |= validate(entry.getKey(), entry.getValue());
+        }
+        return errors;
+    }
+
+    /**
+     * Check the value of a single column. Columns without rules are always valid.
+     * @return VALID, or the ERROR_ bit of the rule that failed
+     */
+    public static int validate(String column, Object value){
+        switch(column){
+            case ItemEntry.COLUMN_NAME:
+                return checkName(value);
+            case ItemEntry.COLUMN_QUANTITY:
+                return checkQuantity(value);
+            case ItemEntry.COLUMN_SUPPLIER:
+                return checkSupplier(value);
+            case ItemEntry.COLUMN_PRICE_CENTS:
+                return checkPriceCents(value);
+            case ItemEntry.COLUMN_SALE_STATUS:
+                return checkSaleStatus(value);
+            case ItemEntry.COLUMN_IMAGE:
+                return value == null ? ERROR_IMAGE_EMPTY : VALID;
+            case ItemEntry.COLUMN_MOVEMENT_REASON:
+                return checkMovementReason(value);
+            default:
+                return VALID;
+        }
+    }
+
+    //Valid names cannot be empty and must not exceed MAX_NAME_LENGTH chars
+    private static int checkName(Object name){
+        if(name == null || length(name) == 0){
+            return ERROR_NAME_EMPTY;
+        }
+        return length(name) > MAX_NAME_LENGTH ? ERROR_NAME_TOO_LONG : VALID;
+    }
+
+    //Valid suppliers CAN be null, must not exceed MAX_SUPPLIER_LENGTH chars
+    private static int checkSupplier(Object supplier){
+        return supplier != null && length(supplier) > MAX_SUPPLIER_LENGTH
+                ? ERROR_SUPPLIER_TOO_LONG : VALID;
+    }
+
+    //Quantity is required and cannot be less than zero
+    private static int checkQuantity(Object quantity){
+        if(isEmpty(quantity)){
+            return ERROR_QUANTITY_EMPTY;
+        }
+        long value = toLong(quantity);
+        return value < 0 || value >= ItemEntry.MAX_QUANTITY ? ERROR_QUANTITY_INVALID : VALID;
+    }
+
+    //Price is required, whole cents from 0 up to MAX_PRICE_CENTS
+    private static int checkPriceCents(Object priceCents){
+        if(isEmpty(priceCents)){
+            return ERROR_PRICE_EMPTY;
+        }
+        long value = toLong(priceCents);
+        return value < 0 || value > ItemEntry.MAX_PRICE_CENTS ? ERROR_PRICE_INVALID : VALID;
+    }
+
+    private static int checkSaleStatus(Object saleStatus){
+        long value = saleStatus == null ? NOT_A_NUMBER : toLong(saleStatus);
+        return value == ItemEntry.STATUS_FOR_SALE || value == ItemEntry.STATUS_FREE
+                || value == ItemEntry.STATUS_NOT_FOR_SALE ? VALID : ERROR_SALE_STATUS_INVALID;
+    }
+
+    //New items and deletions are only booked by the ledger's triggers
+    private static int checkMovementReason(Object reason){
+        long value = reason == null ? NOT_A_NUMBER : toLong(reason);
+        return value == MovementEntry.REASON_CORRECTION || value == MovementEntry.REASON_SALE
+                || value == MovementEntry.REASON_RECEIVED ? VALID : ERROR_MOVEMENT_REASON_INVALID;
+    }
+
+    /**
+     * @return a short description of the failed rules for logging, like "name, quantity"
+     */
+    public static String describe(int errors){
+        StringBuilder builder = new StringBuilder();
+        for(int remaining = errors; remaining != 0; remaining &= remaining - 1){
+            if(builder.length() > 0){
+                builder.append(", ");
+            }
+            builder.append(getColumn(Integer.lowestOneBit(remaining)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param error a single ERROR_ bit
+     * @return the column the error belongs to, or null for an unknown error
+     */
+    public static String getColumn(int error){
+        switch(error){
+            case ERROR_NAME_EMPTY:
+            case ERROR_NAME_TOO_LONG:
+                return ItemEntry.COLUMN_NAME;
+            case ERROR_QUANTITY_EMPTY:
+            case ERROR_QUANTITY_INVALID:
+                return ItemEntry.COLUMN_QUANTITY;
+            case ERROR_SUPPLIER_TOO_LONG:
+                return ItemEntry.COLUMN_SUPPLIER;
+            case ERROR_PRICE_EMPTY:
+            case ERROR_PRICE_INVALID:
+                return ItemEntry.COLUMN_PRICE_CENTS;
+            case ERROR_SALE_STATUS_INVALID:
+                return ItemEntry.COLUMN_SALE_STATUS;
+            case ERROR_IMAGE_EMPTY:
+                return ItemEntry.COLUMN_IMAGE;
+            case ERROR_MOVEMENT_REASON_INVALID:
+                return ItemEntry.COLUMN_MOVEMENT_REASON;
+            default:
+                return null;
+        }
+    }
+
+    //Length of a value as it would be stored as TEXT
+    private static int length(Object value){
+        if(value instanceof CharSequence){
+            return ((CharSequence) value).length();
+        }
+        return String.valueOf(value).length();
+    }
+
+    //Null or, for text typed into the editor, the empty string
+    private static boolean isEmpty(Object value){
+        return value == null
+                || (value instanceof CharSequence && ((CharSequence) value).length() == 0);
+    }
+
+    /**
+     * Read a whole number the same way ContentValues.getAsLong does, without boxing or
+     * throwing. Fractions of a Float or Double are dropped.
+     * @return the number, or NOT_A_NUMBER for text that isn't a whole number
+     */
+    private static long toLong(Object value){
+        if(value instanceof Number){
+            return ((Number) value).longValue();
+        }
+        if(!(value instanceof CharSequence)){
+            return NOT_A_NUMBER;
+        }
+        CharSequence text = (CharSequence) value;
+        int length = text.length();
+        int start = 0;
+        boolean negative = false;
+        if(length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')){
+            negative = text.charAt(0) == '-';
+            start = 1;
+        }
+        //19 digits would overflow a long, every valid value is far shorter
+        if(start == length || length - start > 18){
+            return NOT_A_NUMBER;
+        }
+        long result = 0;
+        for(int i = start; i < length; i++){
+            int digit = text.charAt(i) - '0';
+            if(digit < 0 || digit > 9){
+                return NOT_A_NUMBER;
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+}
@@ -0,0 +1,184 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.MovementEntry;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ *  - The ItemWriteQueue runs every write the UI makes to the inventory on one background
+ *      thread, so photo encoding and SQLite writes never block the main thread. Writes run
+ *      one at a time in the order they were submitted, a sale tapped right after a save
+ *      always sees the saved item.
+ *
+ *  - The queue belongs to the process, not to an activity. Writes keep running through
+ *      configuration changes and after the activity that submitted them has finished.
+ *      Results come back through a Future and through an optional Callback on the main
+ *      thread. Callbacks should report with the application context rather than touch views,
+ *      the activity that submitted the write may be gone by then.
+ */
+
+public final class ItemWriteQueue {
+    public static final String LOG_TAG = ItemWriteQueue.class.getSimpleName();
+
+    /**
+     * A write to run on the queue thread
+     * @param <T> result handed to the Callback
+     */
+    public interface Write<T> {
+        T apply(ContentResolver resolver);
+    }
+
+    /**
+     * Receives the result of a write on the main thread
+     */
+    public interface Callback<T> {
+        void onWriteFinished(T result);
+    }
+
+    private static ItemWriteQueue sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final ExecutorService mWriteExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * One queue is shared by the whole app, so writes from every screen stay in order
+     */
+    public static synchronized ItemWriteQueue getInstance(Context context){
+        if(sInstance == null){
+            sInstance = new ItemWriteQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Drop the shared queue the way a killed process would, the running write is
+     * interrupted and queued writes never run. Only for unit tests
+     */
+    static synchronized void resetInstance(){
+        if(sInstance != null){
+            sInstance.mWriteExecutor.shutdownNow();
+            sInstance = null;
+        }
+    }
+
+    private ItemWriteQueue(Context context){
+        mContentResolver = context.getContentResolver();
+        mWriteExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        //Writes should never compete with drawing the UI
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+    }
+
+    /**
+     * Queue a write behind every write submitted before it
+     * @param callback called on the main thread with the result, may be null
+     * @return the result of the write once it has run
+     */
+    public <T> Future<T> submit(final Write<T> write, final Callback<T> callback){
+        return mWriteExecutor.submit(new Callable<T>() {
+            @Override
+            public T call() {
+                final T result;
+                try {
+                    result = write.apply(mContentResolver);
+                } catch (RuntimeException e) {
+                    //Kept in the Future as well, but nobody may be waiting on it
+                    Log.e(LOG_TAG, "Write failed", e);
+                    throw e;
+                }
+                if(callback != null){
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onWriteFinished(result);
+                        }
+                    });
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Queue an insert, the result is the new row's URI or null
+     */
+    public Future<Uri> insert(final Uri uri, final ContentValues values, Callback<Uri> callback){
+        return submit(new Write<Uri>() {
+            @Override
+            public Uri apply(ContentResolver resolver) {
+                return resolver.insert(uri, values);
+            }
+        }, callback);
+    }
+
+    /**
+     * Queue an update, the result is the number of rows updated
+     */
+    public Future<Integer> update(final Uri uri, final ContentValues values,
+                                  Callback<Integer> callback){
+        return submit(new Write<Integer>() {
+            @Override
+            public Integer apply(ContentResolver resolver) {
+                return resolver.update(uri, values, null, null);
+            }
+        }, callback);
+    }
+
+    /**
+     * Queue a delete, the result is the number of rows deleted
+     */
+    public Future<Integer> delete(final Uri uri, Callback<Integer> callback){
+        return submit(new Write<Integer>() {
+            @Override
+            public Integer apply(ContentResolver resolver) {
+                return resolver.delete(uri, null, null);
+            }
+        }, callback);
+    }
+
+    /**
+     * Queue a change to the quantity of an item, the result is the new quantity or
+     * ItemEntry.ADJUST_FAILED
+     * @param delta signed number of units to add
+     * @param reason why the quantity changes, one of the MovementEntry.REASON_ values
+     */
+    public Future<Integer> adjustQuantity(long itemId, int delta, int reason,
+                                          Callback<Integer> callback){
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_QUANTITY_DELTA, delta);
+        values.put(ItemEntry.COLUMN_MOVEMENT_REASON, reason);
+        return update(ItemEntry.buildAdjustUri(itemId), values, callback);
+    }
+
+    /**
+     * Queue a compaction of the ledger of quantity changes, the result is the number of
+     * snapshots written. The provider writes none until enough movements were added.
+     */
+    public Future<Integer> compactMovements(Callback<Integer> callback){
+        return update(MovementEntry.COMPACT_URI, new ContentValues(), callback);
+    }
+}
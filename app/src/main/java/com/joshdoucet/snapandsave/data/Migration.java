@@ -0,0 +1,66 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ *  - A Migration upgrades the database from the version before it to getVersion().
+ *      The upgrade is split in two parts. migrateSchema runs inside onUpgrade and must stay
+ *      fast no matter how many rows there are, it only changes the schema. Work that touches
+ *      every row is done afterwards by the MigrationRunner, one bounded chunk per transaction,
+ *      so a large store never blocks the thread that opened the database.
+ *      The rule: anything whose cost grows with the number of rows belongs in backfill().
+ *      That is every UPDATE or INSERT .. SELECT over a table, every aggregate that seeds a
+ *      derived table and every CREATE INDEX on a table that may hold rows. migrateSchema
+ *      creates tables, columns and triggers, the triggers have to keep derived data right
+ *      for rows the backfill hasn't reached yet. MigrationTest checks that no schema change
+ *      writes rows or slows down on a large table.
+ *      SQL inside a migration is written out in full instead of using contract constants,
+ *      a migration has to keep doing exactly what it did when its version shipped.
+ */
+
+public abstract class Migration {
+
+    //Returned by backfill once every row has been handled
+    public static final long BACKFILL_DONE = -1;
+
+    //Database version this migration upgrades to
+    private final int mVersion;
+
+    protected Migration(int version){
+        mVersion = version;
+    }
+
+    public int getVersion(){
+        return mVersion;
+    }
+
+    /**
+     * Change the schema. Runs inside the onUpgrade transaction, so it must not do work
+     * per row of a large table, that work goes into backfill.
+     */
+    public abstract void migrateSchema(SQLiteDatabase db);
+
+    /**
+     * @return true if backfill has to run after the schema change
+     */
+    public boolean hasBackfill(){
+        return false;
+    }
+
+    /**
+     * Rewrite one chunk of rows. Each call runs inside its own transaction and the returned
+     * progress is committed with it, so a killed app continues where it stopped.
+     * Chunks have to be safe to repeat and must cope with rows the app changed
+     * while the backfill was pending.
+     * @param progress value returned by the previous chunk, 0 for the first one
+     * @return progress to continue from, or BACKFILL_DONE
+     */
+    public long backfill(SQLiteDatabase db, long progress){
+        return BACKFILL_DONE;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " (version " + mVersion + ")";
+    }
+}
@@ -0,0 +1,179 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *  - The MigrationRunner finishes the backfills of migrations after onUpgrade has changed
+ *      the schema. It runs on a low priority background thread, one chunk per transaction,
+ *      and keeps its progress in the pending migrations table so it picks up where it
+ *      stopped the next time the database is opened.
+ */
+
+public final class MigrationRunner {
+    public static final String LOG_TAG = MigrationRunner.class.getSimpleName();
+
+    //Table with one row per migration whose backfill hasn't finished yet
+    private static final String PENDING_TABLE_NAME = "pending_migrations";
+    //Version of the migration, INTEGER PRIMARY KEY
+    private static final String COLUMN_VERSION = "version";
+    //Value returned by the migration's last committed chunk, INTEGER NOT NULL DEFAULT 0
+    private static final String COLUMN_PROGRESS = "progress";
+
+    //Chunks slower than this are logged as a warning, they hold the writer for too long
+    private static final long SLOW_CHUNK_MILLIS = 200;
+
+    //Set while a runner thread is working, only one may run at a time
+    private static final AtomicBoolean sRunning = new AtomicBoolean(false);
+
+    //Cleared by unit tests that run the backfills themselves
+    private static volatile boolean sAutoStart = true;
+
+    private MigrationRunner() {}
+
+    /**
+     * Create the pending migrations table if it doesn't exist yet
+     */
+    static void createPendingTable(SQLiteDatabase db){
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + PENDING_TABLE_NAME + " ("
+                + COLUMN_VERSION + " INTEGER PRIMARY KEY, "
+                + COLUMN_PROGRESS + " INTEGER NOT NULL DEFAULT 0 );");
+    }
+
+    /**
+     * Remember that a migration's backfill still has to run. Called from onUpgrade, so the
+     * row is committed together with the schema change.
+     */
+    static void schedule(SQLiteDatabase db, Migration migration){
+        ContentValues vals = new ContentValues();
+        vals.put(COLUMN_VERSION, migration.getVersion());
+        db.insertWithOnConflict(PENDING_TABLE_NAME, null, vals, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /**
+     * Start a background thread for the pending backfills, if there are any.
+     * Called from onOpen, the thread waits for the helper to finish opening the database.
+     */
+    static void startIfPending(final InventoryDBHelper dbHelper, SQLiteDatabase db){
+        if(!sAutoStart || DatabaseUtils.queryNumEntries(db, PENDING_TABLE_NAME) == 0
+                || !sRunning.compareAndSet(false, true)){
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runPending(dbHelper.mContext, dbHelper.getWritableDatabase());
+                } finally {
+                    sRunning.set(false);
+                }
+            }
+        }, LOG_TAG);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Keep startIfPending from starting a runner thread. Unit tests that look at the database
+     * while a backfill is pending turn it off and call runPending themselves.
+     */
+    static void setAutoStart(boolean autoStart){
+        sAutoStart = autoStart;
+    }
+
+    /**
+     * @return true if the backfill of the migration to the given version hasn't finished yet
+     */
+    static boolean isPending(SQLiteDatabase db, int version){
+        return DatabaseUtils.queryNumEntries(db, PENDING_TABLE_NAME, COLUMN_VERSION + "=?",
+                new String[]{String.valueOf(version)}) > 0;
+    }
+
+    /**
+     * Run every pending backfill to the end, in version order. A chunk that throws stops the
+     * runner, the backfill is retried from its last committed chunk on the next open.
+     * Called on the runner thread, unit tests call it directly to finish an upgrade.
+     * @return true if no backfill is pending any more
+     */
+    static boolean runPending(Context context, SQLiteDatabase db){
+        for(Migration migration : Migrations.getMigrations(context)){
+            long progress = getProgress(db, migration);
+            if(progress == Migration.BACKFILL_DONE){
+                continue;
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            int chunks = 0;
+            try {
+                while(progress != Migration.BACKFILL_DONE){
+                    progress = runChunk(db, migration, progress);
+                    chunks++;
+                }
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, migration + " stopped after " + chunks + " chunks", e);
+                return false;
+            }
+            Log.i(LOG_TAG, migration + " backfill took "
+                    + (SystemClock.elapsedRealtime() - start) + " ms in " + chunks + " chunks");
+        }
+
+        //Photos, thumbnails and search results may have changed for any item
+        context.getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        return true;
+    }
+
+    /**
+     * @return the committed progress of a migration's backfill, or BACKFILL_DONE if it isn't
+     * pending
+     */
+    private static long getProgress(SQLiteDatabase db, Migration migration){
+        Cursor cursor = db.query(PENDING_TABLE_NAME, new String[]{COLUMN_PROGRESS},
+                COLUMN_VERSION + "=?", new String[]{String.valueOf(migration.getVersion())},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : Migration.BACKFILL_DONE;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Run one chunk of a backfill and commit its progress in the same transaction
+     * @return progress to continue from, or BACKFILL_DONE
+     */
+    private static long runChunk(SQLiteDatabase db, Migration migration, long progress){
+        long start = SystemClock.elapsedRealtime();
+        long nextProgress;
+        String[] versionArgs = {String.valueOf(migration.getVersion())};
+
+        db.beginTransaction();
+        try {
+            nextProgress = migration.backfill(db, progress);
+            if(nextProgress == Migration.BACKFILL_DONE){
+                db.delete(PENDING_TABLE_NAME, COLUMN_VERSION + "=?", versionArgs);
+            }else{
+                ContentValues vals = new ContentValues();
+                vals.put(COLUMN_PROGRESS, nextProgress);
+                db.update(PENDING_TABLE_NAME, vals, COLUMN_VERSION + "=?", versionArgs);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        long took = SystemClock.elapsedRealtime() - start;
+        if(took > SLOW_CHUNK_MILLIS){
+            Log.w(LOG_TAG, migration + " chunk after " + progress + " took " + took + " ms");
+        }
+        return nextProgress;
+    }
+}
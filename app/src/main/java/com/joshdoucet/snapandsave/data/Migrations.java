@@ -0,0 +1,717 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.joshdoucet.snapandsave.R;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *  - Migrations lists every schema change since version 1, in version order.
+ *      Add a new Migration to the end of getMigrations and raise
+ *      InventoryDBHelper.DATABASE_VERSION to its version. Never edit a migration that
+ *      has shipped, devices that already ran it would end up with a different schema.
+ */
+
+public final class Migrations {
+    public static final String LOG_TAG = Migrations.class.getSimpleName();
+
+    private Migrations() {}
+
+    /**
+     * @return every migration, ordered by the version it upgrades to
+     */
+    public static List<Migration> getMigrations(Context context){
+        ImageStore imageStore = new ImageStore(context);
+        return Arrays.asList(
+                new ImageFilesMigration(imageStore),
+                new ThumbnailMigration(imageStore),
+                new SummaryMigration(),
+                //Version 5 indexes names so the inventory list can be read one page at a time
+                new IndexMigration(5,
+                        "CREATE INDEX IF NOT EXISTS items_name_index ON items (name);"),
+                new SearchMigration(),
+                //Version 7 indexes every column the inventory list can be sorted by
+                new IndexMigration(7,
+                        "CREATE INDEX IF NOT EXISTS items_price_index ON items (price_US_$);",
+                        "CREATE INDEX IF NOT EXISTS items_quantity_index ON items (quantity);",
+                        "CREATE INDEX IF NOT EXISTS items_supplier_index ON items (supplier);"),
+                new PriceCentsMigration(),
+                new AdjustmentJournalMigration(),
+                new LocationsMigration(context.getString(R.string.default_location_name)),
+                new MovementsMigration(),
+                new StockCheckMigration());
+    }
+
+    /**
+     * Version 2 moves item photos out of the version 1 image BLOB column into the ImageStore.
+     * The old column is kept (SQLite can't drop columns) but is cleared to free its pages.
+     */
+    static class ImageFilesMigration extends Migration {
+        //Rows per chunk, each photo is copied inside the chunk's transaction
+        private static final int BATCH_SIZE = 10;
+        //Bytes per read, so a large photo never has to fit into one CursorWindow
+        private static final int CHUNK_SIZE = 512 * 1024;
+
+        private final ImageStore mImageStore;
+
+        ImageFilesMigration(ImageStore imageStore){
+            super(2);
+            mImageStore = imageStore;
+        }
+
+        @Override
+        public void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE items ADD COLUMN image_file TEXT");
+        }
+
+        @Override
+        public boolean hasBackfill() {
+            return true;
+        }
+
+        @Override
+        public long backfill(SQLiteDatabase db, long progress) {
+            try {
+                mImageStore.ensureDirectory();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not create image directory", e);
+            }
+
+            Cursor batch = db.query("items", new String[]{"_id", "length(image)", "image_file"},
+                    "_id > ? AND image IS NOT NULL", new String[]{String.valueOf(progress)},
+                    null, null, "_id", String.valueOf(BATCH_SIZE));
+            try {
+                if(batch.getCount() == 0){
+                    return BACKFILL_DONE;
+                }
+                long id = progress;
+                while(batch.moveToNext()){
+                    id = batch.getLong(0);
+                    ContentValues vals = new ContentValues();
+                    //A photo saved since the upgrade replaces the old one, only clear the BLOB
+                    if(batch.isNull(2)){
+                        String name = mImageStore.newImageName();
+                        try {
+                            copyImageToFile(db, id, batch.getInt(1),
+                                    mImageStore.getImageFile(name));
+                            vals.put("image_file", name);
+                        } catch (IOException e) {
+                            //The photo is lost but the rest of the item is kept
+                            Log.e(LOG_TAG, "Could not move image of item " + id, e);
+                            mImageStore.deleteImage(name);
+                        }
+                    }
+                    vals.putNull("image");
+                    db.update("items", vals, "_id=?", new String[]{String.valueOf(id)});
+                }
+                return id;
+            } finally {
+                batch.close();
+            }
+        }
+
+        /**
+         * Copy one photo BLOB into a file, CHUNK_SIZE bytes at a time
+         */
+        private void copyImageToFile(SQLiteDatabase db, long id, int length, File file)
+                throws IOException {
+            String sql = "SELECT substr(image, ?, ?) FROM items WHERE _id=?";
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                //substr() on a BLOB counts bytes starting at 1
+                for (int offset = 1; offset <= length; offset += CHUNK_SIZE) {
+                    Cursor chunk = db.rawQuery(sql, new String[]{String.valueOf(offset),
+                            String.valueOf(CHUNK_SIZE), String.valueOf(id)});
+                    try {
+                        if (chunk.moveToFirst()) {
+                            out.write(chunk.getBlob(0));
+                        }
+                    } finally {
+                        chunk.close();
+                    }
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Version 3 adds a thumbnail of every photo for the inventory list
+     */
+    static class ThumbnailMigration extends Migration {
+        //Rows per chunk, every photo in a chunk is decoded inside its transaction
+        private static final int BATCH_SIZE = 8;
+
+        private final ImageStore mImageStore;
+
+        ThumbnailMigration(ImageStore imageStore){
+            super(3);
+            mImageStore = imageStore;
+        }
+
+        @Override
+        public void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE items ADD COLUMN thumbnail_file TEXT");
+        }
+
+        @Override
+        public boolean hasBackfill() {
+            return true;
+        }
+
+        @Override
+        public long backfill(SQLiteDatabase db, long progress) {
+            Cursor batch = db.query("items", new String[]{"_id", "image_file"},
+                    "_id > ? AND image_file IS NOT NULL AND thumbnail_file IS NULL",
+                    new String[]{String.valueOf(progress)}, null, null, "_id",
+                    String.valueOf(BATCH_SIZE));
+            try {
+                if(batch.getCount() == 0){
+                    return BACKFILL_DONE;
+                }
+                long id = progress;
+                while(batch.moveToNext()){
+                    id = batch.getLong(0);
+                    String imageName = batch.getString(1);
+                    //Photos that can't be read keep a null thumbnail
+                    String thumbnailName;
+                    try {
+                        thumbnailName = mImageStore.saveThumbnail(mImageStore.readImage(imageName));
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Could not create thumbnail of item " + id, e);
+                        continue;
+                    }
+                    ContentValues vals = new ContentValues();
+                    vals.put("thumbnail_file", thumbnailName);
+                    db.update("items", vals, "_id=?", new String[]{String.valueOf(id)});
+                }
+                return id;
+            } finally {
+                batch.close();
+            }
+        }
+    }
+
+    /**
+     * Version 4 keeps inventory totals in a trigger maintained summary row.
+     * The schema change creates the table and the triggers, which change nothing until the
+     * backfill seeds the row with a single aggregate scan. Version 8 replaces the table with
+     * one in cents, after an upgrade past it there is nothing left to seed.
+     */
+    static class SummaryMigration extends Migration {
+        //Value of a row, NEW or OLD, in the summary. FREE and NOT_FOR_SALE items add nothing
+        private static final String ROW_VALUE = "(CASE WHEN %1$s.price_US_$ IN (0.14619, 0.0)"
+                + " THEN 0 ELSE %1$s.price_US_$ * %1$s.quantity END)";
+        private static final String UPDATE_SUMMARY = "UPDATE inventory_summary SET"
+                + " total_value = total_value %1$s, unit_count = unit_count %2$s,"
+                + " sku_count = sku_count %3$s WHERE _id = 1;";
+
+        SummaryMigration(){
+            super(4);
+        }
+
+        @Override
+        public void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE inventory_summary ("
+                    + "_id INTEGER PRIMARY KEY CHECK (_id = 1), "
+                    + "total_value REAL NOT NULL DEFAULT 0, "
+                    + "unit_count INTEGER NOT NULL DEFAULT 0, "
+                    + "sku_count INTEGER NOT NULL DEFAULT 0 );");
+            db.execSQL("CREATE TRIGGER items_summary_insert AFTER INSERT ON items BEGIN "
+                    + String.format(UPDATE_SUMMARY, "+ " + String.format(ROW_VALUE, "NEW"),
+                            "+ NEW.quantity", "+ 1")
+                    + " END;");
+            db.execSQL("CREATE TRIGGER items_summary_update AFTER UPDATE OF quantity, price_US_$"
+                    + " ON items BEGIN "
+                    + String.format(UPDATE_SUMMARY, "+ " + String.format(ROW_VALUE, "NEW")
+                                    + " - " + String.format(ROW_VALUE, "OLD"),
+                            "+ NEW.quantity - OLD.quantity", "+ 0")
+                    + " END;");
+            db.execSQL("CREATE TRIGGER items_summary_delete AFTER DELETE ON items BEGIN "
+                    + String.format(UPDATE_SUMMARY, "- " + String.format(ROW_VALUE, "OLD"),
+                            "- OLD.quantity", "- 1")
+                    + " END;");
+        }
+
+        @Override
+        public boolean hasBackfill() {
+            return true;
+        }
+
+        @Override
+        public long backfill(SQLiteDatabase db, long progress) {
+            Cursor columns = db.rawQuery("SELECT * FROM inventory_summary LIMIT 0", null);
+            try {
+                if(columns.getColumnIndex("total_value") == -1){
+                    return BACKFILL_DONE;
+                }
+            } finally {
+                columns.close();
+            }
+            //One transaction, so the triggers take over from exactly the seeded totals
+            db.execSQL("INSERT OR REPLACE INTO inventory_summary (_id, total_value, unit_count,"
+                    + " sku_count) SELECT 1, IFNULL(SUM(" + String.format(ROW_VALUE, "items")
+                    + "), 0), IFNULL(SUM(quantity), 0), COUNT(*) FROM items;");
+            return BACKFILL_DONE;
+        }
+    }
+
+    /**
+     * Version 6 adds full text search over item names and suppliers.
+     * The table and its triggers are created with the schema change, existing items are
+     * indexed by the backfill.
+     */
+    static class SearchMigration extends Migration {
+        //Rows indexed per chunk
+        private static final int BATCH_SIZE = 500;
+
+        SearchMigration(){
+            super(6);
+        }
+
+        @Override
+        public void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE items_fts USING fts3(name, supplier);");
+            db.execSQL("CREATE TRIGGER items_fts_insert AFTER INSERT ON items BEGIN"
+                    + " INSERT INTO items_fts (docid, name, supplier)"
+                    + " VALUES (NEW._id, NEW.name, NEW.supplier); END;");
+            db.execSQL("CREATE TRIGGER items_fts_update AFTER UPDATE OF name, supplier"
+                    + " ON items BEGIN"
+                    + " UPDATE items_fts SET name = NEW.name, supplier = NEW.supplier"
+                    + " WHERE docid = NEW._id; END;");
+            db.execSQL("CREATE TRIGGER items_fts_delete AFTER DELETE ON items BEGIN"
+                    + " DELETE FROM items_fts WHERE docid = OLD._id; END;");
+        }
+
+        @Override
+        public boolean hasBackfill() {
+            return true;
+        }
+
+        @Override
+        public long backfill(SQLiteDatabase db, long progress) {
+            //Last _ID of the next chunk
+            Cursor last = db.rawQuery("SELECT MAX(_id) FROM (SELECT _id FROM items"
+                    + " WHERE _id > ? ORDER BY _id LIMIT " + BATCH_SIZE + ")",
+                    new String[]{String.valueOf(progress)});
+            long lastId;
+            try {
+                if(!last.moveToFirst() || last.isNull(0)){
+                    return BACKFILL_DONE;
+                }
+                lastId = last.getLong(0);
+            } finally {
+                last.close();
+            }
+
+            //Rows the triggers indexed since the upgrade are replaced, so docids stay unique
+            String[] range = {String.valueOf(progress), String.valueOf(lastId)};
+            db.execSQL("DELETE FROM items_fts WHERE docid > ? AND docid <= ?", range);
+            db.execSQL("INSERT INTO items_fts (docid, name, supplier)"
+                    + " SELECT _id, name, supplier FROM items WHERE _id > ? AND _id <= ?", range);
+            return lastId;
+        }
+    }
+
+    /**
+     * Version 8 stores prices as integer cents with a separate sale status, replacing the
+     * REAL price_US_$ column where 0.14619 meant not for sale and 0 meant free.
+     * The old column stays (SQLite can't drop columns) but nothing reads it once the backfill
+     * is done. The schema change only adds the columns, the summary table and its triggers,
+     * the backfill converts the prices one _ID range per chunk. Until then rows the app
+     * writes are marked converted with a price_US_$ of -1 by two temporary triggers, so the
+     * backfill keeps their new prices, and the provider reads the prices of unmarked rows
+     * through SQL_PRICE_CENTS and SQL_SALE_STATUS. After the last row the price index is
+     * built, then the last chunk seeds the summary row and drops the temporary triggers.
+     */
+    static class PriceCentsMigration extends Migration {
+        static final int VERSION = 8;
+
+        //Rows converted per chunk
+        private static final int BATCH_SIZE = 500;
+        //Progress once every row is converted and the price index is built
+        private static final long INDEX_BUILT = Long.MAX_VALUE;
+
+        //Price in cents and sale status of an items row, converted from price_US_$ unless
+        //the row is marked converted
+        static final String SQL_PRICE_CENTS = "(CASE WHEN price_US_$ = -1 THEN price_cents"
+                + " WHEN price_US_$ IN (0.14619, 0) THEN 0"
+                + " ELSE CAST(ROUND(price_US_$ * 100) AS INTEGER) END)";
+        static final String SQL_SALE_STATUS = "(CASE price_US_$ WHEN -1 THEN sale_status"
+                + " WHEN 0.14619 THEN 2 WHEN 0 THEN 1 ELSE 0 END)";
+
+        //Value of a row, NEW or OLD, in the summary. Only items for sale add to it
+        private static final String ROW_VALUE =
+                "(CASE WHEN %1$s.sale_status = 0 THEN %1$s.price_cents * %1$s.quantity ELSE 0 END)";
+        private static final String UPDATE_SUMMARY = "UPDATE inventory_summary SET"
+                + " total_value_cents = total_value_cents %1$s, unit_count = unit_count %2$s,"
+                + " sku_count = sku_count %3$s WHERE _id = 1;";
+
+        PriceCentsMigration(){
+            super(VERSION);
+        }
+
+        @Override
+        public void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("DROP TRIGGER IF EXISTS items_summary_insert;");
+            db.execSQL("DROP TRIGGER IF EXISTS items_summary_update;");
+            db.execSQL("DROP TRIGGER IF EXISTS items_summary_delete;");
+            db.execSQL("DROP INDEX IF EXISTS items_price_index;");
+
+            db.execSQL("ALTER TABLE items ADD COLUMN price_cents INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE items ADD COLUMN sale_status INTEGER NOT NULL DEFAULT 2");
+            db.execSQL("CREATE TRIGGER items_price_insert AFTER INSERT ON items BEGIN"
+                    + " UPDATE items SET price_US_$ = -1 WHERE _id = NEW._id; END;");
+            db.execSQL("CREATE TRIGGER items_price_update AFTER UPDATE OF price_cents,"
+                    + " sale_status ON items WHEN NEW.price_US_$ <> -1 BEGIN"
+                    + " UPDATE items SET price_US_$ = -1 WHERE _id = NEW._id; END;");
+
+            //The triggers change nothing until the backfill inserts the row
+            db.execSQL("DROP TABLE inventory_summary;");
+            db.execSQL("CREATE TABLE inventory_summary ("
+                    + "_id INTEGER PRIMARY KEY CHECK (_id = 1), "
+                    + "total_value_cents INTEGER NOT NULL DEFAULT 0, "
+                    + "unit_count INTEGER NOT NULL DEFAULT 0, "
+                    + "sku_count INTEGER NOT NULL DEFAULT 0 );");
+            db.execSQL("CREATE TRIGGER items_summary_insert AFTER INSERT ON items BEGIN "
+                    + String.format(UPDATE_SUMMARY, "+ " + String.format(ROW_VALUE, "NEW"),
+                            "+ NEW.quantity", "+ 1")
+                    + " END;");
+            db.execSQL("CREATE TRIGGER items_summary_update AFTER UPDATE OF"
+                    + " quantity, price_cents, sale_status ON items BEGIN "
+                    + String.format(UPDATE_SUMMARY, "+ " + String.format(ROW_VALUE, "NEW")
+                                    + " - " + String.format(ROW_VALUE, "OLD"),
+                            "+ NEW.quantity - OLD.quantity", "+ 0")
+                    + " END;");
+            db.execSQL("CREATE TRIGGER items_summary_delete AFTER DELETE ON items BEGIN "
+                    + String.format(UPDATE_SUMMARY, "- " + String.format(ROW_VALUE, "OLD"),
+                            "- OLD.quantity", "- 1")
+                    + " END;");
+        }
+
+        @Override
+        public boolean hasBackfill() {
+            return true;
+        }
+
+        @Override
+        public long backfill(SQLiteDatabase db, long progress) {
+            if(progress == INDEX_BUILT){
+                //Every row is converted, from here on the triggers keep the row up to date
+                db.execSQL("INSERT OR REPLACE INTO inventory_summary (_id, total_value_cents,"
+                        + " unit_count, sku_count) SELECT 1, IFNULL(SUM("
+                        + String.format(ROW_VALUE, "items") + "), 0), IFNULL(SUM(quantity), 0),"
+                        + " COUNT(*) FROM items;");
+                db.execSQL("DROP TRIGGER items_price_insert;");
+                db.execSQL("DROP TRIGGER items_price_update;");
+                return BACKFILL_DONE;
+            }
+
+            //Last _ID of the next chunk
+            Cursor last = db.rawQuery("SELECT MAX(_id) FROM (SELECT _id FROM items"
+                    + " WHERE _id > ? ORDER BY _id LIMIT " + BATCH_SIZE + ")",
+                    new String[]{String.valueOf(progress)});
+            long lastId;
+            try {
+                if(!last.moveToFirst() || last.isNull(0)){
+                    //Also drops the version 7 price index, its backfill runs before this one
+                    //when upgrading from an older version
+                    db.execSQL("DROP INDEX IF EXISTS items_price_index;");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS items_price_cents_index"
+                            + " ON items (price_cents);");
+                    return INDEX_BUILT;
+                }
+                lastId = last.getLong(0);
+            } finally {
+                last.close();
+            }
+
+            //Rows the app wrote since the upgrade are marked and keep their prices
+            db.execSQL("UPDATE items SET price_cents = " + SQL_PRICE_CENTS + ","
+                    + " sale_status = " + SQL_SALE_STATUS + ", price_US_$ = -1"
+                    + " WHERE _id > ? AND _id <= ? AND price_US_$ <> -1",
+                    new String[]{String.valueOf(progress), String.valueOf(lastId)});
+            return lastId;
+        }
+    }
+
+    /**
+     * Version 9 adds the journal that quick quantity taps are written to before they are
+     * applied to the items table in batches. The table starts out empty.
+     */
+    static class AdjustmentJournalMigration extends Migration {
+
+        AdjustmentJournalMigration(){
+            super(9);
+        }
+
+        @Override
+        public void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE pending_adjustments ("
+                    + "_id INTEGER PRIMARY KEY, "
+                    + "item_id INTEGER NOT NULL, "
+                    + "delta INTEGER NOT NULL );");
+        }
+    }
+
+    /**
+     * Version 10 splits the stock of every item over locations. All existing stock is put in
+     * the default location, the triggers are created with the schema change and the stock
+     * rows of existing items are seeded by the backfill. The update trigger books any
+     * difference between an item's quantity and its stock rows on the default location, so
+     * an item the backfill hasn't reached yet gets its row the first time it changes.
+     */
+    static class LocationsMigration extends Migration {
+        //Items seeded per chunk
+        private static final int BATCH_SIZE = 500;
+
+        private final String mDefaultLocationName;
+
+        LocationsMigration(String defaultLocationName){
+            super(10);
+            mDefaultLocationName = defaultLocationName;
+        }
+
+        @Override
+        public void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE locations ("
+                    + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "name TEXT NOT NULL UNIQUE );");
+            db.execSQL("INSERT INTO locations (_id, name) VALUES (1, ?);",
+                    new String[]{mDefaultLocationName});
+            db.execSQL("CREATE TABLE stock ("
+                    + "_id INTEGER PRIMARY KEY, "
+                    + "location_id INTEGER NOT NULL, "
+                    + "item_id INTEGER NOT NULL, "
+                    + "quantity INTEGER NOT NULL DEFAULT 0, "
+                    + "UNIQUE (location_id, item_id) );");
+            //The table is still empty, its indexes cost nothing to build here
+            db.execSQL("CREATE INDEX stock_item_index ON stock (item_id);");
+            db.execSQL("CREATE INDEX stock_location_quantity_index"
+                    + " ON stock (location_id, quantity, item_id);");
+
+            db.execSQL("CREATE TRIGGER items_stock_insert AFTER INSERT ON items BEGIN"
+                    + " INSERT INTO stock (location_id, item_id, quantity)"
+                    + " VALUES (1, NEW._id, NEW.quantity); END;");
+            db.execSQL("CREATE TRIGGER items_stock_update AFTER UPDATE OF quantity ON items"
+                    + " WHEN NEW.quantity <> (SELECT IFNULL(SUM(quantity), 0) FROM stock"
+                    + " WHERE item_id = NEW._id) BEGIN"
+                    + " INSERT OR IGNORE INTO stock (location_id, item_id) VALUES (1, NEW._id);"
+                    + " UPDATE stock SET quantity = quantity + NEW.quantity"
+                    + " - (SELECT SUM(quantity) FROM stock WHERE item_id = NEW._id)"
+                    + " WHERE location_id = 1 AND item_id = NEW._id; END;");
+            db.execSQL("CREATE TRIGGER items_stock_delete AFTER DELETE ON items BEGIN"
+                    + " DELETE FROM stock WHERE item_id = OLD._id; END;");
+        }
+
+        @Override
+        public boolean hasBackfill() {
+            return true;
+        }
+
+        @Override
+        public long backfill(SQLiteDatabase db, long progress) {
+            //Last _ID of the next chunk
+            Cursor last = db.rawQuery("SELECT MAX(_id) FROM (SELECT _id FROM items"
+                    + " WHERE _id > ? ORDER BY _id LIMIT " + BATCH_SIZE + ")",
+                    new String[]{String.valueOf(progress)});
+            long lastId;
+            try {
+                if(!last.moveToFirst() || last.isNull(0)){
+                    return BACKFILL_DONE;
+                }
+                lastId = last.getLong(0);
+            } finally {
+                last.close();
+            }
+
+            //Items the triggers gave a row since the upgrade already have the right one
+            db.execSQL("INSERT OR IGNORE INTO stock (location_id, item_id, quantity)"
+                    + " SELECT 1, _id, quantity FROM items WHERE _id > ? AND _id <= ?",
+                    new String[]{String.valueOf(progress), String.valueOf(lastId)});
+            return lastId;
+        }
+    }
+
+    /**
+     * Version 11 records every quantity change in the stock_movements ledger. The schema
+     * change creates the tables and triggers, the opening movement of every existing item
+     * is booked by the backfill, one _ID range per chunk, as the difference between its
+     * quantity and what its ledger already holds. Until then the update and delete triggers
+     * book the missing opening movement of an item first, like the LocationsMigration's
+     * update trigger, so the ledger of an item changed before the backfill reached it still
+     * adds up. The last chunk replaces them with the plain triggers. Snapshots start out
+     * empty, the first compaction writes them.
+     */
+    static class MovementsMigration extends Migration {
+        //Items booked per chunk
+        private static final int BATCH_SIZE = 500;
+
+        //Milliseconds since the epoch, never before the last movement
+        private static final String NOW = "MAX(CAST((julianday('now') - 2440587.5)"
+                + " * 86400000 AS INTEGER), IFNULL((SELECT timestamp FROM stock_movements"
+                + " ORDER BY _id DESC LIMIT 1), 0))";
+
+        //Opening movement of the OLD row's item, booked as REASON_NEW_ITEM unless its
+        //ledger already adds up to its quantity
+        private static final String BOOK_OPENING = "INSERT INTO stock_movements"
+                + " (item_id, delta, reason, timestamp) SELECT OLD._id, OLD.quantity - booked,"
+                + " 3, " + NOW + " FROM (SELECT IFNULL(SUM(delta), 0) AS booked"
+                + " FROM stock_movements WHERE item_id = OLD._id) WHERE booked <> OLD.quantity;";
+
+        MovementsMigration(){
+            super(11);
+        }
+
+        @Override
+        public void migrateSchema(SQLiteDatabase db) {
+            //Existing rows get REASON_CORRECTION
+            db.execSQL("ALTER TABLE items ADD COLUMN movement_reason INTEGER NOT NULL DEFAULT 0");
+
+            db.execSQL("CREATE TABLE stock_movements ("
+                    + "_id INTEGER PRIMARY KEY, "
+                    + "item_id INTEGER NOT NULL, "
+                    + "delta INTEGER NOT NULL, "
+                    + "reason INTEGER NOT NULL, "
+                    + "timestamp INTEGER NOT NULL );");
+            db.execSQL("CREATE INDEX stock_movements_item_index"
+                    + " ON stock_movements (item_id, timestamp);");
+            db.execSQL("CREATE TABLE stock_snapshots ("
+                    + "_id INTEGER PRIMARY KEY, "
+                    + "item_id INTEGER NOT NULL, "
+                    + "movement_id INTEGER NOT NULL, "
+                    + "timestamp INTEGER NOT NULL, "
+                    + "quantity INTEGER NOT NULL );");
+            db.execSQL("CREATE INDEX stock_snapshots_item_index"
+                    + " ON stock_snapshots (item_id, timestamp, movement_id);");
+            db.execSQL("CREATE INDEX stock_snapshots_movement_index"
+                    + " ON stock_snapshots (movement_id);");
+
+            createTriggers(db, BOOK_OPENING);
+        }
+
+        @Override
+        public boolean hasBackfill() {
+            return true;
+        }
+
+        @Override
+        public long backfill(SQLiteDatabase db, long progress) {
+            //Last _ID of the next chunk
+            Cursor last = db.rawQuery("SELECT MAX(_id) FROM (SELECT _id FROM items"
+                    + " WHERE _id > ? ORDER BY _id LIMIT " + BATCH_SIZE + ")",
+                    new String[]{String.valueOf(progress)});
+            long lastId;
+            try {
+                if(!last.moveToFirst() || last.isNull(0)){
+                    //Every item has its opening movement
+                    db.execSQL("DROP TRIGGER items_movement_update;");
+                    db.execSQL("DROP TRIGGER items_movement_delete;");
+                    db.execSQL("DROP TRIGGER items_movement_insert;");
+                    createTriggers(db, "");
+                    return BACKFILL_DONE;
+                }
+                lastId = last.getLong(0);
+            } finally {
+                last.close();
+            }
+
+            //Opening balances, booked as REASON_NEW_ITEM. Items the triggers booked since
+            //the upgrade already add up
+            db.execSQL("INSERT INTO stock_movements (item_id, delta, reason, timestamp)"
+                    + " SELECT _id, quantity - booked, 3, " + NOW + " FROM (SELECT _id,"
+                    + " quantity, (SELECT IFNULL(SUM(delta), 0) FROM stock_movements"
+                    + " WHERE item_id = items._id) AS booked FROM items"
+                    + " WHERE _id > ? AND _id <= ?) WHERE booked <> quantity",
+                    new String[]{String.valueOf(progress), String.valueOf(lastId)});
+            return lastId;
+        }
+
+        /**
+         * Create the triggers that book every quantity change of the items table
+         * @param bookOpening statement run before an update or delete is booked
+         */
+        private static void createTriggers(SQLiteDatabase db, String bookOpening){
+            db.execSQL("CREATE TRIGGER items_movement_insert AFTER INSERT ON items"
+                    + " WHEN NEW.quantity <> 0 BEGIN"
+                    + " INSERT INTO stock_movements (item_id, delta, reason, timestamp)"
+                    + " VALUES (NEW._id, NEW.quantity, 3, " + NOW + "); END;");
+            db.execSQL("CREATE TRIGGER items_movement_update AFTER UPDATE OF quantity ON items"
+                    + " WHEN NEW.quantity <> OLD.quantity BEGIN " + bookOpening
+                    + " INSERT INTO stock_movements (item_id, delta, reason, timestamp)"
+                    + " VALUES (NEW._id, NEW.quantity - OLD.quantity, NEW.movement_reason, "
+                    + NOW + "); END;");
+            db.execSQL("CREATE TRIGGER items_movement_delete AFTER DELETE ON items"
+                    + " WHEN OLD.quantity <> 0 BEGIN " + bookOpening
+                    + " INSERT INTO stock_movements (item_id, delta, reason, timestamp)"
+                    + " VALUES (OLD._id, -OLD.quantity, 4, " + NOW + "); END;");
+        }
+    }
+
+    /**
+     * Version 12 keeps quantity changes made on the items table from taking the default
+     * location's stock below 0. Such a change is booked on the default location by the
+     * items_stock_update trigger, so an item may never have less than its stock at the other
+     * locations. The trigger skips the row like a WHERE clause would, the UPDATE reports it
+     * as unchanged. Items whose default stock already went below 0 keep it until their other
+     * locations are corrected.
+     */
+    static class StockCheckMigration extends Migration {
+
+        StockCheckMigration(){
+            super(12);
+        }
+
+        @Override
+        public void migrateSchema(SQLiteDatabase db) {
+            db.execSQL("CREATE TRIGGER items_stock_check BEFORE UPDATE OF quantity ON items"
+                    + " WHEN NEW.quantity < (SELECT IFNULL(SUM(quantity), 0) FROM stock"
+                    + " WHERE item_id = NEW._id AND location_id <> 1) BEGIN"
+                    + " SELECT RAISE(IGNORE); END;");
+        }
+    }
+
+    /**
+     * Creates indexes after the upgrade, one index per chunk. Building an index sorts the
+     * whole table, which is too slow for the onUpgrade transaction on a large store.
+     * Queries still work without the index, they are just slower until it exists.
+     */
+    static class IndexMigration extends Migration {
+        private final String[] mCreateStatements;
+
+        IndexMigration(int version, String... createStatements){
+            super(version);
+            mCreateStatements = createStatements;
+        }
+
+        @Override
+        public void migrateSchema(SQLiteDatabase db) {
+            //Nothing to change up front, the indexes are built by the backfill
+        }
+
+        @Override
+        public boolean hasBackfill() {
+            return true;
+        }
+
+        @Override
+        public long backfill(SQLiteDatabase db, long progress) {
+            if(progress >= mCreateStatements.length){
+                return BACKFILL_DONE;
+            }
+            db.execSQL(mCreateStatements[(int) progress]);
+            return progress + 1 < mCreateStatements.length ? progress + 1 : BACKFILL_DONE;
+        }
+    }
+}
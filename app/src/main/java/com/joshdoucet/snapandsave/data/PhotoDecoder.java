@@ -0,0 +1,221 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ *  - PhotoDecoder decodes photos no larger than they are needed. The size is read first
+ *      without decoding any pixels, then the photo is decoded with the largest power of two
+ *      sample size that still covers the wanted size and scaled down to fit it exactly.
+ *      A 12 MP camera photo is never decoded at full resolution.
+ *      Decoding is slow, never call it on the main thread.
+ *
+ *  - With a BitmapPool the photo is decoded and scaled into pooled bitmaps, and the sampled
+ *      bitmap left over from scaling goes back to the pool. Put the returned bitmap into the
+ *      pool once it isn't used anymore.
+ */
+
+public final class PhotoDecoder {
+    public static final String LOG_TAG = PhotoDecoder.class.getSimpleName();
+
+    private PhotoDecoder() {}
+
+    /**
+     * Decode an encoded image so its longest edge is at most maxEdge pixels
+     * @param pool bitmaps to decode into, null to always allocate new ones
+     * @return the bitmap, or null if the bytes are not an image
+     */
+    public static Bitmap decodeByteArray(final byte[] image, int maxEdge, BitmapPool pool){
+        return decode(new Source<RuntimeException>() {
+            @Override
+            Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeByteArray(image, 0, image.length, options);
+            }
+        }, maxEdge, pool);
+    }
+
+    /**
+     * Decode a photo file, like a camera capture, so its longest edge is at most maxEdge
+     * pixels. The EXIF orientation cameras save photos with is applied.
+     * @param pool bitmaps to decode into, null to always allocate new ones
+     * @return the bitmap, or null if the file is not an image
+     */
+    public static Bitmap decodeFile(final File file, int maxEdge, BitmapPool pool){
+        Bitmap bitmap = decode(new Source<RuntimeException>() {
+            @Override
+            Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeFile(file.getPath(), options);
+            }
+        }, maxEdge, pool);
+        return bitmap == null ? null : rotate(bitmap, readRotation(file), pool);
+    }
+
+    /**
+     * Decode an image a content provider serves, like ItemEntry.buildImageUri, so its
+     * longest edge is at most maxEdge pixels. The uri is opened twice, once for the size.
+     * @param pool bitmaps to decode into, null to always allocate new ones
+     * @return the bitmap, or null if the data is not an image
+     * @throws FileNotFoundException if the uri can't be opened
+     */
+    public static Bitmap decodeUri(final ContentResolver resolver, final Uri uri, int maxEdge,
+                                   BitmapPool pool) throws FileNotFoundException {
+        return decode(new Source<FileNotFoundException>() {
+            @Override
+            Bitmap decode(BitmapFactory.Options options) throws FileNotFoundException {
+                InputStream in = resolver.openInputStream(uri);
+                if(in == null){
+                    throw new FileNotFoundException(uri.toString());
+                }
+                try {
+                    return BitmapFactory.decodeStream(in, null, options);
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                        //Nothing left to clean up
+                    }
+                }
+            }
+        }, maxEdge, pool);
+    }
+
+    /**
+     * Where a photo is decoded from, each decode reads it from the start
+     * @param <E> exception thrown when the photo can't be opened
+     */
+    private abstract static class Source<E extends Exception> {
+        abstract Bitmap decode(BitmapFactory.Options options) throws E;
+    }
+
+    /**
+     * Read the size of a photo, then decode it sampled and scaled down to maxEdge
+     */
+    private static <E extends Exception> Bitmap decode(Source<E> source, int maxEdge,
+                                                       BitmapPool pool) throws E {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+        if(options.outWidth <= 0 || options.outHeight <= 0){
+            return null;
+        }
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, maxEdge);
+        options.inJustDecodeBounds = false;
+
+        if(pool == null){
+            return scaleToFit(source.decode(options), maxEdge, null);
+        }
+
+        pool.prepareDecode(options);
+        Bitmap sampled;
+        try {
+            sampled = source.decode(options);
+        } catch (IllegalArgumentException e) {
+            //The decoder can't write this photo into the pooled bitmap, use a new one
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            sampled = source.decode(options);
+        }
+        if(sampled == null){
+            pool.put(options.inBitmap);
+        }
+        return scaleToFit(sampled, maxEdge, pool);
+    }
+
+    /**
+     * @return the largest power of two that divides the image down to no less than maxEdge
+     */
+    public static int getSampleSize(int width, int height, int maxEdge){
+        int longestEdge = Math.max(width, height);
+        int sampleSize = 1;
+        while(longestEdge / (sampleSize * 2) >= maxEdge){
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Scale a sampled bitmap down so its longest edge is maxEdge, smaller ones are kept
+     */
+    private static Bitmap scaleToFit(Bitmap sampled, int maxEdge, BitmapPool pool){
+        if(sampled == null){
+            return null;
+        }
+        float scale = (float) maxEdge / Math.max(sampled.getWidth(), sampled.getHeight());
+        if(scale >= 1f){
+            return sampled;
+        }
+        int width = Math.max(1, Math.round(sampled.getWidth() * scale));
+        int height = Math.max(1, Math.round(sampled.getHeight() * scale));
+        if(pool == null){
+            Bitmap scaled = Bitmap.createScaledBitmap(sampled, width, height, true);
+            if(scaled != sampled){
+                sampled.recycle();
+            }
+            return scaled;
+        }
+
+        //Draw into a pooled bitmap, the sampled one goes back for the next decode
+        Bitmap scaled = pool.get(width, height, Bitmap.Config.ARGB_8888);
+        if(scaled == null){
+            scaled = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        new Canvas(scaled).drawBitmap(sampled, null, new Rect(0, 0, width, height),
+                new Paint(Paint.FILTER_BITMAP_FLAG));
+        pool.put(sampled);
+        return scaled;
+    }
+
+    /**
+     * @return degrees a photo file has to be turned clockwise to show upright
+     */
+    private static int readRotation(File file){
+        try {
+            int orientation = new ExifInterface(file.getPath()).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch(orientation){
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not read the orientation of " + file, e);
+            return 0;
+        }
+    }
+
+    private static Bitmap rotate(Bitmap bitmap, int degrees, BitmapPool pool){
+        if(degrees == 0){
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
+                bitmap.getHeight(), matrix, true);
+        if(rotated != bitmap){
+            if(pool != null){
+                pool.put(bitmap);
+            }else{
+                bitmap.recycle();
+            }
+        }
+        return rotated;
+    }
+}
@@ -0,0 +1,168 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+
+/**
+ *  - The PhotoReencoder stores the photos of existing items again with an ImageCodec,
+ *      usually to shrink PNG photos saved before a lossy codec was picked. Photos already
+ *      in the codec's format are skipped, and a photo is only replaced when the new encoding
+ *      is smaller, so running it a second time changes nothing.
+ *
+ *  - Each photo is re-encoded as its own write on the ItemWriteQueue. An edit saved while
+ *      the job runs is never overwritten by an older photo, and other writes only wait for
+ *      one photo at a time. Must not run on the main thread.
+ */
+
+public class PhotoReencoder {
+    public static final String LOG_TAG = PhotoReencoder.class.getSimpleName();
+
+    //Size of the buffer photos are read through
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ContentResolver mResolver;
+    private final ItemWriteQueue mWriteQueue;
+    private final ImageCodec mCodec;
+    private final BitmapPool mBitmapPool;
+
+    //Photos replaced by the last run, and the bytes that saved
+    private int mReencoded;
+    private long mBytesSaved;
+
+    public PhotoReencoder(ContentResolver resolver, ItemWriteQueue writeQueue, ImageCodec codec,
+                          BitmapPool bitmapPool){
+        mResolver = resolver;
+        mWriteQueue = writeQueue;
+        mCodec = codec;
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * Re-encode the photo of every item that has one
+     * @throws InterruptedException if the thread was interrupted, photos done so far are kept
+     */
+    public void reencodeAll() throws InterruptedException {
+        mReencoded = 0;
+        mBytesSaved = 0;
+
+        //Only the ids are read up front, items deleted in the meantime are skipped
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI, new String[]{ItemEntry._ID},
+                ItemEntry.COLUMN_IMAGE_FILE + " IS NOT NULL", null, ItemEntry._ID);
+        long[] ids;
+        try {
+            ids = new long[cursor.getCount()];
+            for(int i = 0; cursor.moveToNext(); i++){
+                ids[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for(final long id : ids){
+            try {
+                Long saved = mWriteQueue.submit(new ItemWriteQueue.Write<Long>() {
+                    @Override
+                    public Long apply(ContentResolver resolver) {
+                        return reencode(id);
+                    }
+                }, null).get();
+                if(saved > 0){
+                    mReencoded++;
+                    mBytesSaved += saved;
+                }
+            } catch (ExecutionException e) {
+                //Logged by the write queue, the other photos are still re-encoded
+            }
+        }
+    }
+
+    /**
+     * @return number of photos replaced by the last run
+     */
+    public int getReencoded(){
+        return mReencoded;
+    }
+
+    /**
+     * @return bytes of storage the last run saved
+     */
+    public long getBytesSaved(){
+        return mBytesSaved;
+    }
+
+    /**
+     * Re-encode the photo of one item, runs on the write queue
+     * @return bytes saved, 0 if the photo was left as it is
+     */
+    private long reencode(long id){
+        byte[] image;
+        try {
+            image = readPhoto(id);
+        } catch (FileNotFoundException e) {
+            //Deleted, or its photo removed, since the ids were read
+            return 0;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not read photo of item " + id, e);
+            return 0;
+        }
+        if(mCodec.getFormat().equals(ImageCodec.detectFormat(image))){
+            return 0;
+        }
+
+        //Photos larger than the store keeps are scaled down on the way
+        Bitmap bitmap = PhotoDecoder.decodeByteArray(image, ImageStore.MAX_PHOTO_SIZE,
+                mBitmapPool);
+        if(bitmap == null){
+            Log.e(LOG_TAG, "Could not decode photo of item " + id);
+            return 0;
+        }
+        byte[] encoded = mCodec.encode(bitmap);
+        mBitmapPool.put(bitmap);
+        if(encoded.length >= image.length){
+            return 0;
+        }
+
+        //The provider replaces the photo file and its thumbnail
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_IMAGE, encoded);
+        if(mResolver.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id),
+                values, null, null) == 0){
+            return 0;
+        }
+        return image.length - encoded.length;
+    }
+
+    /**
+     * Read the stored photo of an item through the provider
+     * @throws FileNotFoundException if the item or its photo doesn't exist
+     */
+    private byte[] readPhoto(long id) throws IOException {
+        InputStream in = mResolver.openInputStream(ItemEntry.buildImageUri(id));
+        if(in == null){
+            throw new FileNotFoundException("No photo for item " + id);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while((read = in.read(buffer)) != -1){
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.joshdoucet.snapandsave.data;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ *  - Prices converts between prices typed or shown as dollars, like "12.50", and the whole
+ *      cents stored in ItemEntry.COLUMN_PRICE_CENTS. No floating point is involved, so a price
+ *      always reads back exactly as it was entered.
+ */
+
+public final class Prices {
+
+    private Prices() {}
+
+    /**
+     * Parse a price in dollars into cents. More than 2 decimals are rounded half up.
+     * @param dollars text like "3", "12.5" or "0.99"
+     * @return the price in cents
+     * @throws NumberFormatException if the text isn't a number or is too large
+     */
+    public static long parseCents(String dollars){
+        try {
+            return new BigDecimal(dollars.trim()).movePointRight(2)
+                    .setScale(0, RoundingMode.HALF_UP).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Price out of range " + dollars);
+        }
+    }
+
+    /**
+     * Format cents as dollars with exactly 2 decimals and no currency symbol, "1234.50"
+     */
+    public static String formatCents(long cents){
+        StringBuilder builder = new StringBuilder(16);
+        if(cents < 0){
+            builder.append('-');
+            cents = -cents;
+        }
+        builder.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if(fraction < 10){
+            builder.append('0');
+        }
+        return builder.append(fraction).toString();
+    }
+
+    /**
+     * @return cents as an exact dollar amount, for formatting with a DecimalFormat
+     */
+    public static BigDecimal toDollars(long cents){
+        return BigDecimal.valueOf(cents, 2);
+    }
+}
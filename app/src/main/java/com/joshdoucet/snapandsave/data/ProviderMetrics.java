@@ -0,0 +1,248 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.database.MatrixCursor;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.MetricsEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *  - Counters and latency histograms for the calls the InventoryProvider serves, one series
+ *      per operation and URI match code. Recording is a few atomic adds and never locks or
+ *      allocates once a series exists, so it stays on in release builds.
+ *
+ *  - Latencies go into log-linear buckets like an HDR histogram: every power of two is split
+ *      into SUB_BUCKETS equal buckets, so any value is off by at most 1/SUB_BUCKETS and the
+ *      whole range from 1 microsecond to minutes fits in a couple of hundred longs.
+ */
+
+public final class ProviderMetrics {
+
+    //Operations calls are recorded under, in the order they are listed in the metrics table
+    public static final int OP_QUERY = 0;
+    public static final int OP_INSERT = 1;
+    public static final int OP_BULK_INSERT = 2;
+    public static final int OP_UPDATE = 3;
+    public static final int OP_DELETE = 4;
+    public static final int OP_OPEN_FILE = 5;
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete", "open_file"};
+
+    //Each power of two is split into 2^SUB_BUCKET_BITS buckets, 12.5% precision
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //Latencies from 2^MAX_EXPONENT microseconds (over two minutes) up share the last bucket
+    private static final int MAX_EXPONENT = 27;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    //Slots of a series after its histogram buckets, the number of calls is their sum
+    private static final int ROWS = BUCKETS;
+    private static final int BLOB_BYTES = BUCKETS + 1;
+    private static final int TOTAL_MICROS = BUCKETS + 2;
+    private static final int MAX_MICROS = BUCKETS + 3;
+    private static final int SERIES_SIZE = BUCKETS + 4;
+
+    //Readable pattern of each URI match code, indexed by code - mFirstCode
+    private final String[] mUriPatterns;
+    private final int mFirstCode;
+
+    //Series by operation then match code, created the first time they are recorded
+    private final AtomicReferenceArray<AtomicLongArray> mSeries;
+
+    /**
+     * @param firstCode lowest URI match code the provider uses, the others follow it
+     * @param uriPatterns pattern of each match code from firstCode on, shown in the metrics
+     */
+    public ProviderMetrics(int firstCode, String[] uriPatterns){
+        mFirstCode = firstCode;
+        mUriPatterns = uriPatterns;
+        mSeries = new AtomicReferenceArray<>(OPERATION_NAMES.length * uriPatterns.length);
+    }
+
+    /**
+     * Start timing a call
+     * @return the value to pass to record once the call is done
+     */
+    public static long start(){
+        return System.nanoTime();
+    }
+
+    /**
+     * Record one finished call
+     * @param operation one of the OP_ values
+     * @param matchCode URI match code of the call, calls to unknown URIs are not recorded
+     * @param startNanos value start returned when the call began
+     * @param rows rows returned or changed by the call
+     * @param blobBytes photo bytes read or written by the call
+     */
+    public void record(int operation, int matchCode, long startNanos, long rows,
+                       long blobBytes){
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        int code = matchCode - mFirstCode;
+        if(code < 0 || code >= mUriPatterns.length){
+            return;
+        }
+
+        int index = operation * mUriPatterns.length + code;
+        AtomicLongArray series = mSeries.get(index);
+        if(series == null){
+            mSeries.compareAndSet(index, null, new AtomicLongArray(SERIES_SIZE));
+            series = mSeries.get(index);
+        }
+
+        series.incrementAndGet(getBucket(micros));
+        series.addAndGet(ROWS, rows);
+        series.addAndGet(BLOB_BYTES, blobBytes);
+        series.addAndGet(TOTAL_MICROS, micros);
+        long max;
+        do {
+            max = series.get(MAX_MICROS);
+        } while(micros > max && !series.compareAndSet(MAX_MICROS, max, micros));
+    }
+
+    /**
+     * Forget everything recorded so far
+     */
+    public void reset(){
+        for(int i = 0; i < mSeries.length(); i++){
+            mSeries.set(i, null);
+        }
+    }
+
+    /**
+     * Copy the metrics into a cursor with the MetricsEntry columns, one row per operation and
+     * URI that was called at least once, the most total time first. Calls recorded while the
+     * copy is made may only be partly included, so counts of a row can be a call apart.
+     */
+    public MatrixCursor query(String[] projection){
+        if(projection == null){
+            projection = MetricsEntry.COLUMNS;
+        }
+
+        //Take the total time of every series once, so the order can't change while sorting
+        List<Integer> called = new ArrayList<>();
+        final long[] totals = new long[mSeries.length()];
+        for(int index = 0; index < mSeries.length(); index++){
+            AtomicLongArray series = mSeries.get(index);
+            if(series != null){
+                called.add(index);
+                totals[index] = series.get(TOTAL_MICROS);
+            }
+        }
+        Collections.sort(called, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                long difference = totals[second] - totals[first];
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+
+        MatrixCursor cursor = new MatrixCursor(projection, called.size());
+        long[] buckets = new long[BUCKETS];
+        for(int index : called){
+            AtomicLongArray series = mSeries.get(index);
+            if(series == null){
+                //Reset while copying
+                continue;
+            }
+            long calls = 0;
+            for(int i = 0; i < BUCKETS; i++){
+                buckets[i] = series.get(i);
+                calls += buckets[i];
+            }
+            if(calls == 0){
+                continue;
+            }
+
+            MatrixCursor.RowBuilder row = cursor.newRow();
+            for(String column : projection){
+                row.add(getValue(column, index, series, buckets, calls));
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Value of one metrics column for a series
+     * @param calls total of the histogram buckets
+     */
+    private Object getValue(String column, int index, AtomicLongArray series, long[] buckets,
+                            long calls){
+        switch(column){
+            case MetricsEntry._ID:
+                return index;
+            case MetricsEntry.COLUMN_OPERATION:
+                return OPERATION_NAMES[index / mUriPatterns.length];
+            case MetricsEntry.COLUMN_URI:
+                return mUriPatterns[index % mUriPatterns.length];
+            case MetricsEntry.COLUMN_CALLS:
+                return calls;
+            case MetricsEntry.COLUMN_ROWS:
+                return series.get(ROWS);
+            case MetricsEntry.COLUMN_BLOB_BYTES:
+                return series.get(BLOB_BYTES);
+            case MetricsEntry.COLUMN_TOTAL_MICROS:
+                return series.get(TOTAL_MICROS);
+            case MetricsEntry.COLUMN_P50_MICROS:
+                return getPercentile(buckets, calls, 50);
+            case MetricsEntry.COLUMN_P90_MICROS:
+                return getPercentile(buckets, calls, 90);
+            case MetricsEntry.COLUMN_P99_MICROS:
+                return getPercentile(buckets, calls, 99);
+            case MetricsEntry.COLUMN_MAX_MICROS:
+                return series.get(MAX_MICROS);
+            default:
+                throw new IllegalArgumentException("Unknown metrics column " + column);
+        }
+    }
+
+    /**
+     * Bucket a latency falls in. Values below SUB_BUCKETS get a bucket each, above that each
+     * power of two gets SUB_BUCKETS buckets picked by the bits after the highest one.
+     */
+    private static int getBucket(long micros){
+        if(micros < SUB_BUCKETS){
+            return micros < 0 ? 0 : (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if(exponent > MAX_EXPONENT){
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Smallest latency that falls in a bucket
+     */
+    private static long getBucketStart(int bucket){
+        if(bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Latency at or below which percent of the calls finished. The top of the bucket is
+     * returned, so the result is never lower than the real value.
+     */
+    private static long getPercentile(long[] buckets, long calls, int percent){
+        //Rank of the call the percentile falls on, rounded up
+        long rank = (calls * percent + 99) / 100;
+        long seen = 0;
+        for(int i = 0; i < BUCKETS - 1; i++){
+            seen += buckets[i];
+            if(seen >= rank){
+                return getBucketStart(i + 1) - 1;
+            }
+        }
+        return getBucketStart(BUCKETS - 1);
+    }
+}
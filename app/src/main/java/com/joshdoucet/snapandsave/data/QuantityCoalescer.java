@@ -0,0 +1,256 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.AdjustmentEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *  - The QuantityCoalescer gathers quick quantity taps, like the inventory list's "-1" button
+ *      during a sales rush, and commits them in batches. A tap only changes an in memory
+ *      total the list shows straight away. Taps are journaled to the provider a batch at a
+ *      time on the ItemWriteQueue, and FLUSH_DELAY_MS after the first tap of a burst the
+ *      journal is applied to the items table in one transaction, so the list reloads once
+ *      per burst instead of once per tap.
+ *
+ *  - Before adjust returns a tap is kept in the TapJournal, a memory mapped file, so it
+ *      survives the process being killed at any point after that. The next coalescer moves
+ *      taps left there into the provider's journal before its first flush. Only taps made
+ *      before the TapJournal is open, right after the coalescer is created, or while it is
+ *      full are kept in memory alone until their journal write.
+ *      Every method has to be called on the main thread.
+ */
+
+public final class QuantityCoalescer {
+    public static final String LOG_TAG = QuantityCoalescer.class.getSimpleName();
+
+    //Time from the first tap of a burst until it is applied to the items table
+    private static final long FLUSH_DELAY_MS = 500;
+
+    private static QuantityCoalescer sInstance;
+
+    private final ItemWriteQueue mWriteQueue;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //Change to each item's quantity that isn't in the items table yet, by item _ID
+    private final HashMap<Long, Integer> mPendingDeltas = new HashMap<>();
+
+    //Taps waiting for a journal write that is queued but hasn't started, null when there is
+    //none. Guarded by mJournalLock. Each write takes its whole batch at once, so a burst of
+    //taps is journaled in a few transactions
+    private final Object mJournalLock = new Object();
+    private ArrayList<ContentValues> mOpenBatch;
+    //Every tap is added to it before adjust returns. Null until it was opened on the write
+    //queue, or if it couldn't be. Guarded by mJournalLock
+    private TapJournal mTapJournal;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private boolean mFlushScheduled;
+
+    /**
+     * One coalescer is shared by the whole app, so every screen sees the same pending taps
+     */
+    public static synchronized QuantityCoalescer getInstance(Context context){
+        if(sInstance == null){
+            sInstance = new QuantityCoalescer(context.getApplicationContext(),
+                    ItemWriteQueue.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Forget the shared coalescer, the next getInstance creates a new one the way a new
+     * process would. Only for unit tests
+     */
+    static synchronized void resetInstance(){
+        sInstance = null;
+    }
+
+    private QuantityCoalescer(Context context, ItemWriteQueue writeQueue){
+        mWriteQueue = writeQueue;
+        //Apply taps of a process that died before its flush, both those it journaled and
+        //those only its TapJournal kept
+        mWriteQueue.submit(new OpenJournalWrite(context), null);
+        mWriteQueue.submit(new FlushWrite(), null);
+    }
+
+    /**
+     * @return change to the quantity of an item that the items table doesn't show yet
+     */
+    public int getPendingDelta(long itemId){
+        Integer delta = mPendingDeltas.get(itemId);
+        return delta == null ? 0 : delta;
+    }
+
+    /**
+     * Change the quantity of an item. The change shows in getPendingDelta right away and is
+     * written to the items table with the rest of its burst. Callers check the bounds
+     * against the quantity they show, the flush clamps quantities to 0..MAX_QUANTITY - 1.
+     * @param delta signed number of units to add
+     */
+    public void adjust(long itemId, int delta){
+        if(delta == 0){
+            return;
+        }
+        adjustPending(itemId, delta);
+
+        ContentValues values = new ContentValues();
+        values.put(AdjustmentEntry.COLUMN_ITEM_ID, itemId);
+        values.put(AdjustmentEntry.COLUMN_DELTA, delta);
+        ArrayList<ContentValues> newBatch = null;
+        synchronized (mJournalLock){
+            if(mTapJournal != null){
+                Long journalId = mTapJournal.append(itemId, delta);
+                if(journalId != null){
+                    values.put(AdjustmentEntry._ID, journalId);
+                }
+            }
+            if(mOpenBatch == null){
+                newBatch = new ArrayList<>();
+                mOpenBatch = newBatch;
+            }
+            mOpenBatch.add(values);
+        }
+        if(newBatch != null){
+            mWriteQueue.submit(new JournalWrite(newBatch), null);
+        }
+
+        if(!mFlushScheduled){
+            mFlushScheduled = true;
+            mMainHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Apply every pending tap to the items table now, for example when the list is left.
+     * The flush is queued behind the journal writes of those taps.
+     */
+    public void flush(){
+        mMainHandler.removeCallbacks(mFlushRunnable);
+        mFlushScheduled = false;
+        if(mPendingDeltas.isEmpty()){
+            return;
+        }
+
+        //Taps made from here on are journaled after the flush and stay pending
+        synchronized (mJournalLock){
+            mOpenBatch = null;
+        }
+        final Map<Long, Integer> flushed = new HashMap<>(mPendingDeltas);
+        mWriteQueue.submit(new FlushWrite(), new ItemWriteQueue.Callback<Integer>() {
+            @Override
+            public void onWriteFinished(Integer itemsChanged) {
+                for(Map.Entry<Long, Integer> entry : flushed.entrySet()){
+                    adjustPending(entry.getKey(), -entry.getValue());
+                }
+            }
+        });
+    }
+
+    /**
+     * Add to the pending total of an item, without journaling anything
+     */
+    private void adjustPending(long itemId, int delta){
+        int pending = getPendingDelta(itemId) + delta;
+        if(pending == 0){
+            mPendingDeltas.remove(itemId);
+        }else{
+            mPendingDeltas.put(itemId, pending);
+        }
+    }
+
+    /**
+     * Writes a batch of taps to the journal in one bulkInsert
+     */
+    private class JournalWrite implements ItemWriteQueue.Write<Integer> {
+        private final ArrayList<ContentValues> mBatch;
+
+        JournalWrite(ArrayList<ContentValues> batch){
+            mBatch = batch;
+        }
+
+        @Override
+        public Integer apply(ContentResolver resolver) {
+            ContentValues[] taps;
+            synchronized (mJournalLock){
+                //Later taps start a new batch
+                if(mOpenBatch == mBatch){
+                    mOpenBatch = null;
+                }
+                taps = mBatch.toArray(new ContentValues[mBatch.size()]);
+            }
+            int journaled = resolver.bulkInsert(AdjustmentEntry.CONTENT_URI, taps);
+
+            //The taps are committed, the TapJournal can drop them. Journal _IDs count down,
+            //the last tap of the batch that has one is the newest
+            Long lastId = null;
+            for(ContentValues tap : taps){
+                if(tap.containsKey(AdjustmentEntry._ID)){
+                    lastId = tap.getAsLong(AdjustmentEntry._ID);
+                }
+            }
+            if(lastId != null){
+                synchronized (mJournalLock){
+                    mTapJournal.remove(lastId);
+                }
+            }
+            return journaled;
+        }
+    }
+
+    /**
+     * Opens the TapJournal and moves taps a process that died left in it into the provider's
+     * journal. Taps that process had journaled already are ignored by the provider.
+     */
+    private class OpenJournalWrite implements ItemWriteQueue.Write<Integer> {
+        private final Context mContext;
+
+        OpenJournalWrite(Context context){
+            mContext = context;
+        }
+
+        @Override
+        public Integer apply(ContentResolver resolver) {
+            TapJournal journal;
+            try {
+                journal = TapJournal.open(mContext);
+            } catch (IOException e) {
+                //Taps are still journaled, they are just lost if the process dies first
+                Log.e(LOG_TAG, "Could not open the tap journal", e);
+                return 0;
+            }
+            ContentValues[] taps = journal.readPending();
+            int journaled = taps.length == 0 ? 0
+                    : resolver.bulkInsert(AdjustmentEntry.CONTENT_URI, taps);
+            synchronized (mJournalLock){
+                journal.removeAll();
+                mTapJournal = journal;
+            }
+            return journaled;
+        }
+    }
+
+    /**
+     * Applies the journal to the items table
+     */
+    private static class FlushWrite implements ItemWriteQueue.Write<Integer> {
+        @Override
+        public Integer apply(ContentResolver resolver) {
+            return resolver.update(AdjustmentEntry.FLUSH_URI, new ContentValues(), null, null);
+        }
+    }
+}
@@ -0,0 +1,544 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ *  - The SnapshotManager backs up snapandsave.db and the item photos into a single zip file,
+ *      and restores them from one. Every file in a snapshot is listed in its manifest with
+ *      a SHA-256 checksum, a restore checks all of them before anything is replaced.
+ *      In WAL mode the app keeps reading and writing while a snapshot is taken. The WAL is
+ *      checkpointed into the database file and automatic checkpoints are paused, so the file
+ *      doesn't change while it is copied and new writes wait in the WAL.
+ *      Both operations block, run them off the main thread.
+ */
+
+public class SnapshotManager {
+    public static final String LOG_TAG = SnapshotManager.class.getSimpleName();
+
+    /**
+     * Gets the progress of a snapshot or restore, called on the thread doing the work
+     */
+    public interface ProgressListener {
+        void onProgress(long bytesDone, long bytesTotal);
+    }
+
+    //Directory in the app's external files dir that snapshots are kept in
+    private static final String SNAPSHOT_DIRECTORY = "backups";
+    private static final String SNAPSHOT_PREFIX = "snapandsave-";
+    private static final String SNAPSHOT_SUFFIX = ".zip";
+
+    //Older snapshots are deleted when a new one is taken
+    private static final int KEEP_SNAPSHOTS = 7;
+
+    //Entries of a snapshot zip
+    private static final String MANIFEST_ENTRY = "manifest.txt";
+    private static final String DATABASE_ENTRY = InventoryDBHelper.DATABASE_NAME;
+    private static final String IMAGE_ENTRY_PREFIX = "images/";
+
+    //First line of the manifest, then "version <database version>", then one line per entry
+    private static final String MANIFEST_HEADER = "snapandsave-snapshot 1";
+    private static final String MANIFEST_VERSION = "version ";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    //Progress is reported after every this many bytes
+    private static final long PROGRESS_STEP = 1024 * 1024;
+
+    //Snapshots and restores never run at the same time
+    private static final Object sLock = new Object();
+
+    private final Context mContext;
+    private final InventoryDBHelper mDBHelper;
+    private final ImageStore mImageStore;
+
+    //Directory snapshots are written to, null for SNAPSHOT_DIRECTORY on external storage
+    private final File mSnapshotDirectory;
+
+    public SnapshotManager(Context context){
+        this(context, InventoryDBHelper.getInstance(context),
+                new ImageStore(context.getApplicationContext()), null);
+    }
+
+    /**
+     * Back up another database and image store, tests use their own next to the app's
+     * @param snapshotDirectory where snapshots are written, null for the app's
+     */
+    SnapshotManager(Context context, InventoryDBHelper dbHelper, ImageStore imageStore,
+                    File snapshotDirectory){
+        mContext = context.getApplicationContext();
+        mDBHelper = dbHelper;
+        mImageStore = imageStore;
+        mSnapshotDirectory = snapshotDirectory;
+    }
+
+    /**
+     * @return the directory snapshots are written to
+     * @throws IOException if external storage isn't available
+     */
+    public File getSnapshotDirectory() throws IOException {
+        if(mSnapshotDirectory != null){
+            return mSnapshotDirectory;
+        }
+        File filesDir = mContext.getExternalFilesDir(null);
+        if(filesDir == null){
+            throw new IOException("External storage is not available");
+        }
+        return new File(filesDir, SNAPSHOT_DIRECTORY);
+    }
+
+    /**
+     * @return every snapshot in the snapshot directory, newest first
+     */
+    public File[] listSnapshots() throws IOException {
+        File[] files = getSnapshotDirectory().listFiles();
+        ArrayList<File> snapshots = new ArrayList<>();
+        if(files != null){
+            for(File file : files){
+                String name = file.getName();
+                if(name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX)){
+                    snapshots.add(file);
+                }
+            }
+        }
+        //Names hold the time they were taken, so they sort by age
+        Collections.sort(snapshots, Collections.reverseOrder());
+        return snapshots.toArray(new File[snapshots.size()]);
+    }
+
+    /**
+     * Write a snapshot of the database and every photo
+     * @param listener gets the progress, may be null
+     * @return the new snapshot file
+     * @throws IOException if the snapshot could not be written, nothing is left behind
+     */
+    public File createSnapshot(ProgressListener listener) throws IOException {
+        synchronized (sLock){
+            File directory = getSnapshotDirectory();
+            if(!directory.isDirectory() && !directory.mkdirs()){
+                throw new IOException("Could not create " + directory);
+            }
+            String time = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+            File snapshot = new File(directory, SNAPSHOT_PREFIX + time + SNAPSHOT_SUFFIX);
+            File tempFile = new File(directory, snapshot.getName() + ".tmp");
+
+            long start = System.currentTimeMillis();
+            try {
+                writeSnapshot(tempFile, listener);
+            } catch (IOException | RuntimeException e) {
+                tempFile.delete();
+                throw e;
+            }
+            if(!tempFile.renameTo(snapshot)){
+                tempFile.delete();
+                throw new IOException("Could not write " + snapshot);
+            }
+            Log.i(LOG_TAG, "Snapshot " + snapshot.getName() + " took "
+                    + (System.currentTimeMillis() - start) + " ms");
+
+            deleteOldSnapshots();
+            return snapshot;
+        }
+    }
+
+    private void writeSnapshot(File file, ProgressListener listener) throws IOException {
+        SQLiteDatabase db = mDBHelper.getWritableDatabase();
+        File databaseFile = mDBHelper.getDatabaseFile();
+        StringBuilder manifest = new StringBuilder()
+                .append(MANIFEST_HEADER).append('\n')
+                .append(MANIFEST_VERSION).append(db.getVersion()).append('\n');
+
+        FileOutputStream fileOut = new FileOutputStream(file);
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+        try {
+            //Pages and photos are written as they are read, the fastest level keeps the
+            //copy bound by storage speed instead of the CPU
+            zip.setLevel(Deflater.BEST_SPEED);
+
+            if("wal".equalsIgnoreCase(queryPragma(db, "PRAGMA journal_mode"))){
+                //Only checkpoints write to the database file in WAL mode
+                String autoCheckpoint = queryPragma(db, "PRAGMA wal_autocheckpoint");
+                queryPragma(db, "PRAGMA wal_autocheckpoint = 0");
+                try {
+                    checkpoint(db);
+                    //Photos are saved before their row is committed, so every photo the
+                    //copied database refers to is already in the list
+                    File[] images = mImageStore.listImages();
+                    Progress progress = new Progress(listener,
+                            databaseFile.length() + totalLength(images));
+                    addEntry(zip, DATABASE_ENTRY, databaseFile, manifest, progress);
+                    addImages(zip, images, manifest, progress);
+                } finally {
+                    queryPragma(db, "PRAGMA wal_autocheckpoint = " + autoCheckpoint);
+                }
+            }else{
+                //With a rollback journal every commit writes the file, writers have to wait
+                File[] images;
+                Progress progress;
+                db.beginTransactionNonExclusive();
+                try {
+                    images = mImageStore.listImages();
+                    progress = new Progress(listener,
+                            databaseFile.length() + totalLength(images));
+                    addEntry(zip, DATABASE_ENTRY, databaseFile, manifest, progress);
+                } finally {
+                    db.endTransaction();
+                }
+                addImages(zip, images, manifest, progress);
+            }
+
+            //The manifest is last so it can list the checksum of every entry
+            zip.putNextEntry(new ZipEntry(MANIFEST_ENTRY));
+            zip.write(manifest.toString().getBytes("UTF-8"));
+            zip.closeEntry();
+            zip.finish();
+            zip.flush();
+            fileOut.getFD().sync();
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Copy the photos into the snapshot. A photo deleted while the snapshot is taken
+     * belonged to an item changed after the database was copied and is left out.
+     */
+    private static void addImages(ZipOutputStream zip, File[] images, StringBuilder manifest,
+                                  Progress progress) throws IOException {
+        for(File image : images){
+            try {
+                addEntry(zip, IMAGE_ENTRY_PREFIX + image.getName(), image, manifest, progress);
+            } catch (FileNotFoundException e) {
+                Log.w(LOG_TAG, "Photo " + image.getName() + " was deleted, left out", e);
+            }
+        }
+    }
+
+    /**
+     * Restore a snapshot, replacing the database and every photo. All entries are checked
+     * against the manifest and the database is checked by SQLite before anything is replaced.
+     * @param listener gets the progress, may be null
+     * @throws IOException if the snapshot is damaged or could not be restored, the current
+     *          database and photos are left as they were
+     */
+    public void restoreSnapshot(File snapshot, ProgressListener listener) throws IOException {
+        synchronized (sLock){
+            File stagedDatabase = new File(mDBHelper.getDatabaseFile().getPath() + ".restore");
+            File stagedImages = mImageStore.newRestoreDirectory();
+            try {
+                ZipFile zip = new ZipFile(snapshot);
+                try {
+                    Map<String, String[]> entries = readManifest(zip);
+                    long total = 0;
+                    for(String[] entry : entries.values()){
+                        total += Long.parseLong(entry[1]);
+                    }
+                    Progress progress = new Progress(listener, total);
+                    for(Map.Entry<String, String[]> entry : entries.entrySet()){
+                        String name = entry.getKey();
+                        File target = name.equals(DATABASE_ENTRY) ? stagedDatabase
+                                : new File(stagedImages,
+                                        name.substring(IMAGE_ENTRY_PREFIX.length()));
+                        extractEntry(zip, name, entry.getValue(), target, progress);
+                    }
+                } finally {
+                    zip.close();
+                }
+                checkDatabase(stagedDatabase);
+
+                //Swap the photos first, they can be put back if the database can't be swapped
+                File previousImages = mImageStore.replaceDirectory(stagedImages);
+                try {
+                    mDBHelper.replaceDatabase(stagedDatabase);
+                } catch (IOException e) {
+                    mImageStore.undoReplaceDirectory(previousImages);
+                    throw e;
+                }
+                ImageStore.deleteDirectory(previousImages);
+            } finally {
+                InventoryDBHelper.deleteDatabaseFiles(stagedDatabase);
+                ImageStore.deleteDirectory(stagedImages);
+            }
+        }
+
+        //Every item may have changed
+        mContext.getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+    }
+
+    /**
+     * Read and check the manifest of a snapshot
+     * @return entry names mapped to {sha256, size}, in the order they were written
+     * @throws IOException if the manifest is missing or broken, or the snapshot is from a
+     *          newer version of the app
+     */
+    private static Map<String, String[]> readManifest(ZipFile zip) throws IOException {
+        ZipEntry manifestEntry = zip.getEntry(MANIFEST_ENTRY);
+        if(manifestEntry == null){
+            throw new IOException("Snapshot has no manifest");
+        }
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(zip.getInputStream(manifestEntry), "UTF-8"));
+        try {
+            if(!MANIFEST_HEADER.equals(reader.readLine())){
+                throw new IOException("Not a snapshot");
+            }
+            String versionLine = reader.readLine();
+            if(versionLine == null || !versionLine.startsWith(MANIFEST_VERSION)){
+                throw new IOException("Snapshot has no database version");
+            }
+            int version = Integer.parseInt(versionLine.substring(MANIFEST_VERSION.length()));
+            if(version > InventoryDBHelper.DATABASE_VERSION){
+                throw new IOException("Snapshot is from a newer version of the app");
+            }
+
+            Map<String, String[]> entries = new LinkedHashMap<>();
+            String line;
+            while((line = reader.readLine()) != null){
+                //<sha256> <size> <name>
+                String[] parts = line.split(" ", 3);
+                if(parts.length != 3 || !isValidEntryName(parts[2])){
+                    throw new IOException("Bad manifest line " + line);
+                }
+                Long.parseLong(parts[1]);
+                entries.put(parts[2], new String[] { parts[0], parts[1] });
+            }
+            if(!entries.containsKey(DATABASE_ENTRY)){
+                throw new IOException("Snapshot has no database");
+            }
+            return entries;
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad manifest", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return true for the database entry and for image entries that stay inside the
+     *          images directory
+     */
+    private static boolean isValidEntryName(String name){
+        if(name.equals(DATABASE_ENTRY)){
+            return true;
+        }
+        if(!name.startsWith(IMAGE_ENTRY_PREFIX)){
+            return false;
+        }
+        String imageName = name.substring(IMAGE_ENTRY_PREFIX.length());
+        return !imageName.isEmpty() && imageName.indexOf('/') == -1
+                && imageName.indexOf('\\') == -1 && !imageName.startsWith(".");
+    }
+
+    /**
+     * Open the restored database and let SQLite check it
+     * @throws IOException if SQLite finds it damaged or it is from a newer version of the app
+     */
+    private static void checkDatabase(File databaseFile) throws IOException {
+        SQLiteDatabase db;
+        try {
+            db = SQLiteDatabase.openDatabase(databaseFile.getPath(), null,
+                    SQLiteDatabase.OPEN_READWRITE);
+        } catch (RuntimeException e) {
+            throw new IOException("Snapshot database can't be opened", e);
+        }
+        try {
+            if(db.getVersion() > InventoryDBHelper.DATABASE_VERSION){
+                throw new IOException("Snapshot is from a newer version of the app");
+            }
+            String result = queryPragma(db, "PRAGMA quick_check");
+            if(!"ok".equalsIgnoreCase(result)){
+                throw new IOException("Snapshot database is damaged: " + result);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Snapshot database can't be read", e);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Move every frame of the WAL into the database file
+     * @throws IOException if a reader kept part of the WAL from being checkpointed
+     */
+    private static void checkpoint(SQLiteDatabase db) throws IOException {
+        //Returns busy, frames in the WAL and frames checkpointed
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(FULL)", null);
+        try {
+            if(cursor.moveToFirst() && (cursor.getInt(0) != 0
+                    || cursor.getInt(1) != cursor.getInt(2))){
+                throw new IOException("Database is busy, the WAL could not be checkpointed");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Run a pragma on the writer connection. Pragmas return rows, so they go through rawQuery
+     * @return the first column of the first row, or null
+     */
+    private static String queryPragma(SQLiteDatabase db, String sql){
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Copy a file into a new zip entry and add its checksum to the manifest
+     */
+    private static void addEntry(ZipOutputStream zip, String name, File file,
+                                 StringBuilder manifest, Progress progress) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setTime(file.lastModified());
+            zip.putNextEntry(entry);
+            MessageDigest digest = newDigest();
+            long size = copy(in, zip, digest, progress);
+            zip.closeEntry();
+            manifest.append(toHex(digest.digest())).append(' ').append(size).append(' ')
+                    .append(name).append('\n');
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Extract a zip entry into a file and check it against the manifest
+     * @param expected {sha256, size} from the manifest
+     * @throws IOException if the entry is missing or doesn't match
+     */
+    private static void extractEntry(ZipFile zip, String name, String[] expected, File target,
+                                     Progress progress) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        if(entry == null){
+            throw new IOException("Snapshot is missing " + name);
+        }
+        MessageDigest digest = newDigest();
+        long size;
+        InputStream in = zip.getInputStream(entry);
+        try {
+            FileOutputStream out = new FileOutputStream(target);
+            try {
+                size = copy(in, out, digest, progress);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if(size != Long.parseLong(expected[1])
+                || !toHex(digest.digest()).equalsIgnoreCase(expected[0])){
+            throw new IOException("Checksum of " + name + " doesn't match");
+        }
+    }
+
+    /**
+     * Copy a stream, adding every byte to a digest
+     * @return number of bytes copied
+     */
+    private static long copy(InputStream in, OutputStream out, MessageDigest digest,
+                             Progress progress) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long copied = 0;
+        int read;
+        while((read = in.read(buffer)) != -1){
+            digest.update(buffer, 0, read);
+            out.write(buffer, 0, read);
+            copied += read;
+            progress.add(read);
+        }
+        return copied;
+    }
+
+    /**
+     * Delete all but the KEEP_SNAPSHOTS newest snapshots
+     */
+    private void deleteOldSnapshots() throws IOException {
+        File[] snapshots = listSnapshots();
+        for(int i = KEEP_SNAPSHOTS; i < snapshots.length; i++){
+            snapshots[i].delete();
+        }
+    }
+
+    private static long totalLength(File[] files){
+        long total = 0;
+        for(File file : files){
+            total += file.length();
+        }
+        return total;
+    }
+
+    private static MessageDigest newDigest(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //Every Android version has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes){
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes){
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Counts copied bytes and tells the listener every PROGRESS_STEP bytes
+     */
+    private static class Progress {
+        private final ProgressListener mListener;
+        private final long mTotal;
+        private long mDone;
+        private long mNextReport;
+
+        Progress(ProgressListener listener, long total){
+            mListener = listener;
+            mTotal = total;
+        }
+
+        void add(long bytes){
+            mDone += bytes;
+            if(mListener != null && mDone >= mNextReport){
+                mNextReport = mDone + PROGRESS_STEP;
+                mListener.onProgress(mDone, Math.max(mDone, mTotal));
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.AdjustmentEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *  - The TapJournal keeps quantity taps in a small memory mapped file until they are in the
+ *      provider's journal. Adding a tap is a few stores into mapped memory, no system call,
+ *      so it is cheap enough for the main thread and StrictMode sees no disk access. The
+ *      kernel owns the mapped pages and writes them to the file even when the process is
+ *      killed, only a power loss before it does can lose taps.
+ *
+ *  - Taps are kept in a ring of CAPACITY records. Every tap gets the next sequence number,
+ *      the header holds the sequence of the oldest tap that isn't in the provider's journal
+ *      yet and of the next tap. A tap is journaled with an _ID made from its sequence, so a
+ *      tap written again after a crash is ignored by the provider.
+ *      Not thread safe, callers synchronize.
+ */
+
+final class TapJournal {
+
+    //File inside the app files dir
+    private static final String FILE_NAME = "tap_journal";
+
+    //First int of the file, a file without it is started over
+    private static final int MAGIC = 0x54415031;
+
+    //Taps the ring holds. The provider's journal is written a few times a second, a full
+    //ring means the write queue is stuck and later taps are only kept in memory
+    private static final int CAPACITY = 1024;
+
+    //Header: magic int, padding, head long, tail long
+    private static final int HEAD_OFFSET = 8;
+    private static final int TAIL_OFFSET = 16;
+    private static final int HEADER_SIZE = 32;
+
+    //Record: sequence long, item _ID long, delta int, padding. The sequence is written last,
+    //a record whose sequence doesn't match its slot was never finished
+    private static final int RECORD_SIZE = 24;
+    private static final int ITEM_OFFSET = 8;
+    private static final int DELTA_OFFSET = 16;
+
+    private final MappedByteBuffer mBuffer;
+
+    private TapJournal(MappedByteBuffer buffer){
+        mBuffer = buffer;
+    }
+
+    /**
+     * Map the journal file, creating it if needed. Reads and writes the file, call it off the
+     * main thread.
+     */
+    static TapJournal open(Context context) throws IOException {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        MappedByteBuffer buffer;
+        try {
+            //The mapping stays valid after the file is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + CAPACITY * RECORD_SIZE);
+        } finally {
+            raf.close();
+        }
+        //Page the whole file in now, so appends on the main thread never wait for the disk
+        buffer.load();
+
+        TapJournal journal = new TapJournal(buffer);
+        long head = journal.getHead();
+        long tail = journal.getTail();
+        if(buffer.getInt(0) != MAGIC || head < 0 || tail < head || tail - head > CAPACITY){
+            buffer.putLong(HEAD_OFFSET, 0);
+            buffer.putLong(TAIL_OFFSET, 0);
+            buffer.putInt(0, MAGIC);
+        }
+        return journal;
+    }
+
+    /**
+     * Add a tap
+     * @return the provider journal _ID of the tap, or null if the ring is full
+     */
+    Long append(long itemId, int delta){
+        long tail = getTail();
+        if(tail - getHead() >= CAPACITY){
+            return null;
+        }
+        int record = getRecordOffset(tail);
+        mBuffer.putLong(record + ITEM_OFFSET, itemId);
+        mBuffer.putInt(record + DELTA_OFFSET, delta);
+        mBuffer.putLong(record, tail);
+        mBuffer.putLong(TAIL_OFFSET, tail + 1);
+        return toJournalId(tail);
+    }
+
+    /**
+     * @return every tap that isn't in the provider's journal yet, as values for its bulkInsert
+     */
+    ContentValues[] readPending(){
+        long head = getHead();
+        long tail = getTail();
+        ContentValues[] taps = new ContentValues[(int) (tail - head)];
+        int count = 0;
+        for(long sequence = head; sequence < tail; sequence++){
+            int record = getRecordOffset(sequence);
+            if(mBuffer.getLong(record) != sequence){
+                continue;
+            }
+            ContentValues values = new ContentValues();
+            values.put(AdjustmentEntry._ID, toJournalId(sequence));
+            values.put(AdjustmentEntry.COLUMN_ITEM_ID, mBuffer.getLong(record + ITEM_OFFSET));
+            values.put(AdjustmentEntry.COLUMN_DELTA, mBuffer.getInt(record + DELTA_OFFSET));
+            taps[count++] = values;
+        }
+        ContentValues[] read = new ContentValues[count];
+        System.arraycopy(taps, 0, read, 0, count);
+        return read;
+    }
+
+    /**
+     * Drop taps up to and including a journal _ID returned by append, once the provider's
+     * journal has committed them
+     */
+    void remove(long journalId){
+        long head = toSequence(journalId) + 1;
+        if(head > getHead() && head <= getTail()){
+            mBuffer.putLong(HEAD_OFFSET, head);
+        }
+    }
+
+    /**
+     * Drop every tap, once all of them are in the provider's journal
+     */
+    void removeAll(){
+        mBuffer.putLong(HEAD_OFFSET, getTail());
+    }
+
+    private long getHead(){
+        return mBuffer.getLong(HEAD_OFFSET);
+    }
+
+    private long getTail(){
+        return mBuffer.getLong(TAIL_OFFSET);
+    }
+
+    private static int getRecordOffset(long sequence){
+        return HEADER_SIZE + (int) (sequence % CAPACITY) * RECORD_SIZE;
+    }
+
+    //Journal _IDs of taps count down from -2. SQLite gives a row inserted without an _ID one
+    //more than the largest _ID in the table, so it never takes the _ID of a later tap. -1 is
+    //left out, it is what an insert returns for a row it skipped
+    private static long toJournalId(long sequence){
+        return -2 - sequence;
+    }
+
+    private static long toSequence(long journalId){
+        return -2 - journalId;
+    }
+}
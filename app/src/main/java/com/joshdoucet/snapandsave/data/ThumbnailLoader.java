@@ -0,0 +1,148 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.widget.ImageView;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ *  - The ThumbnailLoader decodes item thumbnails off the main thread and keeps them in a
+ *      memory bounded LruCache so the inventory list can scroll without decoding on every bind.
+ *      Thumbnails are cached by file name. A new photo gets a new thumbnail file, so stale
+ *      entries are never served and simply age out of the cache.
+ */
+
+public class ThumbnailLoader {
+
+    //Part of the app's memory class the cache may use, 1/8th leaves plenty for everything else
+    private static final int CACHE_MEMORY_DIVISOR = 8;
+
+    //Thumbnails are small, two threads keep up with fast scrolling
+    private static final int DECODE_THREADS = 2;
+
+    private static ThumbnailLoader sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final LruCache<String, Bitmap> mCache;
+    private final ExecutorService mDecodeExecutor = Executors.newFixedThreadPool(DECODE_THREADS);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * One loader is shared by the whole app so the cache survives activity restarts
+     */
+    public static synchronized ThumbnailLoader getInstance(Context context){
+        if(sInstance == null){
+            sInstance = new ThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ThumbnailLoader(Context context){
+        mContentResolver = context.getContentResolver();
+
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int cacheBytes = activityManager.getMemoryClass() * 1024 * 1024 / CACHE_MEMORY_DIVISOR;
+        mCache = new LruCache<String, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail of an item in an ImageView. Cached thumbnails are shown right away,
+     * others are decoded in the background and shown if the view still displays the same item.
+     * Must be called on the main thread.
+     * @param imageView view that displays the thumbnail, it may be recycled
+     * @param itemId _ID of the item
+     * @param thumbnailName value of COLUMN_THUMBNAIL_FILE, null if the item has no photo
+     */
+    public void loadThumbnail(ImageView imageView, long itemId, String thumbnailName){
+        //Remember which thumbnail the view should show, recycled views get a new tag
+        imageView.setTag(thumbnailName);
+
+        if(thumbnailName == null){
+            imageView.setImageDrawable(null);
+            return;
+        }
+
+        Bitmap cached = mCache.get(thumbnailName);
+        if(cached != null){
+            imageView.setImageBitmap(cached);
+            return;
+        }
+
+        imageView.setImageDrawable(null);
+        mDecodeExecutor.execute(new DecodeTask(imageView, itemId, thumbnailName));
+    }
+
+    /**
+     * Decode a thumbnail streamed from the InventoryProvider
+     * @return the thumbnail or null if it could not be read
+     */
+    private Bitmap decodeThumbnail(long itemId){
+        InputStream in = null;
+        try {
+            in = mContentResolver.openInputStream(ItemEntry.buildThumbnailUri(itemId));
+            return BitmapFactory.decodeStream(in);
+        } catch (FileNotFoundException e) {
+            return null;
+        } finally {
+            if(in != null){
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    //Nothing left to clean up
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes one thumbnail on the decode executor, then hands it to the main thread
+     */
+    private class DecodeTask implements Runnable {
+        private final ImageView mImageView;
+        private final long mItemId;
+        private final String mThumbnailName;
+
+        DecodeTask(ImageView imageView, long itemId, String thumbnailName){
+            mImageView = imageView;
+            mItemId = itemId;
+            mThumbnailName = thumbnailName;
+        }
+
+        @Override
+        public void run() {
+            final Bitmap thumbnail = decodeThumbnail(mItemId);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(thumbnail == null){
+                        return;
+                    }
+                    mCache.put(mThumbnailName, thumbnail);
+                    //Only show the thumbnail if the view wasn't recycled for another item
+                    if(mThumbnailName.equals(mImageView.getTag())){
+                        mImageView.setImageBitmap(thumbnail);
+                    }
+                }
+            });
+        }
+    }
+}
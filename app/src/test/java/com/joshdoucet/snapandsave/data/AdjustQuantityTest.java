@@ -0,0 +1,215 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Quantity adjustments are a single bounded UPDATE, concurrent ones must never overwrite each
+ * other and none may take a quantity out of bounds.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AdjustQuantityTest {
+
+    private static final long ITEM_ID = 2;
+    private static final int THREADS = 8;
+    private static final int DECREMENTS_PER_THREAD = 50;
+
+    //Batches run against direct adjusts this many times
+    private static final int BATCH_ROUNDS = 300;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        InventoryDBHelper.resetInstance();
+        Robolectric.setupContentProvider(InventoryProvider.class,
+                InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        InventoryDBHelper.resetInstance();
+    }
+
+    @Test
+    public void concurrentDecrementsAreNotLost() throws Exception {
+        int start = 1000;
+        setQuantity(start);
+
+        List<Integer> results = decrementConcurrently(THREADS * DECREMENTS_PER_THREAD);
+
+        assertEquals(start - THREADS * DECREMENTS_PER_THREAD, getQuantity());
+        //Every decrement saw a quantity no other one saw
+        assertEquals(THREADS * DECREMENTS_PER_THREAD, new HashSet<>(results).size());
+    }
+
+    @Test
+    public void batchAdjustsAndDirectAdjustsDontDeadlock() throws Exception {
+        int start = 1000;
+        setQuantity(start);
+
+        //A batch holds the database when its adjust runs, a direct adjust takes it itself
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<Void> batches = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                startSignal.await();
+                for (int i = 0; i < BATCH_ROUNDS; i++) {
+                    ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+                    operations.add(ContentProviderOperation
+                            .newUpdate(ContentUris.withAppendedId(ItemEntry.CONTENT_URI,
+                                    ITEM_ID))
+                            .withValue(ItemEntry.COLUMN_NAME, "Batch " + i)
+                            .build());
+                    operations.add(ContentProviderOperation
+                            .newUpdate(ItemEntry.buildAdjustUri(ITEM_ID))
+                            .withValue(ItemEntry.COLUMN_QUANTITY_DELTA, 1)
+                            .build());
+                    mResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, operations);
+                }
+                return null;
+            }
+        });
+        Future<Void> adjusts = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                startSignal.await();
+                for (int i = 0; i < BATCH_ROUNDS; i++) {
+                    assertTrue(adjust(-1) != ItemEntry.ADJUST_FAILED);
+                }
+                return null;
+            }
+        });
+        startSignal.countDown();
+
+        //A deadlock times out instead of hanging the run
+        try {
+            batches.get(60, TimeUnit.SECONDS);
+            adjusts.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(start, getQuantity());
+    }
+
+    @Test
+    public void decrementsStopAtZero() throws Exception {
+        int start = 100;
+        setQuantity(start);
+
+        List<Integer> results = decrementConcurrently(THREADS * DECREMENTS_PER_THREAD);
+
+        int failed = 0;
+        for (int result : results) {
+            if (result == ItemEntry.ADJUST_FAILED) {
+                failed++;
+            } else {
+                assertTrue(result >= 0);
+            }
+        }
+        assertEquals(0, getQuantity());
+        assertEquals(THREADS * DECREMENTS_PER_THREAD - start, failed);
+        assertEquals(ItemEntry.ADJUST_FAILED, adjust(-1));
+    }
+
+    @Test
+    public void incrementStopsBelowMaxQuantity() {
+        setQuantity(ItemEntry.MAX_QUANTITY - 2);
+        assertEquals(ItemEntry.MAX_QUANTITY - 1, adjust(1));
+        assertEquals(ItemEntry.ADJUST_FAILED, adjust(1));
+        assertEquals(ItemEntry.MAX_QUANTITY - 1, getQuantity());
+    }
+
+    @Test
+    public void missingItemFails() {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_QUANTITY_DELTA, -1);
+        assertEquals(ItemEntry.ADJUST_FAILED,
+                mResolver.update(ItemEntry.buildAdjustUri(99), values, null, null));
+    }
+
+    /**
+     * Decrement the item by 1 the given number of times, spread over THREADS threads that all
+     * start at once
+     * @return the result of every decrement
+     */
+    private List<Integer> decrementConcurrently(int decrements) throws Exception {
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final int perThread = decrements / THREADS;
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<Integer>>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(new Callable<List<Integer>>() {
+                @Override
+                public List<Integer> call() throws Exception {
+                    startSignal.await();
+                    List<Integer> results = new ArrayList<>();
+                    for (int j = 0; j < perThread; j++) {
+                        results.add(adjust(-1));
+                    }
+                    return results;
+                }
+            }));
+        }
+        startSignal.countDown();
+
+        List<Integer> results = new ArrayList<>();
+        for (Future<List<Integer>> future : futures) {
+            results.addAll(future.get(60, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        return results;
+    }
+
+    private int adjust(int delta) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_QUANTITY_DELTA, delta);
+        return mResolver.update(ItemEntry.buildAdjustUri(ITEM_ID), values, null, null);
+    }
+
+    private void setQuantity(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_QUANTITY, quantity);
+        assertEquals(1, mResolver.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI,
+                ITEM_ID), values, null, null));
+    }
+
+    private int getQuantity() {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ItemEntry.CONTENT_URI,
+                ITEM_ID), new String[] { ItemEntry.COLUMN_QUANTITY }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
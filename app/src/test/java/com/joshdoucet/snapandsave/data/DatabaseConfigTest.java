@@ -0,0 +1,69 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The connection settings the app chooses are applied to the shared helper's database
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DatabaseConfigTest {
+
+    @Before
+    public void setUp() {
+        InventoryDBHelper.resetInstance();
+    }
+
+    @After
+    public void tearDown() {
+        InventoryDBHelper.resetInstance();
+        InventoryDBHelper.setConfig(DatabaseConfig.DEFAULT);
+    }
+
+    @Test
+    public void sharedHelperUsesChosenConfig() {
+        InventoryDBHelper.setConfig(new DatabaseConfig(true, DatabaseConfig.SYNCHRONOUS_FULL,
+                8192, 1024, 0));
+        SQLiteDatabase db = InventoryDBHelper.getInstance(RuntimeEnvironment.application)
+                .getWritableDatabase();
+
+        assertEquals("wal", pragma(db, "journal_mode").toLowerCase());
+        assertEquals("2", pragma(db, "synchronous"));
+        assertEquals("-1024", pragma(db, "cache_size"));
+        assertEquals("8192", pragma(db, "page_size"));
+    }
+
+    @Test
+    public void defaultConfigUsesWal() {
+        SQLiteDatabase db = InventoryDBHelper.getInstance(RuntimeEnvironment.application)
+                .getWritableDatabase();
+
+        assertEquals("wal", pragma(db, "journal_mode").toLowerCase());
+        assertEquals("1", pragma(db, "synchronous"));
+        assertEquals("-" + DatabaseConfig.DEFAULT.getCacheSizeKib(), pragma(db, "cache_size"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void configCannotChangeOnceOpen() {
+        InventoryDBHelper.getInstance(RuntimeEnvironment.application);
+        InventoryDBHelper.setConfig(DatabaseConfig.LOW_MEMORY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPageSizeIsRefused() {
+        new DatabaseConfig(true, DatabaseConfig.SYNCHRONOUS_NORMAL, 3000, 1024, 0);
+    }
+
+    private static String pragma(SQLiteDatabase db, String name) {
+        return DatabaseUtils.stringForQuery(db, "PRAGMA " + name, null);
+    }
+}
@@ -0,0 +1,238 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.MovementEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The stock movement ledger, its compaction into snapshots and the as of queries read from
+ * both. The database starts with the three sample items, quantities 3, 12 and 1.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryLedgerTest {
+
+    private static final long[] ITEM_IDS = { 1, 2, 3 };
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        InventoryDBHelper.resetInstance();
+        Robolectric.setupContentProvider(InventoryProvider.class,
+                InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        InventoryDBHelper.resetInstance();
+    }
+
+    @Test
+    public void asOfMatchesQuantitiesAtEveryCheckpoint() throws Exception {
+        List<Long> times = new ArrayList<>();
+        List<Map<Long, Integer>> quantities = new ArrayList<>();
+        checkpoint(times, quantities);
+
+        //Enough movements for two compactions, with checkpoints before, between and after
+        for (int round = 0; round < 6; round++) {
+            for (int i = 0; i < 200; i++) {
+                long id = ITEM_IDS[i % ITEM_IDS.length];
+                adjust(id, i % 4 == 3 ? -1 : 1, MovementEntry.REASON_RECEIVED);
+            }
+            if (round == 2 || round == 5) {
+                assertTrue(compact() > 0);
+            }
+            checkpoint(times, quantities);
+        }
+
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals("all items at checkpoint " + i, quantities.get(i),
+                    queryQuantities(ItemEntry.buildAsOfUri(times.get(i))));
+            for (long id : ITEM_IDS) {
+                assertEquals("item " + id + " at checkpoint " + i, quantities.get(i).get(id),
+                        queryQuantities(ItemEntry.buildAsOfUri(id, times.get(i))).get(id));
+            }
+        }
+        //Before its opening movement an item was not in stock
+        assertEquals(Integer.valueOf(0),
+                queryQuantities(ItemEntry.buildAsOfUri(1, firstMovementTime(1) - 1)).get(1L));
+    }
+
+    @Test
+    public void compactionWaitsForEnoughMovements() {
+        assertEquals(0, compact());
+        for (int i = 0; i < 500; i++) {
+            adjust(2, i % 2 == 0 ? 1 : -1, MovementEntry.REASON_CORRECTION);
+        }
+        //500 movements after the 3 opening ones, only item 2 moved since
+        assertEquals(3, compact());
+        assertEquals(0, compact());
+        for (int i = 0; i < 500; i++) {
+            adjust(1, 1, MovementEntry.REASON_RECEIVED);
+        }
+        assertEquals(1, compact());
+
+        //The snapshots add up the same as the whole ledger
+        Map<Long, Integer> now = queryQuantities(ItemEntry.buildAsOfUri(Long.MAX_VALUE));
+        assertEquals(Integer.valueOf(503), now.get(1L));
+        assertEquals(Integer.valueOf(12), now.get(2L));
+        assertEquals(Integer.valueOf(1), now.get(3L));
+        assertEquals(sumLedger(1), 503);
+    }
+
+    @Test
+    public void deletedItemIsInStockUntilItWasDeleted() throws Exception {
+        long beforeDelete = lastMovementTime();
+        Thread.sleep(5);
+        assertEquals(1, mResolver.delete(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 3),
+                null, null));
+
+        assertEquals(Integer.valueOf(1),
+                queryQuantities(ItemEntry.buildAsOfUri(3, beforeDelete)).get(3L));
+        assertEquals(Integer.valueOf(0),
+                queryQuantities(ItemEntry.buildAsOfUri(3, lastMovementTime())).get(3L));
+        //Only items that still exist are listed for a time
+        assertFalse(queryQuantities(ItemEntry.buildAsOfUri(beforeDelete)).containsKey(3L));
+
+        Cursor cursor = mResolver.query(ItemEntry.buildAsOfUri(3, beforeDelete), null,
+                null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertNull(cursor.getString(cursor.getColumnIndexOrThrow(ItemEntry.COLUMN_NAME)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void updateBooksCorrectionWithoutChangingCallerValues() {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_QUANTITY, 7);
+
+        assertEquals(1, mResolver.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 2),
+                values, null, null));
+        assertEquals(1, values.size());
+
+        Cursor cursor = mResolver.query(ItemEntry.buildMovementsUri(2),
+                new String[] { MovementEntry.COLUMN_DELTA, MovementEntry.COLUMN_REASON },
+                null, null, null);
+        try {
+            assertTrue(cursor.moveToLast());
+            assertEquals(-5, cursor.getInt(0));
+            assertEquals(MovementEntry.REASON_CORRECTION, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Remember the current quantities and the time of the last movement, then wait so the
+     * next movement gets a later time
+     */
+    private void checkpoint(List<Long> times, List<Map<Long, Integer>> quantities)
+            throws InterruptedException {
+        times.add(lastMovementTime());
+        Map<Long, Integer> current = new HashMap<>();
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI,
+                new String[] { ItemEntry._ID, ItemEntry.COLUMN_QUANTITY }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                current.put(cursor.getLong(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        quantities.add(current);
+        Thread.sleep(5);
+    }
+
+    private void adjust(long id, int delta, int reason) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_QUANTITY_DELTA, delta);
+        values.put(ItemEntry.COLUMN_MOVEMENT_REASON, reason);
+        assertTrue(mResolver.update(ItemEntry.buildAdjustUri(id), values, null, null)
+                != ItemEntry.ADJUST_FAILED);
+    }
+
+    private int compact() {
+        return mResolver.update(MovementEntry.COMPACT_URI, new ContentValues(), null, null);
+    }
+
+    private long lastMovementTime() {
+        Cursor cursor = mResolver.query(MovementEntry.CONTENT_URI,
+                new String[] { MovementEntry.COLUMN_TIMESTAMP }, null, null,
+                MovementEntry._ID + " DESC");
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long firstMovementTime(long id) {
+        Cursor cursor = mResolver.query(ItemEntry.buildMovementsUri(id),
+                new String[] { MovementEntry.COLUMN_TIMESTAMP }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int sumLedger(long id) {
+        Cursor cursor = mResolver.query(ItemEntry.buildMovementsUri(id),
+                new String[] { MovementEntry.COLUMN_DELTA }, null, null, null);
+        try {
+            int sum = 0;
+            while (cursor.moveToNext()) {
+                sum += cursor.getInt(0);
+            }
+            return sum;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return quantity by item _ID of the rows of an as of URI
+     */
+    private Map<Long, Integer> queryQuantities(Uri uri) {
+        Map<Long, Integer> quantities = new HashMap<>();
+        Cursor cursor = mResolver.query(uri,
+                new String[] { ItemEntry._ID, ItemEntry.COLUMN_QUANTITY }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                quantities.put(cursor.getLong(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return quantities;
+    }
+}
@@ -0,0 +1,248 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Photo files written by applyBatch must follow its transaction. The database starts with the
+ * three sample items, each with a photo and a thumbnail.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InventoryProviderPhotoTest {
+
+    private ContentResolver mResolver;
+    private ImageStore mImageStore;
+    private byte[] mPhoto;
+
+    @Before
+    public void setUp() throws Exception {
+        InventoryDBHelper.resetInstance();
+        Robolectric.setupContentProvider(InventoryProvider.class,
+                InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mImageStore = new ImageStore(RuntimeEnvironment.application);
+        mPhoto = mImageStore.readImage(getImageFile(1));
+    }
+
+    @After
+    public void tearDown() {
+        InventoryDBHelper.resetInstance();
+    }
+
+    @Test
+    public void failedBatchLeavesImageDirectoryUnchanged() {
+        Set<String> before = listImages();
+        String firstPhoto = getImageFile(1);
+
+        ArrayList<ContentProviderOperation> operations = photoOperations();
+        //No item 99 exists, the batch fails after the photo was replaced and an item deleted
+        operations.add(ContentProviderOperation
+                .newUpdate(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 99))
+                .withValue(ItemEntry.COLUMN_NAME, "Missing")
+                .withExpectedCount(1)
+                .build());
+        try {
+            mResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, operations);
+            fail("The batch should have failed");
+        } catch (OperationApplicationException e) {
+            //expected
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+
+        assertEquals(before, listImages());
+        assertEquals(firstPhoto, getImageFile(1));
+        assertNotNull(getImageFile(2));
+        assertEquals(3, countItems());
+    }
+
+    @Test
+    public void rejectedAdjustFailsWholeBatch() {
+        ArrayList<ContentProviderOperation> operations = photoOperations();
+        operations.add(ContentProviderOperation
+                .newUpdate(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 3))
+                .withValue(ItemEntry.COLUMN_NAME, "ChangedName")
+                .build());
+        //Far below 0, the adjust is rejected in its own nested transaction
+        operations.add(ContentProviderOperation
+                .newUpdate(ItemEntry.buildAdjustUri(3))
+                .withValue(ItemEntry.COLUMN_QUANTITY_DELTA, -100000)
+                .build());
+        assertBatchRolledBack(operations);
+    }
+
+    @Test
+    public void invalidUpdateFailsWholeBatch() {
+        ArrayList<ContentProviderOperation> operations = photoOperations();
+        operations.add(ContentProviderOperation
+                .newUpdate(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 3))
+                .withValue(ItemEntry.COLUMN_NAME, "ChangedName")
+                .build());
+        operations.add(ContentProviderOperation
+                .newUpdate(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 3))
+                .withValue(ItemEntry.COLUMN_QUANTITY, -5)
+                .build());
+        assertBatchRolledBack(operations);
+    }
+
+    @Test
+    public void committedBatchDeletesReplacedPhotos() throws Exception {
+        Set<String> before = listImages();
+
+        mResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, photoOperations());
+
+        //Every file left is used by a row and no row points at a missing file
+        Set<String> used = listUsedImages();
+        assertEquals(used, listImages());
+        assertEquals(3, countItems());
+        assertFalse(before.containsAll(used));
+        assertTrue(used.containsAll(listUsedImages(3)));
+    }
+
+    @Test
+    public void deleteAllInBatchKeepsPhotosStoredAfterIt() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newDelete(ItemEntry.CONTENT_URI).build());
+        operations.add(newItemOperation("Stored after the delete"));
+
+        mResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, operations);
+
+        assertEquals(1, countItems());
+        assertEquals(2, listImages().size());
+        assertEquals(listUsedImages(), listImages());
+    }
+
+    /**
+     * Apply a batch that must be rejected, then check that none of it was written: no row
+     * changed and every photo file is still there and used
+     */
+    private void assertBatchRolledBack(ArrayList<ContentProviderOperation> operations) {
+        Set<String> before = listImages();
+        String firstPhoto = getImageFile(1);
+        String thirdName = getName(3);
+        try {
+            mResolver.applyBatch(InventoryContract.CONTENT_AUTHORITY, operations);
+            fail("The batch should have failed");
+        } catch (OperationApplicationException e) {
+            //expected
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+
+        assertEquals(thirdName, getName(3));
+        assertEquals(firstPhoto, getImageFile(1));
+        assertNotNull(getImageFile(2));
+        assertEquals(3, countItems());
+        assertEquals(before, listImages());
+        assertEquals(listUsedImages(), listImages());
+    }
+
+    /**
+     * Replace the photo of item 1, delete item 2 and insert an item with a photo
+     */
+    private ArrayList<ContentProviderOperation> photoOperations() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation
+                .newUpdate(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 1))
+                .withValue(ItemEntry.COLUMN_IMAGE, mPhoto)
+                .build());
+        operations.add(ContentProviderOperation
+                .newDelete(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 2))
+                .build());
+        operations.add(newItemOperation("New item"));
+        return operations;
+    }
+
+    private ContentProviderOperation newItemOperation(String name) {
+        return ContentProviderOperation.newInsert(ItemEntry.CONTENT_URI)
+                .withValue(ItemEntry.COLUMN_NAME, name)
+                .withValue(ItemEntry.COLUMN_QUANTITY, 1)
+                .withValue(ItemEntry.COLUMN_IMAGE, mPhoto)
+                .build();
+    }
+
+    private Set<String> listImages() {
+        Set<String> names = new TreeSet<>();
+        for (File file : mImageStore.listImages()) {
+            names.add(file.getName());
+        }
+        return names;
+    }
+
+    /**
+     * @return the photo and thumbnail files of every item, or only of the item with _ID id
+     */
+    private Set<String> listUsedImages(long... id) {
+        Set<String> names = new TreeSet<>();
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI,
+                new String[] { ItemEntry.COLUMN_IMAGE_FILE, ItemEntry.COLUMN_THUMBNAIL_FILE },
+                id.length == 0 ? null : ItemEntry._ID + " = " + id[0], null, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+                names.add(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    /**
+     * @return the photo file name of an item, or null if the item doesn't exist
+     */
+    private String getImageFile(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id),
+                new String[] { ItemEntry.COLUMN_IMAGE_FILE }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String getName(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id),
+                new String[] { ItemEntry.COLUMN_NAME }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countItems() {
+        Cursor cursor = mResolver.query(ItemEntry.CONTENT_URI, new String[] { ItemEntry._ID },
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.AdjustmentEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.LocationEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.StockEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The split of item stock over locations. The database starts with the three sample items,
+ * all of their stock at the default location. A second location is added for every test and
+ * LED Keyboard, item 2 with 12 units at 24.99, is moved around between the two.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LocationStockTest {
+
+    private static final long KEYBOARD_ID = 2;
+    private static final int KEYBOARD_QUANTITY = 12;
+    private static final long KEYBOARD_PRICE_CENTS = 2499;
+
+    private ContentResolver mResolver;
+    private long mVanId;
+
+    @Before
+    public void setUp() {
+        InventoryDBHelper.resetInstance();
+        Robolectric.setupContentProvider(InventoryProvider.class,
+                InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_NAME, "Van");
+        Uri locationUri = mResolver.insert(LocationEntry.CONTENT_URI, location);
+        assertNotNull(locationUri);
+        mVanId = ContentUris.parseId(locationUri);
+    }
+
+    @After
+    public void tearDown() {
+        InventoryDBHelper.resetInstance();
+    }
+
+    @Test
+    public void locationAdjustChangesItemQuantity() {
+        assertEquals(5, adjustAt(mVanId, KEYBOARD_ID, 5));
+        assertEquals(KEYBOARD_QUANTITY + 5, getQuantity(KEYBOARD_ID));
+        assertStock(KEYBOARD_QUANTITY, 5);
+
+        assertEquals(KEYBOARD_QUANTITY - 2,
+                adjustAt(LocationEntry.DEFAULT_LOCATION_ID, KEYBOARD_ID, -2));
+        assertEquals(KEYBOARD_QUANTITY + 3, getQuantity(KEYBOARD_ID));
+        assertStock(KEYBOARD_QUANTITY - 2, 5);
+    }
+
+    @Test
+    public void locationAdjustStopsAtZero() {
+        assertEquals(ItemEntry.ADJUST_FAILED, adjustAt(mVanId, KEYBOARD_ID, -1));
+        //The failed adjust created no stock row at the location
+        assertEquals(1, getStock(KEYBOARD_ID).size());
+
+        adjustAt(mVanId, KEYBOARD_ID, 5);
+        assertEquals(ItemEntry.ADJUST_FAILED, adjustAt(mVanId, KEYBOARD_ID, -6));
+        assertEquals(KEYBOARD_QUANTITY + 5, getQuantity(KEYBOARD_ID));
+        assertStock(KEYBOARD_QUANTITY, 5);
+    }
+
+    @Test
+    public void itemAdjustCantTakeDefaultStockBelowZero() {
+        adjustAt(mVanId, KEYBOARD_ID, 5);
+
+        Uri adjustUri = ItemEntry.buildAdjustUri(KEYBOARD_ID);
+        assertEquals(5, mResolver.update(adjustUri, delta(-KEYBOARD_QUANTITY), null, null));
+        assertStock(0, 5);
+        assertEquals(ItemEntry.ADJUST_FAILED, mResolver.update(adjustUri, delta(-1), null, null));
+        assertEquals(5, getQuantity(KEYBOARD_ID));
+        assertStock(0, 5);
+    }
+
+    @Test
+    public void itemUpdateCantTakeDefaultStockBelowZero() {
+        adjustAt(mVanId, KEYBOARD_ID, 5);
+        Uri itemUri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, KEYBOARD_ID);
+
+        assertEquals(0, mResolver.update(itemUri, quantity(4), null, null));
+        assertEquals(KEYBOARD_QUANTITY + 5, getQuantity(KEYBOARD_ID));
+        assertStock(KEYBOARD_QUANTITY, 5);
+
+        assertEquals(1, mResolver.update(itemUri, quantity(6), null, null));
+        assertStock(1, 5);
+    }
+
+    @Test
+    public void flushStopsAtStockOfOtherLocations() {
+        adjustAt(mVanId, KEYBOARD_ID, 5);
+
+        ContentValues tap = new ContentValues();
+        tap.put(AdjustmentEntry.COLUMN_ITEM_ID, KEYBOARD_ID);
+        tap.put(AdjustmentEntry.COLUMN_DELTA, -1);
+        ContentValues[] taps = new ContentValues[KEYBOARD_QUANTITY + 3];
+        for (int i = 0; i < taps.length; i++) {
+            taps[i] = tap;
+        }
+        assertEquals(taps.length, mResolver.bulkInsert(AdjustmentEntry.CONTENT_URI, taps));
+        assertEquals(1, mResolver.update(AdjustmentEntry.FLUSH_URI, new ContentValues(),
+                null, null));
+
+        assertEquals(5, getQuantity(KEYBOARD_ID));
+        assertStock(0, 5);
+    }
+
+    @Test
+    public void totalsAddUpStockOfEachLocation() {
+        adjustAt(mVanId, KEYBOARD_ID, 5);
+        adjustAt(mVanId, 1, 2);
+
+        Map<Long, long[]> totals = new HashMap<>();
+        Cursor cursor = mResolver.query(LocationEntry.TOTALS_URI, new String[]{
+                LocationEntry._ID, LocationEntry.COLUMN_SKU_COUNT, LocationEntry.COLUMN_UNIT_COUNT,
+                LocationEntry.COLUMN_TOTAL_VALUE_CENTS }, null, null, null);
+        assertNotNull(cursor);
+        try {
+            while (cursor.moveToNext()) {
+                totals.put(cursor.getLong(0), new long[]{ cursor.getLong(1), cursor.getLong(2),
+                        cursor.getLong(3) });
+            }
+        } finally {
+            cursor.close();
+        }
+
+        assertEquals(2, totals.size());
+        //Every sample item, only the keyboard is for sale
+        assertArrayEquals(new long[]{ 3, 3 + KEYBOARD_QUANTITY + 1,
+                        KEYBOARD_QUANTITY * KEYBOARD_PRICE_CENTS },
+                totals.get(LocationEntry.DEFAULT_LOCATION_ID));
+        assertArrayEquals(new long[]{ 2, 5 + 2, 5 * KEYBOARD_PRICE_CENTS },
+                totals.get(mVanId));
+    }
+
+    @Test
+    public void deletedLocationMovesStockToDefault() {
+        adjustAt(mVanId, KEYBOARD_ID, 5);
+        adjustAt(mVanId, 1, 2);
+        //Item 1 has nothing left at the default location, all of it comes from the van
+        mResolver.update(ItemEntry.buildAdjustUri(1), delta(-3), null, null);
+
+        Uri vanUri = ContentUris.withAppendedId(LocationEntry.CONTENT_URI, mVanId);
+        assertEquals(1, mResolver.delete(vanUri, null, null));
+
+        assertEquals(KEYBOARD_QUANTITY + 5, getQuantity(KEYBOARD_ID));
+        Map<Long, Integer> keyboardStock = getStock(KEYBOARD_ID);
+        assertEquals(1, keyboardStock.size());
+        assertEquals(KEYBOARD_QUANTITY + 5,
+                (int) keyboardStock.get(LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals(2, getQuantity(1));
+        assertEquals(2, (int) getStock(1).get(LocationEntry.DEFAULT_LOCATION_ID));
+
+        Uri defaultUri = ContentUris.withAppendedId(LocationEntry.CONTENT_URI,
+                LocationEntry.DEFAULT_LOCATION_ID);
+        assertEquals(0, mResolver.delete(defaultUri, null, null));
+    }
+
+    /**
+     * Check the keyboard's stock at the default location and the van, and that they add up
+     * to its quantity
+     */
+    private void assertStock(int defaultStock, int vanStock) {
+        Map<Long, Integer> stock = getStock(KEYBOARD_ID);
+        assertEquals(defaultStock, (int) stock.get(LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals(vanStock, (int) stock.get(mVanId));
+        assertEquals(defaultStock + vanStock, getQuantity(KEYBOARD_ID));
+    }
+
+    private int adjustAt(long locationId, long itemId, int delta) {
+        return mResolver.update(LocationEntry.buildAdjustUri(locationId, itemId), delta(delta),
+                null, null);
+    }
+
+    private int getQuantity(long itemId) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, itemId),
+                new String[]{ ItemEntry.COLUMN_QUANTITY }, null, null, null);
+        assertNotNull(cursor);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return stock of an item by location _ID
+     */
+    private Map<Long, Integer> getStock(long itemId) {
+        Map<Long, Integer> stock = new HashMap<>();
+        Cursor cursor = mResolver.query(ItemEntry.buildStockUri(itemId), new String[]{
+                StockEntry.COLUMN_LOCATION_ID, StockEntry.COLUMN_QUANTITY }, null, null, null);
+        assertNotNull(cursor);
+        try {
+            while (cursor.moveToNext()) {
+                stock.put(cursor.getLong(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return stock;
+    }
+
+    private static ContentValues delta(int delta) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_QUANTITY_DELTA, delta);
+        return values;
+    }
+
+    private static ContentValues quantity(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_QUANTITY, quantity);
+        return values;
+    }
+}
@@ -0,0 +1,466 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.LocationEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.MovementEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database of every older version to the current one, the way a device that
+ * skipped releases would. Each old database is built from schemas/v<version>.sql, a dump of
+ * what InventoryDBHelper.onCreate of that version created, and filled with items through the
+ * old columns so the old triggers keep their tables in step. After onUpgrade and every
+ * backfill the schema has to match a freshly created database and the converted rows have
+ * to add up. The time of every schema change and of the backfills is printed. On a large
+ * table no schema change may write rows or take long, see Migration.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class MigrationTest {
+
+    private static final String OLD_DATABASE_NAME = "migration_test.db";
+    private static final String FRESH_DATABASE_NAME = "migration_test_fresh.db";
+
+    //Enough items for several chunks of every backfill
+    private static final int ITEM_COUNT = 1200;
+    //Every PHOTO_INTERVAL-th item has a photo
+    private static final int PHOTO_INTERVAL = 100;
+
+    //Items of the large table, a schema change that reads or writes every row takes well
+    //over MAX_SCHEMA_CHANGE_MS with this many
+    private static final int LARGE_ITEM_COUNT = 50000;
+    private static final long MAX_SCHEMA_CHANGE_MS = 50;
+    //Rows a schema change may write, the pending migrations row and a default location
+    private static final long MAX_SCHEMA_CHANGE_ROWS = 2;
+
+    //Version 1 to 7 prices, 0.14619 meant not for sale and 0 meant free
+    private static final double OLD_PRICE_NOT_FOR_SALE = 0.14619;
+    private static final double OLD_PRICE_FREE = 0.0;
+
+    //Columns an upgraded items table keeps, SQLite can't drop them, and nothing reads them
+    private static final List<String> DEAD_ITEM_COLUMNS = Arrays.asList("image", "price_US_$");
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "from version {0}")
+    public static Collection<Object[]> versions() {
+        List<Object[]> versions = new ArrayList<>();
+        for (int version = 1; version < InventoryDBHelper.DATABASE_VERSION; version++) {
+            versions.add(new Object[]{ version });
+        }
+        return versions;
+    }
+
+    private final int mOldVersion;
+
+    private Context mContext;
+    private ImageStore mImageStore;
+
+    public MigrationTest(int oldVersion) {
+        mOldVersion = oldVersion;
+    }
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mImageStore = new ImageStore(mContext);
+        mImageStore.deleteAllImages();
+        mContext.deleteDatabase(OLD_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(OLD_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        mImageStore.deleteAllImages();
+    }
+
+    @Test
+    public void upgradeMatchesNewDatabase() throws Exception {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(OLD_DATABASE_NAME), null);
+        try {
+            createOldDatabase(db);
+            insertOldItems(db, ITEM_COUNT, true);
+
+            //What SQLiteOpenHelper does when it opens an older file, one version at a time
+            //so every schema change is timed on its own
+            InventoryDBHelper helper = new InventoryDBHelper(mContext, OLD_DATABASE_NAME,
+                    DatabaseConfig.DEFAULT, null);
+            StringBuilder timings = new StringBuilder("Upgrade from version " + mOldVersion
+                    + " with " + ITEM_COUNT + " items, schema changes:");
+            long upgradeStart = System.nanoTime();
+            db.beginTransaction();
+            try {
+                for (int version = mOldVersion + 1;
+                     version <= InventoryDBHelper.DATABASE_VERSION; version++) {
+                    long start = System.nanoTime();
+                    helper.onUpgrade(db, version - 1, version);
+                    timings.append(" v").append(version).append(' ')
+                            .append(millisSince(start)).append(" ms");
+                }
+                db.setVersion(InventoryDBHelper.DATABASE_VERSION);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            timings.append(", onUpgrade ").append(millisSince(upgradeStart)).append(" ms");
+
+            long backfillStart = System.nanoTime();
+            assertTrue(MigrationRunner.runPending(mContext, db));
+            timings.append(", backfills ").append(millisSince(backfillStart)).append(" ms");
+            System.out.println(timings);
+
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, "pending_migrations"));
+            assertEquals("ok", DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null));
+            assertEquals(describeSchema(openFreshDatabase(), false), describeSchema(db, true));
+            checkItems(db);
+            checkDerivedTables(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void schemaChangesDontGrowWithTable() throws Exception {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(OLD_DATABASE_NAME), null);
+        try {
+            createOldDatabase(db);
+            insertOldItems(db, LARGE_ITEM_COUNT, false);
+
+            InventoryDBHelper helper = new InventoryDBHelper(mContext, OLD_DATABASE_NAME,
+                    DatabaseConfig.DEFAULT, null);
+            db.beginTransaction();
+            try {
+                for (int version = mOldVersion + 1;
+                     version <= InventoryDBHelper.DATABASE_VERSION; version++) {
+                    long changes = DatabaseUtils.longForQuery(db, "SELECT total_changes()", null);
+                    long start = System.nanoTime();
+                    helper.onUpgrade(db, version - 1, version);
+                    long millis = millisSince(start);
+                    changes = DatabaseUtils.longForQuery(db, "SELECT total_changes()", null)
+                            - changes;
+
+                    String step = "Schema change to version " + version + " with "
+                            + LARGE_ITEM_COUNT + " items";
+                    assertTrue(step + " wrote " + changes + " rows",
+                            changes <= MAX_SCHEMA_CHANGE_ROWS);
+                    assertTrue(step + " took " + millis + " ms", millis < MAX_SCHEMA_CHANGE_MS);
+                }
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Run the statements of the old version's schema dump
+     */
+    private void createOldDatabase(SQLiteDatabase db) throws IOException {
+        InputStream in = getClass().getClassLoader()
+                .getResourceAsStream("schemas/v" + mOldVersion + ".sql");
+        assertNotNull("No schema dump of version " + mOldVersion, in);
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, Charset.forName("UTF-8")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("--")) {
+                    db.execSQL(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(mOldVersion, db.getVersion());
+    }
+
+    /**
+     * Insert items through whatever columns the old items table has
+     * @param photos false to leave out the photos
+     */
+    private void insertOldItems(SQLiteDatabase db, int count, boolean photos)
+            throws IOException {
+        List<String> columns = getColumns(db, ItemEntry.TABLE_NAME);
+        db.beginTransaction();
+        try {
+            for (int i = 1; i <= count; i++) {
+                ContentValues vals = new ContentValues();
+                vals.put("name", "Item " + i);
+                vals.put("supplier", "Supplier " + (i % 7));
+                vals.put("quantity", expectedQuantity(i));
+                if (columns.contains("price_cents")) {
+                    vals.put("price_cents", expectedPriceCents(i));
+                    vals.put("sale_status", expectedSaleStatus(i));
+                } else {
+                    vals.put("price_US_$", oldPrice(i));
+                }
+                byte[] photo = photos ? expectedPhoto(i) : null;
+                if (photo != null && columns.contains("image_file")) {
+                    vals.put("image_file", mImageStore.saveImage(photo));
+                    if (columns.contains("thumbnail_file")) {
+                        vals.put("thumbnail_file", mImageStore.saveThumbnail(photo));
+                    }
+                } else if (photo != null) {
+                    vals.put("image", photo);
+                }
+                assertEquals(i, db.insertOrThrow(ItemEntry.TABLE_NAME, null, vals));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Every item keeps its quantity, gets the price it had in cents and its sale status, and
+     * its photo is in the image store with a thumbnail
+     */
+    private void checkItems(SQLiteDatabase db) throws IOException {
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME, new String[]{ ItemEntry._ID,
+                ItemEntry.COLUMN_QUANTITY, ItemEntry.COLUMN_PRICE_CENTS,
+                ItemEntry.COLUMN_SALE_STATUS, ItemEntry.COLUMN_IMAGE_FILE,
+                ItemEntry.COLUMN_THUMBNAIL_FILE, ItemEntry.COLUMN_MOVEMENT_REASON },
+                null, null, null, null, ItemEntry._ID);
+        try {
+            assertEquals(ITEM_COUNT, cursor.getCount());
+            while (cursor.moveToNext()) {
+                int i = cursor.getInt(0);
+                assertEquals("quantity of " + i, expectedQuantity(i), cursor.getInt(1));
+                assertEquals("price of " + i, expectedPriceCents(i), cursor.getLong(2));
+                assertEquals("status of " + i, expectedSaleStatus(i), cursor.getInt(3));
+                assertEquals(MovementEntry.REASON_CORRECTION, cursor.getInt(6));
+
+                byte[] photo = expectedPhoto(i);
+                if (photo == null) {
+                    assertNull(cursor.getString(4));
+                    assertNull(cursor.getString(5));
+                } else {
+                    assertArrayEquals("photo of " + i, photo,
+                            mImageStore.readImage(cursor.getString(4)));
+                    assertNotNull("thumbnail of " + i, cursor.getString(5));
+                    assertTrue(mImageStore.getImageFile(cursor.getString(5)).isFile());
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (getColumns(db, ItemEntry.TABLE_NAME).contains("image")) {
+            assertEquals(0, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM items WHERE image IS NOT NULL", null));
+        }
+    }
+
+    /**
+     * The summary, search, stock and ledger tables agree with the items table
+     */
+    private void checkDerivedTables(SQLiteDatabase db) {
+        long valueCents = 0;
+        long units = 0;
+        for (int i = 1; i <= ITEM_COUNT; i++) {
+            units += expectedQuantity(i);
+            if (expectedSaleStatus(i) == ItemEntry.STATUS_FOR_SALE) {
+                valueCents += expectedPriceCents(i) * expectedQuantity(i);
+            }
+        }
+        assertEquals(valueCents + "|" + units + "|" + ITEM_COUNT,
+                DatabaseUtils.stringForQuery(db, "SELECT total_value_cents || '|' || unit_count"
+                        + " || '|' || sku_count FROM inventory_summary WHERE _id = 1", null));
+
+        assertEquals(ITEM_COUNT, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM items_fts JOIN items ON items._id = items_fts.docid"
+                        + " WHERE items_fts.name = items.name"
+                        + " AND items_fts.supplier = items.supplier", null));
+        assertEquals(ITEM_COUNT / 7, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM items_fts WHERE items_fts MATCH 'supplier:0'", null));
+
+        //All stock is in the default location
+        assertEquals(ITEM_COUNT, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM stock JOIN items ON items._id = stock.item_id"
+                        + " WHERE stock.location_id = " + LocationEntry.DEFAULT_LOCATION_ID
+                        + " AND stock.quantity = items.quantity", null));
+        assertEquals(ITEM_COUNT, DatabaseUtils.queryNumEntries(db, "stock"));
+
+        //One opening movement per item in stock, nothing else
+        assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM items"
+                + " WHERE quantity <> (SELECT IFNULL(SUM(delta), 0) FROM stock_movements"
+                + " WHERE item_id = items._id)", null));
+        assertEquals(DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM items WHERE quantity <> 0", null),
+                DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM stock_movements"
+                        + " WHERE reason = " + MovementEntry.REASON_NEW_ITEM, null));
+        assertEquals(DatabaseUtils.queryNumEntries(db, "stock_movements"),
+                DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM stock_movements"
+                        + " WHERE reason = " + MovementEntry.REASON_NEW_ITEM, null));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, "stock_snapshots"));
+    }
+
+    /**
+     * @return a database created by the current onCreate, kept open by its helper
+     */
+    private SQLiteDatabase openFreshDatabase() {
+        return new InventoryDBHelper(mContext, FRESH_DATABASE_NAME, DatabaseConfig.DEFAULT, null)
+                .getWritableDatabase();
+    }
+
+    /**
+     * Describe every table, index and trigger, sorted by name. Trigger bodies are left out,
+     * a migration may write the same trigger differently than onCreate.
+     * @param upgraded true to leave out the columns an upgrade can't drop
+     */
+    private static Map<String, String> describeSchema(SQLiteDatabase db, boolean upgraded) {
+        Map<String, String> schema = new TreeMap<>();
+        Cursor cursor = db.rawQuery("SELECT type, name, tbl_name FROM sqlite_master"
+                + " WHERE name NOT IN ('android_metadata', 'sqlite_sequence')", null);
+        try {
+            while (cursor.moveToNext()) {
+                String type = cursor.getString(0);
+                String name = cursor.getString(1);
+                String table = cursor.getString(2);
+                String description = type + " on " + table;
+                if (type.equals("table")) {
+                    List<String> columns = describeRows(db, "PRAGMA table_info(" + name + ")");
+                    if (upgraded && name.equals(ItemEntry.TABLE_NAME)) {
+                        columns = withoutDeadColumns(columns);
+                    }
+                    //Columns added by ALTER TABLE come last
+                    Collections.sort(columns);
+                    description += " " + columns;
+                } else if (type.equals("index")) {
+                    //Column ids of an upgraded table differ, only the names are compared
+                    description += " " + getNames(db, "PRAGMA index_info(" + name + ")", 2);
+                }
+                schema.put(name, description);
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+
+    /**
+     * @return name, type, not null, default and primary key of every column, the column id
+     * is left out
+     */
+    private static List<String> describeRows(SQLiteDatabase db, String pragma) {
+        List<String> rows = new ArrayList<>();
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int column = 1; column < cursor.getColumnCount(); column++) {
+                    row.append(cursor.getString(column)).append(' ');
+                }
+                rows.add(row.toString().trim());
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private static List<String> withoutDeadColumns(List<String> columns) {
+        List<String> kept = new ArrayList<>();
+        for (String column : columns) {
+            if (!DEAD_ITEM_COLUMNS.contains(column.split(" ")[0])) {
+                kept.add(column);
+            }
+        }
+        return kept;
+    }
+
+    private static List<String> getColumns(SQLiteDatabase db, String table) {
+        return getNames(db, "PRAGMA table_info(" + table + ")", 1);
+    }
+
+    /**
+     * @param nameColumn index of the name column in the pragma's rows
+     */
+    private static List<String> getNames(SQLiteDatabase db, String pragma, int nameColumn) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(nameColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    private static int expectedQuantity(int i) {
+        return i % 5;
+    }
+
+    private static int expectedSaleStatus(int i) {
+        switch (i % 3) {
+            case 0:
+                return ItemEntry.STATUS_FOR_SALE;
+            case 1:
+                return ItemEntry.STATUS_FREE;
+            default:
+                return ItemEntry.STATUS_NOT_FOR_SALE;
+        }
+    }
+
+    /**
+     * Prices up to 99.99, many of them have no exact binary fraction
+     */
+    private static long expectedPriceCents(int i) {
+        return expectedSaleStatus(i) == ItemEntry.STATUS_FOR_SALE ? i * 7 % 10000 : 0;
+    }
+
+    private static double oldPrice(int i) {
+        switch (expectedSaleStatus(i)) {
+            case ItemEntry.STATUS_FOR_SALE:
+                return expectedPriceCents(i) / 100.0;
+            case ItemEntry.STATUS_FREE:
+                return OLD_PRICE_FREE;
+            default:
+                return OLD_PRICE_NOT_FOR_SALE;
+        }
+    }
+
+    private static byte[] expectedPhoto(int i) {
+        return i % PHOTO_INTERVAL == 1
+                ? ("photo of item " + i).getBytes(Charset.forName("UTF-8")) : null;
+    }
+}
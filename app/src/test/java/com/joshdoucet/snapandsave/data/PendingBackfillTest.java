@@ -0,0 +1,254 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.MovementEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.SummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads and writes through the provider on an upgraded database whose backfills haven't run
+ * yet. The runner thread is kept from starting, the test runs the backfills itself once the
+ * app has written to the database.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PendingBackfillTest {
+
+    private static final String DATABASE_NAME = "pending_backfill_test.db";
+
+    //Version 1 to 7 prices, 0.14619 meant not for sale and 0 meant free
+    private static final double OLD_PRICE_NOT_FOR_SALE = 0.14619;
+    private static final double OLD_PRICE_FREE = 0.0;
+
+    private Context mContext;
+    private InventoryDBHelper mHelper;
+    private InventoryProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        MigrationRunner.setAutoStart(false);
+    }
+
+    @After
+    public void tearDown() {
+        MigrationRunner.setAutoStart(true);
+        if (mHelper != null) {
+            mHelper.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void pricesAreReadFromOldColumnUntilConverted() throws Exception {
+        SQLiteDatabase oldDb = createOldDatabase(7);
+        long forSale = insertOldItem(oldDb, "For sale", 4, 12.34);
+        long free = insertOldItem(oldDb, "Free", 3, OLD_PRICE_FREE);
+        long notForSale = insertOldItem(oldDb, "Not for sale", 2, OLD_PRICE_NOT_FOR_SALE);
+        long repriced = insertOldItem(oldDb, "Repriced", 5, 1.99);
+        oldDb.close();
+        SQLiteDatabase db = openProvider();
+        assertTrue(MigrationRunner.isPending(db, Migrations.PriceCentsMigration.VERSION));
+
+        assertPrice(forSale, 1234, ItemEntry.STATUS_FOR_SALE);
+        assertPrice(free, 0, ItemEntry.STATUS_FREE);
+        assertPrice(notForSale, 0, ItemEntry.STATUS_NOT_FOR_SALE);
+        assertSummary(4 * 1234 + 5 * 199, 14, 4);
+
+        //Written by the app before the backfill reaches the rows
+        ContentValues price = new ContentValues();
+        price.put(ItemEntry.COLUMN_PRICE_CENTS, 250);
+        price.put(ItemEntry.COLUMN_SALE_STATUS, ItemEntry.STATUS_FOR_SALE);
+        assertEquals(1, mProvider.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI,
+                repriced), price, null, null));
+        ContentValues item = new ContentValues();
+        item.put(ItemEntry.COLUMN_NAME, "New");
+        item.put(ItemEntry.COLUMN_QUANTITY, 2);
+        item.put(ItemEntry.COLUMN_PRICE_CENTS, 500);
+        item.put(ItemEntry.COLUMN_SALE_STATUS, ItemEntry.STATUS_FOR_SALE);
+        Uri newItem = mProvider.insert(ItemEntry.CONTENT_URI, item);
+        assertNotNull(newItem);
+        assertPrice(repriced, 250, ItemEntry.STATUS_FOR_SALE);
+        assertPrice(ContentUris.parseId(newItem), 500, ItemEntry.STATUS_FOR_SALE);
+        long valueCents = 4 * 1234 + 5 * 250 + 2 * 500;
+        assertSummary(valueCents, 16, 5);
+
+        assertTrue(MigrationRunner.runPending(mContext, db));
+        assertFalse(MigrationRunner.isPending(db, Migrations.PriceCentsMigration.VERSION));
+        assertPrice(forSale, 1234, ItemEntry.STATUS_FOR_SALE);
+        assertPrice(free, 0, ItemEntry.STATUS_FREE);
+        assertPrice(notForSale, 0, ItemEntry.STATUS_NOT_FOR_SALE);
+        assertPrice(repriced, 250, ItemEntry.STATUS_FOR_SALE);
+        assertPrice(ContentUris.parseId(newItem), 500, ItemEntry.STATUS_FOR_SALE);
+        assertSummary(valueCents, 16, 5);
+
+        //The seeded row is kept up to date by the triggers
+        mProvider.delete(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, forSale), null, null);
+        assertSummary(valueCents - 4 * 1234, 12, 4);
+    }
+
+    @Test
+    public void ledgerAddsUpForItemsChangedBeforeOpeningBalance() throws Exception {
+        SQLiteDatabase oldDb = createOldDatabase(10);
+        long sold = insertItem(oldDb, "Sold", 5);
+        long deleted = insertItem(oldDb, "Deleted", 3);
+        long untouched = insertItem(oldDb, "Untouched", 7);
+        long empty = insertItem(oldDb, "Empty", 0);
+        oldDb.close();
+        SQLiteDatabase db = openProvider();
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, MovementEntry.TABLE_NAME));
+
+        //Changed by the app before the backfill books the opening balances
+        assertEquals(4, adjust(sold, -1));
+        assertEquals(3, adjust(sold, -1));
+        mProvider.delete(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, deleted), null, null);
+        ContentValues item = new ContentValues();
+        item.put(ItemEntry.COLUMN_NAME, "New");
+        item.put(ItemEntry.COLUMN_QUANTITY, 2);
+        long added = ContentUris.parseId(mProvider.insert(ItemEntry.CONTENT_URI, item));
+
+        assertTrue(MigrationRunner.runPending(mContext, db));
+        assertEquals(3, getBooked(db, sold));
+        assertEquals(0, getBooked(db, deleted));
+        assertEquals(7, getBooked(db, untouched));
+        assertEquals(0, getBooked(db, empty));
+        assertEquals(2, getBooked(db, added));
+        //One opening movement per item in stock, the sale and the deletion
+        assertEquals(4, countMovements(db, MovementEntry.REASON_NEW_ITEM));
+        assertEquals(2, countMovements(db, MovementEntry.REASON_SALE));
+        assertEquals(1, countMovements(db, MovementEntry.REASON_DELETED));
+
+        //The plain triggers book a change and nothing else
+        long movements = DatabaseUtils.queryNumEntries(db, MovementEntry.TABLE_NAME);
+        assertEquals(6, adjust(untouched, -1));
+        assertEquals(movements + 1, DatabaseUtils.queryNumEntries(db, MovementEntry.TABLE_NAME));
+        assertEquals(6, getBooked(db, untouched));
+    }
+
+    /**
+     * Build a database of an old version from its schema dump, without items
+     */
+    private SQLiteDatabase createOldDatabase(int version) throws IOException {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(DATABASE_NAME), null);
+        InputStream in = getClass().getClassLoader()
+                .getResourceAsStream("schemas/v" + version + ".sql");
+        assertNotNull("No schema dump of version " + version, in);
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, Charset.forName("UTF-8")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("--")) {
+                    db.execSQL(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return db;
+    }
+
+    private static long insertOldItem(SQLiteDatabase db, String name, int quantity,
+                                      double oldPrice) {
+        ContentValues vals = new ContentValues();
+        vals.put("name", name);
+        vals.put("quantity", quantity);
+        vals.put("price_US_$", oldPrice);
+        return db.insertOrThrow("items", null, vals);
+    }
+
+    private static long insertItem(SQLiteDatabase db, String name, int quantity) {
+        ContentValues vals = new ContentValues();
+        vals.put("name", name);
+        vals.put("quantity", quantity);
+        return db.insertOrThrow("items", null, vals);
+    }
+
+    /**
+     * Upgrade the database and create a provider on it
+     * @return the upgraded database
+     */
+    private SQLiteDatabase openProvider() {
+        mHelper = new InventoryDBHelper(mContext, DATABASE_NAME, DatabaseConfig.DEFAULT, null);
+        mProvider = new InventoryProvider();
+        mProvider.attachInfo(mContext, null);
+        mProvider.mInventoryDBHelper = mHelper;
+        return mHelper.getWritableDatabase();
+    }
+
+    /**
+     * Sell delta items through the provider's adjust uri
+     * @return the new quantity
+     */
+    private int adjust(long id, int delta) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_QUANTITY_DELTA, delta);
+        values.put(ItemEntry.COLUMN_MOVEMENT_REASON, MovementEntry.REASON_SALE);
+        return mProvider.update(ItemEntry.buildAdjustUri(id), values, null, null);
+    }
+
+    /**
+     * @return the quantity the ledger of an item adds up to
+     */
+    private static long getBooked(SQLiteDatabase db, long id) {
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(SUM(delta), 0)"
+                + " FROM stock_movements WHERE item_id = ?", new String[] { String.valueOf(id) });
+    }
+
+    private static long countMovements(SQLiteDatabase db, int reason) {
+        return DatabaseUtils.queryNumEntries(db, MovementEntry.TABLE_NAME, "reason = ?",
+                new String[] { String.valueOf(reason) });
+    }
+
+    private void assertPrice(long id, long priceCents, int saleStatus) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id),
+                new String[] { ItemEntry.COLUMN_PRICE_CENTS, ItemEntry.COLUMN_SALE_STATUS },
+                null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("price of " + id, priceCents, cursor.getLong(0));
+            assertEquals("status of " + id, saleStatus, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertSummary(long valueCents, long units, long skus) {
+        Cursor cursor = mProvider.query(SummaryEntry.CONTENT_URI, new String[] {
+                SummaryEntry.COLUMN_TOTAL_VALUE_CENTS, SummaryEntry.COLUMN_UNIT_COUNT,
+                SummaryEntry.COLUMN_SKU_COUNT }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(valueCents + "|" + units + "|" + skus, cursor.getLong(0) + "|"
+                    + cursor.getLong(1) + "|" + cursor.getLong(2));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.AdjustmentEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Taps made through the QuantityCoalescer. A process death is simulated by dropping the
+ * write queue, with the journal writes still queued, and the coalescer, then creating both
+ * again the way the next process would.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QuantityCoalescerTest {
+
+    private static final int START_QUANTITY = 5000;
+
+    //A tap every 20 ms, the fastest a user taps during a sales rush
+    private static final int TAPS_PER_SECOND = 50;
+    private static final long TAP_INTERVAL_MS = 1000 / TAPS_PER_SECOND;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private long mItemId;
+
+    @Before
+    public void setUp() {
+        InventoryDBHelper.resetInstance();
+        ItemWriteQueue.resetInstance();
+        QuantityCoalescer.resetInstance();
+        Robolectric.setupContentProvider(InventoryProvider.class,
+                InventoryContract.CONTENT_AUTHORITY);
+        mContext = RuntimeEnvironment.application;
+        mResolver = mContext.getContentResolver();
+        getJournalFile().delete();
+
+        ContentValues item = new ContentValues();
+        item.put(ItemEntry.COLUMN_NAME, "Sticker");
+        item.put(ItemEntry.COLUMN_QUANTITY, START_QUANTITY);
+        Uri itemUri = mResolver.insert(ItemEntry.CONTENT_URI, item);
+        assertNotNull(itemUri);
+        mItemId = ContentUris.parseId(itemUri);
+    }
+
+    @After
+    public void tearDown() {
+        ItemWriteQueue.resetInstance();
+        QuantityCoalescer.resetInstance();
+        InventoryDBHelper.resetInstance();
+        getJournalFile().delete();
+    }
+
+    @Test
+    public void tapsSurviveProcessDeath() throws Exception {
+        QuantityCoalescer coalescer = QuantityCoalescer.getInstance(mContext);
+        waitForWriteQueue();
+
+        //Journal writes queue up behind a stuck write and never run
+        final CountDownLatch stuck = new CountDownLatch(1);
+        ItemWriteQueue.getInstance(mContext).submit(new ItemWriteQueue.Write<Void>() {
+            @Override
+            public Void apply(ContentResolver resolver) {
+                try {
+                    stuck.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        }, null);
+        for (int i = 0; i < 50; i++) {
+            coalescer.adjust(mItemId, -1);
+        }
+        killProcess();
+        assertEquals(START_QUANTITY, getQuantity());
+
+        QuantityCoalescer.getInstance(mContext);
+        waitForWriteQueue();
+        assertEquals(START_QUANTITY - 50, getQuantity());
+    }
+
+    @Test
+    public void tapsJournaledBeforeDeathAreAppliedOnce() throws Exception {
+        //A process that died after journaling its taps, before the TapJournal dropped them
+        TapJournal tapJournal = TapJournal.open(mContext);
+        for (int i = 0; i < 30; i++) {
+            assertNotNull(tapJournal.append(mItemId, -1));
+        }
+        ContentValues[] taps = tapJournal.readPending();
+        assertEquals(30, taps.length);
+        assertEquals(20, mResolver.bulkInsert(AdjustmentEntry.CONTENT_URI,
+                Arrays.copyOf(taps, 20)));
+
+        QuantityCoalescer.getInstance(mContext);
+        waitForWriteQueue();
+        assertEquals(START_QUANTITY - 30, getQuantity());
+        assertEquals(0, TapJournal.open(mContext).readPending().length);
+    }
+
+    @Test
+    public void tapsKeepUpWithFiftyPerSecond() throws Exception {
+        QuantityCoalescer coalescer = QuantityCoalescer.getInstance(mContext);
+        waitForWriteQueue();
+
+        int tapCount = TAPS_PER_SECOND * 3;
+        long[] tapNanos = new long[tapCount];
+        for (int i = 0; i < tapCount; i++) {
+            long start = System.nanoTime();
+            coalescer.adjust(mItemId, -1);
+            tapNanos[i] = System.nanoTime() - start;
+            Thread.sleep(Math.max(0, TAP_INTERVAL_MS - tapNanos[i] / 1000000));
+        }
+        long lastTap = System.nanoTime();
+        waitForWriteQueue();
+        long catchUpMs = (System.nanoTime() - lastTap) / 1000000;
+        assertEquals(tapCount, coalescer.getPendingDelta(mItemId) * -1);
+
+        coalescer.flush();
+        waitForWriteQueue();
+        assertEquals(START_QUANTITY - tapCount, getQuantity());
+        assertEquals(0, TapJournal.open(mContext).readPending().length);
+
+        Arrays.sort(tapNanos);
+        long p50Micros = tapNanos[tapCount / 2] / 1000;
+        long p99Micros = tapNanos[tapCount * 99 / 100] / 1000;
+        System.out.println(TAPS_PER_SECOND + " taps/s for " + tapCount + " taps: adjust p50 "
+                + p50Micros + " us, p99 " + p99Micros + " us, journal caught up " + catchUpMs
+                + " ms after the last tap");
+        //A tap must not cost the list a frame
+        assertTrue("adjust p99 " + p99Micros + " us", p99Micros < 16000);
+        //The journal keeps up, it doesn't fall a flush behind
+        assertTrue("journal caught up after " + catchUpMs + " ms", catchUpMs < 500);
+    }
+
+    /**
+     * Drop the write queue and coalescer, queued writes and in memory taps are lost
+     */
+    private void killProcess() {
+        ItemWriteQueue.resetInstance();
+        QuantityCoalescer.resetInstance();
+    }
+
+    /**
+     * Wait for every write submitted so far
+     */
+    private void waitForWriteQueue() throws Exception {
+        ItemWriteQueue.getInstance(mContext).submit(new ItemWriteQueue.Write<Void>() {
+            @Override
+            public Void apply(ContentResolver resolver) {
+                return null;
+            }
+        }, null).get();
+    }
+
+    private int getQuantity() {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ItemEntry.CONTENT_URI,
+                mItemId), new String[]{ ItemEntry.COLUMN_QUANTITY }, null, null, null);
+        assertNotNull(cursor);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private File getJournalFile() {
+        return new File(mContext.getFilesDir(), "tap_journal");
+    }
+}
@@ -0,0 +1,211 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.InventoryContract.LocationEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The inventory list, search and ledger queries must be answered from their indexes. Each
+ * query is run through the provider, its SQL is taken from the cursor and handed to
+ * EXPLAIN QUERY PLAN. A full scan of the items table, or a temp b-tree to sort it, would make
+ * every page cost as much as reading the whole table.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryPlanTest {
+
+    //A plan step that reads the whole items table instead of a range of one of its indexes.
+    //Older SQLite versions end each step with an estimate of the rows
+    private static final Pattern SCAN_ITEMS = Pattern.compile("SCAN (TABLE )?"
+            + ItemEntry.TABLE_NAME + "( AS \\w+)?( \\(~\\d+ rows\\))?$");
+
+    private ContentResolver mResolver;
+    private RecordingCursorFactory mCursorFactory;
+    private InventoryDBHelper mDBHelper;
+
+    @Before
+    public void setUp() {
+        InventoryDBHelper.resetInstance();
+        InventoryProvider provider = Robolectric.setupContentProvider(InventoryProvider.class,
+                InventoryContract.CONTENT_AUTHORITY);
+        mCursorFactory = new RecordingCursorFactory();
+        mDBHelper = new InventoryDBHelper(RuntimeEnvironment.application,
+                InventoryDBHelper.DATABASE_NAME, DatabaseConfig.DEFAULT, mCursorFactory);
+        provider.mInventoryDBHelper = mDBHelper;
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ContentValues[] items = new ContentValues[500];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new ContentValues();
+            items[i].put(ItemEntry.COLUMN_NAME, "Item " + i);
+            items[i].put(ItemEntry.COLUMN_QUANTITY, i % 40);
+            items[i].put(ItemEntry.COLUMN_PRICE_CENTS, i * 7 % 1000);
+            items[i].put(ItemEntry.COLUMN_SUPPLIER, i % 3 == 0 ? null : "Supplier " + i % 17);
+        }
+        assertEquals(items.length, mResolver.bulkInsert(ItemEntry.CONTENT_URI, items));
+    }
+
+    @After
+    public void tearDown() {
+        mDBHelper.close();
+        InventoryDBHelper.resetInstance();
+    }
+
+    @Test
+    public void firstPageWalksSortIndex() {
+        assertUsesIndex(ItemEntry.buildPageUri(ItemEntry.SORT_NAME, 50), "items_name_index");
+        assertUsesIndex(ItemEntry.buildPageUri(ItemEntry.SORT_PRICE, 50),
+                "items_price_cents_index");
+        assertUsesIndex(ItemEntry.buildPageUri(ItemEntry.SORT_QUANTITY, 50),
+                "items_quantity_index");
+        assertUsesIndex(ItemEntry.buildPageUri(ItemEntry.SORT_SUPPLIER, 50),
+                "items_supplier_index");
+    }
+
+    @Test
+    public void nextPageSeeksSortIndex() {
+        assertSearchesIndex(ItemEntry.buildPageUri(ItemEntry.SORT_NAME, "Item 40", 41, 50),
+                "items_name_index");
+        assertSearchesIndex(ItemEntry.buildPageUri(ItemEntry.SORT_PRICE, "280", 41, 50),
+                "items_price_cents_index");
+        assertSearchesIndex(ItemEntry.buildPageUri(ItemEntry.SORT_QUANTITY, "12", 53, 50),
+                "items_quantity_index");
+        assertSearchesIndex(ItemEntry.buildPageUri(ItemEntry.SORT_SUPPLIER, "Supplier 3", 4,
+                50), "items_supplier_index");
+        //After the last NULL supplier the page still comes straight from the index
+        assertUsesIndex(ItemEntry.buildPageUri(ItemEntry.SORT_SUPPLIER, null, 4, 50),
+                "items_supplier_index");
+    }
+
+    @Test
+    public void searchLooksUpMatchesByRowid() {
+        List<String> plan = explain(ItemEntry.buildSearchUri("item supp"));
+        assertNoItemsScan(plan);
+        assertTrue(plan.toString(), contains(plan, "VIRTUAL TABLE INDEX"));
+        assertFalse(plan.toString(), contains(plan, "VIRTUAL TABLE INDEX 0:"));
+        assertTrue(plan.toString(), contains(plan, "INTEGER PRIMARY KEY"));
+    }
+
+    @Test
+    public void locationPageWalksIndexes() {
+        assertNoItemsScan(explain(LocationEntry.buildItemsPageUri(
+                LocationEntry.DEFAULT_LOCATION_ID, ItemEntry.SORT_NAME, 50)));
+        assertNoItemsScan(explain(LocationEntry.buildItemsPageUri(
+                LocationEntry.DEFAULT_LOCATION_ID, ItemEntry.SORT_QUANTITY, 50)));
+    }
+
+    @Test
+    public void ledgerQueriesUseItemRange() {
+        List<String> plan = explain(ItemEntry.buildMovementsUri(3));
+        assertTrue(plan.toString(), contains(plan, "stock_movements_item_index"));
+        assertFalse(plan.toString(), contains(plan, "TEMP B-TREE"));
+
+        plan = explain(ItemEntry.buildAsOfUri(3, System.currentTimeMillis()));
+        assertTrue(plan.toString(), contains(plan, "stock_movements_item_index"));
+        assertTrue(plan.toString(), contains(plan, "stock_snapshots_item_index"));
+    }
+
+    /**
+     * The query of the uri reads a range of the index in order
+     */
+    private void assertUsesIndex(Uri uri, String index) {
+        List<String> plan = explain(uri);
+        assertNoItemsScan(plan);
+        assertTrue(uri + " " + plan, contains(plan, "USING INDEX " + index)
+                || contains(plan, "USING COVERING INDEX " + index));
+        assertFalse(uri + " " + plan, contains(plan, "TEMP B-TREE"));
+    }
+
+    /**
+     * The query of the uri seeks to its first row in the index instead of walking from the
+     * start of it
+     */
+    private void assertSearchesIndex(Uri uri, String index) {
+        assertUsesIndex(uri, index);
+        assertTrue(uri + " " + explain(uri),
+                contains(explain(uri), "SEARCH TABLE " + ItemEntry.TABLE_NAME));
+    }
+
+    private void assertNoItemsScan(List<String> plan) {
+        for (String step : plan) {
+            assertFalse(plan.toString(), SCAN_ITEMS.matcher(step).find());
+        }
+    }
+
+    private static boolean contains(List<String> plan, String text) {
+        for (String step : plan) {
+            if (step.contains(text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run the query of a uri through the provider and explain the SQL it ran
+     * @return the detail column of every step of the plan
+     */
+    private List<String> explain(Uri uri) {
+        mCursorFactory.mSql.clear();
+        mResolver.query(uri, null, null, null, null).close();
+        assertEquals(uri.toString(), 1, mCursorFactory.mSql.size());
+        String sql = mCursorFactory.mSql.get(0);
+        mCursorFactory.mSql.clear();
+
+        //The arguments don't change the plan, EXPLAIN binds NULL for each of them
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mDBHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql,
+                null);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        mCursorFactory.mSql.clear();
+        return plan;
+    }
+
+    /**
+     * Remembers the SQL of every query the database runs
+     */
+    private static class RecordingCursorFactory implements SQLiteDatabase.CursorFactory {
+        //SQLiteQuery.toString() is this prefix followed by the SQL
+        private static final String PREFIX = "SQLiteQuery: ";
+
+        final List<String> mSql = new ArrayList<>();
+
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                                String editTable, SQLiteQuery query) {
+            String sql = query.toString();
+            mSql.add(sql.startsWith(PREFIX) ? sql.substring(PREFIX.length()) : sql);
+            return new SQLiteCursor(masterQuery, editTable, query);
+        }
+    }
+}
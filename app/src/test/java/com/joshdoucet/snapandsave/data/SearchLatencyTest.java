@@ -0,0 +1,181 @@
+package com.joshdoucet.snapandsave.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Latency of the provider's full text search on a catalogue of 200k items, the way the
+ * search field sends it: one query per typed character, capped at the list's 200 results.
+ * The time includes filling the cursor window, which is when SQLite runs the query.
+ * Every query's median is printed against the 10 ms target. Short prefixes that match a
+ * large share of the items are over it: all their hits are sorted by name before the first
+ * 200 are returned. The test fails when a search gets much slower than that.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SearchLatencyTest {
+
+    private static final String DATABASE_NAME = "search_latency_test.db";
+
+    private static final int ITEM_COUNT = 200000;
+    private static final int INSERT_CHUNK = 5000;
+
+    //InventoryActivity.SEARCH_LIMIT
+    private static final int SEARCH_LIMIT = 200;
+
+    //Runs of every query, the first ones warm up the page cache and are left out
+    private static final int WARM_UP_RUNS = 2;
+    private static final int MEASURED_RUNS = 9;
+
+    //Median a query should take, so a keystroke doesn't hold up the results
+    private static final long TARGET_SEARCH_MS = 10;
+
+    //Slowest median a query may take. Short prefixes matching a tenth of the items or more
+    //take a few hundred ms, twice that is a search that got slower
+    private static final long MAX_SEARCH_MS = 600;
+
+    private static final String[] ADJECTIVES = { "blue", "red", "green", "black", "white",
+            "large", "small", "wooden", "steel", "leather", "cotton", "waterproof", "vintage",
+            "folding", "portable", "classic", "heavy", "light", "silver", "golden" };
+
+    private static final String[] NOUNS = { "shoes", "boots", "towel", "keyboard", "lamp",
+            "chair", "table", "mug", "kettle", "jacket", "backpack", "tent", "hammer",
+            "blanket", "pillow", "bottle", "notebook", "pen", "scarf", "gloves", "helmet",
+            "bicycle", "speaker", "charger", "cable", "mirror", "clock", "basket", "rug",
+            "candle", "vase", "frame", "brush", "bucket", "ladder", "shovel", "saw", "drill",
+            "camera", "tripod" };
+
+    private static final String[] SUPPLIERS = { "Outdoor Supply Co", "Northwind Traders",
+            "Acme Hardware", "Home Goods Ltd", "Summit Gear", "Harbor Textiles",
+            "Brightline Electronics", "Oak and Iron", "Pioneer Wholesale", "Coastal Imports" };
+
+    //What a user types, from a first letter pair to two words
+    private static final String[] QUERIES = { "bl", "blu", "blue", "sh", "sho", "shoes",
+            "blue sh", "blue shoes", "ke", "kettle", "st ke", "outdoor", "acme ha", "model 12",
+            "zz" };
+
+    private Context mContext;
+    private InventoryDBHelper mHelper;
+    private InventoryProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new InventoryDBHelper(mContext, DATABASE_NAME, DatabaseConfig.DEFAULT, null);
+        mProvider = new InventoryProvider();
+        mProvider.attachInfo(mContext, null);
+        mProvider.mInventoryDBHelper = mHelper;
+        insertItems(mHelper.getWritableDatabase());
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void searchLatencyOnLargeCatalogue() {
+        StringBuilder report = new StringBuilder();
+        String slowest = null;
+        long slowestMedianMicros = 0;
+        for (String query : QUERIES) {
+            Uri uri = ItemEntry.buildSearchUri(query).buildUpon()
+                    .appendQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT,
+                            String.valueOf(SEARCH_LIMIT))
+                    .build();
+            long[] nanos = new long[MEASURED_RUNS];
+            int rows = 0;
+            for (int run = 0; run < WARM_UP_RUNS + MEASURED_RUNS; run++) {
+                long start = System.nanoTime();
+                rows = search(uri);
+                if (run >= WARM_UP_RUNS) {
+                    nanos[run - WARM_UP_RUNS] = System.nanoTime() - start;
+                }
+            }
+            Arrays.sort(nanos);
+            long medianMicros = nanos[MEASURED_RUNS / 2] / 1000;
+            long maxMicros = nanos[MEASURED_RUNS - 1] / 1000;
+            report.append(String.format("%n\"%s\": %d rows, median %d us, max %d us%s", query,
+                    rows, medianMicros, maxMicros,
+                    medianMicros < TARGET_SEARCH_MS * 1000 ? "" : ", over target"));
+            if (medianMicros > slowestMedianMicros) {
+                slowestMedianMicros = medianMicros;
+                slowest = query;
+            }
+        }
+        System.out.println("Search of " + ITEM_COUNT + " items, target " + TARGET_SEARCH_MS
+                + " ms:" + report);
+        assertTrue("\"" + slowest + "\" took " + slowestMedianMicros + " us" + report,
+                slowestMedianMicros < MAX_SEARCH_MS * 1000);
+    }
+
+    /**
+     * Run a search the way the list's loader does and read every row of the result
+     * @return the number of rows found
+     */
+    private int search(Uri uri) {
+        Cursor cursor = mProvider.query(uri, new String[] { ItemEntry._ID,
+                ItemEntry.COLUMN_NAME, ItemEntry.COLUMN_SUPPLIER, ItemEntry.COLUMN_QUANTITY },
+                null, null, null);
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replace the sample items with ITEM_COUNT generated ones, names like
+     * "Blue leather shoes model 1234" and one of a few suppliers
+     */
+    private static void insertItems(SQLiteDatabase db) {
+        db.delete(ItemEntry.TABLE_NAME, null, null);
+        Random random = new Random(6);
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + ItemEntry.TABLE_NAME
+                + " (" + ItemEntry.COLUMN_NAME + ", " + ItemEntry.COLUMN_SUPPLIER + ", "
+                + ItemEntry.COLUMN_QUANTITY + ", " + ItemEntry.COLUMN_PRICE_CENTS
+                + ") VALUES (?, ?, ?, ?)");
+        for (int row = 0; row < ITEM_COUNT; row += INSERT_CHUNK) {
+            db.beginTransaction();
+            try {
+                for (int i = row; i < row + INSERT_CHUNK; i++) {
+                    String name = ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " "
+                            + ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " "
+                            + NOUNS[random.nextInt(NOUNS.length)] + " model " + i;
+                    insert.bindString(1, Character.toUpperCase(name.charAt(0))
+                            + name.substring(1));
+                    insert.bindString(2, SUPPLIERS[random.nextInt(SUPPLIERS.length)]);
+                    insert.bindLong(3, random.nextInt(100));
+                    insert.bindLong(4, random.nextInt(100000));
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        insert.close();
+    }
+}
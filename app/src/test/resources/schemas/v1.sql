@@ -0,0 +1,4 @@
+-- Empty version 1 database, as InventoryDBHelper.onCreate of that version left it with its
+-- sample items deleted. One statement per line, tables and rows before indexes and triggers
+PRAGMA user_version = 1;
+CREATE TABLE items (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, quantity INTEGER NOT NULL DEFAULT 0, price_US_$ REAL NOT NULL DEFAULT 0.14619, supplier TEXT, image BLOB );
@@ -0,0 +1,17 @@
+-- Empty version 7 database, as InventoryDBHelper.onCreate of that version left it with its
+-- sample items deleted. One statement per line, tables and rows before indexes and triggers
+PRAGMA user_version = 7;
+CREATE TABLE items (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, quantity INTEGER NOT NULL DEFAULT 0, price_US_$ REAL NOT NULL DEFAULT 0.14619, supplier TEXT, image_file TEXT, thumbnail_file TEXT );
+CREATE VIRTUAL TABLE items_fts USING fts3(name, supplier);
+CREATE TABLE inventory_summary (_id INTEGER PRIMARY KEY CHECK (_id = 1), total_value REAL NOT NULL DEFAULT 0, unit_count INTEGER NOT NULL DEFAULT 0, sku_count INTEGER NOT NULL DEFAULT 0 );
+INSERT INTO "inventory_summary" ("_id", "total_value", "unit_count", "sku_count") VALUES (1, 0.0, 0, 0);
+CREATE INDEX items_name_index ON items (name);
+CREATE INDEX items_price_index ON items (price_US_$);
+CREATE INDEX items_quantity_index ON items (quantity);
+CREATE INDEX items_supplier_index ON items (supplier);
+CREATE TRIGGER items_fts_insert AFTER INSERT ON items BEGIN INSERT INTO items_fts (docid, name, supplier) VALUES (NEW._id, NEW.name, NEW.supplier); END;
+CREATE TRIGGER items_fts_update AFTER UPDATE OF name, supplier ON items BEGIN UPDATE items_fts SET name = NEW.name, supplier = NEW.supplier WHERE docid = NEW._id; END;
+CREATE TRIGGER items_fts_delete AFTER DELETE ON items BEGIN DELETE FROM items_fts WHERE docid = OLD._id; END;
+CREATE TRIGGER items_summary_insert AFTER INSERT ON items BEGIN UPDATE inventory_summary SET total_value = total_value + (CASE WHEN NEW.price_US_$ IN (0.14619, 0.0) THEN 0 ELSE NEW.price_US_$ * NEW.quantity END), unit_count = unit_count + NEW.quantity, sku_count = sku_count + 1 WHERE _id = 1; END;
+CREATE TRIGGER items_summary_update AFTER UPDATE OF quantity, price_US_$ ON items BEGIN UPDATE inventory_summary SET total_value = total_value + (CASE WHEN NEW.price_US_$ IN (0.14619, 0.0) THEN 0 ELSE NEW.price_US_$ * NEW.quantity END) - (CASE WHEN OLD.price_US_$ IN (0.14619, 0.0) THEN 0 ELSE OLD.price_US_$ * OLD.quantity END), unit_count = unit_count + NEW.quantity - OLD.quantity, sku_count = sku_count + 0 WHERE _id = 1; END;
+CREATE TRIGGER items_summary_delete AFTER DELETE ON items BEGIN UPDATE inventory_summary SET total_value = total_value - (CASE WHEN OLD.price_US_$ IN (0.14619, 0.0) THEN 0 ELSE OLD.price_US_$ * OLD.quantity END), unit_count = unit_count - OLD.quantity, sku_count = sku_count - 1 WHERE _id = 1; END;
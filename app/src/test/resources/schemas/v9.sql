@@ -0,0 +1,19 @@
+-- Empty version 9 database, as InventoryDBHelper.onCreate of that version left it with its
+-- sample items deleted. One statement per line, tables and rows before indexes and triggers
+PRAGMA user_version = 9;
+CREATE TABLE items (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, quantity INTEGER NOT NULL DEFAULT 0, price_cents INTEGER NOT NULL DEFAULT 0, sale_status INTEGER NOT NULL DEFAULT 2, supplier TEXT, image_file TEXT, thumbnail_file TEXT );
+CREATE VIRTUAL TABLE items_fts USING fts3(name, supplier);
+CREATE TABLE inventory_summary (_id INTEGER PRIMARY KEY CHECK (_id = 1), total_value_cents INTEGER NOT NULL DEFAULT 0, unit_count INTEGER NOT NULL DEFAULT 0, sku_count INTEGER NOT NULL DEFAULT 0 );
+CREATE TABLE pending_adjustments (_id INTEGER PRIMARY KEY, item_id INTEGER NOT NULL, delta INTEGER NOT NULL );
+CREATE TABLE pending_migrations (version INTEGER PRIMARY KEY, progress INTEGER NOT NULL DEFAULT 0 );
+INSERT INTO "inventory_summary" ("_id", "total_value_cents", "unit_count", "sku_count") VALUES (1, 0, 0, 0);
+CREATE INDEX items_name_index ON items (name);
+CREATE INDEX items_price_cents_index ON items (price_cents);
+CREATE INDEX items_quantity_index ON items (quantity);
+CREATE INDEX items_supplier_index ON items (supplier);
+CREATE TRIGGER items_fts_insert AFTER INSERT ON items BEGIN INSERT INTO items_fts (docid, name, supplier) VALUES (NEW._id, NEW.name, NEW.supplier); END;
+CREATE TRIGGER items_fts_update AFTER UPDATE OF name, supplier ON items BEGIN UPDATE items_fts SET name = NEW.name, supplier = NEW.supplier WHERE docid = NEW._id; END;
+CREATE TRIGGER items_fts_delete AFTER DELETE ON items BEGIN DELETE FROM items_fts WHERE docid = OLD._id; END;
+CREATE TRIGGER items_summary_insert AFTER INSERT ON items BEGIN UPDATE inventory_summary SET total_value_cents = total_value_cents + (CASE WHEN NEW.sale_status = 0 THEN NEW.price_cents * NEW.quantity ELSE 0 END), unit_count = unit_count + NEW.quantity, sku_count = sku_count + 1 WHERE _id = 1; END;
+CREATE TRIGGER items_summary_update AFTER UPDATE OF quantity, price_cents, sale_status ON items BEGIN UPDATE inventory_summary SET total_value_cents = total_value_cents + (CASE WHEN NEW.sale_status = 0 THEN NEW.price_cents * NEW.quantity ELSE 0 END) - (CASE WHEN OLD.sale_status = 0 THEN OLD.price_cents * OLD.quantity ELSE 0 END), unit_count = unit_count + NEW.quantity - OLD.quantity, sku_count = sku_count + 0 WHERE _id = 1; END;
+CREATE TRIGGER items_summary_delete AFTER DELETE ON items BEGIN UPDATE inventory_summary SET total_value_cents = total_value_cents - (CASE WHEN OLD.sale_status = 0 THEN OLD.price_cents * OLD.quantity ELSE 0 END), unit_count = unit_count - OLD.quantity, sku_count = sku_count - 1 WHERE _id = 1; END;
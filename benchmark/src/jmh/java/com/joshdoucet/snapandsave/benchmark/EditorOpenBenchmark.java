@@ -0,0 +1,168 @@
+package com.joshdoucet.snapandsave.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ *  - Opening 500 items in the editor back to back during a stock-take. Each item decodes its
+ *      stored photo, which is given up when the next item opens. Stand-in for PhotoDecoder with
+ *      and without the BitmapPool: javax.imageio decodes the JPEG photos, and
+ *      ImageReadParam.setDestination plays the part of inBitmap.
+ *
+ *  - The score is the time to open one item. The jmh task runs the GC profiler, its
+ *      gc.alloc.rate.norm is the bytes allocated per opened item and gc.count the collections
+ *      during the run.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class EditorOpenBenchmark {
+
+    //Items opened back to back by one invocation
+    private static final int ITEMS = 500;
+
+    //Distinct photos the items have, landscape and portrait
+    private static final int PHOTOS = 8;
+
+    //Longest edge of a stored photo, ImageStore.MAX_PHOTO_SIZE
+    private static final int PHOTO_SIZE = 1280;
+
+    //Whether decodes reuse the photos of earlier items, like with a BitmapPool
+    @Param({"false", "true"})
+    public boolean mPooled;
+
+    private final byte[][] mPhotos = new byte[PHOTOS][];
+
+    //Stand-in for the BitmapPool, photos nothing shows anymore by width and height
+    private final HashMap<Long, ArrayDeque<BufferedImage>> mPool = new HashMap<>();
+
+    //Photo of the item that is open
+    private BufferedImage mShown;
+
+    @Setup
+    public void setUp() throws IOException {
+        ImageIO.setUseCache(false);
+        Random random = new Random(42);
+        for(int i = 0; i < PHOTOS; i++){
+            boolean landscape = i % 2 == 0;
+            mPhotos[i] = encodeJpeg(createPhoto(random, landscape ? PHOTO_SIZE : PHOTO_SIZE * 3 / 4,
+                    landscape ? PHOTO_SIZE * 3 / 4 : PHOTO_SIZE));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public BufferedImage openItems() throws IOException {
+        for(int i = 0; i < ITEMS; i++){
+            BufferedImage photo = decode(mPhotos[i % PHOTOS]);
+            release(mShown);
+            mShown = photo;
+        }
+        return mShown;
+    }
+
+    /**
+     * Read the size first, then decode into a pooled photo of that size if there is one
+     */
+    private BufferedImage decode(byte[] jpeg) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(jpeg));
+        ImageReader reader = ImageIO.getImageReaders(in).next();
+        try {
+            reader.setInput(in, true, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+            if(mPooled){
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ArrayDeque<BufferedImage> sameSize = mPool.get(key(width, height));
+                BufferedImage reuse = sameSize == null ? null : sameSize.poll();
+                if(reuse == null){
+                    reuse = reader.getImageTypes(0).next().createBufferedImage(width, height);
+                }
+                param.setDestination(reuse);
+            }
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+            in.close();
+        }
+    }
+
+    /**
+     * The photo of the item that was open isn't shown anymore
+     */
+    private void release(BufferedImage photo){
+        if(photo == null || !mPooled){
+            return;
+        }
+        long key = key(photo.getWidth(), photo.getHeight());
+        ArrayDeque<BufferedImage> sameSize = mPool.get(key);
+        if(sameSize == null){
+            sameSize = new ArrayDeque<>();
+            mPool.put(key, sameSize);
+        }
+        sameSize.add(photo);
+    }
+
+    private static long key(int width, int height){
+        return ((long) width << 32) | height;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.9f);
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        ImageOutputStream out = ImageIO.createImageOutputStream(blob);
+        try {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+        return blob.toByteArray();
+    }
+
+    /**
+     * A gradient with noise, it compresses about as well as a photo does
+     */
+    private static BufferedImage createPhoto(Random random, int width, int height){
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                int red = (x * 255 / width + random.nextInt(16)) & 0xff;
+                int green = (y * 255 / height + random.nextInt(16)) & 0xff;
+                int blue = ((x + y) * 127 / (width + height) + random.nextInt(16)) & 0xff;
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,155 @@
+package com.joshdoucet.snapandsave.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ *  - Stand-in for ImageCodec.encode and the BitmapFactory decode of a stored photo, for each
+ *      codec on a fixed corpus: the app's sample photos and a 1024 pixel synthetic photo.
+ *      Bitmap and BitmapFactory are native code on a device, so the same formats are encoded
+ *      with javax.imageio, which has no WebP writer. The numbers only track changes to how
+ *      photos are encoded, they don't predict the time on a phone.
+ *
+ *  - The bytes each codec stores are reported next to the encode score by the StoredBytes
+ *      counters. They are totals over the measured iterations, storedBytes / encodedPhotos is
+ *      the size of one stored photo.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ImageCodecBenchmark {
+
+    //Photo of the corpus, a sample drawable of the app or a synthetic photo
+    @Param({"cast.jpg", "keyboard.jpg", "moon_boots.jpg", "towel.jpg", "synthetic-1024"})
+    public String mImage;
+
+    //Format and quality, like ImageCodec.PRESETS
+    @Param({"png", "jpeg:90", "jpeg:75"})
+    public String mCodec;
+
+    private BufferedImage mBitmap;
+    private String mFormat;
+    private float mQuality;
+    private byte[] mEncoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        ImageIO.setUseCache(false);
+        mBitmap = mImage.startsWith("synthetic-")
+                ? createPhoto(Integer.parseInt(mImage.substring("synthetic-".length())))
+                : readSample(mImage);
+
+        String[] codec = mCodec.split(":");
+        mFormat = codec[0];
+        mQuality = codec.length > 1 ? Integer.parseInt(codec[1]) / 100f : 1f;
+        mEncoded = encodePhoto();
+    }
+
+    /**
+     * Counters of the encode benchmark, JMH adds up their values over the measured iterations
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class StoredBytes {
+        public long encodedPhotos;
+        public long storedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset(){
+            encodedPhotos = 0;
+            storedBytes = 0;
+        }
+    }
+
+    @Benchmark
+    public byte[] encode(StoredBytes counters) throws IOException {
+        byte[] encoded = encodePhoto();
+        counters.encodedPhotos++;
+        counters.storedBytes += encoded.length;
+        return encoded;
+    }
+
+    private byte[] encodePhoto() throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(mFormat).next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if(param.canWriteCompressed() && !"png".equals(mFormat)){
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(mQuality);
+        }
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        ImageOutputStream out = ImageIO.createImageOutputStream(blob);
+        try {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(mBitmap, null, null), param);
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+        return blob.toByteArray();
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(mEncoded));
+    }
+
+    /**
+     * Read a sample photo from the app's drawables, as an opaque RGB image like a camera photo
+     */
+    private static BufferedImage readSample(String name) throws IOException {
+        InputStream in = ImageCodecBenchmark.class.getResourceAsStream("/" + name);
+        if(in == null){
+            throw new IOException("Missing sample " + name);
+        }
+        BufferedImage image;
+        try {
+            image = ImageIO.read(in);
+        } finally {
+            in.close();
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        rgb.getGraphics().drawImage(image, 0, 0, null);
+        return rgb;
+    }
+
+    /**
+     * A gradient with noise, it compresses about as well as a photo does
+     */
+    private static BufferedImage createPhoto(int size){
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for(int y = 0; y < size; y++){
+            for(int x = 0; x < size; x++){
+                int red = (x * 255 / size + random.nextInt(16)) & 0xff;
+                int green = (y * 255 / size + random.nextInt(16)) & 0xff;
+                int blue = ((x + y) * 127 / size + random.nextInt(16)) & 0xff;
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,94 @@
+package com.joshdoucet.snapandsave.benchmark;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.Prices;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  - Price formatting and valuation. formatCents runs for every bound row of the inventory
+ *      list, parseCents for every saved or imported item, formatTotal whenever the summary
+ *      changes. inventoryValue is the per row valuation the summary triggers do in SQL.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class PriceBenchmark {
+
+    //Power of two, so the next index is a mask instead of a modulo
+    private static final int VALUES = 1024;
+
+    //Rows the valuation runs over
+    private static final int ROWS = 10000;
+
+    private final long[] mCents = new long[VALUES];
+    private final String[] mDollars = new String[VALUES];
+    private int mIndex;
+
+    private final long[] mRowPrices = new long[ROWS];
+    private final long[] mRowQuantities = new long[ROWS];
+    private final int[] mRowStatuses = new int[ROWS];
+
+    @Setup
+    public void setUp(){
+        Random random = new Random(42);
+        for(int i = 0; i < VALUES; i++){
+            //Mostly prices under $1000, like a real catalogue
+            mCents[i] = random.nextInt(100000);
+            mDollars[i] = Prices.formatCents(mCents[i]);
+        }
+        for(int i = 0; i < ROWS; i++){
+            mRowPrices[i] = random.nextInt(100000);
+            mRowQuantities[i] = random.nextInt(500);
+            mRowStatuses[i] = random.nextInt(10) == 0
+                    ? ItemEntry.STATUS_NOT_FOR_SALE : ItemEntry.STATUS_FOR_SALE;
+        }
+    }
+
+    private int next(){
+        mIndex = (mIndex + 1) & (VALUES - 1);
+        return mIndex;
+    }
+
+    @Benchmark
+    public String formatCents(){
+        return Prices.formatCents(mCents[next()]);
+    }
+
+    @Benchmark
+    public long parseCents(){
+        return Prices.parseCents(mDollars[next()]);
+    }
+
+    //The same steps as InventoryActivity.formatTotal
+    @Benchmark
+    public String formatTotal(){
+        DecimalFormat formatter = new DecimalFormat("#,##0.00");
+        BigDecimal dollars = Prices.toDollars(mCents[next()] * 1000);
+        return "$" + formatter.format(dollars);
+    }
+
+    //Sum of SQL_ROW_VALUE over every row, what the summary total holds
+    @Benchmark
+    public long inventoryValue(){
+        long total = 0;
+        for(int i = 0; i < ROWS; i++){
+            if(mRowStatuses[i] == ItemEntry.STATUS_FOR_SALE){
+                total += mRowPrices[i] * mRowQuantities[i];
+            }
+        }
+        return total;
+    }
+}
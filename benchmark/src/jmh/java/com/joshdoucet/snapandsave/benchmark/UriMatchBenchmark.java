@@ -0,0 +1,80 @@
+package com.joshdoucet.snapandsave.benchmark;
+
+import com.joshdoucet.snapandsave.data.InventoryContract;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  - Matching URIs against the InventoryProvider's sUriMatcher table, which every provider
+ *      call starts with. The table is built the same way as the provider's static block.
+ *      Splitting a Uri into segments happens before matching and isn't measured.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class UriMatchBenchmark {
+
+    //Path of the URI to match, below the content authority
+    @Param({"items", "items/42", "items/42/thumbnail", "items/42/adjust", "items/summary",
+            "items/search/blue shoes", "items/export", "metrics",
+            "items/adjustments/flush", "locations/3/items", "locations/3/items/42/adjust",
+            "locations/totals", "items/42/movements", "items/42/as_of/1700000000000",
+            "unknown/path"})
+    public String mPath;
+
+    private UriMatcherStandIn mMatcher;
+    private List<String> mSegments;
+
+    @Setup
+    public void setUp(){
+        //Codes and order as in InventoryProvider
+        String authority = InventoryContract.CONTENT_AUTHORITY;
+        String items = InventoryContract.PATH_ITEMS;
+        mMatcher = new UriMatcherStandIn(UriMatcherStandIn.NO_MATCH);
+        mMatcher.addURI(authority, items, 100);
+        mMatcher.addURI(authority, items + "/#", 101);
+        mMatcher.addURI(authority, items + "/#/" + InventoryContract.PATH_IMAGE, 102);
+        mMatcher.addURI(authority, items + "/#/" + InventoryContract.PATH_THUMBNAIL, 103);
+        mMatcher.addURI(authority, items + "/" + InventoryContract.PATH_SUMMARY, 104);
+        mMatcher.addURI(authority, items + "/" + InventoryContract.PATH_SEARCH + "/*", 105);
+        mMatcher.addURI(authority, items + "/#/" + InventoryContract.PATH_ADJUST, 106);
+        mMatcher.addURI(authority, items + "/" + InventoryContract.PATH_EXPORT, 107);
+        mMatcher.addURI(authority, InventoryContract.PATH_METRICS, 108);
+        mMatcher.addURI(authority, items + "/" + InventoryContract.PATH_ADJUSTMENTS, 109);
+        mMatcher.addURI(authority, items + "/" + InventoryContract.PATH_ADJUSTMENTS + "/"
+                + InventoryContract.PATH_FLUSH, 110);
+        String locations = InventoryContract.PATH_LOCATIONS;
+        mMatcher.addURI(authority, locations, 111);
+        mMatcher.addURI(authority, locations + "/#", 112);
+        mMatcher.addURI(authority, locations + "/#/" + items, 113);
+        mMatcher.addURI(authority, locations + "/#/" + items + "/#/"
+                + InventoryContract.PATH_ADJUST, 114);
+        mMatcher.addURI(authority, locations + "/" + InventoryContract.PATH_TOTALS, 115);
+        mMatcher.addURI(authority, items + "/#/" + InventoryContract.PATH_STOCK, 116);
+        String movements = InventoryContract.PATH_MOVEMENTS;
+        mMatcher.addURI(authority, movements, 117);
+        mMatcher.addURI(authority, movements + "/" + InventoryContract.PATH_COMPACT, 118);
+        mMatcher.addURI(authority, items + "/#/" + movements, 119);
+        mMatcher.addURI(authority, items + "/" + InventoryContract.PATH_AS_OF + "/#", 120);
+        mMatcher.addURI(authority, items + "/#/" + InventoryContract.PATH_AS_OF + "/#", 121);
+
+        mSegments = Arrays.asList(mPath.split("/"));
+    }
+
+    @Benchmark
+    public int match(){
+        return mMatcher.match(InventoryContract.CONTENT_AUTHORITY, mSegments);
+    }
+}
@@ -0,0 +1,99 @@
+package com.joshdoucet.snapandsave.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  - A plain Java copy of the matching done by android.content.UriMatcher, which only
+ *      exists on a device. Paths are added and matched the same way: a tree with one level
+ *      per path segment, # matches a segment of digits and * matches any segment. Children
+ *      are tried in the order they were added and the first match wins.
+ */
+
+final class UriMatcherStandIn {
+
+    static final int NO_MATCH = -1;
+
+    private static final int EXACT = 0;
+    private static final int NUMBER = 1;
+    private static final int TEXT = 2;
+
+    private int mCode;
+    private final int mWhich;
+    private final String mText;
+    private final ArrayList<UriMatcherStandIn> mChildren = new ArrayList<>();
+
+    UriMatcherStandIn(int code){
+        this(code, EXACT, null);
+    }
+
+    private UriMatcherStandIn(int code, int which, String text){
+        mCode = code;
+        mWhich = which;
+        mText = text;
+    }
+
+    void addURI(String authority, String path, int code){
+        String[] tokens = path.split("/");
+        UriMatcherStandIn node = this;
+        for(int i = -1; i < tokens.length; i++){
+            String token = i < 0 ? authority : tokens[i];
+            UriMatcherStandIn child = null;
+            for(UriMatcherStandIn existing : node.mChildren){
+                if(token.equals(existing.mText)){
+                    child = existing;
+                    break;
+                }
+            }
+            if(child == null){
+                int which = "#".equals(token) ? NUMBER : "*".equals(token) ? TEXT : EXACT;
+                child = new UriMatcherStandIn(NO_MATCH, which, token);
+                node.mChildren.add(child);
+            }
+            node = child;
+        }
+        node.mCode = code;
+    }
+
+    /**
+     * @param segments decoded path segments, what Uri.getPathSegments returns
+     */
+    int match(String authority, List<String> segments){
+        UriMatcherStandIn node = this;
+        for(int i = -1; i < segments.size(); i++){
+            String segment = i < 0 ? authority : segments.get(i);
+            if(node.mChildren.isEmpty()){
+                break;
+            }
+            UriMatcherStandIn found = null;
+            for(UriMatcherStandIn child : node.mChildren){
+                if(child.matches(segment)){
+                    found = child;
+                    break;
+                }
+            }
+            if(found == null){
+                return NO_MATCH;
+            }
+            node = found;
+        }
+        return node.mCode;
+    }
+
+    private boolean matches(String segment){
+        switch(mWhich){
+            case NUMBER:
+                for(int i = 0; i < segment.length(); i++){
+                    char c = segment.charAt(i);
+                    if(c < '0' || c > '9'){
+                        return false;
+                    }
+                }
+                return true;
+            case TEXT:
+                return true;
+            default:
+                return mText.equals(segment);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.joshdoucet.snapandsave.benchmark;
+
+import com.joshdoucet.snapandsave.data.InventoryContract.ItemEntry;
+import com.joshdoucet.snapandsave.data.ItemValidator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  - The checks InventoryProvider.hasDataIntegrity runs on every insert and update, over
+ *      1M rows made once per trial, the size of a large import. ContentValues keeps its
+ *      values in a HashMap and valueSet() returns its entry set, so a HashMap filled the
+ *      same way stands in for it.
+ *
+ *  - The rows are mixed the way they reach the provider: saves from the editor with numbers
+ *      typed as text, imported rows with numbers already converted, single column updates
+ *      and rows that break one or more rules. Names and suppliers have varied lengths, some
+ *      over the limits. The score is rows validated per second.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class ValidationBenchmark {
+
+    private static final int ROWS = 1000000;
+
+    //Longest generated name and supplier, a little over the validator's limits
+    private static final int MAX_TEXT_LENGTH = ItemValidator.MAX_NAME_LENGTH + 5;
+
+    private static final int[] SALE_STATUSES = { ItemEntry.STATUS_FOR_SALE,
+            ItemEntry.STATUS_FREE, ItemEntry.STATUS_NOT_FOR_SALE };
+
+    //Quantities a user might type that the validator rejects
+    private static final String[] BAD_QUANTITIES = { "lots", "12a", "-3", "1.5", " 7",
+            "99999999999999999999" };
+
+    @SuppressWarnings("unchecked")
+    private final Set<Map.Entry<String, Object>>[] mRows = new Set[ROWS];
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        Random random = new Random(42);
+        //Text of every length up to MAX_TEXT_LENGTH, shared by the rows like repeated names
+        String[] texts = new String[MAX_TEXT_LENGTH + 1];
+        StringBuilder text = new StringBuilder();
+        for(int length = 0; length <= MAX_TEXT_LENGTH; length++){
+            texts[length] = text.toString();
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+
+        for(int i = 0; i < ROWS; i++){
+            //ContentValues starts with the same capacity
+            Map<String, Object> values = new HashMap<>(8);
+            int kind = random.nextInt(100);
+            if(kind < 40){
+                //Editor, every column with numbers typed as text
+                values.put(ItemEntry.COLUMN_NAME, texts[1 + random.nextInt(MAX_TEXT_LENGTH)]);
+                values.put(ItemEntry.COLUMN_SUPPLIER, texts[random.nextInt(MAX_TEXT_LENGTH)]);
+                values.put(ItemEntry.COLUMN_QUANTITY, String.valueOf(random.nextInt(1000)));
+                values.put(ItemEntry.COLUMN_SALE_STATUS, SALE_STATUSES[random.nextInt(3)]);
+                values.put(ItemEntry.COLUMN_PRICE_CENTS, (long) random.nextInt(100000));
+                values.put(ItemEntry.COLUMN_IMAGE, new byte[0]);
+            }else if(kind < 70){
+                //Import, numbers already converted
+                values.put(ItemEntry.COLUMN_NAME, texts[1 + random.nextInt(MAX_TEXT_LENGTH)]);
+                values.put(ItemEntry.COLUMN_SUPPLIER, texts[random.nextInt(MAX_TEXT_LENGTH)]);
+                values.put(ItemEntry.COLUMN_QUANTITY, random.nextInt(1000));
+                values.put(ItemEntry.COLUMN_SALE_STATUS, SALE_STATUSES[random.nextInt(3)]);
+                values.put(ItemEntry.COLUMN_PRICE_CENTS, (long) random.nextInt(100000));
+            }else if(kind < 85){
+                //Update of the quantity alone
+                values.put(ItemEntry.COLUMN_QUANTITY, String.valueOf(random.nextInt(1000)));
+            }else{
+                //Invalid mix, an empty name, a bad quantity, a negative price or an unknown status
+                values.put(ItemEntry.COLUMN_NAME, random.nextBoolean() ? ""
+                        : texts[1 + random.nextInt(MAX_TEXT_LENGTH)]);
+                values.put(ItemEntry.COLUMN_QUANTITY,
+                        BAD_QUANTITIES[random.nextInt(BAD_QUANTITIES.length)]);
+                values.put(ItemEntry.COLUMN_SALE_STATUS, random.nextInt(5));
+                values.put(ItemEntry.COLUMN_PRICE_CENTS, random.nextBoolean()
+                        ? (Object) (-1L - random.nextInt(100)) : "");
+            }
+            mRows[i] = values.entrySet();
+        }
+    }
+
+    //Returns the rows that failed, so none of the checks can be left out
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int validate(){
+        int invalid = 0;
+        for(int i = 0; i < ROWS; i++){
+            if(ItemValidator.validate(mRows[i]) != ItemValidator.VALID){
+                invalid++;
+            }
+        }
+        return invalid;
+    }
+}